@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools;
+
+import info.schnatterer.songbirdDbTools.benchmark.SyntheticLibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the wall clock time of a whole CLI invocation, i.e. starting a new JVM, parsing the arguments, opening the
+ * database and exporting a small playlist. This is what a cron job pays for each run.
+ * 
+ * The JVM options of the CLI process can be set using the <code>jvmArgs</code> parameter, e.g. to compare an AppCDS
+ * archive: <code>-p jvmArgs=-XX:SharedArchiveFile=songbirdDbTools.jsa</code>.
+ * 
+ * @author schnatterer
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+public class StartupBenchmark {
+	/** Options passed to the JVM of the CLI process, separated by blanks. */
+	@Param({ "-Xshare:auto" })
+	private String jvmArgs;
+
+	/** The synthetic library. */
+	private SyntheticLibrary library;
+	/** Folder the playlists are written to. */
+	private File destinationFolder;
+	/** Receives the output of the CLI process. */
+	private File log;
+
+	/**
+	 * Creates the synthetic library.
+	 * 
+	 * @throws Exception
+	 *             if creating fails
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		library = new SyntheticLibrary(100, 10, 1, 100, 0);
+		destinationFolder = new File(library.getRoot(), "playlists");
+		destinationFolder.mkdirs();
+		log = new File(library.getRoot(), "startup.log");
+	}
+
+	/**
+	 * Deletes the synthetic library.
+	 * 
+	 * @throws Exception
+	 *             if deleting fails
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		library.close();
+	}
+
+	/**
+	 * @return exit value of the CLI showing the usage info, without accessing the database
+	 * @throws Exception
+	 *             if the process cannot be started
+	 */
+	@Benchmark
+	public int help() throws Exception {
+		return run("--help");
+	}
+
+	/**
+	 * @return exit value of the CLI exporting the playlist of the synthetic library
+	 * @throws Exception
+	 *             if the process cannot be started
+	 */
+	@Benchmark
+	public int exportPlaylist() throws Exception {
+		return run("-db", library.getDatabase().getAbsolutePath(), "--read-only", "ExportPlaylists", "-d",
+				destinationFolder.getAbsolutePath(), "--lazy");
+	}
+
+	/**
+	 * Runs the CLI in a new JVM, using the class path of this JVM.
+	 * 
+	 * @param args
+	 *            the arguments of the CLI
+	 * @return the exit value
+	 * @throws IOException
+	 *             if the process cannot be started
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the process
+	 */
+	private int run(final String... args) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		for (String jvmArg : jvmArgs.trim().split("\\s+")) {
+			if (!jvmArg.isEmpty()) {
+				command.add(jvmArg);
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(SongbirdDatabaseTools.class.getName());
+		command.addAll(Arrays.asList(args));
+		Process process =
+				new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.to(log))
+						.start();
+		return process.waitFor();
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import info.schnatterer.songbirdDbTools.benchmark.SyntheticLibrary;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for converting content URLs to canonical files using {@link ContentUrlDecoder}, compared to
+ * <code>new File(new URI(url)).getCanonicalFile()</code>.
+ * 
+ * @author schnatterer
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ContentUrlDecoderBenchmark {
+	/** Number of URLs to convert per invocation. */
+	@Param({ "10000" })
+	private int files;
+
+	/** Provides the files. */
+	private SyntheticLibrary library;
+	/** The URLs to convert. */
+	private List<String> urls;
+
+	/**
+	 * Creates the synthetic library.
+	 * 
+	 * @throws Exception
+	 *             if creating fails
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		library = new SyntheticLibrary(files, 10, 0, 0, 0);
+		urls = library.getFiles().stream().map(file -> new File(file).toURI().toString()).collect(Collectors.toList());
+	}
+
+	/**
+	 * Deletes the synthetic library.
+	 * 
+	 * @throws Exception
+	 *             if deleting fails
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		library.close();
+	}
+
+	/**
+	 * @param blackhole
+	 *            consumes the files
+	 * @throws Exception
+	 *             if converting fails
+	 */
+	@Benchmark
+	public void uri(final Blackhole blackhole) throws Exception {
+		for (String url : urls) {
+			blackhole.consume(new File(new URI(url)).getCanonicalFile());
+		}
+	}
+
+	/**
+	 * Uses a new decoder per invocation, like an export run does.
+	 * 
+	 * @param blackhole
+	 *            consumes the files
+	 * @throws Exception
+	 *             if converting fails
+	 */
+	@Benchmark
+	public void decoder(final Blackhole blackhole) throws Exception {
+		ContentUrlDecoder decoder = new ContentUrlDecoder();
+		for (String url : urls) {
+			blackhole.consume(decoder.toResolvedFile(url));
+		}
+	}
+}
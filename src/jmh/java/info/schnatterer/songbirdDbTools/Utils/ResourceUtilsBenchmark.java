@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import info.schnatterer.songbirdDbTools.benchmark.SyntheticLibrary;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link ResourceUtils}, which are called once per playlist entry.
+ * 
+ * @author schnatterer
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ResourceUtilsBenchmark {
+	/** Number of paths to relativize per invocation. */
+	@Param({ "1000", "10000" })
+	private int files;
+
+	/** Provides the paths. */
+	private SyntheticLibrary library;
+	/** The paths to relativize. */
+	private List<String> paths;
+	/** The playlist file the paths are relativized to. */
+	private String playlistFile;
+
+	/**
+	 * Creates the synthetic library.
+	 * 
+	 * @throws Exception
+	 *             if creating fails
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		library = new SyntheticLibrary(files, 10, 0, 0, 0);
+		paths = library.getFiles();
+		playlistFile = new File(library.getRoot(), "playlists" + File.separator + "playlist.m3u").getAbsolutePath();
+	}
+
+	/**
+	 * Deletes the synthetic library.
+	 * 
+	 * @throws Exception
+	 *             if deleting fails
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		library.close();
+	}
+
+	/**
+	 * Relativizes all paths to the playlist file.
+	 * 
+	 * @param blackhole
+	 *            consumes the results
+	 */
+	@Benchmark
+	public void getRelativePath(final Blackhole blackhole) {
+		for (String path : paths) {
+			blackhole.consume(ResourceUtils.getRelativePath(playlistFile, path, File.separator));
+		}
+	}
+
+	/**
+	 * Relativizes all paths to the playlist file, using a {@link ResourceUtils.Relativizer} created once.
+	 * 
+	 * @param blackhole
+	 *            consumes the results
+	 */
+	@Benchmark
+	public void relativizer(final Blackhole blackhole) {
+		ResourceUtils.Relativizer relativizer = new ResourceUtils.Relativizer(playlistFile, File.separator);
+		for (String path : paths) {
+			blackhole.consume(relativizer.relativize(path));
+		}
+	}
+
+	/** @return a legalized playlist name */
+	@Benchmark
+	public String legalizeFileName() {
+		return ResourceUtils.legalizeFileName("AC/DC: Back in Black? <Live> \"Best of\" | 1980*");
+	}
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Generates a synthetic songbird library for benchmarks: A directory tree containing media files and a songbird
+ * database (SQLite) containing media items for these files and playlists referencing them.
+ * 
+ * The structure is random but reproducible, as a fixed seed is used.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class SyntheticLibrary implements AutoCloseable {
+	/** Namespace of songbird properties. */
+	private static final String PROPERTY_NAMESPACE = "http://songbirdnest.com/data/1.0#";
+	/** Tables of the songbird schema that are used by songbirdDbTools. */
+	private static final String[] SCHEMA = {
+			"CREATE TABLE properties (property_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+					+ "property_name TEXT NOT NULL UNIQUE)",
+			"CREATE TABLE media_list_types (media_list_type_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+					+ "type TEXT UNIQUE NOT NULL, factory_contractid TEXT NOT NULL)",
+			"CREATE TABLE media_items (media_item_id INTEGER PRIMARY KEY AUTOINCREMENT, guid TEXT UNIQUE NOT NULL, "
+					+ "created INTEGER NOT NULL, updated INTEGER NOT NULL, content_url TEXT NOT NULL, "
+					+ "content_mime_type TEXT, content_length INTEGER, content_hash TEXT, "
+					+ "hidden INTEGER NOT NULL CHECK(hidden IN (0, 1)), media_list_type_id INTEGER, "
+					+ "metadata_hash_identity TEXT, is_list INTEGER NOT NULL DEFAULT 0)",
+			"CREATE TABLE resource_properties (media_item_id INTEGER NOT NULL, property_id INTEGER NOT NULL, "
+					+ "obj TEXT NOT NULL, obj_searchable TEXT, obj_sortable TEXT, "
+					+ "PRIMARY KEY (media_item_id, property_id))",
+			"CREATE TABLE simple_media_lists (media_item_id INTEGER NOT NULL, "
+					+ "member_media_item_id INTEGER NOT NULL, ordinal TEXT NOT NULL)",
+			"CREATE INDEX idx_simple_media_lists ON simple_media_lists (media_item_id)",
+			"INSERT INTO media_list_types (type, factory_contractid) VALUES "
+					+ "('simple', '@songbirdnest.com/Songbird/Library/LocalDatabase/SimpleMediaListFactory;1')",
+			"INSERT INTO media_list_types (type, factory_contractid) VALUES "
+					+ "('smart', '@songbirdnest.com/Songbird/Library/LocalDatabase/SmartMediaListFactory;1')" };
+	/** Properties that are written for each track. */
+	private static final String[] PROPERTIES = { "mediaListName", "trackName", "artistName", "albumName",
+			"duration", "contentLength" };
+	/** Seed for the random number generator, so each run creates the same library. */
+	private static final long SEED = 42L;
+
+	/** Root folder of the library. */
+	private final File root;
+	/** The songbird database file. */
+	private final File database;
+	/** Absolute paths of all media files. */
+	private final List<String> files = new ArrayList<String>();
+
+	/**
+	 * Creates a synthetic library in a new temporary folder.
+	 * 
+	 * @param nFiles
+	 *            number of media files
+	 * @param filesPerDirectory
+	 *            number of files per album directory
+	 * @param nPlaylists
+	 *            number of playlists
+	 * @param playlistSize
+	 *            number of members per playlist
+	 * @param missingRatio
+	 *            share of media items whose file is not created, between 0 and 1
+	 * @throws IOException
+	 *             if the files cannot be created
+	 * @throws SQLException
+	 *             if the database cannot be created
+	 */
+	public SyntheticLibrary(final int nFiles, final int filesPerDirectory, final int nPlaylists,
+			final int playlistSize, final double missingRatio) throws IOException, SQLException {
+		Path rootPath = Files.createTempDirectory("songbirdDbTools-benchmark");
+		root = rootPath.toFile().getCanonicalFile();
+		database = new File(root, "main@library.songbirdnest.com.db");
+		Random random = new Random(SEED);
+
+		File music = new File(root, "music");
+		for (int i = 0; i < nFiles; i++) {
+			File album =
+					new File(music, "Artist " + (i / filesPerDirectory / 10) + File.separator + "Album "
+							+ (i / filesPerDirectory));
+			File file = new File(album, String.format("%05d - Track %d.mp3", i, i));
+			if (random.nextDouble() >= missingRatio) {
+				album.mkdirs();
+				Files.createFile(file.toPath());
+			}
+			files.add(file.getAbsolutePath());
+		}
+		createDatabase(random, nPlaylists, playlistSize);
+	}
+
+	/**
+	 * Writes the songbird database.
+	 * 
+	 * @param random
+	 *            source of randomness
+	 * @param nPlaylists
+	 *            number of playlists
+	 * @param playlistSize
+	 *            number of members per playlist
+	 * @throws SQLException
+	 *             if the database cannot be created
+	 */
+	private void createDatabase(final Random random, final int nPlaylists, final int playlistSize)
+			throws SQLException {
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("SQLite JDBC driver not found", e);
+		}
+		try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath())) {
+			connection.setAutoCommit(false);
+			try (Statement statement = connection.createStatement()) {
+				for (String sql : SCHEMA) {
+					statement.execute(sql);
+				}
+			}
+			try (PreparedStatement statement =
+					connection.prepareStatement("INSERT INTO properties (property_name) VALUES (?)")) {
+				for (String property : PROPERTIES) {
+					statement.setString(1, PROPERTY_NAMESPACE + property);
+					statement.executeUpdate();
+				}
+			}
+
+			List<Long> itemIds = new ArrayList<Long>();
+			try (PreparedStatement item =
+					connection.prepareStatement("INSERT INTO media_items (guid, created, updated, content_url, "
+							+ "content_length, hidden, media_list_type_id) VALUES (?, 0, 0, ?, ?, ?, ?)");
+					PreparedStatement property =
+							connection.prepareStatement("INSERT INTO resource_properties (media_item_id, property_id, "
+									+ "obj) VALUES (?, (SELECT property_id FROM properties WHERE property_name = ?), "
+									+ "?)");
+					PreparedStatement member =
+							connection.prepareStatement("INSERT INTO simple_media_lists (media_item_id, "
+									+ "member_media_item_id, ordinal) VALUES (?, ?, ?)")) {
+				for (int i = 0; i < files.size(); i++) {
+					long id = insertItem(item, "track-" + i, new File(files.get(i)).toURI().toString(), 0, null);
+					itemIds.add(id);
+					insertProperty(property, id, "trackName", "Track " + i);
+					insertProperty(property, id, "artistName", "Artist " + (i % 100));
+				}
+				for (int i = 0; i < nPlaylists; i++) {
+					long listId = insertItem(item, "list-" + i, "songbird-medialist://" + i, 0, 1);
+					insertProperty(property, listId, "mediaListName", "Playlist " + i);
+					for (int ordinal = 0; ordinal < playlistSize && !itemIds.isEmpty(); ordinal++) {
+						member.setLong(1, listId);
+						member.setLong(2, itemIds.get(random.nextInt(itemIds.size())));
+						member.setString(3, Integer.toString(ordinal));
+						member.addBatch();
+					}
+					member.executeBatch();
+				}
+			}
+			connection.commit();
+		}
+	}
+
+	/**
+	 * Inserts a media item.
+	 * 
+	 * @param statement
+	 *            the insert statement
+	 * @param guid
+	 *            the guid of the item
+	 * @param contentUrl
+	 *            the URL of the item
+	 * @param contentLength
+	 *            the file size
+	 * @param listType
+	 *            the media list type or <code>null</code> for tracks
+	 * @return the id of the new item
+	 * @throws SQLException
+	 *             if inserting fails
+	 */
+	private static long insertItem(final PreparedStatement statement, final String guid, final String contentUrl,
+			final long contentLength, final Integer listType) throws SQLException {
+		statement.setString(1, guid);
+		statement.setString(2, contentUrl);
+		statement.setLong(3, contentLength);
+		statement.setInt(4, 0);
+		if (listType == null) {
+			statement.setNull(5, java.sql.Types.INTEGER);
+		} else {
+			statement.setInt(5, listType);
+		}
+		statement.executeUpdate();
+		try (ResultSet keys = statement.getGeneratedKeys()) {
+			keys.next();
+			return keys.getLong(1);
+		}
+	}
+
+	/**
+	 * Inserts a property of a media item.
+	 * 
+	 * @param statement
+	 *            the insert statement
+	 * @param itemId
+	 *            the id of the media item
+	 * @param property
+	 *            the name of the property, without namespace
+	 * @param value
+	 *            the value of the property
+	 * @throws SQLException
+	 *             if inserting fails
+	 */
+	private static void insertProperty(final PreparedStatement statement, final long itemId, final String property,
+			final String value) throws SQLException {
+		statement.setLong(1, itemId);
+		statement.setString(2, PROPERTY_NAMESPACE + property);
+		statement.setString(3, value);
+		statement.executeUpdate();
+	}
+
+	/** @return the root folder of the library */
+	public File getRoot() {
+		return root;
+	}
+
+	/** @return the songbird database file */
+	public File getDatabase() {
+		return database;
+	}
+
+	/** @return absolute paths of all media files, including the ones that were not created */
+	public List<String> getFiles() {
+		return files;
+	}
+
+	/**
+	 * Deletes the library.
+	 * 
+	 * @throws IOException
+	 *             if deleting fails
+	 */
+	@Override
+	public void close() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.backend.SongbirdPlaylist;
+import info.schnatterer.songbirdDbTools.benchmark.SyntheticLibrary;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for resolving the members of a playlist and writing the playlist file, run against a synthetic songbird
+ * library. Each invocation uses a cold file status cache, like a single export run would.
+ * 
+ * @author schnatterer
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExportBenchmark {
+	/** Number of files in the library. */
+	@Param({ "1000", "10000" })
+	private int files;
+
+	/** Number of members of the benchmarked playlist. */
+	@Param({ "1000" })
+	private int playlistSize;
+
+	/** Playlist format. */
+	@Param({ "m3u", "pls" })
+	private String format;
+
+	/** The synthetic library. */
+	private SyntheticLibrary library;
+	/** Reads the synthetic database. */
+	private SongbirdDbReader dbReader;
+	/** The playlist to export. */
+	private SongbirdPlaylist playlist;
+	/** The resolved member paths of {@link #playlist}. */
+	private List<String> memberPaths;
+	/** Folder the playlists are written to. */
+	private String destinationFolder;
+
+	/**
+	 * Creates the synthetic library and resolves the member paths once.
+	 * 
+	 * @throws Exception
+	 *             if creating fails
+	 */
+	@Setup
+	public void setUp() throws Exception {
+		library = new SyntheticLibrary(files, 10, 1, playlistSize, 0.05);
+		dbReader = new SongbirdDbReader(library.getDatabase().getAbsolutePath());
+		playlist = dbReader.findPlaylists(null).get(0);
+		memberPaths = newCommand().getMemberPaths(playlist);
+		destinationFolder = new File(library.getRoot(), "playlists").getAbsolutePath();
+	}
+
+	/**
+	 * Closes the database and deletes the synthetic library.
+	 * 
+	 * @throws Exception
+	 *             if deleting fails
+	 */
+	@TearDown
+	public void tearDown() throws Exception {
+		dbReader.close();
+		library.close();
+	}
+
+	/**
+	 * @return a command with a new (cold) file status cache that reads from the synthetic database
+	 */
+	private ExportPlaylistsCommand newCommand() {
+		return new ExportPlaylistsCommand(dbReader);
+	}
+
+	/**
+	 * Reads the members from the database and resolves their canonical paths.
+	 * 
+	 * @return the member paths
+	 * @throws Exception
+	 *             if resolving fails
+	 */
+	@Benchmark
+	public List<String> getMemberPaths() throws Exception {
+		return newCommand().getMemberPaths(playlist);
+	}
+
+	/**
+	 * Writes the playlist using lizzy.
+	 * 
+	 * @return the omitted files
+	 * @throws Exception
+	 *             if writing fails
+	 */
+	@Benchmark
+	public List<String> exportLizzy() throws Exception {
+		return new PlaylistExporterImplLizzy().export("lizzy", memberPaths, destinationFolder, format, true, false);
+	}
+
+	/**
+	 * Writes the playlist using the native exporter.
+	 * 
+	 * @return the omitted files
+	 * @throws Exception
+	 *             if writing fails
+	 */
+	@Benchmark
+	public List<String> exportNative() throws Exception {
+		return new PlaylistExporterImplNative().export("native", memberPaths, destinationFolder, format, true, false);
+	}
+}
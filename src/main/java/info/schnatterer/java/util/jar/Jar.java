@@ -16,7 +16,9 @@
 package info.schnatterer.java.util.jar;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -30,7 +32,7 @@ public class Jar {
 
 	/**
 	 * Tries to read an attribute <code>build</code> from the manifest of the
-	 * jar.
+	 * jar this class is contained in.
 	 * 
 	 * @return the value of the <code>build</code> attribute or
 	 *         <code>null</code> if not found or not even in a jar file
@@ -39,14 +41,38 @@ public class Jar {
 	 *             if an I/O error has occurred reading the manifest
 	 */
 	public static String getBuildNumberFromManifest() throws IOException {
-		InputStream manifestStream = Thread.currentThread()
-				.getContextClassLoader()
-				.getResourceAsStream("META-INF/MANIFEST.MF");
-		if (manifestStream != null) {
-			Manifest manifest = new Manifest(manifestStream);
-			Attributes attributes = manifest.getMainAttributes();
-			return attributes.getValue("build");
+		return getBuildNumberFromManifest(Jar.class);
+	}
+
+	/**
+	 * Tries to read an attribute <code>build</code> from the manifest of the
+	 * jar a class is contained in. Only this jar is opened, the class path is
+	 * not searched.
+	 * 
+	 * @param clazz
+	 *            a class of the jar
+	 * @return the value of the <code>build</code> attribute or
+	 *         <code>null</code> if not found or not even in a jar file (e.g.
+	 *         a native image)
+	 * 
+	 * @throws IOException
+	 *             if an I/O error has occurred reading the manifest
+	 */
+	public static String getBuildNumberFromManifest(final Class<?> clazz)
+			throws IOException {
+		URL classUrl = clazz.getResource(clazz.getSimpleName() + ".class");
+		if (classUrl == null || !"jar".equals(classUrl.getProtocol())) {
+			return null;
+		}
+		URLConnection connection = classUrl.openConnection();
+		if (!(connection instanceof JarURLConnection)) {
+			return null;
+		}
+		Manifest manifest = ((JarURLConnection) connection).getManifest();
+		if (manifest == null) {
+			return null;
 		}
-		return null;
+		Attributes attributes = manifest.getMainAttributes();
+		return attributes.getValue("build");
 	}
 }
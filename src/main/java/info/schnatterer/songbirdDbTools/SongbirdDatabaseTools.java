@@ -16,12 +16,38 @@
 package info.schnatterer.songbirdDbTools;
 
 import info.schnatterer.java.util.jar.Jar;
+import info.schnatterer.songbirdDbTools.Utils.ContentUrlRewriter;
+import info.schnatterer.songbirdDbTools.cli.ConsoleProgressBar;
 import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli;
+import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli.Analyze;
 import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli.ExportPlaylists;
+import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli.Index;
+import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli.Query;
+import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli.Search;
+import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli.Stats;
+import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli.SyncMedia;
+import info.schnatterer.songbirdDbTools.cli.SongbirdDatabaseToolsCli.Watch;
+import info.schnatterer.songbirdDbTools.backend.ConnectionProfile;
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.commands.analyze.AnalyzeCommand;
+import info.schnatterer.songbirdDbTools.commands.index.IndexCommand;
+import info.schnatterer.songbirdDbTools.commands.index.QueryCommand;
+import info.schnatterer.songbirdDbTools.commands.index.SearchCommand;
+import info.schnatterer.songbirdDbTools.commands.index.SearchIndex.Hit;
 import info.schnatterer.songbirdDbTools.commands.playlist.ExportPlaylistsCommand;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportStatistics;
+import info.schnatterer.songbirdDbTools.commands.playlist.WatchPlaylistsCommand;
+import info.schnatterer.songbirdDbTools.commands.stats.LibraryStatistics;
+import info.schnatterer.songbirdDbTools.commands.stats.StatsCommand;
+import info.schnatterer.songbirdDbTools.commands.sync.SyncMediaCommand;
 import info.schnatterer.songbirddbapi4.SongbirdDb;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,9 +61,15 @@ import com.beust.jcommander.ParameterException;
  * 
  */
 public class SongbirdDatabaseTools {
+	/** Time to wait for a cancelled command to finish when the JVM is shut down, in seconds. */
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
 	/** SLF4J-Logger. */
 	private final Logger logger = LoggerFactory.getLogger(SongbirdDatabaseTools.class);
 
+	/** Determines how the songbird database is opened when it is read directly. */
+	private ConnectionProfile connectionProfile = ConnectionProfile.defaults();
+
 	/**
 	 * Entry point of the application.
 	 * 
@@ -65,10 +97,14 @@ public class SongbirdDatabaseTools {
 	 *            command line parameters to be evaluated
 	 * @return <code>false</code> if there was an error relating to parameters (the error message has been logged).
 	 *         <code>true</code> if the requested command was executed.
+	 * @throws SQLException
+	 *             if the songbird database cannot be read
+	 * @throws IOException
+	 *             if the songbird database cannot be watched
 	 */
 	static final String PROG_NAME = "songbirdDbTools";
 
-	private boolean evaluateParams(final String[] args) {
+	private boolean evaluateParams(final String[] args) throws SQLException, IOException {
 		logger.debug(PROG_NAME + " started...");
 		logger.debug("Reading command line arguments...");
 
@@ -86,15 +122,104 @@ public class SongbirdDatabaseTools {
 
 		if (commandParams != null) {
 			String pathToDb = applicationParams.getSongbirdDB();
-			SongbirdDb db = new SongbirdDb(pathToDb);
+			connectionProfile = createConnectionProfile(applicationParams);
 
 			/*
 			 * Successfully read command line params, determine which command was called
 			 */
-			if (commandParams instanceof ExportPlaylists) {
+			if (commandParams instanceof Watch) {
+				Watch params = (Watch) commandParams;
+				ExportPlaylistsCommand command = createExportCommand(pathToDb, params);
+				// Only write the playlists that changed. The members of all playlists are read on each change, though.
+				command.setIncremental(true);
+				WatchPlaylistsCommand watchCommand = new WatchPlaylistsCommand(new File(pathToDb), () -> {
+					if (!connectionProfile.isSnapshot()) {
+						exportPlaylists(command, params);
+						return;
+					}
+					// A snapshot does not reflect later changes, so take a new one for each run
+					try (SongbirdDbReader dbReader = new SongbirdDbReader(pathToDb, connectionProfile)) {
+						command.setDbReader(dbReader);
+						exportPlaylists(command, params);
+					} catch (SQLException e) {
+						logger.error("Error reading songbird database", e);
+					}
+				});
+				watchCommand.setDebounceMillis(params.getDebounceMillis());
+				Thread shutdownHook = addShutdownHook(() -> {
+					watchCommand.stop();
+					command.cancel();
+				});
+				// Without a snapshot the connection sees the changes, so one reader is kept open for the whole watch
+				try (SongbirdDbReader dbReader =
+						connectionProfile.isSnapshot() ? null : new SongbirdDbReader(pathToDb, connectionProfile)) {
+					command.setDbReader(dbReader);
+					watchCommand.watch();
+				} finally {
+					removeShutdownHook(shutdownHook);
+				}
+			} else if (commandParams instanceof SyncMedia) {
+				SyncMedia params = (SyncMedia) commandParams;
+				ExportPlaylistsCommand command = createExportCommand(pathToDb, params);
+				try (SyncMediaCommand syncCommand =
+						new SyncMediaCommand(new File(params.getDestinationPath()), params.getCopyThreads())) {
+					syncCommand.setSourceRoot(params.getSourceRoot());
+					command.setMemberPathMapper(syncCommand);
+					Thread shutdownHook = addShutdownHook(command::cancel);
+					try {
+						exportPlaylists(pathToDb, command, params);
+					} finally {
+						removeShutdownHook(shutdownHook);
+					}
+				}
+			} else if (commandParams instanceof ExportPlaylists) {
 				ExportPlaylists params = (ExportPlaylists) commandParams;
-				new ExportPlaylistsCommand(db).exportPlaylists(params.getDestinationPath(), params.getFormat(),
-						params.getPlaylists(), params.isRelativePaths(), params.isSkipDynamicPlaylists());
+				ExportPlaylistsCommand command = createExportCommand(pathToDb, params);
+				Thread shutdownHook = addShutdownHook(command::cancel);
+				try {
+					exportPlaylists(pathToDb, command, params);
+				} finally {
+					removeShutdownHook(shutdownHook);
+				}
+			} else if (commandParams instanceof Index) {
+				Index params = (Index) commandParams;
+				try (SongbirdDbReader dbReader = new SongbirdDbReader(pathToDb, connectionProfile)) {
+					new IndexCommand(dbReader).createIndex(getIndexFile(params.getIndexFile(), pathToDb));
+				}
+			} else if (commandParams instanceof Query) {
+				Query params = (Query) commandParams;
+				new QueryCommand().query(getIndexFile(params.getIndexFile(), pathToDb), params.getTracks());
+			} else if (commandParams instanceof Search) {
+				Search params = (Search) commandParams;
+				try (SongbirdDbReader dbReader = new SongbirdDbReader(pathToDb, connectionProfile)) {
+					SearchCommand command = new SearchCommand(dbReader, new File(pathToDb));
+					if (params.getIndexFile() != null) {
+						command.setIndexFile(new File(params.getIndexFile()));
+					}
+					command.setRebuild(params.isRebuild());
+					List<Hit> hits = command.search(params.getQuery(), params.getLimit());
+					if (params.getPlaylistFolder() != null) {
+						command.exportPlaylist(hits, params.getPlaylistFolder(), params.getPlaylistName(),
+								params.getFormat(), params.isRelativePaths());
+					}
+				}
+			} else if (commandParams instanceof Analyze) {
+				Analyze params = (Analyze) commandParams;
+				try (SongbirdDbReader dbReader = new SongbirdDbReader(pathToDb, connectionProfile)) {
+					AnalyzeCommand command = new AnalyzeCommand(dbReader);
+					command.setThreads(params.getThreads());
+					command.setHashing(params.isHash());
+					command.setHashSampleKb(params.getHashSampleKb());
+					command.analyze(new File(params.getReportFile()));
+				}
+			} else if (commandParams instanceof Stats) {
+				Stats params = (Stats) commandParams;
+				try (SongbirdDbReader dbReader = new SongbirdDbReader(pathToDb, connectionProfile)) {
+					StatsCommand command = new StatsCommand(dbReader);
+					command.setThreads(params.getThreads());
+					command.setCheckFiles(params.isCheckFiles());
+					writeStatistics(command, params);
+				}
 			}
 			// else if (cliParams instanceof SongbirdDatabaseToolsCli.??) {
 			return true;
@@ -102,6 +227,209 @@ public class SongbirdDatabaseTools {
 		return false;
 	}
 
+	/**
+	 * Creates the connection profile requested by the parameters passed to the CLI.
+	 * 
+	 * @param applicationParams
+	 *            the parsed parameters
+	 * @return the tuned read-only profile if read-only access or a snapshot was requested, the defaults otherwise
+	 */
+	private static ConnectionProfile createConnectionProfile(final SongbirdDatabaseToolsCli applicationParams) {
+		ConnectionProfile profile;
+		if (applicationParams.isReadOnly() || applicationParams.isSnapshot()) {
+			profile = ConnectionProfile.readOnly();
+			profile.setSnapshot(applicationParams.isSnapshot());
+		} else {
+			profile = ConnectionProfile.defaults();
+		}
+		if (applicationParams.getFetchSize() != null) {
+			profile.setFetchSize(applicationParams.getFetchSize());
+		}
+		return profile;
+	}
+
+	/**
+	 * Returns the index file passed to the CLI or the default index file of the database.
+	 * 
+	 * @param indexFile
+	 *            the value of the index file parameter, may be <code>null</code>
+	 * @param pathToDb
+	 *            path to the songbird database
+	 * @return the index file to use
+	 */
+	private static File getIndexFile(final String indexFile, final String pathToDb) {
+		if (indexFile != null) {
+			return new File(indexFile);
+		}
+		return IndexCommand.getDefaultIndexFile(pathToDb);
+	}
+
+	/**
+	 * Creates an export command configured using the parameters passed to the CLI.
+	 * 
+	 * @param pathToDb
+	 *            path to the songbird database
+	 * @param params
+	 *            the export parameters
+	 * @return the configured command
+	 * @throws IOException
+	 *             if the path mapping rules file cannot be read
+	 */
+	private static ExportPlaylistsCommand createExportCommand(final String pathToDb, final ExportPlaylists params)
+			throws IOException {
+		ExportPlaylistsCommand command = new ExportPlaylistsCommand(new SongbirdDb(pathToDb));
+		command.setThreads(params.getThreads());
+		command.setChecksInFlight(params.getChecksInFlight());
+		command.setIncremental(params.isIncremental());
+		command.setPrune(params.isPrune());
+		command.setCompact(params.isCompact());
+		command.setEvaluateSmartLists(params.isEvaluateSmart());
+		command.setArchiveMedia(params.isArchiveMedia());
+		if (!params.getPathMappings().isEmpty() || params.getPathMappingFile() != null) {
+			ContentUrlRewriter rewriter = new ContentUrlRewriter();
+			if (params.getPathMappingFile() != null) {
+				rewriter.addRules(new File(params.getPathMappingFile()));
+			}
+			for (String rule : params.getPathMappings()) {
+				rewriter.addRule(rule);
+			}
+			command.setContentUrlRewriter(rewriter);
+		}
+		if (params.isProgress()) {
+			command.setProgressListener(new ConsoleProgressBar());
+		}
+		return command;
+	}
+
+	/**
+	 * Computes the statistics of the library and logs them or writes them to the output file passed to the CLI.
+	 * 
+	 * @param command
+	 *            the configured command
+	 * @param params
+	 *            the stats parameters
+	 * @throws SQLException
+	 *             if the songbird database cannot be read
+	 * @throws IOException
+	 *             if the output file cannot be written
+	 */
+	private void writeStatistics(final StatsCommand command, final Stats params) throws SQLException,
+			IOException {
+		LibraryStatistics statistics;
+		try {
+			statistics = command.compute();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Computing statistics interrupted.");
+			return;
+		}
+		if (params.getOutputFile() != null) {
+			File outputFile = new File(params.getOutputFile());
+			statistics.write(outputFile, params.getLimit());
+			logger.info("Wrote statistics to " + outputFile.getAbsolutePath());
+		} else if (params.isJson()) {
+			StringWriter json = new StringWriter();
+			statistics.writeJson(json);
+			logger.info(json.toString());
+		} else {
+			logger.info("Library statistics:" + ExportPlaylistsCommand.EOL + statistics.toTable(params.getLimit()));
+		}
+	}
+
+	/**
+	 * Registers a hook that cancels a command when the JVM is shut down (e.g. on Ctrl-C) and waits for the current
+	 * thread to finish, so the playlists being written are completed and the manifest is written.
+	 * 
+	 * @param cancel
+	 *            cancels the command
+	 * @return the hook, to be passed to {@link #removeShutdownHook(Thread)} once the command finished
+	 */
+	private static Thread addShutdownHook(final Runnable cancel) {
+		Thread commandThread = Thread.currentThread();
+		Thread hook = new Thread(() -> {
+			cancel.run();
+			try {
+				commandThread.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "shutdown");
+		Runtime.getRuntime().addShutdownHook(hook);
+		return hook;
+	}
+
+	/**
+	 * Removes a hook registered by {@link #addShutdownHook(Runnable)}.
+	 * 
+	 * @param hook
+	 *            the hook to remove
+	 */
+	private static void removeShutdownHook(final Thread hook) {
+		try {
+			Runtime.getRuntime().removeShutdownHook(hook);
+		} catch (IllegalStateException e) {
+			// The JVM is already shutting down, the hook is running
+		}
+	}
+
+	/**
+	 * Runs an export using the parameters passed to the CLI. The database is read directly if requested. Read-only
+	 * access and evaluating smart playlists imply this, as the database access of songbirdDbApi4j cannot be
+	 * configured and it does not read the rules of smart playlists.
+	 * 
+	 * @param pathToDb
+	 *            path to the songbird database
+	 * @param command
+	 *            the configured command
+	 * @param params
+	 *            the export parameters
+	 * @throws SQLException
+	 *             if the songbird database cannot be opened
+	 */
+	private void exportPlaylists(final String pathToDb, final ExportPlaylistsCommand command,
+			final ExportPlaylists params) throws SQLException {
+		if (params.isLazy() || params.isCompact() || params.isEvaluateSmart() || connectionProfile.isReadOnly()) {
+			try (SongbirdDbReader dbReader = new SongbirdDbReader(pathToDb, connectionProfile)) {
+				command.setDbReader(dbReader);
+				exportPlaylists(command, params);
+			}
+		} else {
+			exportPlaylists(command, params);
+		}
+	}
+
+	/**
+	 * Runs an export using the parameters passed to the CLI. Prints or writes the statistics of the export, if
+	 * requested.
+	 * 
+	 * @param command
+	 *            the configured command
+	 * @param params
+	 *            the export parameters
+	 */
+	private void exportPlaylists(final ExportPlaylistsCommand command, final ExportPlaylists params) {
+		ExportStatistics statistics = null;
+		if (params.isStats() || params.getMetricsFile() != null) {
+			statistics = new ExportStatistics();
+			command.setStatistics(statistics);
+		}
+		command.exportPlaylists(params.getDestinationPath(), params.getFormats(), params.getPlaylists(),
+				params.isRelativePaths(), params.isSkipDynamicPlaylists());
+		if (statistics == null) {
+			return;
+		}
+		if (params.isStats()) {
+			logger.info("Export statistics:" + ExportPlaylistsCommand.EOL + statistics.toTable());
+		}
+		if (params.getMetricsFile() != null) {
+			try {
+				statistics.write(new File(params.getMetricsFile()));
+			} catch (IOException e) {
+				logger.warn("Unable to write metrics to " + params.getMetricsFile() + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
 	/**
 	 * Writes a welcome message to the log/console, including a build number, if available.
 	 */
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools;
+
+import info.schnatterer.songbirdDbTools.backend.CompactLibrary;
+import info.schnatterer.songbirdDbTools.backend.ConnectionProfile;
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.commands.analyze.AnalyzeCommand;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportPlaylistsCommand;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportResult;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry point for using songbird database tools from other Java applications, as opposed to
+ * {@link SongbirdDatabaseTools} which serves the command line.
+ * 
+ * A session opens the database once and keeps the connection, including SQLite's page cache, open until it is
+ * closed. The library is loaded into a {@link CompactLibrary} on first use and reused by all following exports, until
+ * the database file changes. That is, repeated exports from the same database only pay for checking the member files
+ * and writing the playlists.
+ * 
+ * Sessions are thread safe. Each call creates its own command, so several exports can run concurrently, as long as
+ * they write to different destination folders. Queries are serialized on the connection.
+ * 
+ * <pre>
+ * try (SongbirdSession session = new SongbirdSession(&quot;/path/to/main@library.songbirdnest.com.db&quot;)) {
+ * 	ExportResult result =
+ * 			session.exportPlaylists(&quot;/path/to/playlists&quot;, Arrays.asList(&quot;m3u&quot;), null, false, false);
+ * 	for (File file : result.getWrittenFiles()) {
+ * 		...
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class SongbirdSession implements AutoCloseable {
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(SongbirdSession.class);
+
+	/** The database file. */
+	private final File databaseFile;
+	/** How the database was opened. */
+	private final ConnectionProfile profile;
+	/** The connection that is kept open during the session. */
+	private final SongbirdDbReader dbReader;
+
+	/** The library loaded on first use or <code>null</code>. Guarded by <code>this</code>. */
+	private CompactLibrary library = null;
+	/** {@link File#lastModified()} of the database when {@link #library} was loaded. */
+	private long libraryLastModified = 0;
+	/** {@link File#length()} of the database when {@link #library} was loaded. */
+	private long libraryLength = 0;
+	/** Set by {@link #close()}. Guarded by <code>this</code>. */
+	private boolean closed = false;
+
+	/**
+	 * Opens a session using the {@link ConnectionProfile#readOnly()} profile, which is tuned for exporting.
+	 * 
+	 * @param pathToDb
+	 *            the database file
+	 * @throws SQLException
+	 *             if the database cannot be opened
+	 */
+	public SongbirdSession(final String pathToDb) throws SQLException {
+		this(pathToDb, ConnectionProfile.readOnly());
+	}
+
+	/**
+	 * Opens a session.
+	 * 
+	 * @param pathToDb
+	 *            the database file
+	 * @param profile
+	 *            how to open the database. If it requests a snapshot, the session works on the snapshot until it is
+	 *            closed and never sees later changes.
+	 * @throws SQLException
+	 *             if the database cannot be opened
+	 */
+	public SongbirdSession(final String pathToDb, final ConnectionProfile profile) throws SQLException {
+		this.databaseFile = new File(pathToDb);
+		this.profile = profile;
+		this.dbReader = new SongbirdDbReader(pathToDb, profile);
+		logger.debug("Opened session on " + databaseFile + " using " + profile);
+	}
+
+	/**
+	 * Exports playlists in one or more formats using the cached library. For more options, use
+	 * {@link #createExportCommand()}.
+	 * 
+	 * @param destinationFolder
+	 *            the folder to write the playlist to
+	 * @param playlistFormats
+	 *            desired formats for the playlist (e.g. "m3u" and "pls"). Duplicates are ignored.
+	 * @param requestedPlaylistNames
+	 *            the names of the playlists to be exported. If <code>null</code> or empty, all playlists are exported.
+	 * @param useRelativePaths
+	 *            <code>true</code> tries to create relative paths from the playlist members to the playlist file
+	 * @param skipDynamicLists
+	 *            <code>true</code> skips dynamic playlists
+	 * @return the playlists written, omitted entries and timings, never <code>null</code>
+	 * @throws SQLException
+	 *             if the library cannot be loaded
+	 */
+	public ExportResult exportPlaylists(final String destinationFolder, final List<String> playlistFormats,
+			final List<String> requestedPlaylistNames, final boolean useRelativePaths, final boolean skipDynamicLists)
+			throws SQLException {
+		return createExportCommand().exportPlaylists(destinationFolder, playlistFormats, requestedPlaylistNames,
+				useRelativePaths, skipDynamicLists);
+	}
+
+	/**
+	 * Creates a new export command that reads from this session's library. The command can be configured further
+	 * (e.g. threads, incremental, progress listener) and run several times, but only one run at a time. For concurrent
+	 * exports, create one command each. It must not be used after the session is closed.
+	 * 
+	 * @return a new command
+	 * @throws SQLException
+	 *             if the library cannot be loaded
+	 */
+	public ExportPlaylistsCommand createExportCommand() throws SQLException {
+		ExportPlaylistsCommand command = new ExportPlaylistsCommand(dbReader);
+		command.setCompactLibrary(getLibrary());
+		return command;
+	}
+
+	/**
+	 * Creates a new command that analyzes this session's library.
+	 * 
+	 * @return a new command
+	 */
+	public AnalyzeCommand createAnalyzeCommand() {
+		checkOpen();
+		return new AnalyzeCommand(dbReader);
+	}
+
+	/**
+	 * Returns the library of this session. It is loaded on first use and reloaded when the database file was
+	 * modified since, unless the session works on a snapshot.
+	 * 
+	 * @return the library, never <code>null</code>
+	 * @throws SQLException
+	 *             if the library cannot be loaded
+	 */
+	public synchronized CompactLibrary getLibrary() throws SQLException {
+		checkOpen();
+		long lastModified = databaseFile.lastModified();
+		long length = databaseFile.length();
+		if (library != null
+				&& (profile.isSnapshot() || (lastModified == libraryLastModified && length == libraryLength))) {
+			return library;
+		}
+		if (library != null) {
+			logger.debug("Database changed since the library was loaded. Reloading.");
+		}
+		library = CompactLibrary.load(dbReader);
+		libraryLastModified = lastModified;
+		libraryLength = length;
+		logger.debug("Loaded " + library);
+		return library;
+	}
+
+	/**
+	 * Drops the cached library, so it is loaded again on next use. Only necessary if the database is modified without
+	 * changing the file's modification time or size.
+	 */
+	public synchronized void invalidate() {
+		library = null;
+	}
+
+	/**
+	 * @return the reader of this session, for queries not covered by the commands. Must not be closed by the caller.
+	 */
+	public SongbirdDbReader getDbReader() {
+		checkOpen();
+		return dbReader;
+	}
+
+	/** @return <code>true</code> if the session was closed */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Closes the connection and deletes the snapshot, if any. Commands that are still running fail.
+	 * 
+	 * @throws SQLException
+	 *             if closing the connection fails
+	 */
+	@Override
+	public synchronized void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		library = null;
+		dbReader.close();
+	}
+
+	/** @throws IllegalStateException if the session was closed */
+	private synchronized void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("Session was closed: " + databaseFile);
+		}
+	}
+}
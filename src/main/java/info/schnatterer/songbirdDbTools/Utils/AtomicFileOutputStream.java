@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Output stream that writes to a temporary file next to the target file and only replaces the target file when
+ * {@link #commit()} is called. If the stream is closed without committing (e.g. because writing failed or was
+ * cancelled), the temporary file is deleted and the target file is left untouched. So readers of the target file
+ * never see a partially written file.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+ * 	// write to out
+ * 	out.commit();
+ * }
+ * </pre>
+ * 
+ * @author schnatterer
+ * 
+ */
+public class AtomicFileOutputStream extends CommittableOutputStream {
+	/** Suffix of the temporary file. */
+	public static final String TEMP_SUFFIX = ".tmp";
+
+	/** The file that is replaced on commit. */
+	private final File targetFile;
+	/** The file that is written to. */
+	private final File tempFile;
+	/** Was {@link #commit()} called successfully? */
+	private boolean committed = false;
+	/** Was the stream closed? */
+	private boolean closed = false;
+
+	/**
+	 * Creates the temporary file for a target file.
+	 * 
+	 * @param targetFile
+	 *            the file to replace on {@link #commit()}
+	 * @throws IOException
+	 *             if the temporary file cannot be created
+	 */
+	public AtomicFileOutputStream(final File targetFile) throws IOException {
+		this(targetFile, new File(targetFile.getPath() + TEMP_SUFFIX));
+	}
+
+	/**
+	 * @param targetFile
+	 *            the file to replace on {@link #commit()}
+	 * @param tempFile
+	 *            the file to write to
+	 * @throws IOException
+	 *             if the temporary file cannot be created
+	 */
+	private AtomicFileOutputStream(final File targetFile, final File tempFile) throws IOException {
+		super(new FileOutputStream(tempFile));
+		this.targetFile = targetFile;
+		this.tempFile = tempFile;
+	}
+
+	/**
+	 * Closes the temporary file and moves it to the target file, atomically if the file system supports it. Streams
+	 * wrapping this stream must be flushed before.
+	 * 
+	 * @throws IOException
+	 *             if the temporary file cannot be written or moved. The temporary file is deleted on
+	 *             {@link #close()}.
+	 */
+	@Override
+	public void commit() throws IOException {
+		if (closed) {
+			throw new IOException("Stream already closed: " + tempFile);
+		}
+		closed = true;
+		out.close();
+		try {
+			Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		committed = true;
+	}
+
+	/**
+	 * Closes the stream. If it was not committed, the temporary file is deleted.
+	 * 
+	 * @throws IOException
+	 *             if closing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		if (committed) {
+			return;
+		}
+		try {
+			if (!closed) {
+				closed = true;
+				out.close();
+			}
+		} finally {
+			Files.deleteIfExists(tempFile.toPath());
+		}
+	}
+
+	/** @return the file that is replaced on commit */
+	public File getTargetFile() {
+		return targetFile;
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream whose content is only published when {@link #commit()} is called. Closing the stream without
+ * committing discards what was written. See {@link AtomicFileOutputStream} for an implementation writing to a file.
+ * 
+ * @author schnatterer
+ * 
+ */
+public abstract class CommittableOutputStream extends FilterOutputStream {
+
+	/**
+	 * @param out
+	 *            the stream to write to
+	 */
+	protected CommittableOutputStream(final OutputStream out) {
+		super(out);
+	}
+
+	/**
+	 * Writes an array at once. {@link FilterOutputStream} would write byte by byte.
+	 * 
+	 * @param b
+	 *            the data
+	 * @param off
+	 *            the start offset in the data
+	 * @param len
+	 *            the number of bytes to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		out.write(b, off, len);
+	}
+
+	/**
+	 * Publishes the content written. Streams wrapping this stream must be flushed before.
+	 * 
+	 * @throws IOException
+	 *             if the content cannot be published
+	 */
+	public abstract void commit() throws IOException;
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts songbird content URLs (e.g. <code>file:///music/a%20b.mp3</code>) to files.
+ * 
+ * {@link #toFile(String)} yields the same file and the same exceptions as <code>new File(new URI(contentUrl))</code>,
+ * but percent-decodes the usual forms of file URLs without parsing them into a {@link URI}. Unusual URLs (other
+ * schemes, authorities, queries, illegal characters) are passed to {@link URI}, so they fail the same way as before.
+ * 
+ * An instance additionally resolves files against a cache of canonical directories (see
+ * {@link #toResolvedFile(String)}). As a library usually contains many files per directory, symbolic links and
+ * relative segments of a directory are resolved once, not once per file. The directories are cached by the encoded
+ * directory part of the URL, so the directory part of a URL is only decoded the first time it occurs. Instances are
+ * thread safe and meant to live as long as a {@link FileStatusCache}, i.e. one export run, as changes to the
+ * directories are not noticed.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class ContentUrlDecoder {
+	/** Scheme of the content URLs that point to local files. */
+	private static final String FILE_SCHEME = "file:";
+	/** Prefix of file URLs with empty authority. */
+	private static final String FILE_URL_PREFIX = "file://";
+	/** ASCII characters that {@link URI} accepts in a path without escaping. */
+	private static final boolean[] LEGAL_PATH_CHARS = new boolean[128];
+
+	static {
+		for (char c = '0'; c <= '9'; c++) {
+			LEGAL_PATH_CHARS[c] = true;
+		}
+		for (char c = 'a'; c <= 'z'; c++) {
+			LEGAL_PATH_CHARS[c] = true;
+			LEGAL_PATH_CHARS[Character.toUpperCase(c)] = true;
+		}
+		for (char c : "-_.!~*'();:@&=+$,/".toCharArray()) {
+			LEGAL_PATH_CHARS[c] = true;
+		}
+	}
+
+	/** Canonical directories by the encoded directory part of content URLs, including the trailing slash. */
+	private final Map<String, File> directoriesByUrl = new ConcurrentHashMap<String, File>();
+	/** Canonical directories by path. */
+	private final Map<String, File> directoriesByPath = new ConcurrentHashMap<String, File>();
+
+	/**
+	 * Converts a content URL to a file, just like <code>new File(new URI(contentUrl))</code>.
+	 * 
+	 * @param contentUrl
+	 *            the URL of the file
+	 * @return the file, neither absolute nor canonical
+	 * @throws URISyntaxException
+	 *             if <code>contentUrl</code> is not a valid URI
+	 * @throws IllegalArgumentException
+	 *             if <code>contentUrl</code> cannot be converted to a file (e.g. if it is not a file URI)
+	 */
+	public static File toFile(final String contentUrl) throws URISyntaxException {
+		int pathStart = findPathStart(contentUrl);
+		if (pathStart < 0 || !isPlainPath(contentUrl, pathStart, contentUrl.length())) {
+			return new File(new URI(contentUrl));
+		}
+		return new File(fromUriPath(decode(contentUrl, pathStart, contentUrl.length())));
+	}
+
+	/**
+	 * Converts a content URL to a file like {@link #toFile(String)}. In addition, file URLs without authority that
+	 * are not valid URIs (e.g. containing unencoded spaces) are decoded leniently, as they might still point to a
+	 * file: Escape sequences are decoded, all other characters are kept as they are.
+	 * 
+	 * @param contentUrl
+	 *            the URL of the file
+	 * @return the file, neither absolute nor canonical
+	 * @throws URISyntaxException
+	 *             if <code>contentUrl</code> cannot be decoded
+	 * @throws IllegalArgumentException
+	 *             if <code>contentUrl</code> cannot be converted to a file (e.g. if it is not a file URI)
+	 */
+	public static File toFileLeniently(final String contentUrl) throws URISyntaxException {
+		try {
+			return toFile(contentUrl);
+		} catch (URISyntaxException e) {
+			if (!contentUrl.startsWith(FILE_URL_PREFIX + "/")) {
+				throw e;
+			}
+			return new File(fromUriPath(decode(contentUrl, FILE_URL_PREFIX.length(), contentUrl.length())));
+		}
+	}
+
+	/**
+	 * Converts a content URL to a file whose directory is canonical. The file name is kept as is, so if the file
+	 * itself is a symbolic link, it is not resolved. Apart from that, the result equals
+	 * <code>toFile(contentUrl).getCanonicalFile()</code>.
+	 * 
+	 * @param contentUrl
+	 *            the URL of the file
+	 * @return the file with canonical directory
+	 * @throws URISyntaxException
+	 *             if <code>contentUrl</code> is not a valid URI
+	 * @throws IOException
+	 *             if the directory cannot be canonicalized
+	 * @throws IllegalArgumentException
+	 *             if <code>contentUrl</code> cannot be converted to a file (e.g. if it is not a file URI)
+	 */
+	public File toResolvedFile(final String contentUrl) throws URISyntaxException, IOException {
+		int nameStart = contentUrl.lastIndexOf('/') + 1;
+		int pathStart = findPathStart(contentUrl);
+		if (pathStart < 0 || nameStart <= pathStart || !isPlainPath(contentUrl, nameStart, contentUrl.length())) {
+			return toFile(contentUrl).getCanonicalFile();
+		}
+		String name = decode(contentUrl, nameStart, contentUrl.length());
+		if (!isPlainName(name)) {
+			return toFile(contentUrl).getCanonicalFile();
+		}
+		String directoryUrl = contentUrl.substring(0, nameStart);
+		File directory = directoriesByUrl.get(directoryUrl);
+		if (directory == null) {
+			// The directory part is only validated and decoded the first time
+			if (!isPlainPath(contentUrl, pathStart, nameStart)) {
+				return toFile(contentUrl).getCanonicalFile();
+			}
+			directory = new File(fromUriPath(decode(contentUrl, pathStart, nameStart))).getCanonicalFile();
+			directoriesByUrl.put(directoryUrl, directory);
+		}
+		return new File(directory, name);
+	}
+
+	/**
+	 * Resolves a file against the cache of canonical directories. The file name is kept as is, so if the file itself
+	 * is a symbolic link, it is not resolved. Apart from that, the result equals <code>file.getCanonicalFile()</code>.
+	 * 
+	 * @param file
+	 *            the file to resolve
+	 * @return the file with canonical directory
+	 * @throws IOException
+	 *             if the directory cannot be canonicalized
+	 */
+	public File resolve(final File file) throws IOException {
+		File parent = file.getParentFile();
+		if (parent == null || !isPlainName(file.getName())) {
+			return file.getCanonicalFile();
+		}
+		String parentPath = parent.getPath();
+		File directory = directoriesByPath.get(parentPath);
+		if (directory == null) {
+			directory = parent.getCanonicalFile();
+			directoriesByPath.put(parentPath, directory);
+		}
+		return new File(directory, file.getName());
+	}
+
+	/** @return the number of directories cached */
+	public int getDirectoryCount() {
+		return directoriesByUrl.size() + directoriesByPath.size();
+	}
+
+	/**
+	 * Finds the start of the path of a file URL with empty or no authority, i.e. <code>file:///path</code> or
+	 * <code>file:/path</code>.
+	 * 
+	 * @param contentUrl
+	 *            the URL
+	 * @return the index of the leading slash of the path or <code>-1</code> if <code>contentUrl</code> does not
+	 *         have this form
+	 */
+	private static int findPathStart(final String contentUrl) {
+		if (!contentUrl.regionMatches(true, 0, FILE_SCHEME, 0, FILE_SCHEME.length())) {
+			return -1;
+		}
+		if (contentUrl.startsWith("///", FILE_SCHEME.length())) {
+			return FILE_URL_PREFIX.length();
+		}
+		if (contentUrl.startsWith("//", FILE_SCHEME.length())) {
+			// Authority, e.g. file://host/path
+			return -1;
+		}
+		if (contentUrl.startsWith("/", FILE_SCHEME.length())) {
+			return FILE_SCHEME.length();
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks if a part of a URL consists only of characters that are legal in a URI path and well-formed escape
+	 * sequences. Excludes queries and fragments.
+	 * 
+	 * @param url
+	 *            the URL
+	 * @param begin
+	 *            start of the part, inclusive
+	 * @param end
+	 *            end of the part, exclusive
+	 * @return <code>true</code> if the part can be decoded without further checks
+	 */
+	private static boolean isPlainPath(final String url, final int begin, final int end) {
+		for (int i = begin; i < end; i++) {
+			char c = url.charAt(i);
+			if (c == '%') {
+				if (i + 2 >= end || Character.digit(url.charAt(i + 1), 16) < 0
+						|| Character.digit(url.charAt(i + 2), 16) < 0) {
+					return false;
+				}
+				i += 2;
+			} else if (c < LEGAL_PATH_CHARS.length) {
+				if (!LEGAL_PATH_CHARS[c]) {
+					return false;
+				}
+			} else if (Character.isSpaceChar(c) || Character.isISOControl(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param name
+	 *            a decoded file name
+	 * @return <code>true</code> if the name can be appended to a canonical directory as is, i.e. it is not empty, not
+	 *         a relative segment and does not contain separators
+	 */
+	private static boolean isPlainName(final String name) {
+		return !name.isEmpty() && !".".equals(name) && !"..".equals(name) && name.indexOf('/') < 0
+				&& name.indexOf(File.separatorChar) < 0;
+	}
+
+	/**
+	 * Decodes the percent-encoded UTF-8 octets of a part of a URL. Other characters are kept as they are. Malformed
+	 * UTF-8 is replaced, like {@link URI#getPath()} does.
+	 * 
+	 * @param url
+	 *            the URL
+	 * @param begin
+	 *            start of the part, inclusive
+	 * @param end
+	 *            end of the part, exclusive
+	 * @return the decoded part
+	 * @throws URISyntaxException
+	 *             if an escape sequence is malformed
+	 */
+	static String decode(final String url, final int begin, final int end) throws URISyntaxException {
+		int firstEscape = url.indexOf('%', begin);
+		if (firstEscape < 0 || firstEscape >= end) {
+			return url.substring(begin, end);
+		}
+		StringBuilder decoded = new StringBuilder(end - begin);
+		decoded.append(url, begin, firstEscape);
+		byte[] octets = new byte[(end - firstEscape) / 3];
+		int i = firstEscape;
+		while (i < end) {
+			char c = url.charAt(i);
+			if (c != '%') {
+				decoded.append(c);
+				i++;
+				continue;
+			}
+			int nOctets = 0;
+			while (i < end && url.charAt(i) == '%') {
+				int high = i + 2 < end ? Character.digit(url.charAt(i + 1), 16) : -1;
+				int low = high >= 0 ? Character.digit(url.charAt(i + 2), 16) : -1;
+				if (low < 0) {
+					throw new URISyntaxException(url, "Malformed escape pair", i);
+				}
+				octets[nOctets++] = (byte) (high << 4 | low);
+				i += 3;
+			}
+			decoded.append(new String(octets, 0, nOctets, StandardCharsets.UTF_8));
+		}
+		return decoded.toString();
+	}
+
+	/**
+	 * Converts the decoded path of a file URI to a path of the local file system, like {@link File#File(URI)} does.
+	 * 
+	 * @param uriPath
+	 *            the decoded path, starting with a slash
+	 * @return the path in the local file system
+	 */
+	private static String fromUriPath(final String uriPath) {
+		String path = uriPath;
+		if (File.separatorChar == '\\' && path.length() > 2 && path.charAt(2) == ':') {
+			// "/c:/foo" --> "c:/foo"
+			path = path.substring(1);
+			if (path.length() > 3 && path.endsWith("/")) {
+				path = path.substring(0, path.length() - 1);
+			}
+		} else if (path.length() > 1 && path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path.replace('/', File.separatorChar);
+	}
+}
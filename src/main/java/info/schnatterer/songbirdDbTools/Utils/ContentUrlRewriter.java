@@ -0,0 +1,324 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rewrites the beginning of songbird content URLs, e.g. to export a library created on Windows (
+ * <code>file:///C:/Music/...</code>) on a machine where the music is mounted at <code>/mnt/music</code>.
+ * 
+ * The rules are stored in a trie over path segments, so finding the longest matching rule takes time proportional to
+ * the number of segments of the URL, not to the number of rules. Segments are compared decoded, so
+ * <code>file:///C:/My%20Music</code> matches the rule <code>C:\My Music</code>. Drive letters are compared case
+ * insensitively. The authority of a URL (e.g. <code>file://server/share</code>) is treated like the first segment, so
+ * UNC paths like <code>\\server\share</code> can be used as source. The rest of the URL is kept as is.
+ * 
+ * Add all rules using {@link #addRule(String, String)} before rewriting. Rewriting is thread safe afterwards.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class ContentUrlRewriter {
+	/** Prefix of file URLs. */
+	private static final String FILE_SCHEME = "file:";
+	/** Separates source and target of a rule, see {@link #addRule(String)}. */
+	private static final char RULE_SEPARATOR = '=';
+	/** Starts a comment in a rules file, see {@link #addRules(File)}. */
+	private static final String COMMENT = "#";
+
+	/** The root of the trie, representing the empty prefix. */
+	private final Node root = new Node();
+	/** Number of rules added. */
+	private int ruleCount = 0;
+
+	/**
+	 * Adds a rule. If several rules match a URL, the one with the longest source is applied.
+	 * 
+	 * @param source
+	 *            beginning of the URLs to rewrite, either as file URL (e.g. <code>file:///C:/Music</code>) or as path
+	 *            (e.g. <code>C:\Music</code>, <code>/media/music</code> or <code>\\server\music</code>)
+	 * @param target
+	 *            what to replace <code>source</code> with, either as file URL or as path of the local file system
+	 * @throws IllegalArgumentException
+	 *             if <code>source</code> contains no path segments or an invalid escape sequence
+	 */
+	public void addRule(final String source, final String target) {
+		List<String> segments = toSegments(source);
+		if (segments.isEmpty()) {
+			throw new IllegalArgumentException("Rule without source path: \"" + source + "\"");
+		}
+		Node node = root;
+		for (String segment : segments) {
+			node = node.children.computeIfAbsent(segment, s -> new Node());
+		}
+		if (node.target == null) {
+			ruleCount++;
+		}
+		node.target = toUrlPrefix(target);
+	}
+
+	/**
+	 * Adds a rule written as <code>source=target</code>, see {@link #addRule(String, String)}. The rule is split at
+	 * the first <code>=</code>.
+	 * 
+	 * @param rule
+	 *            the rule
+	 * @throws IllegalArgumentException
+	 *             if the rule is malformed
+	 */
+	public void addRule(final String rule) {
+		int separator = rule.indexOf(RULE_SEPARATOR);
+		if (separator < 0) {
+			throw new IllegalArgumentException("Rule must have the form source" + RULE_SEPARATOR + "target: \""
+					+ rule + "\"");
+		}
+		addRule(rule.substring(0, separator).trim(), rule.substring(separator + 1).trim());
+	}
+
+	/**
+	 * Adds the rules of a file, one per line as <code>source=target</code> (see {@link #addRule(String)}). Empty
+	 * lines and lines starting with <code>#</code> are ignored.
+	 * 
+	 * @param rulesFile
+	 *            the file, encoded in UTF-8
+	 * @throws IOException
+	 *             if the file cannot be read
+	 * @throws IllegalArgumentException
+	 *             if a rule is malformed
+	 */
+	public void addRules(final File rulesFile) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(rulesFile.toPath(), StandardCharsets.UTF_8)) {
+			int lineNumber = 0;
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				lineNumber++;
+				String trimmed = line.trim();
+				if (trimmed.isEmpty() || trimmed.startsWith(COMMENT)) {
+					continue;
+				}
+				try {
+					addRule(trimmed);
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(rulesFile + ", line " + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+		}
+	}
+
+	/** @return the number of rules */
+	public int getRuleCount() {
+		return ruleCount;
+	}
+
+	/**
+	 * Applies the rule with the longest source matching the beginning of a URL.
+	 * 
+	 * @param contentUrl
+	 *            a songbird content URL
+	 * @return the rewritten URL or <code>contentUrl</code> itself if no rule matches or it is not a file URL
+	 */
+	public String rewrite(final String contentUrl) {
+		int pathStart = findPathStart(contentUrl);
+		if (pathStart < 0) {
+			return contentUrl;
+		}
+		Node node = root;
+		String target = null;
+		int matchEnd = -1;
+		int segmentStart = pathStart;
+		int end = findPathEnd(contentUrl, pathStart);
+		while (segmentStart < end) {
+			int segmentEnd = contentUrl.indexOf('/', segmentStart);
+			if (segmentEnd < 0 || segmentEnd > end) {
+				segmentEnd = end;
+			}
+			if (segmentEnd > segmentStart) {
+				node = node.children.get(toKey(decodeSegment(contentUrl, segmentStart, segmentEnd), node == root));
+				if (node == null) {
+					break;
+				}
+				if (node.target != null) {
+					target = node.target;
+					matchEnd = segmentEnd;
+				}
+			}
+			segmentStart = segmentEnd + 1;
+		}
+		return target != null ? target + contentUrl.substring(matchEnd) : contentUrl;
+	}
+
+	/**
+	 * Applies {@link #rewrite(String)} to several URLs.
+	 * 
+	 * @param contentUrls
+	 *            songbird content URLs
+	 * @return the rewritten URLs, in the same order
+	 */
+	public List<String> rewrite(final List<String> contentUrls) {
+		if (ruleCount == 0) {
+			return contentUrls;
+		}
+		List<String> rewritten = new ArrayList<String>(contentUrls.size());
+		for (String contentUrl : contentUrls) {
+			rewritten.add(rewrite(contentUrl));
+		}
+		return rewritten;
+	}
+
+	@Override
+	public String toString() {
+		return "ContentUrlRewriter [rules=" + ruleCount + "]";
+	}
+
+	/**
+	 * Splits the source of a rule into the segments stored in the trie.
+	 * 
+	 * @param source
+	 *            a file URL or a path
+	 * @return the decoded segments
+	 * @throws IllegalArgumentException
+	 *             if a URL contains an invalid escape sequence
+	 */
+	private static List<String> toSegments(final String source) {
+		List<String> segments = new ArrayList<String>();
+		boolean url = findPathStart(source) >= 0;
+		String path = url ? source : source.replace('\\', '/');
+		int pathStart = url ? findPathStart(path) : 0;
+		int end = url ? findPathEnd(path, pathStart) : path.length();
+		int segmentStart = pathStart;
+		while (segmentStart < end) {
+			int segmentEnd = path.indexOf('/', segmentStart);
+			if (segmentEnd < 0 || segmentEnd > end) {
+				segmentEnd = end;
+			}
+			if (segmentEnd > segmentStart) {
+				String segment;
+				try {
+					segment = url ? ContentUrlDecoder.decode(path, segmentStart, segmentEnd) : path.substring(
+							segmentStart, segmentEnd);
+				} catch (URISyntaxException e) {
+					throw new IllegalArgumentException(e.getMessage(), e);
+				}
+				segments.add(toKey(segment, segments.isEmpty()));
+			}
+			segmentStart = segmentEnd + 1;
+		}
+		return segments;
+	}
+
+	/**
+	 * Converts the target of a rule to the beginning of a file URL.
+	 * 
+	 * @param target
+	 *            a file URL or a path of the local file system
+	 * @return the encoded URL without trailing slash
+	 */
+	private static String toUrlPrefix(final String target) {
+		String url;
+		if (target.regionMatches(true, 0, FILE_SCHEME, 0, FILE_SCHEME.length())) {
+			url = target;
+		} else {
+			// Like songbird, escape non-ASCII characters
+			url = FILE_SCHEME + "//" + new File(target).getAbsoluteFile().toURI().toASCIIString().substring(
+					FILE_SCHEME.length());
+		}
+		while (url.endsWith("/")) {
+			url = url.substring(0, url.length() - 1);
+		}
+		return url;
+	}
+
+	/**
+	 * @param contentUrl
+	 *            a URL
+	 * @return the index after the scheme of a file URL, <code>-1</code> if <code>contentUrl</code> is not a file URL.
+	 *         An authority (e.g. <code>file://server/share</code>) is treated as first segment of the path.
+	 */
+	private static int findPathStart(final String contentUrl) {
+		if (!contentUrl.regionMatches(true, 0, FILE_SCHEME, 0, FILE_SCHEME.length())) {
+			return -1;
+		}
+		return FILE_SCHEME.length();
+	}
+
+	/**
+	 * @param contentUrl
+	 *            a URL
+	 * @param pathStart
+	 *            the start of its path
+	 * @return the end of the path, i.e. the start of the query or fragment or the end of the URL
+	 */
+	private static int findPathEnd(final String contentUrl, final int pathStart) {
+		for (int i = pathStart; i < contentUrl.length(); i++) {
+			char c = contentUrl.charAt(i);
+			if (c == '?' || c == '#') {
+				return i;
+			}
+		}
+		return contentUrl.length();
+	}
+
+	/**
+	 * @param contentUrl
+	 *            a URL
+	 * @param begin
+	 *            start of the segment, inclusive
+	 * @param end
+	 *            end of the segment, exclusive
+	 * @return the decoded segment. Segments that cannot be decoded are returned as they are.
+	 */
+	private static String decodeSegment(final String contentUrl, final int begin, final int end) {
+		try {
+			return ContentUrlDecoder.decode(contentUrl, begin, end);
+		} catch (URISyntaxException e) {
+			return contentUrl.substring(begin, end);
+		}
+	}
+
+	/**
+	 * @param segment
+	 *            a decoded segment
+	 * @param first
+	 *            is this the first segment of the path?
+	 * @return the segment as stored in the trie, i.e. drive letters (e.g. <code>c:</code>) in upper case
+	 */
+	private static String toKey(final String segment, final boolean first) {
+		if (first && segment.length() == 2 && segment.charAt(1) == ':' && Character.isLetter(segment.charAt(0))) {
+			return segment.toUpperCase(Locale.ROOT);
+		}
+		return segment;
+	}
+
+	/**
+	 * A node of the trie, representing a path prefix.
+	 */
+	private static final class Node {
+		/** The nodes of the prefixes that are one segment longer, by segment. */
+		private final Map<String, Node> children = new HashMap<String, Node>(4);
+		/** The URL prefix this prefix is rewritten to, <code>null</code> if no rule ends here. */
+		private String target = null;
+	}
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache.FileStatus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the status of many files through a {@link FileStatusCache}, keeping a configurable number of file system
+ * checks in flight on a dedicated I/O thread pool. On network drives each check is a round trip, so overlapping them
+ * hides most of the latency. The results are always returned in the order of the input.
+ * 
+ * With one check in flight, all checks are done by the calling thread and no pool is created.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class FileStatusBatchReader implements AutoCloseable {
+	/** The cache used for the lookups. */
+	private final FileStatusCache cache;
+	/** Maximum number of checks in flight per batch. */
+	private final int checksInFlight;
+	/** Runs the checks, <code>null</code> if {@link #checksInFlight} is one. */
+	private final ExecutorService executor;
+
+	/**
+	 * Creates a reader. If <code>checksInFlight</code> is greater than one, a pool of that many daemon threads is
+	 * created, which is shut down by {@link #close()}.
+	 * 
+	 * @param cache
+	 *            the cache used for the lookups
+	 * @param checksInFlight
+	 *            maximum number of checks in flight per batch. Values less than one are treated as one.
+	 */
+	public FileStatusBatchReader(final FileStatusCache cache, final int checksInFlight) {
+		this.cache = cache;
+		this.checksInFlight = Math.max(1, checksInFlight);
+		if (this.checksInFlight > 1) {
+			executor = ThreadUtils.newFixedThreadPool(this.checksInFlight, "file-status");
+		} else {
+			executor = null;
+		}
+	}
+
+	/**
+	 * Looks up the status of files by their URL (see {@link FileStatusCache#getByUrl(String)}). Can be called by
+	 * several threads concurrently, each batch keeps at most {@link #checksInFlight} checks in flight.
+	 * 
+	 * @param contentUrls
+	 *            the URLs of the files
+	 * @return one result per URL, in the same order. Each contains the time spent on it (see
+	 *         {@link Lookup#getNanos()}), as it might have been spent on another thread.
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting for a check
+	 */
+	public List<Lookup> readByUrl(final List<String> contentUrls) throws InterruptedException {
+		List<Lookup> lookups = new ArrayList<Lookup>(contentUrls.size());
+		if (executor == null) {
+			for (String contentUrl : contentUrls) {
+				lookups.add(lookup(contentUrl));
+			}
+			return lookups;
+		}
+
+		Deque<Future<Lookup>> inFlight = new ArrayDeque<Future<Lookup>>(checksInFlight);
+		try {
+			for (String contentUrl : contentUrls) {
+				if (inFlight.size() == checksInFlight) {
+					lookups.add(get(inFlight.removeFirst()));
+				}
+				inFlight.addLast(executor.submit(() -> lookup(contentUrl)));
+			}
+			while (!inFlight.isEmpty()) {
+				lookups.add(get(inFlight.removeFirst()));
+			}
+		} finally {
+			for (Future<Lookup> future : inFlight) {
+				future.cancel(true);
+			}
+		}
+		return lookups;
+	}
+
+	/** Shuts down the I/O threads, if any. */
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Looks up a single URL, catching any exception.
+	 * 
+	 * @param contentUrl
+	 *            the URL of the file
+	 * @return the result of the lookup
+	 */
+	private Lookup lookup(final String contentUrl) {
+		long start = System.nanoTime();
+		try {
+			FileStatus status = cache.getByUrl(contentUrl);
+			return new Lookup(contentUrl, status, null, System.nanoTime() - start);
+		} catch (Exception e) {
+			return new Lookup(contentUrl, null, e, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Waits for a lookup. {@link #lookup(String)} does not throw, so failures are unexpected and wrapped.
+	 * 
+	 * @param future
+	 *            the lookup
+	 * @return the result of the lookup
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting
+	 */
+	private static Lookup get(final Future<Lookup> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Unexpected error reading file status", e.getCause());
+		}
+	}
+
+	/**
+	 * Result of looking up a single file: Either its status or the exception that made the lookup fail.
+	 * 
+	 * @author schnatterer
+	 * 
+	 */
+	public static final class Lookup {
+		/** The URL that was looked up. */
+		private final String contentUrl;
+		/** The status or <code>null</code> if the lookup failed. */
+		private final FileStatus status;
+		/** The reason the lookup failed or <code>null</code> if it succeeded. */
+		private final Exception exception;
+		/** Time spent on the lookup by the thread that did it, in nanoseconds. */
+		private final long nanos;
+
+		/**
+		 * @param contentUrl
+		 *            the URL that was looked up
+		 * @param status
+		 *            the status or <code>null</code> if the lookup failed
+		 * @param exception
+		 *            the reason the lookup failed or <code>null</code> if it succeeded
+		 * @param nanos
+		 *            time spent on the lookup by the thread that did it, in nanoseconds
+		 */
+		Lookup(final String contentUrl, final FileStatus status, final Exception exception, final long nanos) {
+			this.contentUrl = contentUrl;
+			this.status = status;
+			this.exception = exception;
+			this.nanos = nanos;
+		}
+
+		/** @return the URL that was looked up */
+		public String getContentUrl() {
+			return contentUrl;
+		}
+
+		/** @return the status or <code>null</code> if the lookup failed */
+		public FileStatus getStatus() {
+			return status;
+		}
+
+		/** @return the reason the lookup failed or <code>null</code> if it succeeded */
+		public Exception getException() {
+			return exception;
+		}
+
+		/**
+		 * @return time spent on the lookup in nanoseconds, i.e. decoding the URL and reading the status unless it was
+		 *         cached. Measured on the thread that did the lookup, which is not necessarily the calling thread.
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+	}
+}
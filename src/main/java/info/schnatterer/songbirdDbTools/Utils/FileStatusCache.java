@@ -0,0 +1,378 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the canonical form and the status (exists, file, directory) of paths, so each distinct file is only read
+ * from the file system once. Meant to be shared across all playlists of one export run, as the same track usually
+ * appears in several playlists.
+ * 
+ * The cache is bounded: If the status of more than <code>maxEntries</code> distinct files is stored, the least
+ * recently used files are evicted. A file can be looked up by several keys (e.g. its content URL and its canonical
+ * path), which all count as a single entry. It's thread safe. File system access is done outside of the lock, so
+ * concurrent lookups of the same uncached path might both hit the file system.
+ * 
+ * Paths are canonicalized using a {@link ContentUrlDecoder}, which caches the canonical directories. So reading the
+ * status of an uncached file usually takes a single <code>lstat</code> call.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class FileStatusCache {
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(FileStatusCache.class);
+
+	/** Default maximum number of distinct files whose status is stored. */
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	/** Initial capacity of the map. */
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Load factor of the map. */
+	private static final float LOAD_FACTOR = 0.75f;
+
+	/** Canonical path to entry, in access order. Determines which files are evicted. Guarded by {@link #keys}. */
+	private final Map<String, CacheEntry> entries;
+	/** Path, content URL or canonical path to entry. Guarded by itself. */
+	private final Map<String, CacheEntry> keys = new HashMap<String, CacheEntry>(INITIAL_CAPACITY);
+	/** Number of lookups that were answered from the cache. */
+	private final AtomicLong hits = new AtomicLong();
+	/** Number of lookups that had to access the file system. */
+	private final AtomicLong misses = new AtomicLong();
+	/** Decodes content URLs and caches the canonical directories of the files. */
+	private final ContentUrlDecoder decoder = new ContentUrlDecoder();
+	/** Time the current thread spent in lookups, in nanoseconds. */
+	private final ThreadLocal<long[]> threadLookupNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+	/** Creates a cache with {@link #DEFAULT_MAX_ENTRIES}. */
+	public FileStatusCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param maxEntries
+	 *            the maximum number of distinct files whose status is stored in the cache
+	 */
+	public FileStatusCache(final int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Max entries must be positive: " + maxEntries);
+		}
+		entries = new LinkedHashMap<String, CacheEntry>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Entry<String, CacheEntry> eldest) {
+				if (size() <= maxEntries) {
+					return false;
+				}
+				for (String key : eldest.getValue().keys) {
+					keys.remove(key);
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns the status of the file a songbird content URL (e.g. <code>file:///music/a.mp3</code>) points to.
+	 * 
+	 * The status is also cached by its canonical path, so a subsequent {@link #getByPath(String)} with the canonical
+	 * path does not access the file system.
+	 * 
+	 * @param contentUrl
+	 *            the URL of the file
+	 * @return the status of the file, never <code>null</code>
+	 * @throws URISyntaxException
+	 *             if <code>contentUrl</code> is not a valid URI
+	 * @throws IOException
+	 *             if the file cannot be canonicalized
+	 * @throws IllegalArgumentException
+	 *             if <code>contentUrl</code> cannot be converted to a file (e.g. if it is not a file URI)
+	 */
+	public FileStatus getByUrl(final String contentUrl) throws URISyntaxException, IOException {
+		long start = System.nanoTime();
+		try {
+			FileStatus status = lookup(contentUrl);
+			if (status == null) {
+				status = FileStatus.read(decoder.toResolvedFile(contentUrl));
+				store(contentUrl, status);
+			}
+			return status;
+		} finally {
+			threadLookupNanos.get()[0] += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Returns the status of the file a path points to.
+	 * 
+	 * @param path
+	 *            the path of the file
+	 * @return the status of the file, never <code>null</code>
+	 * @throws IOException
+	 *             if the file cannot be canonicalized
+	 */
+	public FileStatus getByPath(final String path) throws IOException {
+		long start = System.nanoTime();
+		try {
+			FileStatus status = lookup(path);
+			if (status == null) {
+				status = FileStatus.read(decoder.resolve(new File(path)));
+				store(path, status);
+			}
+			return status;
+		} finally {
+			threadLookupNanos.get()[0] += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Looks up a key and counts the hit or miss.
+	 * 
+	 * @param key
+	 *            the key to look up
+	 * @return the cached status or <code>null</code>
+	 */
+	private FileStatus lookup(final String key) {
+		CacheEntry entry;
+		synchronized (keys) {
+			entry = keys.get(key);
+			if (entry != null) {
+				// Mark the file as recently used
+				entries.get(entry.status.getCanonicalFile().getPath());
+			}
+		}
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return entry.status;
+	}
+
+	/**
+	 * Stores a status by its key and by its canonical path. If the file is already stored (e.g. by another key), the
+	 * key is added to its entry, so it still counts as a single file.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param status
+	 *            the status to store
+	 */
+	private void store(final String key, final FileStatus status) {
+		String canonicalPath = status.getCanonicalFile().getPath();
+		synchronized (keys) {
+			CacheEntry entry = entries.get(canonicalPath);
+			if (entry == null) {
+				entry = new CacheEntry(status);
+				entry.addKey(canonicalPath);
+				keys.put(canonicalPath, entry);
+				entries.put(canonicalPath, entry);
+			}
+			CacheEntry previous = keys.put(key, entry);
+			if (previous != entry) {
+				if (previous != null) {
+					// The key points to another file now, e.g. a symbolic link was changed
+					previous.keys.remove(key);
+				}
+				entry.addKey(key);
+			}
+		}
+	}
+
+	/** @return the number of lookups that were answered from the cache */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** @return the number of lookups that had to access the file system */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the time the calling thread spent in lookups of this cache so far. Use the difference of two calls to
+	 * find out how much of an operation was spent on file status checks.
+	 * 
+	 * @return the time in nanoseconds
+	 */
+	public long getCurrentThreadLookupNanos() {
+		return threadLookupNanos.get()[0];
+	}
+
+	/** @return the number of distinct files whose status is currently stored */
+	public int size() {
+		synchronized (keys) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FileStatusCache [size=" + size() + ", directories=" + decoder.getDirectoryCount() + ", hits="
+				+ getHits() + ", misses=" + getMisses() + "]";
+	}
+
+	/**
+	 * The status of a file together with all keys it is stored by, so they can be removed when it is evicted.
+	 */
+	private static final class CacheEntry {
+		/** The status of the file. */
+		private final FileStatus status;
+		/** The keys the status is stored by, usually one or two. Guarded by {@link FileStatusCache#keys}. */
+		private final List<String> keys = new ArrayList<String>(2);
+
+		/**
+		 * @param status
+		 *            the status of the file
+		 */
+		CacheEntry(final FileStatus status) {
+			this.status = status;
+		}
+
+		/**
+		 * @param key
+		 *            a key the status is stored by
+		 */
+		void addKey(final String key) {
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * Immutable status of a file at the time it was read.
+	 * 
+	 * @author schnatterer
+	 * 
+	 */
+	public static final class FileStatus {
+		/** The canonical file. */
+		private final File canonicalFile;
+		/** Does the file exist? */
+		private final boolean exists;
+		/** Is it a regular file? */
+		private final boolean file;
+		/** Is it a directory? */
+		private final boolean directory;
+
+		/**
+		 * Creates a status.
+		 * 
+		 * @param canonicalFile
+		 *            the canonical file
+		 * @param exists
+		 *            does the file exist?
+		 * @param file
+		 *            is it a regular file?
+		 * @param directory
+		 *            is it a directory?
+		 */
+		FileStatus(final File canonicalFile, final boolean exists, final boolean file, final boolean directory) {
+			this.canonicalFile = canonicalFile;
+			this.exists = exists;
+			this.file = file;
+			this.directory = directory;
+		}
+
+		/**
+		 * Reads the status of a file from the file system, using a single stat call for exists, file and directory.
+		 * Only if the file is a symbolic link, it is canonicalized and read again.
+		 * 
+		 * Like {@link File#exists()}, a file whose status cannot be read (e.g. because of missing permissions) is
+		 * treated as not existing.
+		 * 
+		 * @param resolvedFile
+		 *            the file to read, whose directory is already canonical (see {@link ContentUrlDecoder})
+		 * @return the status of <code>resolvedFile</code>
+		 * @throws IOException
+		 *             if the file cannot be canonicalized
+		 */
+		static FileStatus read(final File resolvedFile) throws IOException {
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(resolvedFile.toPath(), BasicFileAttributes.class,
+						LinkOption.NOFOLLOW_LINKS);
+			} catch (IOException e) {
+				return notExisting(resolvedFile, e);
+			}
+			if (!attributes.isSymbolicLink()) {
+				return new FileStatus(resolvedFile, true, attributes.isRegularFile(), attributes.isDirectory());
+			}
+			File canonicalFile = resolvedFile.getCanonicalFile();
+			try {
+				attributes = Files.readAttributes(canonicalFile.toPath(), BasicFileAttributes.class);
+			} catch (IOException e) {
+				return notExisting(canonicalFile, e);
+			}
+			return new FileStatus(canonicalFile, true, attributes.isRegularFile(), attributes.isDirectory());
+		}
+
+		/**
+		 * Creates the status of a file that does not exist or whose status could not be read.
+		 * 
+		 * @param canonicalFile
+		 *            the canonical file
+		 * @param e
+		 *            the exception that occurred when reading the status
+		 * @return a status that does not exist
+		 */
+		private static FileStatus notExisting(final File canonicalFile, final IOException e) {
+			if (!(e instanceof NoSuchFileException)) {
+				logger.debug("Unable to read status of " + canonicalFile + ". Treating it as not existing", e);
+			}
+			return new FileStatus(canonicalFile, false, false, false);
+		}
+
+		/** @return the canonical file */
+		public File getCanonicalFile() {
+			return canonicalFile;
+		}
+
+		/** @return <code>true</code> if the file exists */
+		public boolean exists() {
+			return exists;
+		}
+
+		/** @return <code>true</code> if the file is a regular file */
+		public boolean isFile() {
+			return file;
+		}
+
+		/** @return <code>true</code> if the file is a directory */
+		public boolean isDirectory() {
+			return directory;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+/**
+ * Utility class containing methods formatting values for the machine readable reports (JSON and CSV).
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class FormatUtils {
+	/** Don't instantiate utility classes! */
+	private FormatUtils() {
+	}
+
+	/**
+	 * Formats a JSON string.
+	 * 
+	 * @param value
+	 *            the value, may be <code>null</code>
+	 * @return the quoted and escaped string or <code>null</code>
+	 */
+	public static String json(final String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder escaped = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				escaped.append('\\').append(c);
+			} else if (c < ' ') {
+				escaped.append(String.format("\\u%04x", (int) c));
+			} else {
+				escaped.append(c);
+			}
+		}
+		return escaped.append('"').toString();
+	}
+
+	/**
+	 * Formats a CSV field (RFC 4180), quoting it if necessary.
+	 * 
+	 * @param value
+	 *            the value, may be <code>null</code>
+	 * @return the field, empty for <code>null</code>
+	 */
+	public static String csv(final String value) {
+		if (value == null) {
+			return "";
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+}
@@ -16,6 +16,9 @@
 package info.schnatterer.songbirdDbTools.Utils;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
@@ -74,6 +77,8 @@ public final class ResourceUtils {
 	 * Get the relative path from one file to another, specifying the directory separator. If one of the provided
 	 * resources does not exist, it is assumed to be a file unless it ends with '/' or '\'.
 	 * 
+	 * When relativizing a lot of paths to the same base, use a {@link Relativizer} instead.
+	 * 
 	 * @param targetPath
 	 *            targetPath is calculated to this file
 	 * @param basePath
@@ -87,87 +92,7 @@ public final class ResourceUtils {
 	 *         -path-in-java-from-two-absolute-paths-or-urls
 	 */
 	public static String getRelativePath(final String basePath, final String targetPath, final String pathSeparator) {
-
-		// Normalize the paths
-		String normalizedTargetPath = FilenameUtils.normalizeNoEndSeparator(targetPath);
-		String normalizedBasePath = FilenameUtils.normalizeNoEndSeparator(basePath);
-
-		// Undo the changes to the separators made by normalization
-		if (pathSeparator.equals("/")) {
-			normalizedTargetPath = FilenameUtils.separatorsToUnix(normalizedTargetPath);
-			normalizedBasePath = FilenameUtils.separatorsToUnix(normalizedBasePath);
-
-		} else if (pathSeparator.equals("\\")) {
-			normalizedTargetPath = FilenameUtils.separatorsToWindows(normalizedTargetPath);
-			normalizedBasePath = FilenameUtils.separatorsToWindows(normalizedBasePath);
-
-		} else {
-			throw new IllegalArgumentException("Unrecognised dir separator '" + pathSeparator + "'");
-		}
-
-		String[] base = normalizedBasePath.split(Pattern.quote(pathSeparator));
-		String[] target = normalizedTargetPath.split(Pattern.quote(pathSeparator));
-
-		// First get all the common elements. Store them as a string,
-		// and also count how many of them there are.
-		StringBuffer common = new StringBuffer();
-
-		int commonIndex = 0;
-		while (commonIndex < target.length && commonIndex < base.length
-				&& target[commonIndex].equals(base[commonIndex])) {
-			common.append(target[commonIndex] + pathSeparator);
-			commonIndex++;
-		}
-
-		if (commonIndex == 0) {
-			// No single common path element. This most
-			// likely indicates differing drive letters, like C: and D:.
-			// These paths cannot be relativized.
-			throw new PathResolutionException("No common path element found for '" + normalizedTargetPath + "' and '"
-					+ normalizedBasePath + "'");
-		}
-
-		// The number of directories we have to backtrack depends on whether the
-		// base is a file or a dir
-		// For example, the relative path from
-		//
-		// /foo/bar/baz/gg/ff to /foo/bar/baz
-		//
-		// ".." if ff is a file
-		// "../.." if ff is a directory
-		//
-		// The following is a heuristic to figure out if the base refers to a
-		// file or dir. It's not perfect, because
-		// the resource referred to by this path may not actually exist, but
-		// it's the best I can do
-		boolean baseIsFile = true;
-
-		File baseResource = new File(normalizedBasePath);
-
-		if (baseResource.exists()) {
-			baseIsFile = baseResource.isFile();
-
-		} else if (basePath.endsWith(pathSeparator)) {
-			baseIsFile = false;
-		}
-
-		StringBuffer relative = new StringBuffer();
-
-		if (base.length != commonIndex) {
-
-			int numDirsUp;
-			if (baseIsFile) {
-				numDirsUp = base.length - commonIndex - 1;
-			} else {
-				numDirsUp = base.length - commonIndex;
-			}
-
-			for (int i = 0; i < numDirsUp; i++) {
-				relative.append(".." + pathSeparator);
-			}
-		}
-		relative.append(normalizedTargetPath.substring(common.length()));
-		return relative.toString();
+		return new Relativizer(basePath, pathSeparator).relativize(targetPath);
 	}
 
 	/**
@@ -205,6 +130,282 @@ public final class ResourceUtils {
 		return legalFileName;
 	}
 
+	/**
+	 * Returns the path elements under which a copy of a file is stored, mirroring the path of the file: The path
+	 * relative to a source root or the absolute path with the root converted to a folder (e.g. <code>C</code> for
+	 * <code>C:\</code>). Characters that are illegal in file names on some file systems are replaced.
+	 * 
+	 * @param sourcePath
+	 *            the absolute path of the file
+	 * @param sourceRoot
+	 *            the absolute path of the source root or <code>null</code> to mirror the absolute path
+	 * @return the legal file names of the path elements, starting at the top
+	 */
+	public static List<String> getMirroredPathElements(final String sourcePath, final String sourceRoot) {
+		String relativePath;
+		if (sourceRoot != null && sourcePath.startsWith(sourceRoot + File.separator)) {
+			relativePath = sourcePath.substring(sourceRoot.length() + 1);
+		} else {
+			Path path = new File(sourcePath).toPath();
+			Path root = path.getRoot();
+			relativePath = root != null ? root.relativize(path).toString() : path.toString();
+			String rootFolder = root != null ? root.toString().replaceAll("[:\\\\/]", "") : "";
+			if (!rootFolder.isEmpty()) {
+				relativePath = rootFolder + File.separator + relativePath;
+			}
+		}
+		List<String> elements = new ArrayList<String>();
+		for (String element : relativePath.split(Pattern.quote(File.separator))) {
+			if (!element.isEmpty()) {
+				elements.add(isLegalFilename(element) ? element : legalizeFileName(element));
+			}
+		}
+		return elements;
+	}
+
+	/**
+	 * Calculates paths relative to a fixed base path. The base path is normalized, tokenized and checked for being a
+	 * file or directory only once, when the relativizer is created. Relativizing a target does not access the file
+	 * system and, for normalized targets (e.g. canonical paths), does not copy or split the target.
+	 * 
+	 * The results are the same as the ones of {@link ResourceUtils#getRelativePath(String, String, String)}.
+	 * 
+	 * Instances are immutable and therefore thread safe.
+	 * 
+	 * @author schnatterer
+	 * 
+	 */
+	public static final class Relativizer {
+		/** The directory separator. */
+		private final String pathSeparator;
+		/** The directory separator as char. */
+		private final char separatorChar;
+		/** The separator that is replaced by {@link #separatorChar} during normalization. */
+		private final char otherSeparatorChar;
+		/** The normalized base path. */
+		private final String normalizedBasePath;
+		/** The elements of {@link #normalizedBasePath}. */
+		private final String[] base;
+		/** Heuristic: Does the base path denote a file (or a directory)? */
+		private final boolean baseIsFile;
+
+		/**
+		 * Creates a relativizer for paths relative to a file, using the system-dependent default file separator.
+		 * 
+		 * @param base
+		 *            paths are relativized to this file
+		 */
+		public Relativizer(final File base) {
+			this(base.getAbsolutePath(), File.separator);
+		}
+
+		/**
+		 * Creates a relativizer. If the base path does not exist, it is assumed to be a file unless it ends with the
+		 * path separator.
+		 * 
+		 * @param basePath
+		 *            paths are relativized to this path
+		 * @param pathSeparator
+		 *            directory separator, '/' or '\'. The platform default is not assumed so that we can test Unix
+		 *            behavior when running on Windows (for example)
+		 */
+		public Relativizer(final String basePath, final String pathSeparator) {
+			if (pathSeparator.equals("/")) {
+				otherSeparatorChar = '\\';
+			} else if (pathSeparator.equals("\\")) {
+				otherSeparatorChar = '/';
+			} else {
+				throw new IllegalArgumentException("Unrecognised dir separator '" + pathSeparator + "'");
+			}
+			this.pathSeparator = pathSeparator;
+			this.separatorChar = pathSeparator.charAt(0);
+			this.normalizedBasePath = normalize(basePath);
+			this.base = split(normalizedBasePath);
+
+			// The number of directories we have to backtrack depends on whether the
+			// base is a file or a dir
+			// For example, the relative path from
+			//
+			// /foo/bar/baz/gg/ff to /foo/bar/baz
+			//
+			// ".." if ff is a file
+			// "../.." if ff is a directory
+			//
+			// The following is a heuristic to figure out if the base refers to a
+			// file or dir. It's not perfect, because
+			// the resource referred to by this path may not actually exist, but
+			// it's the best I can do
+			File baseResource = new File(normalizedBasePath);
+			if (baseResource.exists()) {
+				baseIsFile = baseResource.isFile();
+			} else {
+				baseIsFile = !basePath.endsWith(pathSeparator);
+			}
+		}
+
+		/**
+		 * Get the relative path from the base path to another path.
+		 * 
+		 * @param targetPath
+		 *            targetPath is calculated to this file
+		 * @return <code>targetPath</code> relativized to the base path
+		 * @throws PathResolutionException
+		 *             if the paths don't have a common element (e.g. differing drive letters)
+		 */
+		public String relativize(final String targetPath) {
+			String normalizedTargetPath = isNormalized(targetPath) ? targetPath : normalize(targetPath);
+
+			// First get all the common elements. Count how many of them there are and how long they are.
+			int end = endOfLastElement(normalizedTargetPath);
+			int commonIndex = 0;
+			int commonLength = 0;
+			int elementStart = 0;
+			while (commonIndex < base.length && elementStart <= end) {
+				int elementEnd = normalizedTargetPath.indexOf(separatorChar, elementStart);
+				if (elementEnd < 0 || elementEnd > end) {
+					elementEnd = end;
+				}
+				String baseElement = base[commonIndex];
+				if (elementEnd - elementStart != baseElement.length()
+						|| !normalizedTargetPath.regionMatches(elementStart, baseElement, 0, baseElement.length())) {
+					break;
+				}
+				commonIndex++;
+				commonLength += baseElement.length() + pathSeparator.length();
+				elementStart = elementEnd + 1;
+				if (elementEnd == end) {
+					break;
+				}
+			}
+
+			if (commonIndex == 0) {
+				// No single common path element. This most
+				// likely indicates differing drive letters, like C: and D:.
+				// These paths cannot be relativized.
+				throw new PathResolutionException("No common path element found for '" + normalizedTargetPath
+						+ "' and '" + normalizedBasePath + "'");
+			}
+
+			StringBuilder relative = new StringBuilder();
+			if (base.length != commonIndex) {
+				int numDirsUp;
+				if (baseIsFile) {
+					numDirsUp = base.length - commonIndex - 1;
+				} else {
+					numDirsUp = base.length - commonIndex;
+				}
+
+				for (int i = 0; i < numDirsUp; i++) {
+					relative.append("..").append(pathSeparator);
+				}
+			}
+			relative.append(normalizedTargetPath, commonLength, normalizedTargetPath.length());
+			return relative.toString();
+		}
+
+		/**
+		 * Normalizes a path and converts it to {@link #pathSeparator}.
+		 * 
+		 * @param path
+		 *            the path to normalize
+		 * @return the normalized path
+		 */
+		private String normalize(final String path) {
+			String normalizedPath = FilenameUtils.normalizeNoEndSeparator(path);
+			// Undo the changes to the separators made by normalization
+			if (separatorChar == '/') {
+				return FilenameUtils.separatorsToUnix(normalizedPath);
+			}
+			return FilenameUtils.separatorsToWindows(normalizedPath);
+		}
+
+		/**
+		 * Conservatively checks if normalizing a path would not change it, so normalization can be skipped. This is
+		 * the case for canonical paths.
+		 * 
+		 * @param path
+		 *            the path to check
+		 * @return <code>true</code> if the path is known to be normalized, <code>false</code> if it might not be.
+		 */
+		private boolean isNormalized(final String path) {
+			int length = path.length();
+			if (length == 0 || path.charAt(0) == '~' || path.charAt(length - 1) == separatorChar) {
+				return false;
+			}
+			if (length > 1 && path.charAt(1) == ':' && (length == 2 || path.charAt(2) != separatorChar)) {
+				// Drive relative path, e.g. "C:foo"
+				return false;
+			}
+			int elementStart = 0;
+			for (int i = 0; i <= length; i++) {
+				char c = i < length ? path.charAt(i) : separatorChar;
+				if (c == otherSeparatorChar) {
+					return false;
+				}
+				if (c == separatorChar) {
+					int elementLength = i - elementStart;
+					// Empty elements (double separators) are only allowed at the very beginning (root)
+					if (elementLength == 0 && i > 0
+							|| elementLength == 1 && path.charAt(elementStart) == '.'
+							|| elementLength == 2 && path.charAt(elementStart) == '.'
+							&& path.charAt(elementStart + 1) == '.') {
+						return false;
+					}
+					elementStart = i + 1;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the end of the last element of a path, ignoring trailing separators.
+		 * 
+		 * @param path
+		 *            the path
+		 * @return the index after the last character that is not a separator. <code>-1</code> if the path consists
+		 *         of separators only.
+		 */
+		private int endOfLastElement(final String path) {
+			if (path.isEmpty()) {
+				return 0;
+			}
+			int end = path.length();
+			while (end > 0 && path.charAt(end - 1) == separatorChar) {
+				end--;
+			}
+			return end == 0 ? -1 : end;
+		}
+
+		/**
+		 * Splits a path into its elements without using a regular expression, just like
+		 * <code>path.split(Pattern.quote(pathSeparator))</code>: trailing empty elements are removed.
+		 * 
+		 * @param path
+		 *            the path to split
+		 * @return the elements
+		 */
+		private String[] split(final String path) {
+			int end = endOfLastElement(path);
+			if (end < 0) {
+				return new String[0];
+			}
+			List<String> elements = new ArrayList<String>();
+			int elementStart = 0;
+			while (true) {
+				int elementEnd = path.indexOf(separatorChar, elementStart);
+				if (elementEnd < 0 || elementEnd > end) {
+					elementEnd = end;
+				}
+				elements.add(path.substring(elementStart, elementEnd));
+				if (elementEnd == end) {
+					break;
+				}
+				elementStart = elementEnd + 1;
+			}
+			return elements.toArray(new String[elements.size()]);
+		}
+	}
+
 	/**
 	 * Exception thrown by {@link ResourceUtils#getRelativePath(String, String, String)}.
 	 * 
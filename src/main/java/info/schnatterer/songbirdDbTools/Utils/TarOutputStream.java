@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a tar archive (POSIX ustar format) to a stream, e.g. a {@link java.util.zip.GZIPOutputStream}. Only regular
+ * files are supported. Names that do not fit into the header are written as GNU long name entries, which are
+ * understood by GNU tar, bsdtar and most other implementations.
+ * 
+ * Usage:
+ * 
+ * <pre>
+ * try (TarOutputStream tar = new TarOutputStream(out)) {
+ * 	tar.putNextEntry(&quot;a/b.txt&quot;, size, lastModified);
+ * 	// write exactly size bytes
+ * 	tar.closeEntry();
+ * }
+ * </pre>
+ * 
+ * @author schnatterer
+ * 
+ */
+public class TarOutputStream extends FilterOutputStream {
+	/** Size of a tar block. Headers and contents are padded to full blocks. */
+	static final int BLOCK_SIZE = 512;
+
+	/** Length of the name field of the header. */
+	private static final int NAME_LENGTH = 100;
+	/** Offset of the mode field. */
+	private static final int MODE_OFFSET = 100;
+	/** Offset of the uid field. */
+	private static final int UID_OFFSET = 108;
+	/** Offset of the gid field. */
+	private static final int GID_OFFSET = 116;
+	/** Offset of the size field. */
+	private static final int SIZE_OFFSET = 124;
+	/** Length of the size and mtime fields. */
+	private static final int SIZE_LENGTH = 12;
+	/** Offset of the mtime field. */
+	private static final int MTIME_OFFSET = 136;
+	/** Offset of the checksum field. */
+	private static final int CHECKSUM_OFFSET = 148;
+	/** Length of the checksum field. */
+	private static final int CHECKSUM_LENGTH = 8;
+	/** Offset of the type flag. */
+	private static final int TYPE_OFFSET = 156;
+	/** Offset of the magic field, followed by the version. */
+	private static final int MAGIC_OFFSET = 257;
+	/** Length of the mode, uid and gid fields. */
+	private static final int ID_LENGTH = 8;
+	/** Largest size that can be written as octal number, larger sizes are written in base-256. */
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+	/** Type flag of a regular file. */
+	private static final byte TYPE_FILE = '0';
+	/** Type flag of a GNU long name entry, containing the name of the following entry. */
+	private static final byte TYPE_LONG_NAME = 'L';
+	/** Name of GNU long name entries. */
+	private static final String LONG_NAME = "././@LongLink";
+	/** Magic and version of ustar headers. */
+	private static final byte[] MAGIC = "ustar\00000".getBytes(StandardCharsets.US_ASCII);
+	/** Permissions of the entries. */
+	private static final int MODE = 0644;
+
+	/** Number of bytes that remain to be written to the current entry, <code>-1</code> if there is none. */
+	private long remaining = -1;
+	/** Number of bytes written to the current entry. */
+	private long written = 0;
+	/** Was {@link #finish()} called? */
+	private boolean finished = false;
+
+	/**
+	 * @param out
+	 *            the stream to write the archive to
+	 */
+	public TarOutputStream(final OutputStream out) {
+		super(out);
+	}
+
+	/**
+	 * Starts a new entry. Exactly <code>size</code> bytes have to be written before calling {@link #closeEntry()}.
+	 * 
+	 * @param name
+	 *            the path of the entry within the archive, separated by <code>/</code>
+	 * @param size
+	 *            the size of the entry in bytes
+	 * @param lastModified
+	 *            the modification time in milliseconds since the epoch
+	 * @throws IOException
+	 *             if writing fails or the previous entry was not closed
+	 */
+	public void putNextEntry(final String name, final long size, final long lastModified) throws IOException {
+		if (remaining >= 0) {
+			throw new IOException("Previous entry not closed");
+		}
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		if (nameBytes.length > NAME_LENGTH) {
+			byte[] longName = Arrays.copyOf(nameBytes, nameBytes.length + 1);
+			out.write(createHeader(LONG_NAME.getBytes(StandardCharsets.US_ASCII), longName.length, 0,
+					TYPE_LONG_NAME));
+			out.write(longName);
+			pad(longName.length);
+		}
+		out.write(createHeader(nameBytes, size, lastModified, TYPE_FILE));
+		remaining = size;
+		written = 0;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		checkRemaining(1);
+		out.write(b);
+		remaining--;
+		written++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		checkRemaining(len);
+		out.write(b, off, len);
+		remaining -= len;
+		written += len;
+	}
+
+	/**
+	 * Finishes the current entry.
+	 * 
+	 * @throws IOException
+	 *             if writing fails or fewer bytes than announced were written
+	 */
+	public void closeEntry() throws IOException {
+		if (remaining != 0) {
+			throw new IOException(remaining < 0 ? "No entry to close" : "Entry is missing " + remaining + " bytes");
+		}
+		pad(written);
+		remaining = -1;
+	}
+
+	/**
+	 * Writes the end of the archive without closing the underlying stream.
+	 * 
+	 * @throws IOException
+	 *             if writing fails or the current entry was not closed
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		if (remaining >= 0) {
+			throw new IOException("Last entry not closed");
+		}
+		out.write(new byte[2 * BLOCK_SIZE]);
+		out.flush();
+		finished = true;
+	}
+
+	/**
+	 * Writes the end of the archive, unless an entry is incomplete, and closes the underlying stream.
+	 * 
+	 * @throws IOException
+	 *             if writing or closing fails
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (remaining < 0) {
+				finish();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param length
+	 *            number of bytes about to be written
+	 * @throws IOException
+	 *             if there is no entry or writing <code>length</code> bytes would exceed its size
+	 */
+	private void checkRemaining(final int length) throws IOException {
+		if (remaining < length) {
+			throw new IOException(remaining < 0 ? "No current entry" : "Entry size exceeded");
+		}
+	}
+
+	/**
+	 * Pads data to a full block.
+	 * 
+	 * @param length
+	 *            number of bytes written
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private void pad(final long length) throws IOException {
+		int padding = (int) ((BLOCK_SIZE - length % BLOCK_SIZE) % BLOCK_SIZE);
+		if (padding > 0) {
+			out.write(new byte[padding]);
+		}
+	}
+
+	/**
+	 * @param nameBytes
+	 *            the encoded name, truncated if longer than the name field
+	 * @param size
+	 *            the size of the entry
+	 * @param lastModified
+	 *            the modification time in milliseconds
+	 * @param type
+	 *            the type flag
+	 * @return the header block
+	 */
+	private static byte[] createHeader(final byte[] nameBytes, final long size, final long lastModified,
+			final byte type) {
+		byte[] header = new byte[BLOCK_SIZE];
+		System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, NAME_LENGTH));
+		writeOctal(header, MODE_OFFSET, ID_LENGTH, MODE);
+		writeOctal(header, UID_OFFSET, ID_LENGTH, 0);
+		writeOctal(header, GID_OFFSET, ID_LENGTH, 0);
+		if (size <= MAX_OCTAL_SIZE) {
+			writeOctal(header, SIZE_OFFSET, SIZE_LENGTH, size);
+		} else {
+			// Base-256: Highest bit of the first byte set, big endian
+			header[SIZE_OFFSET] = (byte) 0x80;
+			for (int i = 0; i < Long.BYTES; i++) {
+				header[SIZE_OFFSET + SIZE_LENGTH - 1 - i] = (byte) (size >>> (Byte.SIZE * i));
+			}
+		}
+		writeOctal(header, MTIME_OFFSET, SIZE_LENGTH, Math.max(0, lastModified / 1000));
+		header[TYPE_OFFSET] = type;
+		System.arraycopy(MAGIC, 0, header, MAGIC_OFFSET, MAGIC.length);
+
+		// The checksum is calculated with the checksum field filled with spaces
+		Arrays.fill(header, CHECKSUM_OFFSET, CHECKSUM_OFFSET + CHECKSUM_LENGTH, (byte) ' ');
+		long checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xFF;
+		}
+		writeOctal(header, CHECKSUM_OFFSET, CHECKSUM_LENGTH - 1, checksum);
+		return header;
+	}
+
+	/**
+	 * Writes a number as zero padded octal number, terminated by a NUL.
+	 * 
+	 * @param header
+	 *            the header to write to
+	 * @param offset
+	 *            the offset of the field
+	 * @param length
+	 *            the length of the field, including the NUL
+	 * @param value
+	 *            the number
+	 */
+	private static void writeOctal(final byte[] header, final int offset, final int length, final long value) {
+		String octal = Long.toOctalString(value);
+		int digits = length - 1;
+		for (int i = 0; i < digits; i++) {
+			int digit = i - (digits - octal.length());
+			header[offset + i] = (byte) (digit >= 0 ? octal.charAt(digit) : '0');
+		}
+		header[offset + digits] = 0;
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utility class creating the thread pools used by the commands. All threads are named after their purpose and are
+ * daemons, so a pool that is not shut down does not keep the JVM alive.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class ThreadUtils {
+	/** Don't instantiate utility classes! */
+	private ThreadUtils() {
+	}
+
+	/**
+	 * Creates a thread factory that creates daemon threads named <code>namePrefix-1</code>,
+	 * <code>namePrefix-2</code>, etc.
+	 * 
+	 * @param namePrefix
+	 *            the prefix of the thread names
+	 * @return a new thread factory
+	 */
+	public static ThreadFactory daemonThreadFactory(final String namePrefix) {
+		AtomicInteger threadNumber = new AtomicInteger(1);
+		return runnable -> {
+			Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Creates a thread pool with a fixed number of daemon threads and an unbounded work queue.
+	 * 
+	 * @param nThreads
+	 *            number of threads
+	 * @param namePrefix
+	 *            the prefix of the thread names
+	 * @return a new executor
+	 */
+	public static ExecutorService newFixedThreadPool(final int nThreads, final String namePrefix) {
+		return Executors.newFixedThreadPool(nThreads, daemonThreadFactory(namePrefix));
+	}
+
+	/**
+	 * Creates a thread pool with a fixed number of daemon threads and a bounded work queue. If the queue is full, the
+	 * submitting thread runs the task itself. This way, the tasks are streamed to the pool instead of being queued all
+	 * at once.
+	 * 
+	 * @param nThreads
+	 *            number of threads
+	 * @param queueCapacity
+	 *            the maximum number of tasks waiting for a thread
+	 * @param namePrefix
+	 *            the prefix of the thread names
+	 * @return a new executor
+	 */
+	public static ExecutorService newBoundedThreadPool(final int nThreads, final int queueCapacity,
+			final String namePrefix) {
+		return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+				queueCapacity), daemonThreadFactory(namePrefix), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+}
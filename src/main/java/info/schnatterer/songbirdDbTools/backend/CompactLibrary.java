@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Compact, read-only in-memory model of the playlists of a songbird library. Instead of one object per media item and
+ * membership, the library is stored in a few arrays: Media item ids as <code>int[]</code>, content URLs and playlist
+ * names as string tables (identical strings are stored once) and the members of each playlist as <code>int[]</code>
+ * of indexes into the URL table, already in playlist order.
+ * 
+ * This takes a fraction of the heap of songbirdDbApi4j's domain objects and creates hardly any garbage while
+ * exporting. Load it using {@link #load(SongbirdDbReader)}. Thread safe, as it is immutable.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class CompactLibrary {
+	/** Initial capacity of the arrays used while loading. */
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Initial capacity of the member arrays of a playlist used while loading. */
+	private static final int INITIAL_MEMBERS = 16;
+
+	/** Media item ids of the tracks, ascending. */
+	private final int[] trackIds;
+	/** Content URLs of the tracks, same index as {@link #trackIds}. */
+	private final String[] trackUrls;
+	/** Media list ids of the playlists, sorted by name. */
+	private final long[] playlistIds;
+	/** Names of the playlists, same index as {@link #playlistIds}. */
+	private final String[] playlistNames;
+	/** Members of each playlist as indexes into {@link #trackUrls}, in playlist order. */
+	private final int[][] playlistMembers;
+	/** Is the playlist a smart (dynamic) list? Same index as {@link #playlistIds}. */
+	private final boolean[] playlistDynamic;
+
+	/**
+	 * @param trackIds
+	 *            media item ids of the tracks, ascending
+	 * @param trackUrls
+	 *            content URLs of the tracks
+	 * @param playlistIds
+	 *            media list ids of the playlists, sorted by name
+	 * @param playlistNames
+	 *            names of the playlists
+	 * @param playlistMembers
+	 *            members of each playlist as indexes into <code>trackUrls</code>, in playlist order
+	 * @param playlistDynamic
+	 *            is the playlist a smart (dynamic) list?
+	 */
+	private CompactLibrary(final int[] trackIds, final String[] trackUrls, final long[] playlistIds,
+			final String[] playlistNames, final int[][] playlistMembers, final boolean[] playlistDynamic) {
+		this.trackIds = trackIds;
+		this.trackUrls = trackUrls;
+		this.playlistIds = playlistIds;
+		this.playlistNames = playlistNames;
+		this.playlistMembers = playlistMembers;
+		this.playlistDynamic = playlistDynamic;
+	}
+
+	/**
+	 * Reads all tracks, playlists and memberships from the database in three queries.
+	 * 
+	 * @param dbReader
+	 *            the songbird database
+	 * @return the library
+	 * @throws SQLException
+	 *             if reading fails or the database contains media item ids that exceed the <code>int</code> range
+	 */
+	public static CompactLibrary load(final SongbirdDbReader dbReader) throws SQLException {
+		Map<String, String> strings = new HashMap<String, String>();
+
+		// Tracks, ordered by id
+		int[][] ids = { new int[INITIAL_CAPACITY] };
+		String[][] urls = { new String[INITIAL_CAPACITY] };
+		int[] trackCount = { 0 };
+		SQLException[] idOutOfRange = { null };
+		dbReader.readTracks((mediaItemId, guid, contentUrl) -> {
+			if (mediaItemId > Integer.MAX_VALUE || mediaItemId < Integer.MIN_VALUE) {
+				idOutOfRange[0] = new SQLException("Media item id exceeds int range: " + mediaItemId);
+				return;
+			}
+			if (trackCount[0] == ids[0].length) {
+				ids[0] = Arrays.copyOf(ids[0], trackCount[0] * 2);
+				urls[0] = Arrays.copyOf(urls[0], trackCount[0] * 2);
+			}
+			ids[0][trackCount[0]] = (int) mediaItemId;
+			urls[0][trackCount[0]] = strings.computeIfAbsent(contentUrl, url -> url);
+			trackCount[0]++;
+		});
+		if (idOutOfRange[0] != null) {
+			throw idOutOfRange[0];
+		}
+		int[] trackIds = Arrays.copyOf(ids[0], trackCount[0]);
+		String[] trackUrls = Arrays.copyOf(urls[0], trackCount[0]);
+
+		// Playlists, ordered by name like the database does
+		List<SongbirdPlaylist> playlists = dbReader.findPlaylists(null);
+		playlists.sort(
+				Comparator.comparing(SongbirdPlaylist::getName, Comparator.nullsFirst(Comparator.naturalOrder())));
+		long[] playlistIds = new long[playlists.size()];
+		String[] playlistNames = new String[playlists.size()];
+		boolean[] playlistDynamic = new boolean[playlists.size()];
+		Map<Long, Integer> playlistIndexes = new HashMap<Long, Integer>();
+		for (int i = 0; i < playlistIds.length; i++) {
+			playlistIds[i] = Long.parseLong(playlists.get(i).getId());
+			playlistNames[i] = strings.computeIfAbsent(playlists.get(i).getName(), name -> name);
+			playlistDynamic[i] = playlists.get(i).isDynamic();
+			playlistIndexes.put(playlistIds[i], i);
+		}
+
+		// Memberships, collected per playlist with their ordinal and sorted afterwards
+		MembershipCollector collector = new MembershipCollector(playlistIds.length);
+		dbReader.readMemberships((listId, mediaItemId, ordinal) -> {
+			Integer playlist = playlistIndexes.get(listId);
+			int track = Arrays.binarySearch(trackIds, (int) mediaItemId);
+			if (playlist != null && track >= 0 && mediaItemId == trackIds[track]) {
+				collector.add(playlist, track, strings.computeIfAbsent(ordinal, o -> o));
+			}
+		});
+		return new CompactLibrary(trackIds, trackUrls, playlistIds, playlistNames, collector.toMembers(),
+				playlistDynamic);
+	}
+
+	/**
+	 * Finds playlists, the same way {@link SongbirdDbReader#findPlaylists(Collection)} does.
+	 * 
+	 * @param names
+	 *            only return playlists with these names (compared trimmed and case insensitive). If <code>null</code>
+	 *            or empty, all playlists are returned, including the ones without a name.
+	 * @return the playlists ordered by name, the ones without a name (i.e. <code>null</code>) first
+	 */
+	public List<SongbirdPlaylist> findPlaylists(final Collection<String> names) {
+		Set<String> namesUpper = new HashSet<String>();
+		if (names != null) {
+			for (String name : names) {
+				namesUpper.add(name.trim().toUpperCase());
+			}
+		}
+		List<SongbirdPlaylist> playlists = new ArrayList<SongbirdPlaylist>();
+		for (int i = 0; i < playlistIds.length; i++) {
+			if (namesUpper.isEmpty()
+					|| (playlistNames[i] != null && namesUpper.contains(playlistNames[i].trim().toUpperCase()))) {
+				playlists.add(new CompactPlaylist(i));
+			}
+		}
+		return playlists;
+	}
+
+	/** @return the ids of all playlists in the library */
+	public Set<String> findPlaylistIds() {
+		Set<String> ids = new HashSet<String>();
+		for (long id : playlistIds) {
+			ids.add(String.valueOf(id));
+		}
+		return ids;
+	}
+
+	/** @return the number of tracks in the library */
+	public int getTrackCount() {
+		return trackIds.length;
+	}
+
+	/** @return the number of playlists in the library */
+	public int getPlaylistCount() {
+		return playlistIds.length;
+	}
+
+	/**
+	 * @param mediaItemId
+	 *            the media item id of a track
+	 * @return the index of the track (see {@link #getTrackCount()}) or a negative value if the library does not
+	 *         contain it
+	 */
+	public int indexOfTrack(final long mediaItemId) {
+		if (mediaItemId > Integer.MAX_VALUE || mediaItemId < Integer.MIN_VALUE) {
+			return -1;
+		}
+		return Arrays.binarySearch(trackIds, (int) mediaItemId);
+	}
+
+	/**
+	 * @param track
+	 *            the index of a track, see {@link #getTrackCount()}
+	 * @return the content URL of the track
+	 */
+	public String getTrackUrl(final int track) {
+		return trackUrls[track];
+	}
+
+	/**
+	 * @param playlist
+	 *            the index of a playlist, see {@link #getPlaylistCount()}. Playlists are ordered by name.
+	 * @return the name of the playlist, <code>null</code> if it has none
+	 */
+	public String getPlaylistName(final int playlist) {
+		return playlistNames[playlist];
+	}
+
+	/**
+	 * @param playlist
+	 *            the index of a playlist, see {@link #getPlaylistCount()}
+	 * @return the indexes of the member tracks (see {@link #getTrackCount()}), in playlist order
+	 */
+	public IntStream getPlaylistMembers(final int playlist) {
+		return Arrays.stream(playlistMembers[playlist]);
+	}
+
+	@Override
+	public String toString() {
+		long memberships = 0;
+		for (int[] members : playlistMembers) {
+			memberships += members.length;
+		}
+		return "CompactLibrary [tracks=" + trackIds.length + ", playlists=" + playlistIds.length + ", memberships="
+				+ memberships + "]";
+	}
+
+	/**
+	 * Collects the memberships of all playlists while loading and sorts them by ordinal.
+	 */
+	private static final class MembershipCollector {
+		/** Number of memberships collected per playlist. */
+		private final int[] counts;
+		/** Track indexes per playlist. */
+		private final int[][] tracks;
+		/** Ordinals per playlist, same index as {@link #tracks}. */
+		private final String[][] ordinals;
+
+		/**
+		 * @param playlistCount
+		 *            number of playlists
+		 */
+		MembershipCollector(final int playlistCount) {
+			counts = new int[playlistCount];
+			tracks = new int[playlistCount][];
+			ordinals = new String[playlistCount][];
+		}
+
+		/**
+		 * @param playlist
+		 *            index of the playlist
+		 * @param track
+		 *            index of the track
+		 * @param ordinal
+		 *            position of the track within the playlist
+		 */
+		void add(final int playlist, final int track, final String ordinal) {
+			int count = counts[playlist];
+			if (tracks[playlist] == null) {
+				tracks[playlist] = new int[INITIAL_MEMBERS];
+				ordinals[playlist] = new String[INITIAL_MEMBERS];
+			} else if (count == tracks[playlist].length) {
+				tracks[playlist] = Arrays.copyOf(tracks[playlist], count * 2);
+				ordinals[playlist] = Arrays.copyOf(ordinals[playlist], count * 2);
+			}
+			tracks[playlist][count] = track;
+			ordinals[playlist][count] = ordinal;
+			counts[playlist]++;
+		}
+
+		/**
+		 * @return the track indexes of each playlist, sorted by ordinal and trimmed to size
+		 */
+		int[][] toMembers() {
+			int[][] members = new int[counts.length][];
+			for (int playlist = 0; playlist < counts.length; playlist++) {
+				int count = counts[playlist];
+				Integer[] order = new Integer[count];
+				for (int i = 0; i < count; i++) {
+					order[i] = i;
+				}
+				String[] playlistOrdinals = ordinals[playlist];
+				Arrays.sort(order, (i1, i2) -> SongbirdDbReader.compareOrdinals(playlistOrdinals[i1],
+						playlistOrdinals[i2]));
+				members[playlist] = new int[count];
+				for (int i = 0; i < count; i++) {
+					members[playlist][i] = tracks[playlist][order[i]];
+				}
+				// Release the ordinals early
+				tracks[playlist] = null;
+				ordinals[playlist] = null;
+			}
+			return members;
+		}
+	}
+
+	/**
+	 * {@link SongbirdPlaylist} backed by the arrays of the library.
+	 */
+	private final class CompactPlaylist implements SongbirdPlaylist {
+		/** Index of the playlist within the library. */
+		private final int index;
+
+		/**
+		 * @param index
+		 *            index of the playlist within the library
+		 */
+		CompactPlaylist(final int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String getId() {
+			return String.valueOf(playlistIds[index]);
+		}
+
+		@Override
+		public String getName() {
+			return playlistNames[index];
+		}
+
+		@Override
+		public boolean isDynamic() {
+			return playlistDynamic[index];
+		}
+
+		@Override
+		public void readMemberUrls(final Consumer<String> consumer) {
+			for (int track : playlistMembers[index]) {
+				consumer.accept(trackUrls[track]);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "CompactPlaylist [id=" + getId() + ", name=" + getName() + ", members="
+					+ playlistMembers[index].length + "]";
+		}
+	}
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.TempStore;
+
+/**
+ * Determines how a songbird database is opened by {@link SongbirdDbReader}. The {@link #defaults()} open the database
+ * like the SQLite JDBC driver does out of the box. The {@link #readOnly()} profile is tuned for exporting: The database
+ * is opened with read-only flags, a large page cache, memory mapped I/O and temporary tables in memory.
+ * 
+ * Optionally, the reader works on a snapshot of the database: The database is copied to a temporary file using the
+ * SQLite online backup API, which holds a shared lock only while copying. All further queries run against the copy, so
+ * a long export never blocks (or is blocked by) a running songbird/nightingale instance.
+ * 
+ * Note that the bundled SQLite engine predates the <code>immutable</code> URI parameter and memory mapped I/O. The
+ * read-only open flags are used instead of the former, the <code>mmap_size</code> pragma is ignored by older engines
+ * and takes effect once the driver is updated.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class ConnectionProfile {
+	/** Page cache of the {@link #readOnly()} profile, in pages. */
+	public static final int READ_ONLY_CACHE_SIZE = 16384;
+	/** Memory mapped I/O of the {@link #readOnly()} profile, in bytes. */
+	public static final long READ_ONLY_MMAP_SIZE = 256L * 1024 * 1024;
+	/** Number of rows fetched at once by the {@link #readOnly()} profile. */
+	public static final int READ_ONLY_FETCH_SIZE = 1024;
+
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(ConnectionProfile.class);
+
+	/** Open the database with read-only flags? */
+	private boolean readOnly = false;
+	/** Size of the page cache in pages. 0 uses SQLite's default. */
+	private int cacheSize = 0;
+	/** Maximum number of bytes to access using memory mapped I/O. 0 uses SQLite's default. */
+	private long mmapSize = 0;
+	/** Store temporary tables and indices in memory? */
+	private boolean tempStoreMemory = false;
+	/** Number of rows fetched at once. 0 uses the driver's default. */
+	private int fetchSize = 0;
+	/** Work on a snapshot copy of the database? */
+	private boolean snapshot = false;
+
+	/** @return a profile that opens the database with the default settings of the SQLite JDBC driver */
+	public static ConnectionProfile defaults() {
+		return new ConnectionProfile();
+	}
+
+	/** @return a profile that opens the database read-only, tuned for reading large parts of it */
+	public static ConnectionProfile readOnly() {
+		ConnectionProfile profile = new ConnectionProfile();
+		profile.setReadOnly(true);
+		profile.setCacheSize(READ_ONLY_CACHE_SIZE);
+		profile.setMmapSize(READ_ONLY_MMAP_SIZE);
+		profile.setTempStoreMemory(true);
+		profile.setFetchSize(READ_ONLY_FETCH_SIZE);
+		return profile;
+	}
+
+	/**
+	 * Opens a JDBC connection to a database using this profile. Does not create a snapshot, see
+	 * {@link #createSnapshot(String)}.
+	 * 
+	 * @param pathToDb
+	 *            path to the database file
+	 * @return a new connection
+	 * @throws SQLException
+	 *             if the database cannot be opened
+	 */
+	public Connection open(final String pathToDb) throws SQLException {
+		try {
+			Class.forName("org.sqlite.JDBC");
+		} catch (ClassNotFoundException e) {
+			throw new SQLException("SQLite JDBC driver not found", e);
+		}
+		SQLiteConfig config = new SQLiteConfig();
+		if (readOnly) {
+			config.setReadOnly(true);
+		}
+		if (cacheSize > 0) {
+			config.setCacheSize(cacheSize);
+		}
+		if (tempStoreMemory) {
+			config.setTempStore(TempStore.MEMORY);
+		}
+		Connection connection = config.createConnection("jdbc:sqlite:" + pathToDb);
+		if (mmapSize > 0) {
+			try (Statement statement = connection.createStatement()) {
+				// Not known to older SQLite engines, which ignore unknown pragmas
+				statement.execute("PRAGMA mmap_size = " + mmapSize);
+			} catch (SQLException e) {
+				connection.close();
+				throw e;
+			}
+		}
+		return connection;
+	}
+
+	/**
+	 * Copies a database to a temporary file using the SQLite online backup API. The copy is consistent, even if the
+	 * database is written concurrently. The file is deleted when the JVM exits, at the latest.
+	 * 
+	 * @param pathToDb
+	 *            path to the database file
+	 * @return the temporary copy
+	 * @throws SQLException
+	 *             if the database cannot be copied
+	 */
+	public File createSnapshot(final String pathToDb) throws SQLException {
+		File snapshotFile;
+		try {
+			snapshotFile = File.createTempFile("songbird-snapshot", ".db");
+		} catch (IOException e) {
+			throw new SQLException("Unable to create snapshot file: " + e.getMessage(), e);
+		}
+		snapshotFile.deleteOnExit();
+		long start = System.nanoTime();
+		try (Connection connection = open(pathToDb); Statement statement = connection.createStatement()) {
+			// Extension of the SQLite JDBC driver
+			statement.executeUpdate("backup to " + quote(snapshotFile.getAbsolutePath()));
+		} catch (SQLException e) {
+			deleteSnapshot(snapshotFile);
+			throw e;
+		}
+		logger.debug("Copied " + pathToDb + " to snapshot " + snapshotFile + " in "
+				+ (System.nanoTime() - start) / 1000000 + "ms");
+		return snapshotFile;
+	}
+
+	/**
+	 * Deletes a snapshot created by {@link #createSnapshot(String)}. Failures are only logged.
+	 * 
+	 * @param snapshotFile
+	 *            the snapshot to delete
+	 */
+	static void deleteSnapshot(final File snapshotFile) {
+		if (!snapshotFile.delete() && snapshotFile.exists()) {
+			logger.warn("Unable to delete database snapshot " + snapshotFile.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Quotes a file name for the backup command of the SQLite JDBC driver, which does not support escaping.
+	 * 
+	 * @param fileName
+	 *            the file name to quote
+	 * @return the quoted file name
+	 */
+	private static String quote(final String fileName) {
+		return fileName.indexOf('"') < 0 ? '"' + fileName + '"' : '\'' + fileName + '\'';
+	}
+
+	/**
+	 * Applies the fetch size of this profile to a statement.
+	 * 
+	 * @param statement
+	 *            a statement created on a connection opened by this profile
+	 * @throws SQLException
+	 *             if the fetch size cannot be set
+	 */
+	void applyFetchSize(final Statement statement) throws SQLException {
+		if (fetchSize > 0) {
+			statement.setFetchSize(fetchSize);
+		}
+	}
+
+	/** @return <code>true</code> if the database is opened with read-only flags */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * @param readOnly
+	 *            <code>true</code> opens the database with read-only flags
+	 */
+	public void setReadOnly(final boolean readOnly) {
+		this.readOnly = readOnly;
+	}
+
+	/** @return the size of the page cache in pages. 0 uses SQLite's default. */
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * @param cacheSize
+	 *            the size of the page cache in pages. 0 uses SQLite's default.
+	 */
+	public void setCacheSize(final int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/** @return the maximum number of bytes accessed using memory mapped I/O. 0 uses SQLite's default. */
+	public long getMmapSize() {
+		return mmapSize;
+	}
+
+	/**
+	 * @param mmapSize
+	 *            the maximum number of bytes to access using memory mapped I/O. 0 uses SQLite's default.
+	 */
+	public void setMmapSize(final long mmapSize) {
+		this.mmapSize = mmapSize;
+	}
+
+	/** @return <code>true</code> if temporary tables and indices are stored in memory */
+	public boolean isTempStoreMemory() {
+		return tempStoreMemory;
+	}
+
+	/**
+	 * @param tempStoreMemory
+	 *            <code>true</code> stores temporary tables and indices in memory
+	 */
+	public void setTempStoreMemory(final boolean tempStoreMemory) {
+		this.tempStoreMemory = tempStoreMemory;
+	}
+
+	/** @return the number of rows fetched at once. 0 uses the driver's default. */
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	/**
+	 * @param fetchSize
+	 *            the number of rows fetched at once. 0 uses the driver's default.
+	 */
+	public void setFetchSize(final int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	/** @return <code>true</code> if the reader works on a snapshot copy of the database */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @param snapshot
+	 *            <code>true</code> makes the reader work on a snapshot copy of the database
+	 */
+	public void setSnapshot(final boolean snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionProfile [readOnly=" + readOnly + ", cacheSize=" + cacheSize + ", mmapSize=" + mmapSize
+				+ ", tempStoreMemory=" + tempStoreMemory + ", fetchSize=" + fetchSize + ", snapshot=" + snapshot
+				+ "]";
+	}
+}
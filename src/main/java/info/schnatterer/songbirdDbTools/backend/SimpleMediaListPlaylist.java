@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import info.schnatterer.songbirddbapi4j.domain.MemberMediaItem;
+import info.schnatterer.songbirddbapi4j.domain.Property;
+import info.schnatterer.songbirddbapi4j.domain.SimpleMediaList;
+
+import java.util.function.Consumer;
+
+/**
+ * {@link SongbirdPlaylist} backed by a {@link SimpleMediaList} that was loaded including all its members by
+ * songbirdDbApi4j.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class SimpleMediaListPlaylist implements SongbirdPlaylist {
+	/** The media list this playlist is backed by. */
+	private final SimpleMediaList simpleMediaList;
+
+	/**
+	 * @param simpleMediaList
+	 *            the media list this playlist is backed by
+	 */
+	public SimpleMediaListPlaylist(final SimpleMediaList simpleMediaList) {
+		this.simpleMediaList = simpleMediaList;
+	}
+
+	@Override
+	public String getId() {
+		return String.valueOf(simpleMediaList.getList().getId());
+	}
+
+	@Override
+	public String getName() {
+		return simpleMediaList.getList().getProperty(Property.PROP_MEDIA_LIST_NAME);
+	}
+
+	@Override
+	public boolean isDynamic() {
+		return SongbirdDbReader.LIST_TYPE_SMART.equals(simpleMediaList.getList().getListType());
+	}
+
+	@Override
+	public void readMemberUrls(final Consumer<String> consumer) {
+		for (MemberMediaItem member : simpleMediaList.getMembers()) {
+			consumer.accept(member.getMember().getContentUrl());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return simpleMediaList.toString();
+	}
+}
@@ -0,0 +1,677 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import info.schnatterer.songbirdDbTools.backend.SmartPlaylistRules.Condition;
+import info.schnatterer.songbirdDbTools.backend.SmartPlaylistRules.LimitType;
+import info.schnatterer.songbirdDbTools.backend.SmartPlaylistRules.Operator;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evaluates the rules of songbird's smart (dynamic) playlists (see {@link SmartPlaylistRules}) against the properties
+ * of the tracks, instead of relying on the members songbird materialized the last time it ran. That way e.g. "recently
+ * added" is up to date without starting songbird.
+ * 
+ * The properties needed by all smart playlists are read in one query per property into columns (one array per
+ * property, indexed like the tracks). Each rule set is compiled into a predicate over the track index, then all smart
+ * playlists are evaluated in a single pass over the tracks. Hidden tracks never match.
+ * 
+ * Values are compared as numbers if the value of the condition is numeric (e.g. rating, play count, dates in
+ * milliseconds, durations in microseconds), otherwise as text, ignoring case. Negated operators match exactly the
+ * tracks the positive operator does not match, including tracks that do not have the property. Playlists whose rules
+ * cannot be evaluated (unknown operators, random selection) keep the members stored by songbird.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class SmartPlaylistEngine {
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(SmartPlaylistEngine.class);
+
+	/** Songbird property that marks hidden media items. */
+	private static final String PROP_HIDDEN = "http://songbirdnest.com/data/1.0#hidden";
+	/** Songbird property that contains the duration of a track in microseconds. */
+	private static final String PROP_DURATION = "http://songbirdnest.com/data/1.0#duration";
+	/** Songbird property that contains the size of a file in bytes. */
+	private static final String PROP_CONTENT_LENGTH = "http://songbirdnest.com/data/1.0#contentLength";
+
+	/** Initial capacity of the arrays used while loading and evaluating. */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** The database to read rules and track properties from. */
+	private final SongbirdDbReader dbReader;
+
+	/**
+	 * @param dbReader
+	 *            the database to read rules and track properties from
+	 */
+	public SmartPlaylistEngine(final SongbirdDbReader dbReader) {
+		this.dbReader = dbReader;
+	}
+
+	/**
+	 * Evaluates the smart playlists among <code>playlists</code> as of now.
+	 * 
+	 * @param playlists
+	 *            the playlists to export
+	 * @return <code>playlists</code>, the smart playlists that could be evaluated replaced by playlists containing the
+	 *         evaluated members
+	 * @throws SQLException
+	 *             if reading the database fails
+	 */
+	public List<SongbirdPlaylist> evaluate(final List<SongbirdPlaylist> playlists) throws SQLException {
+		return evaluate(playlists, System.currentTimeMillis());
+	}
+
+	/**
+	 * Evaluates the smart playlists among <code>playlists</code>.
+	 * 
+	 * @param playlists
+	 *            the playlists to export
+	 * @param now
+	 *            the current time in milliseconds since the epoch, used by "in the last" conditions
+	 * @return <code>playlists</code>, the smart playlists that could be evaluated replaced by playlists containing the
+	 *         evaluated members
+	 * @throws SQLException
+	 *             if reading the database fails
+	 */
+	public List<SongbirdPlaylist> evaluate(final List<SongbirdPlaylist> playlists, final long now)
+			throws SQLException {
+		long start = System.nanoTime();
+		Map<Long, String> states = null;
+		List<Integer> positions = new ArrayList<Integer>();
+		List<SmartPlaylistRules> rules = new ArrayList<SmartPlaylistRules>();
+		for (int i = 0; i < playlists.size(); i++) {
+			SongbirdPlaylist playlist = playlists.get(i);
+			if (!playlist.isDynamic()) {
+				continue;
+			}
+			if (states == null) {
+				states = dbReader.readSmartListStates();
+			}
+			SmartPlaylistRules playlistRules = parseRules(playlist, states.get(Long.valueOf(playlist.getId())));
+			if (playlistRules != null) {
+				positions.add(i);
+				rules.add(playlistRules);
+			}
+		}
+		if (rules.isEmpty()) {
+			return playlists;
+		}
+
+		Set<String> properties = new LinkedHashSet<String>();
+		properties.add(PROP_HIDDEN);
+		for (SmartPlaylistRules playlistRules : rules) {
+			properties.addAll(playlistRules.getProperties());
+			if (playlistRules.getLimitType() == LimitType.USECS) {
+				properties.add(PROP_DURATION);
+			} else if (playlistRules.getLimitType() == LimitType.BYTES) {
+				properties.add(PROP_CONTENT_LENGTH);
+			}
+		}
+		Columns columns = Columns.load(dbReader, properties);
+
+		int[][] members = evaluate(rules, columns, now);
+		List<SongbirdPlaylist> evaluated = new ArrayList<SongbirdPlaylist>(playlists);
+		for (int i = 0; i < positions.size(); i++) {
+			SongbirdPlaylist playlist = playlists.get(positions.get(i));
+			evaluated.set(positions.get(i), new EvaluatedPlaylist(playlist, columns.urls, members[i]));
+			logger.debug("Smart playlist " + playlist.getName() + " (" + rules.get(i) + ") has " + members[i].length
+					+ " member(s)");
+		}
+		logger.debug("Evaluated " + rules.size() + " smart playlist(s) on " + columns.trackCount + " track(s) in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+		return evaluated;
+	}
+
+	/**
+	 * @param playlist
+	 *            a smart playlist
+	 * @param state
+	 *            its rules as stored in songbird or <code>null</code>
+	 * @return the rules or <code>null</code> if they cannot be evaluated
+	 */
+	private static SmartPlaylistRules parseRules(final SongbirdPlaylist playlist, final String state) {
+		String fallback = ". Exporting the members stored by songbird instead.";
+		if (state == null) {
+			logger.debug("Smart playlist " + playlist.getName() + " has no rules" + fallback);
+			return null;
+		}
+		SmartPlaylistRules rules;
+		try {
+			rules = SmartPlaylistRules.parse(state);
+		} catch (IllegalArgumentException e) {
+			logger.info("Unable to evaluate smart playlist " + playlist.getName() + ": " + e.getMessage() + fallback);
+			return null;
+		}
+		if (rules.isRandomSelection()) {
+			logger.info("Smart playlist " + playlist.getName() + " selects tracks randomly" + fallback);
+			return null;
+		}
+		return rules;
+	}
+
+	/**
+	 * Evaluates several rule sets in a single pass over the tracks.
+	 * 
+	 * @param rules
+	 *            the rules of each playlist
+	 * @param columns
+	 *            the tracks, containing all properties needed by <code>rules</code>
+	 * @param now
+	 *            the current time in milliseconds since the epoch
+	 * @return the members of each playlist as track indexes, sorted and limited
+	 */
+	private static int[][] evaluate(final List<SmartPlaylistRules> rules, final Columns columns, final long now) {
+		IntPredicate[] matchers = new IntPredicate[rules.size()];
+		int[][] members = new int[rules.size()][];
+		int[] counts = new int[rules.size()];
+		for (int i = 0; i < matchers.length; i++) {
+			matchers[i] = compile(rules.get(i), columns, now);
+			members[i] = new int[INITIAL_CAPACITY];
+		}
+		Column hidden = columns.get(PROP_HIDDEN);
+		for (int track = 0; track < columns.trackCount; track++) {
+			if (isTrue(hidden.get(track))) {
+				continue;
+			}
+			for (int i = 0; i < matchers.length; i++) {
+				if (matchers[i].test(track)) {
+					if (counts[i] == members[i].length) {
+						members[i] = Arrays.copyOf(members[i], counts[i] * 2);
+					}
+					members[i][counts[i]++] = track;
+				}
+			}
+		}
+		for (int i = 0; i < members.length; i++) {
+			members[i] = select(rules.get(i), columns, Arrays.copyOf(members[i], counts[i]));
+		}
+		return members;
+	}
+
+	/**
+	 * Compiles the conditions of a playlist into a single predicate.
+	 * 
+	 * @param rules
+	 *            the rules of the playlist
+	 * @param columns
+	 *            the tracks
+	 * @param now
+	 *            the current time in milliseconds since the epoch
+	 * @return a predicate that matches the indexes of the tracks that meet the conditions
+	 */
+	private static IntPredicate compile(final SmartPlaylistRules rules, final Columns columns, final long now) {
+		List<Condition> conditions = rules.getConditions();
+		if (conditions.isEmpty()) {
+			return track -> true;
+		}
+		final IntPredicate[] predicates = new IntPredicate[conditions.size()];
+		for (int i = 0; i < predicates.length; i++) {
+			predicates[i] = compile(conditions.get(i), columns.get(conditions.get(i).getProperty()), now);
+		}
+		switch (rules.getMatchType()) {
+		case ANY:
+			return track -> anyMatches(predicates, track);
+		case NONE:
+			return track -> !anyMatches(predicates, track);
+		default:
+			return track -> {
+				for (IntPredicate predicate : predicates) {
+					if (!predicate.test(track)) {
+						return false;
+					}
+				}
+				return true;
+			};
+		}
+	}
+
+	/**
+	 * @param predicates
+	 *            the predicates to test
+	 * @param track
+	 *            index of the track
+	 * @return <code>true</code> if at least one predicate matches the track
+	 */
+	private static boolean anyMatches(final IntPredicate[] predicates, final int track) {
+		for (IntPredicate predicate : predicates) {
+			if (predicate.test(track)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Compiles a single condition.
+	 * 
+	 * @param condition
+	 *            the condition
+	 * @param column
+	 *            the values of the property of the condition
+	 * @param now
+	 *            the current time in milliseconds since the epoch
+	 * @return a predicate that matches the indexes of the tracks that meet the condition
+	 */
+	private static IntPredicate compile(final Condition condition, final Column column, final long now) {
+		final String left = condition.getLeftValue();
+		final String leftLower = left.toLowerCase();
+		final double leftNumber = parseNumber(left);
+		final double rightNumber = parseNumber(condition.getRightValue());
+		final boolean numeric = !Double.isNaN(leftNumber);
+		switch (condition.getOperator()) {
+		case EQUALS:
+			if (numeric) {
+				return track -> column.number(track) == leftNumber;
+			}
+			return track -> left.equalsIgnoreCase(column.get(track));
+		case NOT_EQUALS:
+			return compile(condition, Operator.EQUALS, column, now).negate();
+		case GREATER:
+			return track -> compare(column, track, left, leftNumber, numeric) > 0;
+		case GREATER_EQUAL:
+			return track -> compare(column, track, left, leftNumber, numeric) >= 0;
+		case LESS:
+			return track -> compare(column, track, left, leftNumber, numeric) < 0;
+		case LESS_EQUAL:
+			return track -> compare(column, track, left, leftNumber, numeric) <= 0;
+		case CONTAINS:
+			return track -> column.getLowerCase(track) != null && column.getLowerCase(track).contains(leftLower);
+		case NOT_CONTAINS:
+			return compile(condition, Operator.CONTAINS, column, now).negate();
+		case BEGINS_WITH:
+			return track -> column.getLowerCase(track) != null && column.getLowerCase(track).startsWith(leftLower);
+		case NOT_BEGINS_WITH:
+			return compile(condition, Operator.BEGINS_WITH, column, now).negate();
+		case ENDS_WITH:
+			return track -> column.getLowerCase(track) != null && column.getLowerCase(track).endsWith(leftLower);
+		case NOT_ENDS_WITH:
+			return compile(condition, Operator.ENDS_WITH, column, now).negate();
+		case BETWEEN:
+			final String right = condition.getRightValue();
+			final boolean numericRange = numeric && !Double.isNaN(rightNumber);
+			return track -> compare(column, track, left, leftNumber, numericRange) >= 0
+					&& compare(column, track, right, rightNumber, numericRange) <= 0;
+		case IS_SET:
+			return track -> column.get(track) != null && !column.get(track).isEmpty();
+		case IS_NOT_SET:
+			return compile(condition, Operator.IS_SET, column, now).negate();
+		case IS_TRUE:
+			return track -> isTrue(column.get(track));
+		case IS_FALSE:
+			return track -> !isTrue(column.get(track));
+		case IN_THE_LAST:
+			// Validated by the parser
+			final double since = now - leftNumber;
+			return track -> column.number(track) >= since;
+		case NOT_IN_THE_LAST:
+			return compile(condition, Operator.IN_THE_LAST, column, now).negate();
+		default:
+			throw new IllegalStateException("Unsupported operator: " + condition);
+		}
+	}
+
+	/**
+	 * Compiles a condition using another operator, e.g. the positive one of a negated operator.
+	 * 
+	 * @param condition
+	 *            the condition
+	 * @param operator
+	 *            the operator to use instead of the one of <code>condition</code>
+	 * @param column
+	 *            the values of the property of the condition
+	 * @param now
+	 *            the current time in milliseconds since the epoch
+	 * @return a predicate that matches the indexes of the tracks that meet the condition
+	 */
+	private static IntPredicate compile(final Condition condition, final Operator operator,
+			final Column column, final long now) {
+		return compile(new Condition(condition.getProperty(), operator, condition.getLeftValue(),
+				condition.getRightValue()), column, now);
+	}
+
+	/**
+	 * Compares the value of a track with the value of a condition. Tracks without a value are less than any value.
+	 * 
+	 * @param column
+	 *            the values of the property
+	 * @param track
+	 *            index of the track
+	 * @param value
+	 *            the value of the condition
+	 * @param number
+	 *            <code>value</code> parsed as number
+	 * @param numeric
+	 *            compare as numbers?
+	 * @return a negative integer, zero, or a positive integer as the value of the track is less than, equal to, or
+	 *         greater than <code>value</code>
+	 */
+	private static int compare(final Column column, final int track, final String value, final double number,
+			final boolean numeric) {
+		if (column.get(track) == null) {
+			return -1;
+		}
+		if (numeric) {
+			double trackNumber = column.number(track);
+			return Double.isNaN(trackNumber) ? -1 : Double.compare(trackNumber, number);
+		}
+		return column.get(track).compareToIgnoreCase(value);
+	}
+
+	/**
+	 * Orders the matching tracks by the select property and applies the limit of a playlist.
+	 * 
+	 * @param rules
+	 *            the rules of the playlist
+	 * @param columns
+	 *            the tracks
+	 * @param matches
+	 *            indexes of the tracks matching the conditions, in library order
+	 * @return the members of the playlist
+	 */
+	private static int[] select(final SmartPlaylistRules rules, final Columns columns, final int[] matches) {
+		int[] members = matches;
+		if (rules.getSelectProperty() != null) {
+			Column column = columns.get(rules.getSelectProperty());
+			Comparator<Integer> order = (track1, track2) -> compareValues(column, track1, track2);
+			if (!rules.isSelectAscending()) {
+				order = order.reversed();
+			}
+			Integer[] sorted = new Integer[members.length];
+			for (int i = 0; i < sorted.length; i++) {
+				sorted[i] = members[i];
+			}
+			// Stable, so equal values stay in library order
+			Arrays.sort(sorted, order);
+			members = new int[sorted.length];
+			for (int i = 0; i < sorted.length; i++) {
+				members[i] = sorted[i];
+			}
+		}
+		long limit = rules.getLimit();
+		if (rules.getLimitType() == LimitType.NONE || limit <= 0) {
+			return members;
+		}
+		if (rules.getLimitType() == LimitType.ITEMS) {
+			return limit < members.length ? Arrays.copyOf(members, (int) limit) : members;
+		}
+		Column sizes = columns.get(rules.getLimitType() == LimitType.USECS ? PROP_DURATION : PROP_CONTENT_LENGTH);
+		double total = 0;
+		for (int i = 0; i < members.length; i++) {
+			double size = sizes.number(members[i]);
+			total += Double.isNaN(size) ? 0 : size;
+			if (total > limit) {
+				return Arrays.copyOf(members, i);
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * Compares the values of two tracks, as numbers if both are numeric. Tracks without a value come first.
+	 * 
+	 * @param column
+	 *            the values of the property
+	 * @param track1
+	 *            index of the first track
+	 * @param track2
+	 *            index of the second track
+	 * @return a negative integer, zero, or a positive integer as the value of <code>track1</code> is less than, equal
+	 *         to, or greater than the value of <code>track2</code>
+	 */
+	private static int compareValues(final Column column, final int track1, final int track2) {
+		String value1 = column.get(track1);
+		String value2 = column.get(track2);
+		if (value1 == null || value2 == null) {
+			return value1 == null ? (value2 == null ? 0 : -1) : 1;
+		}
+		double number1 = column.number(track1);
+		double number2 = column.number(track2);
+		if (!Double.isNaN(number1) && !Double.isNaN(number2)) {
+			return Double.compare(number1, number2);
+		}
+		return value1.compareToIgnoreCase(value2);
+	}
+
+	/**
+	 * @param value
+	 *            a value or <code>null</code>
+	 * @return the value as number or {@link Double#NaN} if it is not a number
+	 */
+	private static double parseNumber(final String value) {
+		if (value == null || value.isEmpty()) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * @param value
+	 *            the value of a boolean songbird property or <code>null</code>
+	 * @return <code>true</code> if the value is set and neither "0" nor "false"
+	 */
+	private static boolean isTrue(final String value) {
+		return value != null && !value.isEmpty() && !"0".equals(value) && !"false".equalsIgnoreCase(value);
+	}
+
+	/**
+	 * The tracks of the library, one array per property.
+	 */
+	private static final class Columns {
+		/** Number of tracks. */
+		private final int trackCount;
+		/** Content URLs of the tracks. */
+		private final String[] urls;
+		/** The values of each property, indexed like {@link #urls}. */
+		private final Map<String, Column> columns;
+
+		/**
+		 * @param trackCount
+		 *            number of tracks
+		 * @param urls
+		 *            content URLs of the tracks
+		 * @param columns
+		 *            the values of each property
+		 */
+		private Columns(final int trackCount, final String[] urls, final Map<String, Column> columns) {
+			this.trackCount = trackCount;
+			this.urls = urls;
+			this.columns = columns;
+		}
+
+		/**
+		 * Reads the tracks and their properties.
+		 * 
+		 * @param dbReader
+		 *            the database
+		 * @param properties
+		 *            the properties to read
+		 * @return the columns
+		 * @throws SQLException
+		 *             if reading fails
+		 */
+		static Columns load(final SongbirdDbReader dbReader, final Set<String> properties) throws SQLException {
+			long[][] ids = { new long[INITIAL_CAPACITY] };
+			String[][] urls = { new String[INITIAL_CAPACITY] };
+			int[] count = { 0 };
+			dbReader.readTracks((mediaItemId, guid, contentUrl) -> {
+				if (count[0] == ids[0].length) {
+					ids[0] = Arrays.copyOf(ids[0], count[0] * 2);
+					urls[0] = Arrays.copyOf(urls[0], count[0] * 2);
+				}
+				ids[0][count[0]] = mediaItemId;
+				urls[0][count[0]] = contentUrl;
+				count[0]++;
+			});
+			final int trackCount = count[0];
+			final long[] trackIds = ids[0];
+
+			Map<String, Column> columns = new HashMap<String, Column>();
+			for (String property : properties) {
+				columns.put(property, new Column(trackCount));
+			}
+			dbReader.readTrackProperties(properties, (mediaItemId, propertyName, value) -> {
+				int track = Arrays.binarySearch(trackIds, 0, trackCount, mediaItemId);
+				Column column = columns.get(propertyName);
+				if (track >= 0 && column != null) {
+					column.values[track] = value;
+				}
+			});
+			return new Columns(trackCount, Arrays.copyOf(urls[0], trackCount), columns);
+		}
+
+		/**
+		 * @param property
+		 *            a property that was loaded
+		 * @return its values
+		 */
+		Column get(final String property) {
+			return columns.get(property);
+		}
+	}
+
+	/**
+	 * The values of one property for all tracks. Numeric and lower case values are derived on first use.
+	 */
+	private static final class Column {
+		/** The values, <code>null</code> if a track does not have the property. */
+		private final String[] values;
+		/** The values parsed as numbers, {@link Double#NaN} if not numeric. Lazily created. */
+		private double[] numbers;
+		/** The values in lower case. Lazily created. */
+		private String[] lowerCase;
+
+		/**
+		 * @param trackCount
+		 *            number of tracks
+		 */
+		Column(final int trackCount) {
+			values = new String[trackCount];
+		}
+
+		/**
+		 * @param track
+		 *            index of the track
+		 * @return the value or <code>null</code> if the track does not have the property
+		 */
+		String get(final int track) {
+			return values[track];
+		}
+
+		/**
+		 * @param track
+		 *            index of the track
+		 * @return the value as number, {@link Double#NaN} if not set or not numeric
+		 */
+		double number(final int track) {
+			if (numbers == null) {
+				numbers = new double[values.length];
+				for (int i = 0; i < values.length; i++) {
+					numbers[i] = parseNumber(values[i]);
+				}
+			}
+			return numbers[track];
+		}
+
+		/**
+		 * @param track
+		 *            index of the track
+		 * @return the value in lower case or <code>null</code> if the track does not have the property
+		 */
+		String getLowerCase(final int track) {
+			if (lowerCase == null) {
+				lowerCase = new String[values.length];
+				for (int i = 0; i < values.length; i++) {
+					lowerCase[i] = values[i] != null ? values[i].toLowerCase() : null;
+				}
+			}
+			return lowerCase[track];
+		}
+	}
+
+	/**
+	 * A smart playlist whose members were evaluated by the engine.
+	 */
+	private static final class EvaluatedPlaylist implements SongbirdPlaylist {
+		/** The smart playlist as read from songbird. */
+		private final SongbirdPlaylist playlist;
+		/** Content URLs of all tracks. */
+		private final String[] urls;
+		/** The members as indexes into {@link #urls}. */
+		private final int[] members;
+
+		/**
+		 * @param playlist
+		 *            the smart playlist as read from songbird
+		 * @param urls
+		 *            content URLs of all tracks
+		 * @param members
+		 *            the members as indexes into <code>urls</code>
+		 */
+		EvaluatedPlaylist(final SongbirdPlaylist playlist, final String[] urls, final int[] members) {
+			this.playlist = playlist;
+			this.urls = urls;
+			this.members = members;
+		}
+
+		@Override
+		public String getId() {
+			return playlist.getId();
+		}
+
+		@Override
+		public String getName() {
+			return playlist.getName();
+		}
+
+		@Override
+		public boolean isDynamic() {
+			return true;
+		}
+
+		@Override
+		public void readMemberUrls(final Consumer<String> consumer) {
+			for (int track : members) {
+				consumer.accept(urls[track]);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "EvaluatedPlaylist [id=" + getId() + ", name=" + getName() + ", members=" + members.length + "]";
+		}
+	}
+}
@@ -0,0 +1,443 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The rules of a songbird smart (dynamic) playlist, as stored in the {@link SongbirdDbReader#PROP_SMART_STATE}
+ * property of the media list. The state is a query string (<code>key=value&amp;...</code>, URL-encoded values)
+ * containing the match type, the limit and one entry <code>conditionN</code> per condition. Each condition is a query
+ * string itself, containing <code>property</code>, <code>operator</code>, <code>leftValue</code>,
+ * <code>rightValue</code> and <code>displayUnit</code>.
+ * 
+ * Immutable. Parse using {@link #parse(String)}, evaluate using {@link SmartPlaylistEngine}.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class SmartPlaylistRules {
+	/** How the conditions are combined. */
+	public enum MatchType {
+		/** A track matches if any condition is met. */
+		ANY,
+		/** A track matches if all conditions are met. */
+		ALL,
+		/** A track matches if no condition is met. */
+		NONE
+	}
+
+	/** What limits the number of tracks. */
+	public enum LimitType {
+		/** No limit. */
+		NONE,
+		/** Limited to a number of tracks. */
+		ITEMS,
+		/** Limited to a total duration in microseconds. */
+		USECS,
+		/** Limited to a total file size in bytes. */
+		BYTES
+	}
+
+	/** Prefix of the keys of the conditions within the state. */
+	private static final String CONDITION_KEY_PREFIX = "condition";
+	/** Charset of the URL-encoded values. */
+	private static final String CHARSET = "UTF-8";
+
+	/** How the conditions are combined. */
+	private final MatchType matchType;
+	/** The conditions in the order they were defined. */
+	private final List<Condition> conditions;
+	/** What limits the number of tracks. */
+	private final LimitType limitType;
+	/** The limit, unit depending on {@link #limitType}. */
+	private final long limit;
+	/** Property the tracks are ordered by before the limit is applied, or <code>null</code>. */
+	private final String selectProperty;
+	/** Order by {@link #selectProperty} ascending? */
+	private final boolean selectAscending;
+	/** Are the tracks selected randomly when the limit is applied? */
+	private final boolean randomSelection;
+
+	/**
+	 * @param matchType
+	 *            how the conditions are combined
+	 * @param conditions
+	 *            the conditions
+	 * @param limitType
+	 *            what limits the number of tracks
+	 * @param limit
+	 *            the limit, unit depending on <code>limitType</code>
+	 * @param selectProperty
+	 *            property the tracks are ordered by before the limit is applied, or <code>null</code>
+	 * @param selectAscending
+	 *            order by <code>selectProperty</code> ascending?
+	 * @param randomSelection
+	 *            are the tracks selected randomly when the limit is applied?
+	 */
+	public SmartPlaylistRules(final MatchType matchType, final List<Condition> conditions,
+			final LimitType limitType, final long limit, final String selectProperty, final boolean selectAscending,
+			final boolean randomSelection) {
+		this.matchType = matchType;
+		this.conditions = Collections.unmodifiableList(new ArrayList<Condition>(conditions));
+		this.limitType = limitType;
+		this.limit = limit;
+		this.selectProperty = selectProperty == null || selectProperty.isEmpty() ? null : selectProperty;
+		this.selectAscending = selectAscending;
+		this.randomSelection = randomSelection;
+	}
+
+	/**
+	 * Parses the state of a smart media list.
+	 * 
+	 * @param state
+	 *            the value of {@link SongbirdDbReader#PROP_SMART_STATE}
+	 * @return the rules
+	 * @throws IllegalArgumentException
+	 *             if the state is malformed or contains unknown values
+	 */
+	public static SmartPlaylistRules parse(final String state) {
+		Map<String, String> values = parseQuery(state);
+		Map<Integer, Condition> conditions = new TreeMap<Integer, Condition>();
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			String key = entry.getKey();
+			if (key.startsWith(CONDITION_KEY_PREFIX) && key.length() > CONDITION_KEY_PREFIX.length()
+					&& isDigits(key.substring(CONDITION_KEY_PREFIX.length()))) {
+				conditions.put(Integer.valueOf(key.substring(CONDITION_KEY_PREFIX.length())),
+						Condition.parse(entry.getValue()));
+			}
+		}
+		return new SmartPlaylistRules(enumValue(MatchType.values(), values.get("matchType"), MatchType.ALL),
+				new ArrayList<Condition>(conditions.values()), enumValue(LimitType.values(), values.get("limitType"),
+						LimitType.NONE), parseLong(values.get("limit"), "limit"), values.get("selectPropertyID"),
+				isTrue(values.get("selectDirection")), isTrue(values.get("randomSelection")));
+	}
+
+	/** @return how the conditions are combined */
+	public MatchType getMatchType() {
+		return matchType;
+	}
+
+	/** @return the conditions in the order they were defined */
+	public List<Condition> getConditions() {
+		return conditions;
+	}
+
+	/** @return what limits the number of tracks */
+	public LimitType getLimitType() {
+		return limitType;
+	}
+
+	/** @return the limit, unit depending on {@link #getLimitType()} */
+	public long getLimit() {
+		return limit;
+	}
+
+	/** @return the property the tracks are ordered by before the limit is applied, or <code>null</code> */
+	public String getSelectProperty() {
+		return selectProperty;
+	}
+
+	/** @return <code>true</code> if ordered by {@link #getSelectProperty()} ascending */
+	public boolean isSelectAscending() {
+		return selectAscending;
+	}
+
+	/** @return <code>true</code> if the tracks are selected randomly when the limit is applied */
+	public boolean isRandomSelection() {
+		return randomSelection;
+	}
+
+	/** @return the properties read by the conditions and the selection */
+	public Set<String> getProperties() {
+		Set<String> properties = new LinkedHashSet<String>();
+		for (Condition condition : conditions) {
+			properties.add(condition.getProperty());
+		}
+		if (selectProperty != null) {
+			properties.add(selectProperty);
+		}
+		return properties;
+	}
+
+	@Override
+	public String toString() {
+		return "SmartPlaylistRules [matchType=" + matchType + ", conditions=" + conditions + ", limitType="
+				+ limitType + ", limit=" + limit + ", selectProperty=" + selectProperty + ", selectAscending="
+				+ selectAscending + ", randomSelection=" + randomSelection + "]";
+	}
+
+	/**
+	 * Splits a query string into URL-decoded keys and values.
+	 * 
+	 * @param query
+	 *            the query string
+	 * @return the values by key, in the order of <code>query</code>
+	 * @throws IllegalArgumentException
+	 *             if a value cannot be decoded
+	 */
+	private static Map<String, String> parseQuery(final String query) {
+		Map<String, String> values = new LinkedHashMap<String, String>();
+		if (query == null || query.isEmpty()) {
+			return values;
+		}
+		for (String pair : query.split("&")) {
+			if (pair.isEmpty()) {
+				continue;
+			}
+			int separator = pair.indexOf('=');
+			String key = separator < 0 ? pair : pair.substring(0, separator);
+			String value = separator < 0 ? "" : pair.substring(separator + 1);
+			try {
+				values.put(URLDecoder.decode(key, CHARSET), URLDecoder.decode(value, CHARSET));
+			} catch (UnsupportedEncodingException e) {
+				// Can't happen, UTF-8 is always supported
+				throw new IllegalStateException(e);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * @param values
+	 *            the constants of an enum, in the order of songbird's numeric values
+	 * @param value
+	 *            the numeric value or <code>null</code>
+	 * @param defaultValue
+	 *            returned if <code>value</code> is <code>null</code> or empty
+	 * @param <E>
+	 *            the enum
+	 * @return the constant
+	 * @throws IllegalArgumentException
+	 *             if the value is not known
+	 */
+	private static <E extends Enum<E>> E enumValue(final E[] values, final String value, final E defaultValue) {
+		if (value == null || value.isEmpty()) {
+			return defaultValue;
+		}
+		long ordinal = parseLong(value, defaultValue.getClass().getSimpleName());
+		if (ordinal < 0 || ordinal >= values.length) {
+			throw new IllegalArgumentException("Unknown " + defaultValue.getClass().getSimpleName() + ": " + value);
+		}
+		return values[(int) ordinal];
+	}
+
+	/**
+	 * @param value
+	 *            a number or <code>null</code>
+	 * @param name
+	 *            name of the value for the error message
+	 * @return the number, 0 if <code>null</code> or empty
+	 * @throws IllegalArgumentException
+	 *             if the value is not a number
+	 */
+	private static long parseLong(final String value, final String name) {
+		if (value == null || value.isEmpty()) {
+			return 0;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value, e);
+		}
+	}
+
+	/**
+	 * @param value
+	 *            a songbird boolean or <code>null</code>
+	 * @return <code>true</code> for "1" and "true"
+	 */
+	private static boolean isTrue(final String value) {
+		return "1".equals(value) || "true".equalsIgnoreCase(value);
+	}
+
+	/**
+	 * @param value
+	 *            a string
+	 * @return <code>true</code> if <code>value</code> consists of ASCII digits only
+	 */
+	private static boolean isDigits(final String value) {
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Operators of songbird's smart playlist conditions, by the strings songbird stores them as.
+	 */
+	public enum Operator {
+		/** Equals. */
+		EQUALS("="),
+		/** Does not equal. */
+		NOT_EQUALS("!="),
+		/** Greater than. */
+		GREATER(">"),
+		/** Greater than or equal. */
+		GREATER_EQUAL(">="),
+		/** Less than. */
+		LESS("<"),
+		/** Less than or equal. */
+		LESS_EQUAL("<="),
+		/** Contains, case insensitive. */
+		CONTAINS("?"),
+		/** Does not contain, case insensitive. */
+		NOT_CONTAINS("!?"),
+		/** Begins with, case insensitive. */
+		BEGINS_WITH("=?"),
+		/** Does not begin with, case insensitive. */
+		NOT_BEGINS_WITH("!=?"),
+		/** Ends with, case insensitive. */
+		ENDS_WITH("?="),
+		/** Does not end with, case insensitive. */
+		NOT_ENDS_WITH("!?="),
+		/** Between left and right value, inclusive. */
+		BETWEEN("-"),
+		/** The property has a value. */
+		IS_SET("!!"),
+		/** The property has no value. */
+		IS_NOT_SET("!"),
+		/** Boolean property is true. */
+		IS_TRUE("!0"),
+		/** Boolean property is false or not set. */
+		IS_FALSE("0"),
+		/** Date within the last milliseconds given as left value. */
+		IN_THE_LAST("-<"),
+		/** Date not within the last milliseconds given as left value. */
+		NOT_IN_THE_LAST("!-<");
+
+		/** The string songbird stores the operator as. */
+		private final String songbirdOperator;
+
+		/**
+		 * @param songbirdOperator
+		 *            the string songbird stores the operator as
+		 */
+		Operator(final String songbirdOperator) {
+			this.songbirdOperator = songbirdOperator;
+		}
+
+		/**
+		 * @param songbirdOperator
+		 *            the string songbird stores the operator as
+		 * @return the operator
+		 * @throws IllegalArgumentException
+		 *             if the operator is not known
+		 */
+		public static Operator fromSongbird(final String songbirdOperator) {
+			for (Operator operator : values()) {
+				if (operator.songbirdOperator.equals(songbirdOperator)) {
+					return operator;
+				}
+			}
+			throw new IllegalArgumentException("Unknown operator: " + songbirdOperator);
+		}
+
+		/** @return the string songbird stores the operator as */
+		public String getSongbirdOperator() {
+			return songbirdOperator;
+		}
+	}
+
+	/**
+	 * A single condition of a smart playlist. Immutable.
+	 */
+	public static final class Condition {
+		/** The property the condition applies to. */
+		private final String property;
+		/** The operator. */
+		private final Operator operator;
+		/** The (first) value compared to. */
+		private final String leftValue;
+		/** The second value, only used by {@link Operator#BETWEEN}. */
+		private final String rightValue;
+
+		/**
+		 * @param property
+		 *            the property the condition applies to
+		 * @param operator
+		 *            the operator
+		 * @param leftValue
+		 *            the (first) value compared to
+		 * @param rightValue
+		 *            the second value, only used by {@link Operator#BETWEEN}
+		 */
+		public Condition(final String property, final Operator operator, final String leftValue,
+				final String rightValue) {
+			this.property = property;
+			this.operator = operator;
+			this.leftValue = leftValue != null ? leftValue : "";
+			this.rightValue = rightValue != null ? rightValue : "";
+		}
+
+		/**
+		 * @param condition
+		 *            a condition as stored in the state of a smart media list
+		 * @return the condition
+		 * @throws IllegalArgumentException
+		 *             if the condition has no property, an unknown operator or an invalid value
+		 */
+		static Condition parse(final String condition) {
+			Map<String, String> values = parseQuery(condition);
+			String property = values.get("property");
+			if (property == null || property.isEmpty()) {
+				throw new IllegalArgumentException("Condition without property: " + condition);
+			}
+			Operator operator = Operator.fromSongbird(values.get("operator"));
+			if (operator == Operator.IN_THE_LAST || operator == Operator.NOT_IN_THE_LAST) {
+				parseLong(values.get("leftValue"), "number of milliseconds");
+			}
+			return new Condition(property, operator, values.get("leftValue"), values.get("rightValue"));
+		}
+
+		/** @return the property the condition applies to */
+		public String getProperty() {
+			return property;
+		}
+
+		/** @return the operator */
+		public Operator getOperator() {
+			return operator;
+		}
+
+		/** @return the (first) value compared to, never <code>null</code> */
+		public String getLeftValue() {
+			return leftValue;
+		}
+
+		/** @return the second value, only used by {@link Operator#BETWEEN}. Never <code>null</code>. */
+		public String getRightValue() {
+			return rightValue;
+		}
+
+		@Override
+		public String toString() {
+			return property + " " + operator.getSongbirdOperator() + " " + leftValue
+					+ (operator == Operator.BETWEEN ? " " + rightValue : "");
+		}
+	}
+}
@@ -0,0 +1,621 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.sqlite.Function;
+
+/**
+ * Reads playlists directly from a songbird database file using JDBC. In contrast to songbirdDbApi4j's
+ * <code>SongbirdDb.getPlayLists()</code> it does not load all lists including their members at once. Playlists can
+ * be filtered by name within the database and the members of each playlist are only read when requested.
+ * 
+ * Smart (dynamic) playlists are read from their storage list, i.e. the members songbird materialized for them. Their
+ * rules and the track properties needed to evaluate them can be read as well, see {@link SmartPlaylistEngine}.
+ * 
+ * How the database is opened (e.g. read-only or on a snapshot copy) is determined by a {@link ConnectionProfile}.
+ * 
+ * All methods are thread safe, queries are serialized on the connection.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class SongbirdDbReader implements AutoCloseable {
+	/** Songbird property that contains the name of a media list. */
+	public static final String PROP_MEDIA_LIST_NAME = "http://songbirdnest.com/data/1.0#mediaListName";
+	/** Songbird property that contains the guid of the storage list of a smart media list. */
+	public static final String PROP_STORAGE_GUID = "http://songbirdnest.com/data/1.0#storageGUID";
+	/** Songbird property that contains the rules of a smart media list, see {@link SmartPlaylistRules}. */
+	public static final String PROP_SMART_STATE = "http://songbirdnest.com/data/1.0#smartMediaListState";
+	/** Type of smart (dynamic) media lists. */
+	public static final String LIST_TYPE_SMART = "smart";
+
+	/**
+	 * Songbird properties that are not stored in <code>resource_properties</code> but as columns of
+	 * <code>media_items</code>, mapped to their column.
+	 */
+	private static final Map<String, String> TOP_LEVEL_PROPERTIES = createTopLevelProperties();
+
+	/** Name of the SQL function that trims and converts to upper case exactly like java does. */
+	private static final String FUNCTION_UPPER_TRIM = "java_upper_trim";
+
+	/**
+	 * Selects all visible simple and smart media lists with their name and the id of the list storing members. Lists
+	 * without a name are selected as well, so the callers can report them.
+	 */
+	private static final String SELECT_LISTS = "SELECT list.media_item_id, name.obj, storage.media_item_id, type.type "
+			+ "FROM media_items list "
+			+ "JOIN media_list_types type ON type.media_list_type_id = list.media_list_type_id "
+			+ "LEFT JOIN resource_properties name ON name.media_item_id = list.media_item_id "
+			+ "AND name.property_id = (SELECT property_id FROM properties WHERE property_name = ?) "
+			+ "LEFT JOIN resource_properties storage_guid ON storage_guid.media_item_id = list.media_item_id "
+			+ "AND storage_guid.property_id = (SELECT property_id FROM properties WHERE property_name = ?) "
+			+ "LEFT JOIN media_items storage ON storage.guid = storage_guid.obj "
+			+ "WHERE type.type IN ('simple', 'smart') AND list.hidden = 0";
+
+	/**
+	 * Selects the content URLs of the members of a list. Not ordered within the database, as the ordinal column
+	 * uses songbird's custom "tree" collation.
+	 */
+	private static final String SELECT_MEMBERS = "SELECT member.ordinal, item.content_url "
+			+ "FROM simple_media_lists member "
+			+ "JOIN media_items item ON item.media_item_id = member.member_media_item_id "
+			+ "WHERE member.media_item_id = ?";
+
+	/** Selects all media items that are not media lists, i.e. the tracks of the library. */
+	private static final String SELECT_TRACKS = "SELECT media_item_id, guid, content_url FROM media_items "
+			+ "WHERE media_list_type_id IS NULL ORDER BY media_item_id";
+
+	/** Selects the rules of all smart media lists. */
+	private static final String SELECT_SMART_STATES = "SELECT list.media_item_id, state.obj "
+			+ "FROM media_items list "
+			+ "JOIN media_list_types type ON type.media_list_type_id = list.media_list_type_id "
+			+ "JOIN resource_properties state ON state.media_item_id = list.media_item_id "
+			+ "AND state.property_id = (SELECT property_id FROM properties WHERE property_name = ?) "
+			+ "WHERE type.type = '" + LIST_TYPE_SMART + "'";
+
+	/** Selects a top level property (i.e. a column, see {@link #TOP_LEVEL_PROPERTIES}) of all tracks. */
+	private static final String SELECT_TRACK_COLUMN =
+			"SELECT media_item_id, %s FROM media_items WHERE media_list_type_id IS NULL";
+
+	/** Selects properties of all tracks, the property names are appended. */
+	private static final String SELECT_TRACK_PROPERTIES = "SELECT item.media_item_id, property.property_name, "
+			+ "value.obj FROM resource_properties value "
+			+ "JOIN properties property ON property.property_id = value.property_id "
+			+ "JOIN media_items item ON item.media_item_id = value.media_item_id "
+			+ "WHERE item.media_list_type_id IS NULL AND property.property_name IN ";
+
+	/** Selects all memberships of all lists. */
+	private static final String SELECT_MEMBERSHIPS =
+			"SELECT media_item_id, member_media_item_id, ordinal FROM simple_media_lists";
+
+	/** Orders songbird ordinals, e.g. "1" &lt; "1.1" &lt; "2" &lt; "10". */
+	private static final Comparator<String> ORDINAL_COMPARATOR = SongbirdDbReader::compareOrdinals;
+
+	/** The connection to the database. Guarded by itself. */
+	private final Connection connection;
+	/** Determines the fetch size of the statements. */
+	private final ConnectionProfile profile;
+	/** The snapshot {@link #connection} is opened on, deleted on {@link #close()}. <code>null</code> if none. */
+	private final File snapshotFile;
+
+	/**
+	 * Opens a songbird database with the default settings of the SQLite JDBC driver.
+	 * 
+	 * @param pathToDb
+	 *            path to the songbird database file
+	 * @throws SQLException
+	 *             if the database cannot be opened
+	 */
+	public SongbirdDbReader(final String pathToDb) throws SQLException {
+		this(pathToDb, ConnectionProfile.defaults());
+	}
+
+	/**
+	 * Opens a songbird database using a connection profile. If the profile requests a snapshot, the database is
+	 * copied first and the reader works on the copy.
+	 * 
+	 * @param pathToDb
+	 *            path to the songbird database file
+	 * @param profile
+	 *            determines how the database is opened
+	 * @throws SQLException
+	 *             if the database cannot be opened
+	 */
+	public SongbirdDbReader(final String pathToDb, final ConnectionProfile profile) throws SQLException {
+		this.profile = profile;
+		snapshotFile = profile.isSnapshot() ? profile.createSnapshot(pathToDb) : null;
+		Connection openedConnection = null;
+		try {
+			openedConnection = profile.open(snapshotFile != null ? snapshotFile.getPath() : pathToDb);
+			registerFunctions(openedConnection);
+		} catch (SQLException e) {
+			if (openedConnection != null) {
+				openedConnection.close();
+			}
+			if (snapshotFile != null) {
+				ConnectionProfile.deleteSnapshot(snapshotFile);
+			}
+			throw e;
+		}
+		connection = openedConnection;
+	}
+
+	/**
+	 * Creates a reader from an open connection. The reader takes ownership of the connection.
+	 * 
+	 * @param connection
+	 *            an open connection to a songbird database
+	 * @throws SQLException
+	 *             if the connection cannot be prepared
+	 */
+	public SongbirdDbReader(final Connection connection) throws SQLException {
+		this.connection = connection;
+		profile = ConnectionProfile.defaults();
+		snapshotFile = null;
+		registerFunctions(connection);
+	}
+
+	/**
+	 * @return the top level properties of songbird mapped to their column in <code>media_items</code>
+	 */
+	private static Map<String, String> createTopLevelProperties() {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("http://songbirdnest.com/data/1.0#GUID", "guid");
+		properties.put("http://songbirdnest.com/data/1.0#created", "created");
+		properties.put("http://songbirdnest.com/data/1.0#updated", "updated");
+		properties.put("http://songbirdnest.com/data/1.0#contentURL", "content_url");
+		properties.put("http://songbirdnest.com/data/1.0#contentMimeType", "content_mime_type");
+		properties.put("http://songbirdnest.com/data/1.0#contentLength", "content_length");
+		properties.put("http://songbirdnest.com/data/1.0#hidden", "hidden");
+		return Collections.unmodifiableMap(properties);
+	}
+
+	/**
+	 * Registers the SQL functions used by the queries.
+	 * 
+	 * @param connection
+	 *            the connection to register the functions on
+	 * @throws SQLException
+	 *             if registering fails
+	 */
+	private static void registerFunctions(final Connection connection) throws SQLException {
+		Function.create(connection, FUNCTION_UPPER_TRIM, new Function() {
+			@Override
+			protected void xFunc() throws SQLException {
+				String value = value_text(0);
+				if (value == null) {
+					result();
+				} else {
+					result(value.trim().toUpperCase());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Prepares a statement, applying the fetch size of the connection profile. Must be called while holding the lock
+	 * on {@link #connection}.
+	 * 
+	 * @param sql
+	 *            the query
+	 * @return a new statement
+	 * @throws SQLException
+	 *             if the statement cannot be prepared
+	 */
+	private PreparedStatement prepare(final String sql) throws SQLException {
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			profile.applyFetchSize(statement);
+		} catch (SQLException e) {
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+
+	/**
+	 * Finds playlists, without reading their members.
+	 * 
+	 * @param names
+	 *            only return playlists with these names (compared trimmed and case insensitive). If <code>null</code>
+	 *            or empty, all playlists are returned, including the ones without a name.
+	 * @return the playlists ordered by name, the ones without a name (i.e. <code>null</code>) first
+	 * @throws SQLException
+	 *             if reading fails
+	 */
+	public List<SongbirdPlaylist> findPlaylists(final Collection<String> names) throws SQLException {
+		Set<String> namesUpper = new LinkedHashSet<String>();
+		if (names != null) {
+			for (String name : names) {
+				namesUpper.add(name.trim().toUpperCase());
+			}
+		}
+		StringBuilder sql = new StringBuilder(SELECT_LISTS);
+		if (!namesUpper.isEmpty()) {
+			sql.append(" AND ").append(FUNCTION_UPPER_TRIM).append("(name.obj) IN (")
+					.append(String.join(", ", Collections.nCopies(namesUpper.size(), "?"))).append(")");
+		}
+		sql.append(" ORDER BY name.obj");
+
+		List<SongbirdPlaylist> playlists = new ArrayList<SongbirdPlaylist>();
+		synchronized (connection) {
+			try (PreparedStatement statement = prepare(sql.toString())) {
+				int parameterIndex = 1;
+				statement.setString(parameterIndex++, PROP_MEDIA_LIST_NAME);
+				statement.setString(parameterIndex++, PROP_STORAGE_GUID);
+				for (String nameUpper : namesUpper) {
+					statement.setString(parameterIndex++, nameUpper);
+				}
+				try (ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						long listId = rs.getLong(1);
+						long storageId = rs.getLong(3);
+						if (rs.wasNull()) {
+							storageId = listId;
+						}
+						playlists.add(new LazyPlaylist(listId, rs.getString(2), storageId,
+								LIST_TYPE_SMART.equals(rs.getString(4))));
+					}
+				}
+			}
+		}
+		return playlists;
+	}
+
+	/**
+	 * @return the ids of all playlists in the database
+	 * @throws SQLException
+	 *             if reading fails
+	 */
+	public Set<String> findPlaylistIds() throws SQLException {
+		Set<String> ids = new HashSet<String>();
+		for (SongbirdPlaylist playlist : findPlaylists(null)) {
+			ids.add(playlist.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * Reads the content URLs of the members of a media list. Only the members of this list are held in memory.
+	 * 
+	 * @param listId
+	 *            the media list that stores the members
+	 * @param consumer
+	 *            is called once per member, in playlist order
+	 * @throws SQLException
+	 *             if reading fails
+	 */
+	public void readMemberUrls(final long listId, final Consumer<String> consumer) throws SQLException {
+		List<String[]> members = new ArrayList<String[]>();
+		synchronized (connection) {
+			try (PreparedStatement statement = prepare(SELECT_MEMBERS)) {
+				statement.setLong(1, listId);
+				try (ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						members.add(new String[] { rs.getString(1), rs.getString(2) });
+					}
+				}
+			}
+		}
+		members.sort((m1, m2) -> ORDINAL_COMPARATOR.compare(m1[0], m2[0]));
+		for (String[] member : members) {
+			consumer.accept(member[1]);
+		}
+	}
+
+	/**
+	 * Reads all tracks of the library, i.e. all media items that are not media lists, ordered by id.
+	 * 
+	 * @param consumer
+	 *            is called once per track
+	 * @throws SQLException
+	 *             if reading fails
+	 */
+	public void readTracks(final TrackConsumer consumer) throws SQLException {
+		synchronized (connection) {
+			try (PreparedStatement statement = prepare(SELECT_TRACKS);
+					ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					consumer.accept(rs.getLong(1), rs.getString(2), rs.getString(3));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the rules of all smart playlists, see {@link SmartPlaylistRules#parse(String)}.
+	 * 
+	 * @return the value of {@link #PROP_SMART_STATE} by id of the smart media list. Lists without rules are missing.
+	 * @throws SQLException
+	 *             if reading fails
+	 */
+	public Map<Long, String> readSmartListStates() throws SQLException {
+		Map<Long, String> states = new HashMap<Long, String>();
+		synchronized (connection) {
+			try (PreparedStatement statement = prepare(SELECT_SMART_STATES)) {
+				statement.setString(1, PROP_SMART_STATE);
+				try (ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						states.put(rs.getLong(1), rs.getString(2));
+					}
+				}
+			}
+		}
+		return states;
+	}
+
+	/**
+	 * Reads properties of all tracks (see {@link #readTracks(TrackConsumer)}). Top level properties like
+	 * <code>#created</code> or <code>#contentLength</code> are read from their column, all others from the
+	 * <code>resource_properties</code>. Tracks that do not have a property are not reported for it.
+	 * 
+	 * @param propertyNames
+	 *            the full names of the properties to read, e.g.
+	 *            <code>http://songbirdnest.com/data/1.0#rating</code>
+	 * @param consumer
+	 *            is called once per track and property that has a value, in no particular order
+	 * @throws SQLException
+	 *             if reading fails
+	 */
+	public void readTrackProperties(final Collection<String> propertyNames, final TrackPropertyConsumer consumer)
+			throws SQLException {
+		List<String> otherProperties = new ArrayList<String>();
+		synchronized (connection) {
+			for (String propertyName : new LinkedHashSet<String>(propertyNames)) {
+				String column = TOP_LEVEL_PROPERTIES.get(propertyName);
+				if (column == null) {
+					otherProperties.add(propertyName);
+					continue;
+				}
+				try (PreparedStatement statement = prepare(String.format(SELECT_TRACK_COLUMN, column));
+						ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						String value = rs.getString(2);
+						if (value != null) {
+							consumer.accept(rs.getLong(1), propertyName, value);
+						}
+					}
+				}
+			}
+			if (otherProperties.isEmpty()) {
+				return;
+			}
+			try (PreparedStatement statement = prepare(SELECT_TRACK_PROPERTIES + "("
+					+ String.join(", ", Collections.nCopies(otherProperties.size(), "?")) + ")")) {
+				for (int i = 0; i < otherProperties.size(); i++) {
+					statement.setString(i + 1, otherProperties.get(i));
+				}
+				try (ResultSet rs = statement.executeQuery()) {
+					while (rs.next()) {
+						consumer.accept(rs.getLong(1), rs.getString(2), rs.getString(3));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads which media items are members of which playlist. Only playlists returned by
+	 * {@link #findPlaylists(Collection)} are considered. Members of smart playlists are read from their storage list,
+	 * but reported with the id of the smart playlist.
+	 * 
+	 * @param consumer
+	 *            is called once per membership, in no particular order
+	 * @throws SQLException
+	 *             if reading fails
+	 */
+	public void readMemberships(final MembershipConsumer consumer) throws SQLException {
+		Map<Long, List<Long>> storageIdToListIds = new HashMap<Long, List<Long>>();
+		for (SongbirdPlaylist playlist : findPlaylists(null)) {
+			LazyPlaylist lazyPlaylist = (LazyPlaylist) playlist;
+			storageIdToListIds.computeIfAbsent(lazyPlaylist.storageListId, id -> new ArrayList<Long>(1)).add(
+					lazyPlaylist.listId);
+		}
+		synchronized (connection) {
+			try (PreparedStatement statement = prepare(SELECT_MEMBERSHIPS);
+					ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					List<Long> listIds = storageIdToListIds.get(rs.getLong(1));
+					if (listIds != null) {
+						long memberId = rs.getLong(2);
+						String ordinal = rs.getString(3);
+						for (Long listId : listIds) {
+							consumer.accept(listId, memberId, ordinal);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares two songbird ordinals the way songbird's "tree" collation does: The dot-separated parts are compared
+	 * numerically, a prefix comes first.
+	 * 
+	 * @param ordinal1
+	 *            first ordinal
+	 * @param ordinal2
+	 *            second ordinal
+	 * @return a negative integer, zero, or a positive integer as <code>ordinal1</code> is less than, equal to, or
+	 *         greater than <code>ordinal2</code>.
+	 */
+	static int compareOrdinals(final String ordinal1, final String ordinal2) {
+		String[] parts1 = ordinal1.split("\\.");
+		String[] parts2 = ordinal2.split("\\.");
+		for (int i = 0; i < parts1.length && i < parts2.length; i++) {
+			int result = compareOrdinalPart(parts1[i], parts2[i]);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(parts1.length, parts2.length);
+	}
+
+	/**
+	 * @param part1
+	 *            first part of an ordinal
+	 * @param part2
+	 *            second part of an ordinal
+	 * @return the numerical comparison of both parts, falls back to string comparison if not numerical
+	 */
+	private static int compareOrdinalPart(final String part1, final String part2) {
+		try {
+			return Long.compare(Long.parseLong(part1), Long.parseLong(part2));
+		} catch (NumberFormatException e) {
+			return part1.compareTo(part2);
+		}
+	}
+
+	/**
+	 * Closes the database connection and deletes the snapshot, if any.
+	 * 
+	 * @throws SQLException
+	 *             if closing fails
+	 */
+	@Override
+	public void close() throws SQLException {
+		synchronized (connection) {
+			try {
+				connection.close();
+			} finally {
+				if (snapshotFile != null) {
+					ConnectionProfile.deleteSnapshot(snapshotFile);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receives the tracks read by {@link SongbirdDbReader#readTracks(TrackConsumer)}.
+	 */
+	public interface TrackConsumer {
+		/**
+		 * @param mediaItemId
+		 *            the id of the media item
+		 * @param guid
+		 *            the songbird guid of the media item
+		 * @param contentUrl
+		 *            the URL of the file
+		 */
+		void accept(long mediaItemId, String guid, String contentUrl);
+	}
+
+	/**
+	 * Receives the properties read by
+	 * {@link SongbirdDbReader#readTrackProperties(Collection, TrackPropertyConsumer)}.
+	 */
+	public interface TrackPropertyConsumer {
+		/**
+		 * @param mediaItemId
+		 *            the id of the media item
+		 * @param propertyName
+		 *            the full name of the property
+		 * @param value
+		 *            the value of the property, never <code>null</code>
+		 */
+		void accept(long mediaItemId, String propertyName, String value);
+	}
+
+	/**
+	 * Receives the memberships read by {@link SongbirdDbReader#readMemberships(MembershipConsumer)}.
+	 */
+	public interface MembershipConsumer {
+		/**
+		 * @param listId
+		 *            the id of the playlist
+		 * @param mediaItemId
+		 *            the id of the media item that is member of the playlist
+		 * @param ordinal
+		 *            the position of the member within the playlist, see
+		 *            {@link SongbirdDbReader#compareOrdinals(String, String)}
+		 */
+		void accept(long listId, long mediaItemId, String ordinal);
+	}
+
+	/**
+	 * {@link SongbirdPlaylist} whose members are read from the database when requested.
+	 */
+	private class LazyPlaylist implements SongbirdPlaylist {
+		/** Id of the media list. */
+		private final long listId;
+		/** Name of the media list. */
+		private final String name;
+		/** Id of the media list that stores the members. Same as {@link #listId} for simple lists. */
+		private final long storageListId;
+		/** Is this a smart media list? */
+		private final boolean dynamic;
+
+		/**
+		 * @param listId
+		 *            id of the media list
+		 * @param name
+		 *            name of the media list
+		 * @param storageListId
+		 *            id of the media list that stores the members
+		 * @param dynamic
+		 *            is this a smart media list?
+		 */
+		LazyPlaylist(final long listId, final String name, final long storageListId, final boolean dynamic) {
+			this.listId = listId;
+			this.name = name;
+			this.storageListId = storageListId;
+			this.dynamic = dynamic;
+		}
+
+		@Override
+		public String getId() {
+			return String.valueOf(listId);
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean isDynamic() {
+			return dynamic;
+		}
+
+		@Override
+		public void readMemberUrls(final Consumer<String> consumer) throws SQLException {
+			SongbirdDbReader.this.readMemberUrls(storageListId, consumer);
+		}
+
+		@Override
+		public String toString() {
+			return "LazyPlaylist [listId=" + listId + ", name=" + name + ", storageListId=" + storageListId
+					+ ", dynamic=" + dynamic + "]";
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * A playlist (songbird media list) that can be exported. Abstracts from how the playlist and its members are loaded:
+ * Either all at once using songbirdDbApi4j ({@link SimpleMediaListPlaylist}) or lazily using a
+ * {@link SongbirdDbReader}.
+ * 
+ * @author schnatterer
+ * 
+ */
+public interface SongbirdPlaylist {
+
+	/** @return the id of the songbird media list, as string */
+	String getId();
+
+	/** @return the name of the playlist as stored in songbird. Might be <code>null</code>. */
+	String getName();
+
+	/**
+	 * @return <code>true</code> if this is a smart (dynamic) playlist, e.g. "recently added" or "highest rated",
+	 *         whose members songbird determines from rules
+	 */
+	default boolean isDynamic() {
+		return false;
+	}
+
+	/**
+	 * Passes the content URLs of all members to <code>consumer</code>, in playlist order. Might read from the
+	 * database, so call only when needed.
+	 * 
+	 * @param consumer
+	 *            is called once per member
+	 * @throws SQLException
+	 *             if reading the members fails
+	 */
+	void readMemberUrls(Consumer<String> consumer) throws SQLException;
+}
@@ -16,9 +16,9 @@
 package info.schnatterer.songbirdDbTools.cli;
 
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
@@ -30,8 +30,12 @@ import com.beust.jcommander.Parameters;
  * e.g. for calls like this: <code>programName command [options]</code>.
  * 
  * This class allows for concrete classes to focus on declaring the command line interface. These concrete classes then
- * specify inner classes for each command whose instances are returned by {@link #readParams(String[], String)} when a
- * specific command is called.
+ * specify inner classes for each command and create their instances in {@link #createCommandInstances()}. The
+ * instances are returned by {@link #readParams(String[], String)} when a specific command is called.
+ * 
+ * The commands are declared explicitly instead of being found by scanning for annotated classes. This keeps
+ * reflection to what JCommander needs for reading the annotated fields, which makes startup faster and allows for
+ * ahead-of-time compilation (see <code>META-INF/native-image</code>).
  * 
  * @author schnatterer
  * 
@@ -93,18 +97,20 @@ public abstract class ComplexCli {
 	}
 
 	/**
-	 * Returns a list of all annotated command classes.
+	 * Creates one instance of each command. The commands are usually inner classes annotated with {@link Parameters},
+	 * whose simple name is the command string. The order of the list determines the order of the usage info.
+	 * 
+	 * @return the command instances
+	 */
+	protected abstract List<Object> createCommandInstances();
+
+	/**
+	 * Returns a list of all command classes.
 	 * 
 	 * @return a list of all command classes or an empty {@link List}, if none present
 	 */
 	public List<Class<?>> getCommandClasses() {
-		List<Class<?>> commandClasses = new LinkedList<Class<?>>();
-		for (Class<?> innerClass : SongbirdDatabaseToolsCli.class.getDeclaredClasses()) {
-			if (innerClass.isAnnotationPresent(Parameters.class)) {
-				commandClasses.add(innerClass);
-			}
-		}
-		return commandClasses;
+		return createCommandInstances().stream().map(Object::getClass).collect(Collectors.toList());
 	}
 
 	/**
@@ -116,29 +122,14 @@ public abstract class ComplexCli {
 
 		Map<String, Object> commandString2Instance = new HashMap<String, Object>();
 
-		for (Class<?> innerClass : getCommandClasses()) {
-			if (innerClass.isAnnotationPresent(Parameters.class) && Object.class.isAssignableFrom(innerClass)) {
-				Object command = null;
-				try {
-					/*
-					 * Create an instance of the inner class relating to this instance of the outer class
-					 */
-					command =
-							innerClass.getDeclaredConstructor(new Class[] { this.getClass() }).newInstance(
-									new Object[] { this });
-
-				} catch (Exception e) { // NOSONAR: Method call preserves exception!
-					printErrorThrowException(e);
-				}
-				String commandStr = innerClass.getSimpleName();
-				String commandStrLower = commandStr.toLowerCase();
-				String commandStrUpper = commandStr.toUpperCase();
-
-				commandString2Instance.put(commandStrLower, command);
-				// Add command, define lower and upper version as aliases
-				commander.addCommand(commandStr, command, commandStrLower, commandStrUpper);
-			}
+		for (Object command : createCommandInstances()) {
+			String commandStr = command.getClass().getSimpleName();
+			String commandStrLower = commandStr.toLowerCase();
+			String commandStrUpper = commandStr.toUpperCase();
 
+			commandString2Instance.put(commandStrLower, command);
+			// Add command, define lower and upper version as aliases
+			commander.addCommand(commandStr, command, commandStrLower, commandStrUpper);
 		}
 		return commandString2Instance;
 	}
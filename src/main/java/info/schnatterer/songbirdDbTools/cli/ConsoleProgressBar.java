@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.cli;
+
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportProgress;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportProgressListener;
+import info.schnatterer.songbirdDbTools.commands.playlist.PlaylistExportResult;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the progress of an export as a single line on the console that is overwritten on each update, e.g.
+ * 
+ * <pre>
+ * [##########----------]  12/24 playlists, 1520 entries/s, ETA 0:42
+ * </pre>
+ * 
+ * @author schnatterer
+ * 
+ */
+public class ConsoleProgressBar implements ExportProgressListener {
+	/** Number of characters of the bar itself. */
+	private static final int WIDTH = 30;
+	/** Minimum time between two updates, so the console is not flooded. */
+	private static final long MIN_UPDATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+	/** Where to print the bar to. */
+	private final PrintStream out;
+	/** When the bar was printed last. */
+	private long lastUpdate = 0;
+	/** Length of the line printed last, to overwrite all of it. */
+	private int lastLength = 0;
+
+	/** Prints the bar to {@link System#err}, so it does not interfere with redirected output. */
+	public ConsoleProgressBar() {
+		this(System.err);
+	}
+
+	/**
+	 * @param out
+	 *            where to print the bar to
+	 */
+	public ConsoleProgressBar(final PrintStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void exportStarted(final ExportProgress progress) {
+		lastLength = 0;
+		print(progress);
+	}
+
+	@Override
+	public void playlistFinished(final PlaylistExportResult result, final ExportProgress progress) {
+		long now = System.nanoTime();
+		if (now - lastUpdate >= MIN_UPDATE_INTERVAL_NANOS
+				|| progress.getPlaylistsDone() == progress.getPlaylistsTotal()) {
+			lastUpdate = now;
+			print(progress);
+		}
+	}
+
+	@Override
+	public void exportFinished(final ExportProgress progress, final boolean cancelled) {
+		print(progress);
+		out.println(cancelled ? " - cancelled" : "");
+		out.flush();
+	}
+
+	/**
+	 * Overwrites the current line with the progress.
+	 * 
+	 * @param progress
+	 *            the progress to show
+	 */
+	private void print(final ExportProgress progress) {
+		String line = format(progress);
+		StringBuilder output = new StringBuilder("\r").append(line);
+		for (int i = line.length(); i < lastLength; i++) {
+			output.append(' ');
+		}
+		lastLength = line.length();
+		out.print(output);
+		out.flush();
+	}
+
+	/**
+	 * Formats a progress as a single line.
+	 * 
+	 * @param progress
+	 *            the progress to format
+	 * @return the line, without line break
+	 */
+	private static String format(final ExportProgress progress) {
+		int total = progress.getPlaylistsTotal();
+		int done = progress.getPlaylistsDone();
+		int filled = total > 0 ? (int) ((long) WIDTH * done / total) : WIDTH;
+		StringBuilder line = new StringBuilder(WIDTH + 64).append('[');
+		for (int i = 0; i < WIDTH; i++) {
+			line.append(i < filled ? '#' : '-');
+		}
+		String digits = String.valueOf(total);
+		line.append("] ").append(String.format(Locale.ROOT, "%" + digits.length() + "d", done)).append('/')
+				.append(digits).append(" playlists, ")
+				.append(String.format(Locale.ROOT, "%.0f", progress.getEntriesPerSecond())).append(" entries/s");
+		if (progress.getPlaylistsFailed() > 0) {
+			line.append(", ").append(progress.getPlaylistsFailed()).append(" failed");
+		}
+		long eta = progress.getEtaMillis();
+		if (eta >= 0 && done < total) {
+			long seconds = TimeUnit.MILLISECONDS.toSeconds(eta);
+			line.append(String.format(Locale.ROOT, ", ETA %d:%02d", seconds / 60, seconds % 60));
+		}
+		return line.toString();
+	}
+}
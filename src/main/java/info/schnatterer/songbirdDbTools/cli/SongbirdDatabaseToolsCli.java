@@ -15,11 +15,15 @@
  */
 package info.schnatterer.songbirdDbTools.cli;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.beust.jcommander.validators.PositiveInteger;
 
 /**
  * The SongbirdDatabaseTools command line interface takes care of parsing the arguments and printing out potential
@@ -33,29 +37,136 @@ public class SongbirdDatabaseToolsCli extends ComplexCli {
 
 	/** Description for parameter - command export playlist. */
 	private static final String DESC_COMMAND_EXPORT = "Exports playlists";
+	/** Description for parameter - command watch. */
+	private static final String DESC_COMMAND_WATCH =
+			"Exports playlists and keeps running, exporting the playlists that changed whenever the songbird "
+					+ "database changes";
+	/** Description for parameter - command sync media. */
+	private static final String DESC_COMMAND_SYNC_MEDIA =
+			"Copies the member files of playlists to a folder (e.g. a USB stick) and exports the playlists there, "
+					+ "referencing the copies. Only copies files that changed.";
+	/** Description for parameter - command index. */
+	private static final String DESC_COMMAND_INDEX =
+			"Creates an index of all tracks and the playlists containing them, which can be queried without "
+					+ "reading the songbird database";
+	/** Description for parameter - command query. */
+	private static final String DESC_COMMAND_QUERY =
+			"Looks up the songbird id, guid and playlists of tracks in the index created by the Index command";
+	/** Description for parameter - command analyze. */
+	private static final String DESC_COMMAND_ANALYZE =
+			"Checks all tracks of the library and reports missing files, duplicate content URLs, several URLs "
+					+ "pointing to the same file and, optionally, files with the same content";
+	/** Description for parameter - command search. */
+	private static final String DESC_COMMAND_SEARCH =
+			"Searches the title, artist, album and path of all tracks for words or their beginnings (case "
+					+ "insensitive) and optionally writes the tracks found to a playlist";
+	/** Description for command stats. */
+	private static final String DESC_COMMAND_STATS =
+			"Computes the number of tracks, their duration and size and the missing files of the library and each "
+					+ "playlist, broken down by format and directory";
+	/** Description for parameter - index file. */
+	private static final String DESC_INDEX_FILE =
+			"Path to the index file. Defaults to the path of the songbird database with suffix .sbindex";
 	/** Description for parameter - path to songbird database. */
 	private static final String DESC_DB = "Path to songbird database file";
+	/** Description for parameter - read-only database access. */
+	private static final String DESC_READ_ONLY =
+			"Opens the songbird database read-only with a large page cache and temporary tables in memory. "
+					+ "Applies when the database is read directly (e.g. --lazy, --compact, Watch, Index).";
+	/** Description for parameter - snapshot of the database. */
+	private static final String DESC_SNAPSHOT =
+			"Copies the songbird database to a temporary file and reads the copy, so a running songbird/nightingale "
+					+ "is not blocked by long reads. Implies --read-only.";
+	/** Description for parameter - fetch size. */
+	private static final String DESC_FETCH_SIZE =
+			"Number of rows fetched from the songbird database at once. Defaults to 1024 with --read-only.";
 
 	/** Definition of parameter - path to songbird database. */
 	@Parameter(names = { "-d", "-db" }, description = DESC_DB, required = true)
 	private String songbirdDB;
 
+	/** Definition of parameter - read-only database access. */
+	@Parameter(names = { "--read-only" }, description = DESC_READ_ONLY)
+	private boolean readOnly = false;
+
+	/** Definition of parameter - snapshot of the database. */
+	@Parameter(names = { "--snapshot" }, description = DESC_SNAPSHOT)
+	private boolean snapshot = false;
+
+	/** Definition of parameter - fetch size. */
+	@Parameter(names = { "--fetch-size" }, description = DESC_FETCH_SIZE, validateWith = PositiveInteger.class)
+	private Integer fetchSize = null;
+
 	/** Definition of parameter - command export playlist (subclass). */
 	@Parameters(commandDescription = DESC_COMMAND_EXPORT)
 	public class ExportPlaylists {
 		/** Description for parameter - playlist format. */
-		private static final String DESC_FORMAT = "Playlist format.";
+		private static final String DESC_FORMAT =
+				"Playlist format(s), default m3u. Separate several formats by comma (e.g. m3u,pls) to write them "
+						+ "in a single pass. m3u, m3u8 and pls are written natively, all other formats (e.g. xspf, "
+						+ "wpl) using the lizzy library.";
 		/** Description for parameter - main parameter (destination folder). */
-		private static final String DESC_MAIN = "[destination folder to export playlists]";
+		private static final String DESC_MAIN =
+				"[destination folder to export playlists or archive ending in .zip, .tar.gz or .tgz]";
 		/** Description for parameter - use relative paths? */
 		private static final String DESC_RELATIVE_PATHS =
 				"Try to use paths relative to the playlist directory for members. ";
 		/** Description for parameter - skip export dynamic playlists? */
 		private static final String DESC_DYNAMIC_LISTS =
 				"Skip songbird's dynamic playlists (e.g. recently added, highest rated.)";
+		/** Description for parameter - evaluate smart playlists? */
+		private static final String DESC_EVALUATE_SMART =
+				"Evaluate the rules of songbird's dynamic playlists (e.g. recently added, highest rated) instead of "
+						+ "exporting the tracks songbird stored when it last ran. Reads the database directly.";
 		/** Description for parameter playlist names. */
 		private static final String DESC_PLAYLISTS =
 				"Names of the playlists that should be exported. If not specified, all playlist are exported.";
+		/** Description for parameter - path mapping rules. */
+		private static final String DESC_MAP_PATH =
+				"Rewrite the locations of the members before they are checked, e.g. "
+						+ "\"file:///C:/Users/me/Music=/mnt/music\". Format: source=target, the source being a "
+						+ "path or file URL. Can be specified several times, the longest matching source wins.";
+		/** Description for parameter - path mapping rules file. */
+		private static final String DESC_MAP_FILE =
+				"File containing path mapping rules (see --map-path), one source=target per line. Lines starting "
+						+ "with # are ignored.";
+		/** Description for parameter - store member files in archive. */
+		private static final String DESC_ARCHIVE_MEDIA =
+				"When exporting to an archive: Also store the member files in the archive (in folder media) and "
+						+ "reference them in the playlists.";
+		/** Description for parameter - number of export threads. */
+		private static final String DESC_THREADS =
+				"Number of playlists that are exported concurrently. Speeds up exports from slow (network) drives.";
+		/** Description for parameter - number of concurrent file checks. */
+		private static final String DESC_CHECKS_IN_FLIGHT =
+				"Number of member files per playlist that are checked concurrently. Speeds up exports from slow "
+						+ "(network) drives.";
+		/** Description for parameter - incremental export. */
+		private static final String DESC_INCREMENTAL =
+				"Only export playlists that changed since the last incremental export to the destination folder.";
+		/** Description for parameter - prune playlists. */
+		private static final String DESC_PRUNE =
+				"Together with --incremental: Delete playlist files whose playlist no longer exists in songbird.";
+		/** Description for parameter - lazy loading. */
+		private static final String DESC_LAZY =
+				"Read only the requested playlists and their members one playlist at a time, instead of loading "
+						+ "the whole library into memory.";
+		/** Description for parameter - compact model. */
+		private static final String DESC_COMPACT =
+				"Load the library into a compact in-memory model (a few arrays instead of one object per track and "
+						+ "membership). Reduces heap usage and garbage collection for large libraries.";
+		/** Description for parameter - print statistics. */
+		private static final String DESC_STATS =
+				"Print the time spent reading the database, resolving paths, checking files and writing playlists "
+						+ "as well as the number of entries written after the export.";
+		/** Description for parameter - metrics file. */
+		private static final String DESC_METRICS_FILE =
+				"Write the export statistics to this file. Written as JSON if the file name ends with .json, in "
+						+ "Prometheus text format otherwise.";
+		/** Description for parameter - show progress? */
+		private static final String DESC_PROGRESS =
+				"Shows a progress bar with the number of playlists written, entries per second and the estimated "
+						+ "remaining time";
 
 		/** Definition of parameter - main parameter (destination folder). */
 		@Parameter(description = DESC_MAIN, required = true)
@@ -63,7 +174,7 @@ public class SongbirdDatabaseToolsCli extends ComplexCli {
 
 		/** Definition of parameter - playlist format. */
 		@Parameter(names = { "-f", "--format" }, description = DESC_FORMAT)
-		private String format = "m3u";
+		private List<String> formats = new LinkedList<>();
 
 		/** Definition of parameter - playlist names. */
 		@Parameter(names = { "-p", "--playlists" }, variableArity = true, splitter = NoSplitter.class,
@@ -78,14 +189,71 @@ public class SongbirdDatabaseToolsCli extends ComplexCli {
 		@Parameter(names = { "-d", "--skipdynamic" }, description = DESC_DYNAMIC_LISTS)
 		private boolean skipDynamicPlaylists = false;
 
+		/** Definition of parameter - evaluate smart playlists? */
+		@Parameter(names = { "--evaluate-smart" }, description = DESC_EVALUATE_SMART)
+		private boolean evaluateSmart = false;
+
+		/** Definition of parameter - path mapping rules. */
+		@Parameter(names = { "--map-path" }, splitter = NoSplitter.class, description = DESC_MAP_PATH)
+		private List<String> pathMappings = new LinkedList<>();
+
+		/** Definition of parameter - path mapping rules file. */
+		@Parameter(names = { "--map-file" }, description = DESC_MAP_FILE)
+		private String pathMappingFile = null;
+
+		/** Definition of parameter - store member files in archive. */
+		@Parameter(names = { "--archive-media" }, description = DESC_ARCHIVE_MEDIA)
+		private boolean archiveMedia = false;
+
+		/** Definition of parameter - number of export threads. */
+		@Parameter(names = { "-t", "--threads" }, description = DESC_THREADS, validateWith = PositiveInteger.class)
+		private int threads = 1;
+
+		/** Definition of parameter - number of concurrent file checks. */
+		@Parameter(names = { "-c", "--checks-in-flight" }, description = DESC_CHECKS_IN_FLIGHT,
+				validateWith = PositiveInteger.class)
+		private int checksInFlight = 1;
+
+		/** Definition of parameter - incremental export. */
+		@Parameter(names = { "-i", "--incremental" }, description = DESC_INCREMENTAL)
+		private boolean incremental = false;
+
+		/** Definition of parameter - prune playlists. */
+		@Parameter(names = { "--prune" }, description = DESC_PRUNE)
+		private boolean prune = false;
+
+		/** Definition of parameter - lazy loading. */
+		@Parameter(names = { "-l", "--lazy" }, description = DESC_LAZY)
+		private boolean lazy = false;
+
+		/** Definition of parameter - compact model. */
+		@Parameter(names = { "--compact" }, description = DESC_COMPACT)
+		private boolean compact = false;
+
+		/** Definition of parameter - print statistics. */
+		@Parameter(names = { "--stats" }, description = DESC_STATS)
+		private boolean stats = false;
+
+		/** Definition of parameter - metrics file. */
+		@Parameter(names = { "--metrics-file" }, description = DESC_METRICS_FILE)
+		private String metricsFile = null;
+
+		/** Definition of parameter - show progress? */
+		@Parameter(names = { "--progress" }, description = DESC_PROGRESS)
+		private boolean progress = false;
+
 		/** @return the value of the destination path parameter. */
 		public String getDestinationPath() {
 			return mainParams.get(0);
 		}
 
-		/** @return the value of the playlist format parameter. */
-		public String getFormat() {
-			return format;
+		/** @return the values of the playlist format parameter, without duplicates. m3u if none was specified. */
+		public List<String> getFormats() {
+			if (formats.isEmpty()) {
+				return Collections.singletonList("m3u");
+			}
+			return formats.stream().map(String::trim).filter(format -> !format.isEmpty()).distinct()
+					.collect(Collectors.toList());
 		}
 
 		/** @return the value of the "use relative paths" paramter. */
@@ -100,6 +268,71 @@ public class SongbirdDatabaseToolsCli extends ComplexCli {
 			return skipDynamicPlaylists;
 		}
 
+		/** @return the value of the "evaluate smart playlists" parameter. */
+		public boolean isEvaluateSmart() {
+			return evaluateSmart;
+		}
+
+		/** @return the values of the "path mapping rules" parameter. */
+		public List<String> getPathMappings() {
+			return pathMappings;
+		}
+
+		/** @return the value of the "path mapping rules file" parameter or <code>null</code> if not set. */
+		public String getPathMappingFile() {
+			return pathMappingFile;
+		}
+
+		/** @return the value of the "store member files in archive" parameter. */
+		public boolean isArchiveMedia() {
+			return archiveMedia;
+		}
+
+		/** @return the value of the "number of export threads" parameter. */
+		public int getThreads() {
+			return threads;
+		}
+
+		/** @return the value of the "number of concurrent file checks" parameter. */
+		public int getChecksInFlight() {
+			return checksInFlight;
+		}
+
+		/** @return the value of the "incremental export" parameter. */
+		public boolean isIncremental() {
+			return incremental;
+		}
+
+		/** @return the value of the "prune playlists" parameter. */
+		public boolean isPrune() {
+			return prune;
+		}
+
+		/** @return the value of the "lazy loading" parameter. */
+		public boolean isLazy() {
+			return lazy;
+		}
+
+		/** @return the value of the "compact model" parameter. */
+		public boolean isCompact() {
+			return compact;
+		}
+
+		/** @return the value of the "print statistics" parameter. */
+		public boolean isStats() {
+			return stats;
+		}
+
+		/** @return the value of the "metrics file" parameter or <code>null</code> if not set. */
+		public String getMetricsFile() {
+			return metricsFile;
+		}
+
+		/** @return the value of the "progress" parameter. */
+		public boolean isProgress() {
+			return progress;
+		}
+
 		/**
 		 * @return the playlist names that should be exported.
 		 */
@@ -108,8 +341,338 @@ public class SongbirdDatabaseToolsCli extends ComplexCli {
 		}
 	}
 
+	/**
+	 * Definition of parameter - command watch (subclass). Takes the same parameters as {@link ExportPlaylists}.
+	 */
+	@Parameters(commandDescription = DESC_COMMAND_WATCH)
+	public class Watch extends ExportPlaylists {
+		/** Description for parameter - debounce time. */
+		private static final String DESC_DEBOUNCE =
+				"Milliseconds the database must be unchanged before the playlists are exported again.";
+
+		/** Definition of parameter - debounce time. */
+		@Parameter(names = { "--debounce" }, description = DESC_DEBOUNCE, validateWith = PositiveInteger.class)
+		private int debounceMillis = 2000;
+
+		/** @return the value of the "debounce time" parameter. */
+		public int getDebounceMillis() {
+			return debounceMillis;
+		}
+	}
+
+	/**
+	 * Definition of parameter - command sync media (subclass). Takes the same parameters as {@link ExportPlaylists},
+	 * the destination folder is the target of the copies.
+	 */
+	@Parameters(commandDescription = DESC_COMMAND_SYNC_MEDIA)
+	public class SyncMedia extends ExportPlaylists {
+		/** Description for parameter - number of copy threads. */
+		private static final String DESC_COPY_THREADS = "Number of files that are copied concurrently.";
+		/** Description for parameter - source root. */
+		private static final String DESC_SOURCE_ROOT =
+				"Folder containing the music. Files below it are copied relative to it, all others with their "
+						+ "absolute path.";
+
+		/** Definition of parameter - number of copy threads. */
+		@Parameter(names = { "--copy-threads" }, description = DESC_COPY_THREADS, validateWith = PositiveInteger.class)
+		private int copyThreads = 2;
+
+		/** Definition of parameter - source root. */
+		@Parameter(names = { "--source-root" }, description = DESC_SOURCE_ROOT)
+		private String sourceRoot = null;
+
+		/** @return the value of the "number of copy threads" parameter. */
+		public int getCopyThreads() {
+			return copyThreads;
+		}
+
+		/** @return the value of the "source root" parameter or <code>null</code> if not set. */
+		public String getSourceRoot() {
+			return sourceRoot;
+		}
+
+		/** @return always <code>true</code>, so the playlists in the target folder work on any device. */
+		@Override
+		public boolean isRelativePaths() {
+			return true;
+		}
+	}
+
+	/** Definition of parameter - command index (subclass). */
+	@Parameters(commandDescription = DESC_COMMAND_INDEX)
+	public class Index {
+		/** Definition of parameter - index file. */
+		@Parameter(names = { "-o", "--index" }, description = DESC_INDEX_FILE)
+		private String indexFile = null;
+
+		/** @return the value of the index file parameter or <code>null</code> if not set. */
+		public String getIndexFile() {
+			return indexFile;
+		}
+	}
+
+	/** Definition of parameter - command query (subclass). */
+	@Parameters(commandDescription = DESC_COMMAND_QUERY)
+	public class Query {
+		/** Description for parameter - main parameter (tracks). */
+		private static final String DESC_MAIN = "[paths or URLs of the tracks to look up]";
+
+		/** Definition of parameter - main parameter (tracks). */
+		@Parameter(description = DESC_MAIN, required = true)
+		private List<String> mainParams;
+
+		/** Definition of parameter - index file. */
+		@Parameter(names = { "-o", "--index" }, description = DESC_INDEX_FILE)
+		private String indexFile = null;
+
+		/** @return the paths or URLs of the tracks to look up. */
+		public List<String> getTracks() {
+			return mainParams;
+		}
+
+		/** @return the value of the index file parameter or <code>null</code> if not set. */
+		public String getIndexFile() {
+			return indexFile;
+		}
+	}
+
+	/** Definition of parameter - command analyze (subclass). */
+	@Parameters(commandDescription = DESC_COMMAND_ANALYZE)
+	public class Analyze {
+		/** Description for parameter - main parameter (report file). */
+		private static final String DESC_MAIN = "[report file, written as JSON if it ends in .json, CSV otherwise]";
+		/** Description for parameter - number of threads. */
+		private static final String DESC_THREADS = "Number of threads checking and hashing files";
+		/** Description for parameter - hash files? */
+		private static final String DESC_HASH =
+				"Reports files with the same content. Files whose size is unique are not read.";
+		/** Description for parameter - hash sample. */
+		private static final String DESC_HASH_SAMPLE_KB =
+				"Only hashes this many KB at the start and the end of each file, which is much faster for large "
+						+ "files. 0 hashes the whole file.";
+
+		/** Definition of parameter - main parameter (report file). */
+		@Parameter(description = DESC_MAIN, required = true)
+		private List<String> mainParams;
+
+		/** Definition of parameter - number of threads. */
+		@Parameter(names = { "-t", "--threads" }, description = DESC_THREADS, validateWith = PositiveInteger.class)
+		private int threads = 4;
+
+		/** Definition of parameter - hash files? */
+		@Parameter(names = { "--hash" }, description = DESC_HASH)
+		private boolean hash = false;
+
+		/** Definition of parameter - hash sample. */
+		@Parameter(names = { "--hash-sample-kb" }, description = DESC_HASH_SAMPLE_KB,
+				validateWith = PositiveInteger.class)
+		private int hashSampleKb = 0;
+
+		/** @return the value of the report file parameter. */
+		public String getReportFile() {
+			return mainParams.get(0);
+		}
+
+		/** @return the value of the number of threads parameter. */
+		public int getThreads() {
+			return threads;
+		}
+
+		/** @return the value of the "hash" parameter. */
+		public boolean isHash() {
+			return hash;
+		}
+
+		/** @return the value of the hash sample parameter, in KB. */
+		public int getHashSampleKb() {
+			return hashSampleKb;
+		}
+	}
+
+	/** Definition of parameter - command search (subclass). */
+	@Parameters(commandDescription = DESC_COMMAND_SEARCH)
+	public class Search {
+		/** Description for parameter - main parameter (query). */
+		private static final String DESC_MAIN = "[words to search for]";
+		/** Description for parameter - search index file. */
+		private static final String DESC_SEARCH_INDEX_FILE =
+				"Keeps the search index in this file and reuses it as long as the songbird database does not change. "
+						+ "If not set, the index is built for each search.";
+		/** Description for parameter - rebuild index. */
+		private static final String DESC_REBUILD = "Rebuilds the search index even if it is up to date";
+		/** Description for parameter - limit. */
+		private static final String DESC_LIMIT = "Maximum number of tracks found";
+		/** Description for parameter - playlist folder. */
+		private static final String DESC_PLAYLIST_FOLDER = "Writes the tracks found to a playlist in this folder";
+		/** Description for parameter - playlist name. */
+		private static final String DESC_PLAYLIST_NAME = "Name of the playlist, default search";
+		/** Description for parameter - playlist format. */
+		private static final String DESC_FORMAT = "Format of the playlist, default m3u";
+		/** Description for parameter - use relative paths? */
+		private static final String DESC_RELATIVE_PATHS =
+				"Try to use paths relative to the playlist directory for members";
+
+		/** Definition of parameter - main parameter (query). */
+		@Parameter(description = DESC_MAIN, required = true)
+		private List<String> mainParams;
+
+		/** Definition of parameter - search index file. */
+		@Parameter(names = { "-o", "--index" }, description = DESC_SEARCH_INDEX_FILE)
+		private String indexFile = null;
+
+		/** Definition of parameter - rebuild index. */
+		@Parameter(names = { "--rebuild" }, description = DESC_REBUILD)
+		private boolean rebuild = false;
+
+		/** Definition of parameter - limit. */
+		@Parameter(names = { "--limit" }, description = DESC_LIMIT, validateWith = PositiveInteger.class)
+		private int limit = 0;
+
+		/** Definition of parameter - playlist folder. */
+		@Parameter(names = { "-e", "--export" }, description = DESC_PLAYLIST_FOLDER)
+		private String playlistFolder = null;
+
+		/** Definition of parameter - playlist name. */
+		@Parameter(names = { "-n", "--name" }, description = DESC_PLAYLIST_NAME)
+		private String playlistName = "search";
+
+		/** Definition of parameter - playlist format. */
+		@Parameter(names = { "-f", "--format" }, description = DESC_FORMAT)
+		private String format = "m3u";
+
+		/** Definition of parameter - use relative paths? */
+		@Parameter(names = { "-r", "--relative" }, description = DESC_RELATIVE_PATHS)
+		private boolean relativePaths = false;
+
+		/** @return the words to search for, separated by blanks. */
+		public String getQuery() {
+			return String.join(" ", mainParams);
+		}
+
+		/** @return the value of the search index file parameter or <code>null</code> if not set. */
+		public String getIndexFile() {
+			return indexFile;
+		}
+
+		/** @return the value of the "rebuild index" parameter. */
+		public boolean isRebuild() {
+			return rebuild;
+		}
+
+		/** @return the value of the limit parameter, 0 if not set. */
+		public int getLimit() {
+			return limit;
+		}
+
+		/** @return the value of the playlist folder parameter or <code>null</code> if not set. */
+		public String getPlaylistFolder() {
+			return playlistFolder;
+		}
+
+		/** @return the value of the playlist name parameter. */
+		public String getPlaylistName() {
+			return playlistName;
+		}
+
+		/** @return the value of the playlist format parameter. */
+		public String getFormat() {
+			return format;
+		}
+
+		/** @return the value of the "use relative paths" parameter. */
+		public boolean isRelativePaths() {
+			return relativePaths;
+		}
+	}
+
+	/** Definition of parameter - command stats (subclass). */
+	@Parameters(commandDescription = DESC_COMMAND_STATS)
+	public class Stats {
+		/** Description for parameter - output file. */
+		private static final String DESC_OUTPUT_FILE =
+				"Writes the statistics to this file, as JSON if it ends in .json, as table otherwise. If not set, "
+						+ "they are logged.";
+		/** Description for parameter - JSON. */
+		private static final String DESC_JSON = "Logs the statistics as JSON instead of tables";
+		/** Description for parameter - number of threads. */
+		private static final String DESC_THREADS = "Number of threads aggregating and checking files";
+		/** Description for parameter - check files. */
+		private static final String DESC_CHECK_FILES =
+				"Checks which files are missing and determines the size of files whose size songbird does not know. "
+						+ "Accesses each file, which is slow on network drives.";
+		/** Description for parameter - limit. */
+		private static final String DESC_LIMIT =
+				"Only lists this many of the largest formats and directories in tables. 0 lists all of them.";
+
+		/** Definition of parameter - output file. */
+		@Parameter(names = { "-o", "--output" }, description = DESC_OUTPUT_FILE)
+		private String outputFile = null;
+
+		/** Definition of parameter - JSON. */
+		@Parameter(names = { "--json" }, description = DESC_JSON)
+		private boolean json = false;
+
+		/** Definition of parameter - number of threads. */
+		@Parameter(names = { "-t", "--threads" }, description = DESC_THREADS, validateWith = PositiveInteger.class)
+		private int threads = Runtime.getRuntime().availableProcessors();
+
+		/** Definition of parameter - check files. */
+		@Parameter(names = { "--check-files" }, description = DESC_CHECK_FILES)
+		private boolean checkFiles = false;
+
+		/** Definition of parameter - limit. */
+		@Parameter(names = { "--limit" }, description = DESC_LIMIT, validateWith = PositiveInteger.class)
+		private int limit = 20;
+
+		/** @return the value of the output file parameter or <code>null</code> if not set. */
+		public String getOutputFile() {
+			return outputFile;
+		}
+
+		/** @return the value of the "JSON" parameter. */
+		public boolean isJson() {
+			return json;
+		}
+
+		/** @return the value of the number of threads parameter. */
+		public int getThreads() {
+			return threads;
+		}
+
+		/** @return the value of the "check files" parameter. */
+		public boolean isCheckFiles() {
+			return checkFiles;
+		}
+
+		/** @return the value of the limit parameter. */
+		public int getLimit() {
+			return limit;
+		}
+	}
+
+	@Override
+	protected List<Object> createCommandInstances() {
+		return Arrays.<Object> asList(new ExportPlaylists(), new Watch(), new SyncMedia(), new Index(), new Query(),
+				new Search(), new Analyze(), new Stats());
+	}
+
 	/** @return the value of the path to songbird database parameter. */
 	public String getSongbirdDB() {
 		return songbirdDB;
 	}
+
+	/** @return the value of the "read-only" parameter. */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/** @return the value of the "snapshot" parameter. */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	/** @return the value of the fetch size parameter. <code>null</code> if not set. */
+	public Integer getFetchSize() {
+		return fetchSize;
+	}
 }
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.analyze;
+
+import info.schnatterer.songbirdDbTools.Utils.FormatUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The findings of an analysis of the songbird library. Related findings (e.g. all media items pointing to the same
+ * file) share a group number. Can be written as CSV or JSON, ordered by type, group and media item id, so the report
+ * does not depend on the order the worker threads added the findings in.
+ * 
+ * All methods are thread safe.
+ * 
+ * @author schnatterer
+ * 
+ */
+class AnalysisReport {
+	/** Columns of the CSV report. */
+	private static final String CSV_HEADER = "type,group,media_item_id,guid,content_url,path,detail";
+	/** Order of the findings in the report. */
+	private static final Comparator<Finding> FINDING_ORDER = Comparator.comparing((Finding finding) -> finding.type)
+			.thenComparingInt(finding -> finding.group).thenComparingLong(finding -> finding.mediaItemId);
+
+	/** What was found. */
+	enum Type {
+		/** The file of a media item does not exist or is not a regular file. */
+		MISSING,
+		/** The content URL of a media item is not a valid file URL. */
+		INVALID_URL,
+		/** Several media items have exactly the same content URL. */
+		DUPLICATE_URL,
+		/** Several media items have different content URLs (e.g. encoded differently) pointing to the same file. */
+		SAME_FILE,
+		/** Several media items have paths that only differ in case. */
+		CASE_VARIANT,
+		/** Several files have the same content. */
+		CONTENT_DUPLICATE
+	}
+
+	/** The findings, in the order they were added. Guarded by this. */
+	private final List<Finding> findings = new ArrayList<Finding>();
+	/** Number of groups created so far. Guarded by this. */
+	private int groups = 0;
+
+	/**
+	 * Adds a finding that is not related to others.
+	 * 
+	 * @param type
+	 *            what was found
+	 * @param mediaItemId
+	 *            the id of the media item
+	 * @param guid
+	 *            the guid of the media item
+	 * @param contentUrl
+	 *            the content URL of the media item
+	 * @param path
+	 *            the path of the file, <code>null</code> if unknown
+	 * @param detail
+	 *            a description of the finding, may be <code>null</code>
+	 */
+	synchronized void add(final Type type, final long mediaItemId, final String guid, final String contentUrl,
+			final String path, final String detail) {
+		findings.add(new Finding(type, 0, mediaItemId, guid, contentUrl, path, detail));
+	}
+
+	/** @return a new group number for related findings, starting at 1 */
+	synchronized int newGroup() {
+		return ++groups;
+	}
+
+	/**
+	 * Adds a finding that belongs to a group.
+	 * 
+	 * @param type
+	 *            what was found
+	 * @param group
+	 *            the group number, see {@link #newGroup()}
+	 * @param mediaItemId
+	 *            the id of the media item
+	 * @param guid
+	 *            the guid of the media item
+	 * @param contentUrl
+	 *            the content URL of the media item
+	 * @param path
+	 *            the path of the file, <code>null</code> if unknown
+	 * @param detail
+	 *            a description of the finding, may be <code>null</code>
+	 */
+	synchronized void add(final Type type, final int group, final long mediaItemId, final String guid,
+			final String contentUrl, final String path, final String detail) {
+		findings.add(new Finding(type, group, mediaItemId, guid, contentUrl, path, detail));
+	}
+
+	/** @return the findings, ordered by type, group and media item id */
+	synchronized List<Finding> getFindings() {
+		List<Finding> sorted = new ArrayList<Finding>(findings);
+		sorted.sort(FINDING_ORDER);
+		return Collections.unmodifiableList(sorted);
+	}
+
+	/** @return the number of findings per type, including types without findings */
+	synchronized Map<Type, Integer> countByType() {
+		Map<Type, Integer> counts = new EnumMap<Type, Integer>(Type.class);
+		for (Type type : Type.values()) {
+			counts.put(type, 0);
+		}
+		for (Finding finding : findings) {
+			counts.put(finding.type, counts.get(finding.type) + 1);
+		}
+		return counts;
+	}
+
+	/**
+	 * Writes the report to a file. Files ending in <code>.json</code> are written as JSON, all others as CSV.
+	 * 
+	 * @param file
+	 *            the file to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void write(final File file) throws IOException {
+		try (Writer writer =
+				new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			if (file.getName().toLowerCase().endsWith(".json")) {
+				writeJson(writer);
+			} else {
+				writeCsv(writer);
+			}
+		}
+	}
+
+	/**
+	 * Writes the report as CSV (RFC 4180), one finding per line.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void writeCsv(final Writer writer) throws IOException {
+		writer.write(CSV_HEADER);
+		writer.write("\r\n");
+		for (Finding finding : getFindings()) {
+			writer.write(finding.type.name());
+			writer.write(',');
+			writer.write(finding.group > 0 ? String.valueOf(finding.group) : "");
+			writer.write(',');
+			writer.write(String.valueOf(finding.mediaItemId));
+			writer.write(',');
+			writer.write(FormatUtils.csv(finding.guid));
+			writer.write(',');
+			writer.write(FormatUtils.csv(finding.contentUrl));
+			writer.write(',');
+			writer.write(FormatUtils.csv(finding.path));
+			writer.write(',');
+			writer.write(FormatUtils.csv(finding.detail));
+			writer.write("\r\n");
+		}
+	}
+
+	/**
+	 * Writes the report as JSON object containing the number of findings per type and the findings.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	void writeJson(final Writer writer) throws IOException {
+		writer.write("{\n  \"counts\": {");
+		boolean first = true;
+		for (Map.Entry<Type, Integer> count : countByType().entrySet()) {
+			writer.write(first ? "" : ", ");
+			writer.write(FormatUtils.json(count.getKey().name()) + ": " + count.getValue());
+			first = false;
+		}
+		writer.write("},\n  \"findings\": [");
+		first = true;
+		for (Finding finding : getFindings()) {
+			writer.write(first ? "\n    " : ",\n    ");
+			writer.write("{\"type\": " + FormatUtils.json(finding.type.name()) + ", \"group\": "
+					+ (finding.group > 0 ? String.valueOf(finding.group) : "null") + ", \"mediaItemId\": "
+					+ finding.mediaItemId + ", \"guid\": " + FormatUtils.json(finding.guid) + ", \"contentUrl\": "
+					+ FormatUtils.json(finding.contentUrl) + ", \"path\": " + FormatUtils.json(finding.path)
+					+ ", \"detail\": " + FormatUtils.json(finding.detail) + "}");
+			first = false;
+		}
+		writer.write(first ? "]\n}\n" : "\n  ]\n}\n");
+	}
+
+	/**
+	 * A single finding.
+	 * 
+	 * @author schnatterer
+	 * 
+	 */
+	static final class Finding {
+		/** What was found. */
+		private final Type type;
+		/** Number of the group of related findings. 0 if not related to others. */
+		private final int group;
+		/** The id of the media item. */
+		private final long mediaItemId;
+		/** The guid of the media item. */
+		private final String guid;
+		/** The content URL of the media item. */
+		private final String contentUrl;
+		/** The path of the file, <code>null</code> if unknown. */
+		private final String path;
+		/** A description of the finding, may be <code>null</code>. */
+		private final String detail;
+
+		/**
+		 * @param type
+		 *            what was found
+		 * @param group
+		 *            number of the group of related findings. 0 if not related to others.
+		 * @param mediaItemId
+		 *            the id of the media item
+		 * @param guid
+		 *            the guid of the media item
+		 * @param contentUrl
+		 *            the content URL of the media item
+		 * @param path
+		 *            the path of the file, <code>null</code> if unknown
+		 * @param detail
+		 *            a description of the finding, may be <code>null</code>
+		 */
+		Finding(final Type type, final int group, final long mediaItemId, final String guid, final String contentUrl,
+				final String path, final String detail) {
+			this.type = type;
+			this.group = group;
+			this.mediaItemId = mediaItemId;
+			this.guid = guid;
+			this.contentUrl = contentUrl;
+			this.path = path;
+			this.detail = detail;
+		}
+	}
+}
@@ -0,0 +1,503 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.analyze;
+
+import info.schnatterer.songbirdDbTools.Utils.ContentUrlDecoder;
+import info.schnatterer.songbirdDbTools.Utils.ThreadUtils;
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.commands.analyze.AnalysisReport.Type;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command that analyzes all tracks of the songbird library and reports
+ * <ul>
+ * <li>media items whose file is missing,</li>
+ * <li>media items with the same content URL,</li>
+ * <li>media items whose content URLs differ (e.g. in their encoding) but point to the same file,</li>
+ * <li>media items whose paths only differ in case and</li>
+ * <li>optionally, files with the same content.</li>
+ * </ul>
+ * 
+ * The tracks are streamed from the database and the files are checked by a bounded thread pool while reading. Only
+ * files whose size equals the size of another file are hashed, optionally only their first and last kilobytes.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class AnalyzeCommand {
+	/** Default number of threads checking and hashing files. */
+	public static final int DEFAULT_THREADS = 4;
+
+	/** Number of files that are queued per thread before the reading thread checks files itself. */
+	private static final int QUEUED_FILES_PER_THREAD = 64;
+	/** Size of the buffer used for hashing. */
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+	/** Algorithm used to hash the file contents. */
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+	/** Scheme of the content URLs that point to local files. */
+	private static final String FILE_SCHEME = "file:";
+
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(AnalyzeCommand.class);
+
+	/** The songbird database. */
+	private final SongbirdDbReader dbReader;
+	/** Number of threads checking and hashing files. */
+	private int threads = DEFAULT_THREADS;
+	/** Look for files with the same content? */
+	private boolean hashing = false;
+	/** Only hash this many kilobytes at the start and the end of each file. 0 hashes the whole file. */
+	private int hashSampleKb = 0;
+
+	/**
+	 * @param dbReader
+	 *            the songbird database
+	 */
+	public AnalyzeCommand(final SongbirdDbReader dbReader) {
+		this.dbReader = dbReader;
+	}
+
+	/**
+	 * @param threads
+	 *            number of threads checking and hashing files
+	 */
+	public void setThreads(final int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param hashing
+	 *            <code>true</code> looks for files with the same content, which requires reading them
+	 */
+	public void setHashing(final boolean hashing) {
+		this.hashing = hashing;
+	}
+
+	/**
+	 * @param hashSampleKb
+	 *            only hash this many kilobytes at the start and the end of each file, which is much faster for large
+	 *            files but might report files as duplicates that only differ in the middle. 0 hashes the whole file.
+	 */
+	public void setHashSampleKb(final int hashSampleKb) {
+		this.hashSampleKb = Math.max(0, hashSampleKb);
+	}
+
+	/**
+	 * Analyzes the library and writes the findings to a file.
+	 * 
+	 * @param reportFile
+	 *            the file to write the findings to. Written as JSON if it ends in <code>.json</code>, as CSV otherwise.
+	 * @throws SQLException
+	 *             if the songbird database cannot be read
+	 * @throws IOException
+	 *             if the report cannot be written
+	 */
+	public void analyze(final File reportFile) throws SQLException, IOException {
+		long start = System.nanoTime();
+		AnalysisReport report = new AnalysisReport();
+		List<Item> items = new ArrayList<Item>();
+		Map<String, List<Item>> duplicateUrls = new LinkedHashMap<String, List<Item>>();
+		try {
+			int nonLocal = checkFiles(report, items, duplicateUrls);
+			reportDuplicateUrls(report, duplicateUrls);
+			reportSameFiles(report, items);
+			if (hashing) {
+				reportContentDuplicates(report, items);
+			}
+			logger.info("Analyzed " + (items.size() + countDuplicates(duplicateUrls)) + " media items in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, " + nonLocal
+					+ " of them are no local files. Findings: " + report.countByType());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.warn("Analysis interrupted. The report is incomplete.");
+		}
+		report.write(reportFile);
+		logger.info("Wrote report to " + reportFile.getAbsolutePath());
+	}
+
+	/**
+	 * Reads all tracks from the database and checks their files concurrently. Tracks whose content URL was read before
+	 * are not checked again, but collected as duplicates.
+	 * 
+	 * @param report
+	 *            where to add missing files and invalid URLs
+	 * @param items
+	 *            where to add the first media item of each content URL
+	 * @param duplicateUrls
+	 *            where to add all media items of content URLs that occur several times, by content URL
+	 * @return the number of media items that do not point to a local file
+	 * @throws SQLException
+	 *             if the songbird database cannot be read
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the checks to finish
+	 */
+	private int checkFiles(final AnalysisReport report, final List<Item> items,
+			final Map<String, List<Item>> duplicateUrls) throws SQLException, InterruptedException {
+		Map<String, Item> itemsByUrl = new HashMap<String, Item>();
+		AtomicInteger nonLocal = new AtomicInteger();
+		ExecutorService executor = ThreadUtils.newBoundedThreadPool(threads, threads * QUEUED_FILES_PER_THREAD,
+				"analyze");
+		try {
+			dbReader.readTracks((mediaItemId, guid, contentUrl) -> {
+				Item item = new Item(mediaItemId, guid, contentUrl);
+				Item first = itemsByUrl.putIfAbsent(contentUrl, item);
+				if (first != null) {
+					duplicateUrls.computeIfAbsent(contentUrl, url -> {
+						List<Item> duplicates = new ArrayList<Item>();
+						duplicates.add(first);
+						return duplicates;
+					}).add(item);
+				} else if (contentUrl == null || !contentUrl.startsWith(FILE_SCHEME)) {
+					nonLocal.incrementAndGet();
+				} else {
+					items.add(item);
+					executor.execute(() -> checkFile(report, item));
+				}
+			});
+		} finally {
+			executor.shutdown();
+		}
+		awaitTermination(executor);
+		return nonLocal.get();
+	}
+
+	/**
+	 * Determines the path and size of the file of a media item. Reports missing files and invalid URLs. URLs that are
+	 * not valid URIs are decoded leniently (see {@link ContentUrlDecoder#toFileLeniently(String)}), as they might point
+	 * to the same file as a properly encoded URL.
+	 * 
+	 * @param report
+	 *            where to add missing files and invalid URLs
+	 * @param item
+	 *            the media item to check
+	 */
+	private static void checkFile(final AnalysisReport report, final Item item) {
+		Path path;
+		try {
+			path = ContentUrlDecoder.toFileLeniently(item.contentUrl).toPath().toAbsolutePath().normalize();
+		} catch (Exception e) {
+			report.add(Type.INVALID_URL, item.mediaItemId, item.guid, item.contentUrl, null, e.getMessage());
+			return;
+		}
+		item.path = path.toString();
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			if (attributes.isRegularFile()) {
+				item.size = attributes.size();
+			} else {
+				report.add(Type.MISSING, item.mediaItemId, item.guid, item.contentUrl, item.path,
+						"Not a regular file");
+			}
+		} catch (NoSuchFileException e) {
+			report.add(Type.MISSING, item.mediaItemId, item.guid, item.contentUrl, item.path, null);
+		} catch (IOException e) {
+			report.add(Type.MISSING, item.mediaItemId, item.guid, item.contentUrl, item.path,
+					"Unable to read attributes: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reports the media items that have the same content URL, one group per URL.
+	 * 
+	 * @param report
+	 *            where to add the findings
+	 * @param duplicateUrls
+	 *            all media items of content URLs that occur several times, by content URL
+	 */
+	private static void reportDuplicateUrls(final AnalysisReport report, final Map<String, List<Item>> duplicateUrls) {
+		for (List<Item> duplicates : duplicateUrls.values()) {
+			// Only the first item was checked, the others point to the same file
+			for (Item duplicate : duplicates) {
+				duplicate.path = duplicates.get(0).path;
+			}
+			reportGroup(report, Type.DUPLICATE_URL, duplicates, duplicates.size() + " media items");
+		}
+	}
+
+	/**
+	 * Reports the media items whose different content URLs point to the same path, as well as those whose paths only
+	 * differ in case.
+	 * 
+	 * @param report
+	 *            where to add the findings
+	 * @param items
+	 *            the first media item of each content URL
+	 */
+	private static void reportSameFiles(final AnalysisReport report, final List<Item> items) {
+		Map<String, List<Item>> itemsByPath = new LinkedHashMap<String, List<Item>>();
+		Map<String, Set<String>> pathsByLowerCasePath = new HashMap<String, Set<String>>();
+		for (Item item : items) {
+			if (item.path != null) {
+				itemsByPath.computeIfAbsent(item.path, path -> new ArrayList<Item>(1)).add(item);
+				pathsByLowerCasePath.computeIfAbsent(item.path.toLowerCase(Locale.ROOT),
+						path -> new LinkedHashSet<String>(1)).add(item.path);
+			}
+		}
+		for (List<Item> sameFile : itemsByPath.values()) {
+			if (sameFile.size() > 1) {
+				reportGroup(report, Type.SAME_FILE, sameFile, sameFile.size() + " different content URLs");
+			}
+		}
+		for (Set<String> caseVariants : pathsByLowerCasePath.values()) {
+			if (caseVariants.size() > 1) {
+				List<Item> variants = new ArrayList<Item>();
+				for (String path : caseVariants) {
+					variants.addAll(itemsByPath.get(path));
+				}
+				reportGroup(report, Type.CASE_VARIANT, variants, caseVariants.size() + " paths differing in case");
+			}
+		}
+	}
+
+	/**
+	 * Reports the files that have the same content. Only files whose size equals the size of another file are hashed.
+	 * Each file is hashed once, even if several media items point to it.
+	 * 
+	 * @param report
+	 *            where to add the findings
+	 * @param items
+	 *            the first media item of each content URL
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the hashes
+	 */
+	private void reportContentDuplicates(final AnalysisReport report, final List<Item> items)
+			throws InterruptedException {
+		Map<String, Item> itemsByPath = new LinkedHashMap<String, Item>();
+		Map<Long, List<Item>> itemsBySize = new HashMap<Long, List<Item>>();
+		for (Item item : items) {
+			if (item.size > 0 && itemsByPath.putIfAbsent(item.path, item) == null) {
+				itemsBySize.computeIfAbsent(item.size, size -> new ArrayList<Item>(1)).add(item);
+			}
+		}
+
+		long start = System.nanoTime();
+		AtomicInteger hashed = new AtomicInteger();
+		ExecutorService executor = ThreadUtils.newBoundedThreadPool(threads, threads * QUEUED_FILES_PER_THREAD,
+				"analyze");
+		try {
+			for (List<Item> sameSize : itemsBySize.values()) {
+				if (sameSize.size() > 1) {
+					for (Item item : sameSize) {
+						executor.execute(() -> {
+							item.hash = hash(item);
+							hashed.incrementAndGet();
+						});
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+		awaitTermination(executor);
+		logger.debug("Hashed " + hashed + " files in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+				+ "ms");
+
+		Map<String, List<Item>> itemsByContent = new LinkedHashMap<String, List<Item>>();
+		for (Item item : itemsByPath.values()) {
+			if (item.hash != null) {
+				itemsByContent.computeIfAbsent(item.size + ":" + item.hash, content -> new ArrayList<Item>(2))
+						.add(item);
+			}
+		}
+		String hashedPart = hashSampleKb > 0 ? ", first and last " + hashSampleKb + " KB hashed" : "";
+		for (List<Item> sameContent : itemsByContent.values()) {
+			if (sameContent.size() > 1) {
+				Item first = sameContent.get(0);
+				reportGroup(report, Type.CONTENT_DUPLICATE, sameContent, DIGEST_ALGORITHM + " " + first.hash + ", "
+						+ first.size + " bytes" + hashedPart);
+			}
+		}
+	}
+
+	/**
+	 * Hashes the content of a file.
+	 * 
+	 * @param item
+	 *            the media item pointing to the file
+	 * @return the hex encoded hash, <code>null</code> if the file cannot be read
+	 */
+	private String hash(final Item item) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE must support SHA-1
+			throw new IllegalStateException(e);
+		}
+		long sampleBytes = hashSampleKb * 1024L;
+		try (FileChannel channel = FileChannel.open(new File(item.path).toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(HASH_BUFFER_SIZE);
+			if (sampleBytes > 0 && item.size > 2 * sampleBytes) {
+				update(digest, channel, buffer, 0, sampleBytes);
+				update(digest, channel, buffer, item.size - sampleBytes, sampleBytes);
+			} else {
+				update(digest, channel, buffer, 0, item.size);
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to hash " + item.path + ": " + e.getMessage());
+			return null;
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Updates a digest with a part of a file.
+	 * 
+	 * @param digest
+	 *            the digest to update
+	 * @param channel
+	 *            the file
+	 * @param buffer
+	 *            buffer to use for reading
+	 * @param position
+	 *            where to start reading
+	 * @param length
+	 *            how many bytes to read at most
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	private static void update(final MessageDigest digest, final FileChannel channel, final ByteBuffer buffer,
+			final long position, final long length) throws IOException {
+		long read = 0;
+		while (read < length) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), length - read));
+			int n = channel.read(buffer, position + read);
+			if (n < 0) {
+				// The file was truncated in the meantime
+				return;
+			}
+			buffer.flip();
+			digest.update(buffer);
+			read += n;
+		}
+	}
+
+	/**
+	 * Adds related media items as a group to the report.
+	 * 
+	 * @param report
+	 *            where to add the findings
+	 * @param type
+	 *            what was found
+	 * @param items
+	 *            the related media items
+	 * @param detail
+	 *            a description of the finding
+	 */
+	private static void reportGroup(final AnalysisReport report, final Type type, final List<Item> items,
+			final String detail) {
+		int group = report.newGroup();
+		for (Item item : items) {
+			report.add(type, group, item.mediaItemId, item.guid, item.contentUrl, item.path, detail);
+		}
+	}
+
+	/**
+	 * @param duplicateUrls
+	 *            all media items of content URLs that occur several times, by content URL
+	 * @return the number of media items that are not the first of their content URL
+	 */
+	private static int countDuplicates(final Map<String, List<Item>> duplicateUrls) {
+		int duplicates = 0;
+		for (List<Item> items : duplicateUrls.values()) {
+			duplicates += items.size() - 1;
+		}
+		return duplicates;
+	}
+
+	/**
+	 * Waits for all tasks of a shut down executor.
+	 * 
+	 * @param executor
+	 *            the executor to wait for
+	 * @throws InterruptedException
+	 *             if interrupted while waiting. The executor is stopped.
+	 */
+	private static void awaitTermination(final ExecutorService executor) throws InterruptedException {
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				logger.debug("Still waiting for file checks to finish");
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			throw e;
+		}
+	}
+
+	/**
+	 * A media item and the file it points to. The file is determined by a worker thread, the fields are read after
+	 * waiting for the workers.
+	 */
+	private static final class Item {
+		/** The id of the media item. */
+		private final long mediaItemId;
+		/** The guid of the media item. */
+		private final String guid;
+		/** The content URL of the media item. */
+		private final String contentUrl;
+		/** The absolute, normalized path of the file. <code>null</code> if the URL is invalid. */
+		private String path;
+		/** The size of the file, -1 if it does not exist. */
+		private long size = -1;
+		/** The hash of the content, <code>null</code> if not hashed. */
+		private String hash;
+
+		/**
+		 * @param mediaItemId
+		 *            the id of the media item
+		 * @param guid
+		 *            the guid of the media item
+		 * @param contentUrl
+		 *            the content URL of the media item
+		 */
+		Item(final long mediaItemId, final String guid, final String contentUrl) {
+			this.mediaItemId = mediaItemId;
+			this.guid = guid;
+			this.contentUrl = contentUrl;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.index;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command that builds a {@link TrackIndex} from the songbird database, so {@link QueryCommand} can answer questions
+ * about tracks without accessing the database.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class IndexCommand {
+	/** Suffix appended to the path of the songbird database to get the default index file. */
+	public static final String INDEX_FILE_SUFFIX = ".sbindex";
+
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(IndexCommand.class);
+
+	/** The songbird database. */
+	private final SongbirdDbReader dbReader;
+
+	/**
+	 * @param dbReader
+	 *            the songbird database
+	 */
+	public IndexCommand(final SongbirdDbReader dbReader) {
+		this.dbReader = dbReader;
+	}
+
+	/**
+	 * Returns the index file used if none is specified: The path of the database with {@link #INDEX_FILE_SUFFIX}.
+	 * 
+	 * @param pathToDb
+	 *            path to the songbird database
+	 * @return the default index file
+	 */
+	public static File getDefaultIndexFile(final String pathToDb) {
+		return new File(pathToDb + INDEX_FILE_SUFFIX);
+	}
+
+	/**
+	 * Reads all tracks and playlists from the database and writes them to an index file, replacing an existing one.
+	 * 
+	 * @param indexFile
+	 *            the file to write
+	 */
+	public void createIndex(final File indexFile) {
+		long start = System.nanoTime();
+		try {
+			int tracks = TrackIndexWriter.write(dbReader, indexFile);
+			logger.info("Indexed " + tracks + " tracks in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms: "
+					+ indexFile.getAbsolutePath());
+		} catch (SQLException e) {
+			logger.error("Error reading songbird database", e);
+		} catch (IOException e) {
+			logger.error("Error writing index " + indexFile.getAbsolutePath() + ": " + e.getMessage(), e);
+		}
+	}
+}
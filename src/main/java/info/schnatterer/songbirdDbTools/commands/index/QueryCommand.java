@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.index;
+
+import info.schnatterer.songbirdDbTools.commands.index.TrackIndex.Playlist;
+import info.schnatterer.songbirdDbTools.commands.index.TrackIndex.Track;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command that looks up tracks in an index written by {@link IndexCommand}: their songbird media item id and guid and
+ * the playlists containing them. Does not access the songbird database.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class QueryCommand {
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(QueryCommand.class);
+
+	/**
+	 * Looks up tracks and logs the result.
+	 * 
+	 * @param indexFile
+	 *            the index file to read
+	 * @param paths
+	 *            the paths or URLs of the tracks to look up
+	 */
+	public void query(final File indexFile, final List<String> paths) {
+		try (TrackIndex index = TrackIndex.open(indexFile)) {
+			for (String path : paths) {
+				Track track = index.find(path);
+				if (track == null) {
+					logger.warn("Not found in index: " + TrackIndex.toKey(path));
+				} else {
+					logger.info(toString(track));
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Error reading index " + indexFile.getAbsolutePath() + ": " + e.getMessage()
+					+ ". Create it using the Index command.", e);
+		}
+	}
+
+	/**
+	 * @param track
+	 *            a track
+	 * @return a description of the track and its playlists
+	 */
+	private static String toString(final Track track) {
+		return track.getPath() + ": id=" + track.getMediaItemId() + ", guid=" + track.getGuid() + ", playlists="
+				+ track.getPlaylists().stream().map(QueryCommand::toString).collect(Collectors.joining(", ", "[", "]"));
+	}
+
+	/**
+	 * @param playlist
+	 *            a playlist
+	 * @return the quoted name and the id of the playlist
+	 */
+	private static String toString(final Playlist playlist) {
+		return "\"" + playlist.getName() + "\" (" + playlist.getId() + ")";
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.index;
+
+import info.schnatterer.songbirdDbTools.Utils.ContentUrlDecoder;
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache;
+import info.schnatterer.songbirdDbTools.Utils.ResourceUtils;
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.commands.index.SearchIndex.Hit;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportPlaylistsCommand;
+import info.schnatterer.songbirdDbTools.commands.playlist.PlaylistExporterException;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command that searches the title, artist, album and path of all tracks using a {@link SearchIndex} and optionally
+ * writes the tracks found to a playlist file. The index is built from the songbird database and can be kept in a file,
+ * which is reused as long as the database does not change.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class SearchCommand {
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(SearchCommand.class);
+
+	/** The songbird database. */
+	private final SongbirdDbReader dbReader;
+	/** The file of the songbird database, used to find out if a persisted index is up to date. */
+	private final File databaseFile;
+
+	/** File the index is persisted to, <code>null</code> to build it in memory only. */
+	private File indexFile = null;
+	/** Build the index even if the persisted one is up to date? */
+	private boolean rebuild = false;
+
+	/**
+	 * @param dbReader
+	 *            the songbird database
+	 * @param databaseFile
+	 *            the file of the songbird database
+	 */
+	public SearchCommand(final SongbirdDbReader dbReader, final File databaseFile) {
+		this.dbReader = dbReader;
+		this.databaseFile = databaseFile;
+	}
+
+	/**
+	 * Persists the index to a file and reuses it for following searches as long as the database does not change.
+	 * 
+	 * @param indexFile
+	 *            the index file or <code>null</code> to build the index in memory for each search
+	 */
+	public void setIndexFile(final File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * @param rebuild
+	 *            <code>true</code> builds the index even if the persisted one is up to date
+	 */
+	public void setRebuild(final boolean rebuild) {
+		this.rebuild = rebuild;
+	}
+
+	/**
+	 * Reads the persisted index if it is up to date, builds the index from the database otherwise and persists it.
+	 * 
+	 * @return the index
+	 * @throws SQLException
+	 *             if reading the database fails
+	 */
+	public SearchIndex loadIndex() throws SQLException {
+		long start = System.nanoTime();
+		if (indexFile != null && indexFile.exists() && !rebuild) {
+			try {
+				SearchIndex index = SearchIndex.read(indexFile);
+				if (index.isUpToDate(databaseFile)) {
+					logger.debug("Read " + index + " from " + indexFile.getAbsolutePath() + " in "
+							+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+					return index;
+				}
+				logger.info("Songbird database changed since the search index was built. Rebuilding it.");
+			} catch (IOException e) {
+				logger.warn("Unable to read search index " + indexFile.getAbsolutePath() + ": " + e.getMessage()
+						+ ". Rebuilding it.");
+			}
+		}
+		SearchIndex index = SearchIndex.build(dbReader, databaseFile);
+		logger.info("Indexed " + index.getTrackCount() + " tracks (" + index.getTermCount() + " terms) in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+		if (indexFile != null) {
+			try {
+				index.write(indexFile);
+			} catch (IOException e) {
+				logger.warn("Unable to write search index " + indexFile.getAbsolutePath() + ": " + e.getMessage(), e);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Searches the library and logs the tracks found.
+	 * 
+	 * @param query
+	 *            the words to search for, see {@link SearchIndex#search(String, int)}
+	 * @param limit
+	 *            the maximum number of tracks, less than one for all tracks
+	 * @return the tracks found. Empty if reading the database fails, which is logged.
+	 */
+	public List<Hit> search(final String query, final int limit) {
+		try {
+			SearchIndex index = loadIndex();
+			long start = System.nanoTime();
+			List<Hit> hits = index.search(query, limit);
+			logger.info(hits.size() + " track(s) found for \"" + query + "\" in "
+					+ String.format("%.3f", (System.nanoTime() - start) / (double) TimeUnit.MILLISECONDS.toNanos(1))
+					+ " ms");
+			for (Hit hit : hits) {
+				logger.info(hit.toString());
+			}
+			return hits;
+		} catch (SQLException e) {
+			logger.error("Error reading songbird database", e);
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * Writes tracks found by {@link #search(String, int)} to a playlist file, using the same exporters as
+	 * {@link ExportPlaylistsCommand}. Tracks whose file does not exist are omitted.
+	 * 
+	 * @param hits
+	 *            the tracks to write
+	 * @param destinationFolder
+	 *            the folder to write the playlist to
+	 * @param playlistName
+	 *            the name of the playlist, used as file name
+	 * @param playlistFormat
+	 *            desired format for the playlist (e.g. "m3u" or "pls")
+	 * @param useRelativePaths
+	 *            <code>true</code> tries to create relative paths from the playlist members to the playlist file
+	 * @return <code>true</code> if the playlist was written. Errors are logged.
+	 */
+	public boolean exportPlaylist(final List<Hit> hits, final String destinationFolder, final String playlistName,
+			final String playlistFormat, final boolean useRelativePaths) {
+		List<String> memberPaths = new ArrayList<String>(hits.size());
+		for (Hit hit : hits) {
+			try {
+				memberPaths.add(ContentUrlDecoder.toFileLeniently(hit.getContentUrl()).getAbsolutePath());
+			} catch (Exception e) {
+				logger.warn("Omitting track that is not a file: " + hit.getContentUrl());
+			}
+		}
+		String fileName = playlistName;
+		if (!ResourceUtils.isLegalFilename(fileName)) {
+			fileName = ResourceUtils.legalizeFileName(fileName);
+		}
+		try {
+			List<String> omittedFiles =
+					ExportPlaylistsCommand.createPlaylistExporter(playlistFormat, new FileStatusCache()).export(
+							fileName, memberPaths, destinationFolder, playlistFormat, useRelativePaths, false);
+			String output =
+					"Finished writing playlist " + new File(destinationFolder, fileName + "." + playlistFormat);
+			if (omittedFiles != null && !omittedFiles.isEmpty()) {
+				output += ". The following files were omitted because they did not exist: "
+						+ ExportPlaylistsCommand.EOL + String.join(ExportPlaylistsCommand.EOL, omittedFiles);
+			}
+			logger.info(output);
+			return true;
+		} catch (PlaylistExporterException e) {
+			logger.warn("Error creating playlist: " + e.getMessage(), e);
+			return false;
+		}
+	}
+}
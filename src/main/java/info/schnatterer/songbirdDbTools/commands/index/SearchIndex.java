@@ -0,0 +1,687 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.index;
+
+import info.schnatterer.songbirdDbTools.Utils.AtomicFileOutputStream;
+import info.schnatterer.songbirdDbTools.Utils.ContentUrlDecoder;
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * In-memory inverted index over the title, artist, album and path of all tracks of a songbird library, answering
+ * full-text searches without accessing the database. Thread safe, as it is immutable.
+ * 
+ * Texts are split into terms at all characters that are neither letters nor digits and converted to lower case. Each
+ * term maps to a posting list: the ascending indexes of the tracks containing it, stored as <code>int[]</code>. The
+ * terms are sorted, so all terms starting with a prefix are found by binary search. The terms of the tracks are
+ * extracted in parallel.
+ * 
+ * The index can be written to a file and read again. The file records the size and modification time of the
+ * database it was built from, see {@link #isUpToDate(File)}.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class SearchIndex {
+	/** Magic number at the beginning of the file: "SBSX". */
+	static final int MAGIC = 0x53425358;
+	/** Version of the file format. */
+	static final int VERSION = 1;
+
+	/** Songbird property that contains the title of a track. */
+	private static final String PROP_TRACK_NAME = "http://songbirdnest.com/data/1.0#trackName";
+	/** Songbird property that contains the artist of a track. */
+	private static final String PROP_ARTIST_NAME = "http://songbirdnest.com/data/1.0#artistName";
+	/** Songbird property that contains the album of a track. */
+	private static final String PROP_ALBUM_NAME = "http://songbirdnest.com/data/1.0#albumName";
+
+	/** Initial capacity of the arrays used while reading. */
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Minimum number of tracks whose terms are extracted by one task. */
+	private static final int MIN_TRACKS_PER_TASK = 1024;
+	/** Size of the read and write buffers. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Media item ids of the tracks, ascending. */
+	private final long[] trackIds;
+	/** Content URLs of the tracks. */
+	private final String[] urls;
+	/** Titles of the tracks, <code>null</code> if not set. */
+	private final String[] titles;
+	/** Artists of the tracks, <code>null</code> if not set. */
+	private final String[] artists;
+	/** Albums of the tracks, <code>null</code> if not set. */
+	private final String[] albums;
+	/** All terms, sorted. */
+	private final String[] terms;
+	/** Ascending indexes of the tracks containing each term, same index as {@link #terms}. */
+	private final int[][] postings;
+	/** Size of the database the index was built from. */
+	private final long databaseLength;
+	/** Modification time of the database the index was built from. */
+	private final long databaseLastModified;
+
+	/**
+	 * @param tracks
+	 *            the tracks
+	 * @param terms
+	 *            all terms, sorted
+	 * @param postings
+	 *            ascending indexes of the tracks containing each term
+	 * @param databaseLength
+	 *            size of the database the index was built from
+	 * @param databaseLastModified
+	 *            modification time of the database the index was built from
+	 */
+	private SearchIndex(final Tracks tracks, final String[] terms, final int[][] postings,
+			final long databaseLength, final long databaseLastModified) {
+		this.trackIds = tracks.ids;
+		this.urls = tracks.urls;
+		this.titles = tracks.titles;
+		this.artists = tracks.artists;
+		this.albums = tracks.albums;
+		this.terms = terms;
+		this.postings = postings;
+		this.databaseLength = databaseLength;
+		this.databaseLastModified = databaseLastModified;
+	}
+
+	/**
+	 * Reads the tracks from the database and builds the index.
+	 * 
+	 * @param dbReader
+	 *            the songbird database
+	 * @param databaseFile
+	 *            the file of the database, recorded for {@link #isUpToDate(File)}. May be <code>null</code>.
+	 * @return the index
+	 * @throws SQLException
+	 *             if reading fails
+	 */
+	public static SearchIndex build(final SongbirdDbReader dbReader, final File databaseFile) throws SQLException {
+		long length = databaseFile != null ? databaseFile.length() : 0;
+		long lastModified = databaseFile != null ? databaseFile.lastModified() : 0;
+		Tracks tracks = Tracks.read(dbReader);
+
+		// Extract the terms of consecutive ranges of tracks in parallel, merge in order to keep postings ascending
+		int count = tracks.ids.length;
+		int tasks =
+				Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, count / MIN_TRACKS_PER_TASK));
+		int tracksPerTask = (count + tasks - 1) / Math.max(1, tasks);
+		List<Map<String, Postings>> partialPostings =
+				IntStream.range(0, tasks).parallel()
+						.mapToObj(task -> tracks.extractTerms(task * tracksPerTask,
+								Math.min(count, (task + 1) * tracksPerTask))).collect(Collectors.toList());
+		Map<String, Postings> allPostings = partialPostings.get(0);
+		for (Map<String, Postings> partial : partialPostings.subList(1, partialPostings.size())) {
+			for (Map.Entry<String, Postings> entry : partial.entrySet()) {
+				Postings existing = allPostings.putIfAbsent(entry.getKey(), entry.getValue());
+				if (existing != null) {
+					existing.addAll(entry.getValue());
+				}
+			}
+		}
+
+		String[] terms = allPostings.keySet().toArray(new String[allPostings.size()]);
+		Arrays.parallelSort(terms);
+		int[][] postings = new int[terms.length][];
+		for (int i = 0; i < terms.length; i++) {
+			postings[i] = allPostings.get(terms[i]).toArray();
+		}
+		return new SearchIndex(tracks, terms, postings, length, lastModified);
+	}
+
+	/**
+	 * Reads an index written by {@link #write(File)}.
+	 * 
+	 * @param file
+	 *            the index file
+	 * @return the index
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid index
+	 */
+	public static SearchIndex read(final File file) throws IOException {
+		try (DataInputStream in =
+				new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a search index: " + file);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported search index version " + version + ": " + file);
+			}
+			long length = in.readLong();
+			long lastModified = in.readLong();
+			Tracks tracks = new Tracks(in.readInt());
+			for (int i = 0; i < tracks.ids.length; i++) {
+				tracks.ids[i] = in.readLong();
+				tracks.urls[i] = readString(in);
+				tracks.titles[i] = readString(in);
+				tracks.artists[i] = readString(in);
+				tracks.albums[i] = readString(in);
+			}
+			String[] terms = new String[in.readInt()];
+			int[][] postings = new int[terms.length][];
+			for (int i = 0; i < terms.length; i++) {
+				terms[i] = readString(in);
+				postings[i] = new int[in.readInt()];
+				int track = 0;
+				for (int j = 0; j < postings[i].length; j++) {
+					track += readVarInt(in);
+					postings[i][j] = track;
+				}
+			}
+			return new SearchIndex(tracks, terms, postings, length, lastModified);
+		}
+	}
+
+	/**
+	 * Writes the index to a file, replacing it atomically. Posting lists are stored as variable-length deltas.
+	 * 
+	 * @param file
+	 *            the file to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void write(final File file) throws IOException {
+		try (AtomicFileOutputStream atomicOut = new AtomicFileOutputStream(file);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(atomicOut, BUFFER_SIZE))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(databaseLength);
+			out.writeLong(databaseLastModified);
+			out.writeInt(trackIds.length);
+			for (int i = 0; i < trackIds.length; i++) {
+				out.writeLong(trackIds[i]);
+				writeString(out, urls[i]);
+				writeString(out, titles[i]);
+				writeString(out, artists[i]);
+				writeString(out, albums[i]);
+			}
+			out.writeInt(terms.length);
+			for (int i = 0; i < terms.length; i++) {
+				writeString(out, terms[i]);
+				out.writeInt(postings[i].length);
+				int previous = 0;
+				for (int track : postings[i]) {
+					writeVarInt(out, track - previous);
+					previous = track;
+				}
+			}
+			out.flush();
+			atomicOut.commit();
+		}
+	}
+
+	/**
+	 * @param databaseFile
+	 *            the songbird database
+	 * @return <code>true</code> if the database has the same size and modification time as when the index was built
+	 */
+	public boolean isUpToDate(final File databaseFile) {
+		return databaseFile.length() == databaseLength && databaseFile.lastModified() == databaseLastModified;
+	}
+
+	/**
+	 * Finds the tracks that contain all words of a query, each as prefix of a term of the title, artist, album or
+	 * path. Case insensitive, e.g. "beat abb" finds "Abbey Road" by "The Beatles".
+	 * 
+	 * @param query
+	 *            the words to search for
+	 * @param limit
+	 *            the maximum number of hits, less than one for all hits
+	 * @return the tracks found, ordered by media item id. Empty if the query contains no words.
+	 */
+	public List<Hit> search(final String query, final int limit) {
+		List<String> words = tokenize(query);
+		if (words.isEmpty()) {
+			return Collections.emptyList();
+		}
+		int[] matches = null;
+		for (String word : words) {
+			int[] wordMatches = findPrefix(word);
+			matches = matches == null ? wordMatches : intersect(matches, wordMatches);
+			if (matches.length == 0) {
+				break;
+			}
+		}
+		int hitCount = limit > 0 ? Math.min(limit, matches.length) : matches.length;
+		List<Hit> hits = new ArrayList<Hit>(hitCount);
+		for (int i = 0; i < hitCount; i++) {
+			int track = matches[i];
+			hits.add(new Hit(trackIds[track], urls[track], titles[track], artists[track], albums[track]));
+		}
+		return hits;
+	}
+
+	/** @return the number of tracks in the index */
+	public int getTrackCount() {
+		return trackIds.length;
+	}
+
+	/** @return the number of distinct terms in the index */
+	public int getTermCount() {
+		return terms.length;
+	}
+
+	@Override
+	public String toString() {
+		long postingCount = 0;
+		for (int[] posting : postings) {
+			postingCount += posting.length;
+		}
+		return "SearchIndex [tracks=" + trackIds.length + ", terms=" + terms.length + ", postings=" + postingCount
+				+ "]";
+	}
+
+	/**
+	 * @param prefix
+	 *            a term or the beginning of terms
+	 * @return the ascending indexes of the tracks containing a term starting with <code>prefix</code>
+	 */
+	private int[] findPrefix(final String prefix) {
+		int first = Arrays.binarySearch(terms, prefix);
+		if (first < 0) {
+			first = -first - 1;
+		}
+		int end = first;
+		while (end < terms.length && terms[end].startsWith(prefix)) {
+			end++;
+		}
+		if (end == first) {
+			return new int[0];
+		}
+		if (end - first == 1) {
+			return postings[first];
+		}
+		// Union of several posting lists
+		boolean[] found = new boolean[trackIds.length];
+		int count = 0;
+		for (int term = first; term < end; term++) {
+			for (int track : postings[term]) {
+				if (!found[track]) {
+					found[track] = true;
+					count++;
+				}
+			}
+		}
+		int[] tracks = new int[count];
+		for (int track = 0, i = 0; i < count; track++) {
+			if (found[track]) {
+				tracks[i++] = track;
+			}
+		}
+		return tracks;
+	}
+
+	/**
+	 * @param tracks1
+	 *            ascending track indexes
+	 * @param tracks2
+	 *            ascending track indexes
+	 * @return the ascending track indexes contained in both arrays
+	 */
+	private static int[] intersect(final int[] tracks1, final int[] tracks2) {
+		int[] tracks = new int[Math.min(tracks1.length, tracks2.length)];
+		int count = 0;
+		for (int i = 0, j = 0; i < tracks1.length && j < tracks2.length;) {
+			if (tracks1[i] < tracks2[j]) {
+				i++;
+			} else if (tracks1[i] > tracks2[j]) {
+				j++;
+			} else {
+				tracks[count++] = tracks1[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(tracks, count);
+	}
+
+	/**
+	 * Splits a text into terms at all characters that are neither letters nor digits.
+	 * 
+	 * @param text
+	 *            the text or <code>null</code>
+	 * @return the terms in lower case
+	 */
+	static List<String> tokenize(final String text) {
+		List<String> terms = new ArrayList<String>();
+		if (text == null) {
+			return terms;
+		}
+		String lowerCase = text.toLowerCase(Locale.ROOT);
+		int start = -1;
+		for (int i = 0; i <= lowerCase.length(); i++) {
+			boolean partOfTerm = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+			if (partOfTerm && start < 0) {
+				start = i;
+			} else if (!partOfTerm && start >= 0) {
+				terms.add(lowerCase.substring(start, i));
+				start = -1;
+			}
+		}
+		return terms;
+	}
+
+	/**
+	 * @param out
+	 *            the stream to write to
+	 * @param value
+	 *            a string or <code>null</code>
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+		if (value == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length + 1);
+		out.write(bytes);
+	}
+
+	/**
+	 * @param in
+	 *            the stream to read from
+	 * @return a string written by {@link #writeString(DataOutputStream, String)}
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	private static String readString(final DataInputStream in) throws IOException {
+		int length = readVarInt(in);
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length - 1];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes a non-negative int using 7 bits per byte, so small numbers take a single byte.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param value
+	 *            the value, not negative
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private static void writeVarInt(final DataOutputStream out, final int value) throws IOException {
+		int remaining = value;
+		while ((remaining & ~0x7f) != 0) {
+			out.writeByte((remaining & 0x7f) | 0x80);
+			remaining >>>= 7;
+		}
+		out.writeByte(remaining);
+	}
+
+	/**
+	 * @param in
+	 *            the stream to read from
+	 * @return an int written by {@link #writeVarInt(DataOutputStream, int)}
+	 * @throws IOException
+	 *             if reading fails or the value is malformed
+	 */
+	private static int readVarInt(final DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed search index");
+	}
+
+	/**
+	 * A growing list of ascending track indexes.
+	 */
+	private static final class Postings {
+		/** The track indexes. */
+		private int[] tracks = new int[4];
+		/** Number of track indexes. */
+		private int count = 0;
+
+		/**
+		 * Adds a track, unless it was the last one added.
+		 * 
+		 * @param track
+		 *            index of the track, not less than the last one added
+		 */
+		void add(final int track) {
+			if (count > 0 && tracks[count - 1] == track) {
+				return;
+			}
+			if (count == tracks.length) {
+				tracks = Arrays.copyOf(tracks, count * 2);
+			}
+			tracks[count++] = track;
+		}
+
+		/**
+		 * @param other
+		 *            postings whose tracks are all greater than the ones of this list
+		 */
+		void addAll(final Postings other) {
+			if (count + other.count > tracks.length) {
+				tracks = Arrays.copyOf(tracks, Math.max(count + other.count, count * 2));
+			}
+			System.arraycopy(other.tracks, 0, tracks, count, other.count);
+			count += other.count;
+		}
+
+		/** @return the track indexes, trimmed to size */
+		int[] toArray() {
+			return Arrays.copyOf(tracks, count);
+		}
+	}
+
+	/**
+	 * The tracks of the library with the properties that are indexed, one array per property.
+	 */
+	private static final class Tracks {
+		/** Media item ids, ascending. */
+		private long[] ids;
+		/** Content URLs. */
+		private String[] urls;
+		/** Titles. */
+		private String[] titles;
+		/** Artists. */
+		private String[] artists;
+		/** Albums. */
+		private String[] albums;
+
+		/**
+		 * @param count
+		 *            number of tracks
+		 */
+		Tracks(final int count) {
+			ids = new long[count];
+			urls = new String[count];
+			titles = new String[count];
+			artists = new String[count];
+			albums = new String[count];
+		}
+
+		/**
+		 * Reads the tracks and their title, artist and album from the database.
+		 * 
+		 * @param dbReader
+		 *            the songbird database
+		 * @return the tracks
+		 * @throws SQLException
+		 *             if reading fails
+		 */
+		static Tracks read(final SongbirdDbReader dbReader) throws SQLException {
+			Tracks tracks = new Tracks(INITIAL_CAPACITY);
+			int[] count = { 0 };
+			dbReader.readTracks((mediaItemId, guid, contentUrl) -> {
+				if (count[0] == tracks.ids.length) {
+					tracks.ids = Arrays.copyOf(tracks.ids, count[0] * 2);
+					tracks.urls = Arrays.copyOf(tracks.urls, count[0] * 2);
+				}
+				tracks.ids[count[0]] = mediaItemId;
+				tracks.urls[count[0]] = contentUrl;
+				count[0]++;
+			});
+			tracks.ids = Arrays.copyOf(tracks.ids, count[0]);
+			tracks.urls = Arrays.copyOf(tracks.urls, count[0]);
+			tracks.titles = new String[count[0]];
+			tracks.artists = new String[count[0]];
+			tracks.albums = new String[count[0]];
+
+			Map<String, String[]> columns = new HashMap<String, String[]>();
+			columns.put(PROP_TRACK_NAME, tracks.titles);
+			columns.put(PROP_ARTIST_NAME, tracks.artists);
+			columns.put(PROP_ALBUM_NAME, tracks.albums);
+			dbReader.readTrackProperties(columns.keySet(), (mediaItemId, propertyName, value) -> {
+				int track = Arrays.binarySearch(tracks.ids, mediaItemId);
+				if (track >= 0) {
+					columns.get(propertyName)[track] = value;
+				}
+			});
+			return tracks;
+		}
+
+		/**
+		 * Extracts the terms of a range of tracks.
+		 * 
+		 * @param from
+		 *            index of the first track, inclusive
+		 * @param to
+		 *            index of the last track, exclusive
+		 * @return the ascending indexes of the tracks containing each term
+		 */
+		Map<String, Postings> extractTerms(final int from, final int to) {
+			Map<String, Postings> postings = new HashMap<String, Postings>();
+			for (int track = from; track < to; track++) {
+				for (String text : new String[] { titles[track], artists[track], albums[track], toPath(urls[track]) }) {
+					for (String term : tokenize(text)) {
+						postings.computeIfAbsent(term, t -> new Postings()).add(track);
+					}
+				}
+			}
+			return postings;
+		}
+
+		/**
+		 * @param contentUrl
+		 *            the URL of a track
+		 * @return the path of the file or the URL itself, if it is not a file
+		 */
+		private static String toPath(final String contentUrl) {
+			try {
+				return ContentUrlDecoder.toFileLeniently(contentUrl).getPath();
+			} catch (Exception e) {
+				return contentUrl;
+			}
+		}
+	}
+
+	/**
+	 * A track found by {@link SearchIndex#search(String, int)}.
+	 * 
+	 * @author schnatterer
+	 * 
+	 */
+	public static final class Hit {
+		/** Id of the media item. */
+		private final long mediaItemId;
+		/** Content URL of the track. */
+		private final String contentUrl;
+		/** Title, <code>null</code> if not set. */
+		private final String title;
+		/** Artist, <code>null</code> if not set. */
+		private final String artist;
+		/** Album, <code>null</code> if not set. */
+		private final String album;
+
+		/**
+		 * @param mediaItemId
+		 *            id of the media item
+		 * @param contentUrl
+		 *            content URL of the track
+		 * @param title
+		 *            title, <code>null</code> if not set
+		 * @param artist
+		 *            artist, <code>null</code> if not set
+		 * @param album
+		 *            album, <code>null</code> if not set
+		 */
+		Hit(final long mediaItemId, final String contentUrl, final String title, final String artist,
+				final String album) {
+			this.mediaItemId = mediaItemId;
+			this.contentUrl = contentUrl;
+			this.title = title;
+			this.artist = artist;
+			this.album = album;
+		}
+
+		/** @return the id of the media item */
+		public long getMediaItemId() {
+			return mediaItemId;
+		}
+
+		/** @return the content URL of the track */
+		public String getContentUrl() {
+			return contentUrl;
+		}
+
+		/** @return the title or <code>null</code> if not set */
+		public String getTitle() {
+			return title;
+		}
+
+		/** @return the artist or <code>null</code> if not set */
+		public String getArtist() {
+			return artist;
+		}
+
+		/** @return the album or <code>null</code> if not set */
+		public String getAlbum() {
+			return album;
+		}
+
+		@Override
+		public String toString() {
+			return Stream.of(artist, album, title).filter(Objects::nonNull).collect(Collectors.joining(" - "))
+					+ " (" + contentUrl + ")";
+		}
+	}
+}
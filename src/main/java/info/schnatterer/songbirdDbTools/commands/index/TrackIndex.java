@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.index;
+
+import info.schnatterer.songbirdDbTools.Utils.ContentUrlDecoder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view of a track index file written by {@link TrackIndexWriter}. The file is memory-mapped and searched in
+ * place, so a lookup is a binary search over the mapped bytes: It neither reads the whole file nor accesses the
+ * songbird database. Thread safe.
+ * 
+ * The file consists of (all numbers big endian):
+ * <ol>
+ * <li>Header: magic number, version, number of tracks, number of playlists, number of memberships, size of the
+ * string table (6 ints).</li>
+ * <li>Tracks sorted by the UTF-8 bytes of their path: media item id (long), offset and length of the path, offset
+ * and length of the guid, index of the first membership, number of memberships (6 ints).</li>
+ * <li>Memberships: index of the playlist (int), grouped by track.</li>
+ * <li>Playlists sorted by name: media list id (long), offset and length of the name (2 ints).</li>
+ * <li>String table: UTF-8 encoded strings referenced by the offsets above.</li>
+ * </ol>
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class TrackIndex implements AutoCloseable {
+	/** Magic number at the beginning of the file: "SBIX". */
+	static final int MAGIC = 0x53424958;
+	/** Version of the file format. */
+	static final int VERSION = 1;
+	/** Size of the header in bytes. */
+	static final int HEADER_SIZE = 6 * Integer.BYTES;
+	/** Size of a track record in bytes. */
+	static final int TRACK_SIZE = Long.BYTES + 6 * Integer.BYTES;
+	/** Size of a membership record in bytes. */
+	static final int MEMBERSHIP_SIZE = Integer.BYTES;
+	/** Size of a playlist record in bytes. */
+	static final int PLAYLIST_SIZE = Long.BYTES + 2 * Integer.BYTES;
+
+	/** The file the index was read from. */
+	private final File file;
+	/** The mapped file. Only absolute gets are used, so it can be shared by threads. */
+	private final ByteBuffer buffer;
+	/** Number of tracks. */
+	private final int trackCount;
+	/** Number of playlists. */
+	private final int playlistCount;
+	/** Offset of the memberships. */
+	private final int membershipsOffset;
+	/** Offset of the playlists. */
+	private final int playlistsOffset;
+	/** Offset of the string table. */
+	private final int stringsOffset;
+
+	/**
+	 * @param file
+	 *            the file the index was read from
+	 * @param buffer
+	 *            the contents of the file
+	 * @throws IOException
+	 *             if the contents are not a valid index
+	 */
+	private TrackIndex(final File file, final ByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a track index: " + file);
+		}
+		if (buffer.getInt(Integer.BYTES) != VERSION) {
+			throw new IOException("Unsupported track index version " + buffer.getInt(Integer.BYTES) + ": " + file
+					+ ". Please recreate the index.");
+		}
+		trackCount = buffer.getInt(2 * Integer.BYTES);
+		playlistCount = buffer.getInt(3 * Integer.BYTES);
+		int membershipCount = buffer.getInt(4 * Integer.BYTES);
+		int stringsSize = buffer.getInt(5 * Integer.BYTES);
+		// Computed as long, so corrupt counts cannot overflow into a plausible size
+		long memberships = HEADER_SIZE + (long) trackCount * TRACK_SIZE;
+		long playlists = memberships + (long) membershipCount * MEMBERSHIP_SIZE;
+		long strings = playlists + (long) playlistCount * PLAYLIST_SIZE;
+		if (trackCount < 0 || playlistCount < 0 || membershipCount < 0 || stringsSize < 0
+				|| strings + stringsSize != buffer.capacity()) {
+			throw new IOException("Track index is truncated or corrupt: " + file);
+		}
+		membershipsOffset = (int) memberships;
+		playlistsOffset = (int) playlists;
+		stringsOffset = (int) strings;
+	}
+
+	/**
+	 * Opens an index file by mapping it into memory.
+	 * 
+	 * @param file
+	 *            the index file
+	 * @return the index
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid index
+	 */
+	public static TrackIndex open(final File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Track index too large: " + file);
+			}
+			// The mapping stays valid after closing the channel
+			return new TrackIndex(file, channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Converts the path of a file or a songbird content URL to the key tracks are stored under: The absolute path for
+	 * <code>file:</code> URLs and paths, the URL itself for other URLs (e.g. streams). Does not access the file
+	 * system.
+	 * 
+	 * @param pathOrUrl
+	 *            a path or URL
+	 * @return the key
+	 */
+	public static String toKey(final String pathOrUrl) {
+		if (pathOrUrl.startsWith("file:")) {
+			try {
+				return ContentUrlDecoder.toFile(pathOrUrl).getAbsolutePath();
+			} catch (Exception e) {
+				// Not a valid file URI, use as is
+				return pathOrUrl;
+			}
+		}
+		if (pathOrUrl.contains("://")) {
+			return pathOrUrl;
+		}
+		return new File(pathOrUrl).getAbsolutePath();
+	}
+
+	/**
+	 * Finds a track by path. If the library contains the file more than once, the track with the lowest media item
+	 * id is returned, as {@link TrackIndexWriter} keeps tracks with the same path in the order of their ids.
+	 * 
+	 * @param pathOrUrl
+	 *            the path of the file or its URL, see {@link #toKey(String)}
+	 * @return the track or <code>null</code> if the index does not contain it
+	 */
+	public Track find(final String pathOrUrl) {
+		byte[] key = toKey(pathOrUrl).getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = trackCount - 1;
+		int found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int record = HEADER_SIZE + middle * TRACK_SIZE;
+			int result =
+					compare(buffer, stringsOffset + buffer.getInt(record + Long.BYTES),
+							buffer.getInt(record + Long.BYTES + Integer.BYTES), key);
+			if (result < 0) {
+				low = middle + 1;
+			} else {
+				// Keep searching the lower half for the first track with this path
+				if (result == 0) {
+					found = record;
+				}
+				high = middle - 1;
+			}
+		}
+		return found >= 0 ? readTrack(found) : null;
+	}
+
+	/** @return the number of tracks in the index */
+	public int getTrackCount() {
+		return trackCount;
+	}
+
+	/** @return the number of playlists in the index */
+	public int getPlaylistCount() {
+		return playlistCount;
+	}
+
+	/** @return the file the index was read from */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Does nothing, as the mapping is released by the garbage collector. Allows for using try-with-resources, in case
+	 * the index holds resources in the future.
+	 */
+	@Override
+	public void close() {
+		// Nothing to release
+	}
+
+	/**
+	 * Reads a track record.
+	 * 
+	 * @param record
+	 *            offset of the record
+	 * @return the track
+	 */
+	private Track readTrack(final int record) {
+		int position = record + Long.BYTES;
+		String path = readString(buffer.getInt(position), buffer.getInt(position + Integer.BYTES));
+		String guid =
+				readString(buffer.getInt(position + 2 * Integer.BYTES), buffer.getInt(position + 3 * Integer.BYTES));
+		int firstMembership = buffer.getInt(position + 4 * Integer.BYTES);
+		int membershipCount = buffer.getInt(position + 5 * Integer.BYTES);
+
+		List<Playlist> playlists = new ArrayList<Playlist>(membershipCount);
+		for (int i = 0; i < membershipCount; i++) {
+			int playlist = playlistsOffset
+					+ buffer.getInt(membershipsOffset + (firstMembership + i) * MEMBERSHIP_SIZE) * PLAYLIST_SIZE;
+			playlists.add(new Playlist(buffer.getLong(playlist), readString(buffer.getInt(playlist + Long.BYTES),
+					buffer.getInt(playlist + Long.BYTES + Integer.BYTES))));
+		}
+		return new Track(buffer.getLong(record), guid, path, playlists);
+	}
+
+	/**
+	 * @param offset
+	 *            offset within the string table
+	 * @param length
+	 *            length in bytes
+	 * @return the decoded string
+	 */
+	private String readString(final int offset, final int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(stringsOffset + offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares bytes within the buffer to a key, treating bytes as unsigned, i.e. in the order
+	 * {@link TrackIndexWriter} sorts the tracks.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @param offset
+	 *            the offset of the bytes within the buffer
+	 * @param length
+	 *            the number of bytes
+	 * @param key
+	 *            the key
+	 * @return a negative integer, zero, or a positive integer as the bytes are less than, equal to, or greater than
+	 *         <code>key</code>
+	 */
+	private static int compare(final ByteBuffer buffer, final int offset, final int length, final byte[] key) {
+		int common = Math.min(length, key.length);
+		for (int i = 0; i < common; i++) {
+			int result = Integer.compare(buffer.get(offset + i) & 0xff, key[i] & 0xff);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(length, key.length);
+	}
+
+	/**
+	 * A track found in the index.
+	 * 
+	 * @author schnatterer
+	 * 
+	 */
+	public static final class Track {
+		/** Id of the media item. */
+		private final long mediaItemId;
+		/** Songbird guid of the media item. */
+		private final String guid;
+		/** Key of the track, see {@link TrackIndex#toKey(String)}. */
+		private final String path;
+		/** Playlists that contain the track. */
+		private final List<Playlist> playlists;
+
+		/**
+		 * @param mediaItemId
+		 *            id of the media item
+		 * @param guid
+		 *            songbird guid of the media item
+		 * @param path
+		 *            key of the track
+		 * @param playlists
+		 *            playlists that contain the track
+		 */
+		Track(final long mediaItemId, final String guid, final String path, final List<Playlist> playlists) {
+			this.mediaItemId = mediaItemId;
+			this.guid = guid;
+			this.path = path;
+			this.playlists = Collections.unmodifiableList(playlists);
+		}
+
+		/** @return the id of the media item */
+		public long getMediaItemId() {
+			return mediaItemId;
+		}
+
+		/** @return the songbird guid of the media item */
+		public String getGuid() {
+			return guid;
+		}
+
+		/** @return the path of the file or its URL, if it is not a file */
+		public String getPath() {
+			return path;
+		}
+
+		/** @return the playlists that contain the track, ordered by name */
+		public List<Playlist> getPlaylists() {
+			return playlists;
+		}
+	}
+
+	/**
+	 * A playlist that contains a {@link Track}.
+	 * 
+	 * @author schnatterer
+	 * 
+	 */
+	public static final class Playlist {
+		/** Id of the media list. */
+		private final long id;
+		/** Name of the media list. */
+		private final String name;
+
+		/**
+		 * @param id
+		 *            id of the media list
+		 * @param name
+		 *            name of the media list
+		 */
+		Playlist(final long id, final String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		/** @return the id of the media list */
+		public long getId() {
+			return id;
+		}
+
+		/** @return the name of the media list */
+		public String getName() {
+			return name;
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.index;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.backend.SongbirdPlaylist;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link TrackIndex} file from a songbird database. Tracks and memberships are collected in primitive arrays
+ * before writing, so memory consumption is a few dozen bytes per track plus its strings.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class TrackIndexWriter {
+	/** Initial capacity of the arrays. */
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Size of the write buffer. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Number of tracks collected. */
+	private int trackCount = 0;
+	/** Media item ids of the tracks. */
+	private long[] trackIds = new long[INITIAL_CAPACITY];
+	/** UTF-8 encoded keys of the tracks, see {@link TrackIndex#toKey(String)}. */
+	private byte[][] trackPaths = new byte[INITIAL_CAPACITY][];
+	/** UTF-8 encoded guids of the tracks. */
+	private byte[][] trackGuids = new byte[INITIAL_CAPACITY][];
+	/** Maps media item ids to indexes in {@link #trackIds}. */
+	private final Map<Long, Integer> trackIndexes = new HashMap<Long, Integer>();
+
+	/** Number of memberships collected. */
+	private int membershipCount = 0;
+	/** Index of the track of each membership. */
+	private int[] membershipTracks = new int[INITIAL_CAPACITY];
+	/** Index of the playlist of each membership. */
+	private int[] membershipPlaylists = new int[INITIAL_CAPACITY];
+
+	/** Media list ids of the playlists, sorted by name. */
+	private long[] playlistIds = new long[0];
+	/** UTF-8 encoded names of the playlists, sorted by name. */
+	private byte[][] playlistNames = new byte[0][];
+
+	/**
+	 * Reads the tracks and playlists from a songbird database and writes an index file. The file is replaced
+	 * atomically, so a concurrent {@link TrackIndex#open(File)} reads either the old or the new index.
+	 * 
+	 * @param dbReader
+	 *            the songbird database
+	 * @param indexFile
+	 *            the file to write
+	 * @return the number of tracks written
+	 * @throws SQLException
+	 *             if reading the database fails
+	 * @throws IOException
+	 *             if writing the file fails
+	 */
+	public static int write(final SongbirdDbReader dbReader, final File indexFile) throws SQLException,
+			IOException {
+		TrackIndexWriter writer = new TrackIndexWriter();
+		writer.read(dbReader);
+		writer.write(indexFile);
+		return writer.trackCount;
+	}
+
+	/**
+	 * Collects tracks, playlists and memberships from the database.
+	 * 
+	 * @param dbReader
+	 *            the songbird database
+	 * @throws SQLException
+	 *             if reading the database fails
+	 */
+	private void read(final SongbirdDbReader dbReader) throws SQLException {
+		dbReader.readTracks(this::addTrack);
+
+		List<SongbirdPlaylist> playlists = dbReader.findPlaylists(null);
+		// Lists without a name are not exported either
+		playlists.removeIf(playlist -> playlist.getName() == null);
+		playlists.sort(Comparator.comparing(SongbirdPlaylist::getName));
+		playlistIds = new long[playlists.size()];
+		playlistNames = new byte[playlists.size()][];
+		Map<Long, Integer> playlistIndexes = new HashMap<Long, Integer>();
+		for (int i = 0; i < playlists.size(); i++) {
+			playlistIds[i] = Long.parseLong(playlists.get(i).getId());
+			playlistNames[i] = playlists.get(i).getName().getBytes(StandardCharsets.UTF_8);
+			playlistIndexes.put(playlistIds[i], i);
+		}
+
+		dbReader.readMemberships((listId, mediaItemId, ordinal) -> {
+			Integer track = trackIndexes.get(mediaItemId);
+			Integer playlist = playlistIndexes.get(listId);
+			if (track != null && playlist != null) {
+				addMembership(track, playlist);
+			}
+		});
+	}
+
+	/**
+	 * Adds a track.
+	 * 
+	 * @param mediaItemId
+	 *            the id of the media item
+	 * @param guid
+	 *            the songbird guid of the media item
+	 * @param contentUrl
+	 *            the URL of the file
+	 */
+	private void addTrack(final long mediaItemId, final String guid, final String contentUrl) {
+		if (trackCount == trackIds.length) {
+			int capacity = trackCount * 2;
+			trackIds = Arrays.copyOf(trackIds, capacity);
+			trackPaths = Arrays.copyOf(trackPaths, capacity);
+			trackGuids = Arrays.copyOf(trackGuids, capacity);
+		}
+		trackIds[trackCount] = mediaItemId;
+		trackPaths[trackCount] = TrackIndex.toKey(contentUrl).getBytes(StandardCharsets.UTF_8);
+		trackGuids[trackCount] = guid.getBytes(StandardCharsets.UTF_8);
+		trackIndexes.put(mediaItemId, trackCount);
+		trackCount++;
+	}
+
+	/**
+	 * Adds a membership.
+	 * 
+	 * @param track
+	 *            the index of the track
+	 * @param playlist
+	 *            the index of the playlist
+	 */
+	private void addMembership(final int track, final int playlist) {
+		if (membershipCount == membershipTracks.length) {
+			int capacity = membershipCount * 2;
+			membershipTracks = Arrays.copyOf(membershipTracks, capacity);
+			membershipPlaylists = Arrays.copyOf(membershipPlaylists, capacity);
+		}
+		membershipTracks[membershipCount] = track;
+		membershipPlaylists[membershipCount] = playlist;
+		membershipCount++;
+	}
+
+	/**
+	 * Writes the collected data to a temporary file, which then replaces <code>indexFile</code>.
+	 * 
+	 * @param indexFile
+	 *            the file to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private void write(final File indexFile) throws IOException {
+		// Sort tracks by path. Stable, so tracks with the same path stay in the order of their ids
+		Integer[] order = new Integer[trackCount];
+		for (int i = 0; i < trackCount; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (track1, track2) -> compare(trackPaths[track1], trackPaths[track2]));
+
+		// Group the memberships by track (counting sort), keeping playlists ordered by name within each track
+		int[] membershipStart = new int[trackCount + 1];
+		for (int i = 0; i < membershipCount; i++) {
+			membershipStart[membershipTracks[i] + 1]++;
+		}
+		for (int i = 0; i < trackCount; i++) {
+			membershipStart[i + 1] += membershipStart[i];
+		}
+		int[] groupedPlaylists = new int[membershipCount];
+		int[] next = Arrays.copyOf(membershipStart, trackCount);
+		for (int i = 0; i < membershipCount; i++) {
+			groupedPlaylists[next[membershipTracks[i]]++] = membershipPlaylists[i];
+		}
+		for (int i = 0; i < trackCount; i++) {
+			Arrays.sort(groupedPlaylists, membershipStart[i], membershipStart[i + 1]);
+		}
+
+		long stringsSize = 0;
+		for (int i = 0; i < trackCount; i++) {
+			stringsSize += trackPaths[i].length + trackGuids[i].length;
+		}
+		for (byte[] name : playlistNames) {
+			stringsSize += name.length;
+		}
+		long fileSize =
+				TrackIndex.HEADER_SIZE + (long) trackCount * TrackIndex.TRACK_SIZE + (long) membershipCount
+						* TrackIndex.MEMBERSHIP_SIZE + (long) playlistIds.length * TrackIndex.PLAYLIST_SIZE
+						+ stringsSize;
+		if (fileSize > Integer.MAX_VALUE) {
+			throw new IOException("Library too large for a track index: " + fileSize + " bytes");
+		}
+
+		File tmpFile = new File(indexFile.getAbsoluteFile().getParentFile(), indexFile.getName() + ".tmp");
+		try (DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath()), BUFFER_SIZE))) {
+			out.writeInt(TrackIndex.MAGIC);
+			out.writeInt(TrackIndex.VERSION);
+			out.writeInt(trackCount);
+			out.writeInt(playlistIds.length);
+			out.writeInt(membershipCount);
+			out.writeInt((int) stringsSize);
+
+			int stringOffset = 0;
+			for (int track : order) {
+				out.writeLong(trackIds[track]);
+				out.writeInt(stringOffset);
+				out.writeInt(trackPaths[track].length);
+				stringOffset += trackPaths[track].length;
+				out.writeInt(stringOffset);
+				out.writeInt(trackGuids[track].length);
+				stringOffset += trackGuids[track].length;
+				out.writeInt(membershipStart[track]);
+				out.writeInt(membershipStart[track + 1] - membershipStart[track]);
+			}
+			for (int playlist : groupedPlaylists) {
+				out.writeInt(playlist);
+			}
+			for (int i = 0; i < playlistIds.length; i++) {
+				out.writeLong(playlistIds[i]);
+				out.writeInt(stringOffset);
+				out.writeInt(playlistNames[i].length);
+				stringOffset += playlistNames[i].length;
+			}
+
+			for (int track : order) {
+				out.write(trackPaths[track]);
+				out.write(trackGuids[track]);
+			}
+			for (byte[] name : playlistNames) {
+				out.write(name);
+			}
+		}
+		Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Compares byte arrays treating bytes as unsigned, which orders UTF-8 encoded strings by code point.
+	 * 
+	 * @param bytes1
+	 *            first array
+	 * @param bytes2
+	 *            second array
+	 * @return a negative integer, zero, or a positive integer as <code>bytes1</code> is less than, equal to, or
+	 *         greater than <code>bytes2</code>
+	 */
+	private static int compare(final byte[] bytes1, final byte[] bytes2) {
+		int common = Math.min(bytes1.length, bytes2.length);
+		for (int i = 0; i < common; i++) {
+			int result = Integer.compare(bytes1[i] & 0xff, bytes2[i] & 0xff);
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(bytes1.length, bytes2.length);
+	}
+}
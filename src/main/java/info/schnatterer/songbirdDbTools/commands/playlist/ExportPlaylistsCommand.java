@@ -16,21 +16,44 @@
 package info.schnatterer.songbirdDbTools.commands.playlist;
 
 import info.schnatterer.java.util.Sets;
+import info.schnatterer.songbirdDbTools.Utils.ContentUrlRewriter;
+import info.schnatterer.songbirdDbTools.Utils.FileStatusBatchReader;
+import info.schnatterer.songbirdDbTools.Utils.FileStatusBatchReader.Lookup;
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache;
 import info.schnatterer.songbirdDbTools.Utils.ResourceUtils;
+import info.schnatterer.songbirdDbTools.Utils.ThreadUtils;
+import info.schnatterer.songbirdDbTools.backend.CompactLibrary;
+import info.schnatterer.songbirdDbTools.backend.SimpleMediaListPlaylist;
+import info.schnatterer.songbirdDbTools.backend.SmartPlaylistEngine;
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.backend.SongbirdPlaylist;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportStatistics.PlaylistStatistics;
 import info.schnatterer.songbirddbapi4.SongbirdDb;
-import info.schnatterer.songbirddbapi4j.domain.MediaItem;
-import info.schnatterer.songbirddbapi4j.domain.MemberMediaItem;
-import info.schnatterer.songbirddbapi4j.domain.Property;
-import info.schnatterer.songbirddbapi4j.domain.SimpleMediaList;
 
 import java.io.File;
-import java.net.URI;
+import java.io.IOException;
+import java.net.URISyntaxException;
 import java.nio.file.FileSystemException;
 import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang.StringUtils;
@@ -40,6 +63,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Command that handles exporting Sonbgird playlists to playlist files.
  * 
+ * A command keeps the state of the current run in its fields, so it runs one export at a time. It can be run several
+ * times one after another, but starting a run while another one is in progress fails with an
+ * {@link IllegalStateException}. Use one command per concurrent export.
+ * 
  * @author schnatterer
  * 
  */
@@ -50,6 +77,18 @@ public final class ExportPlaylistsCommand {
 		this.songbirdDb = songbirdDb;
 	}
 
+	/**
+	 * Creates a command that loads playlists lazily from a {@link SongbirdDbReader} only, e.g. for a reader that is
+	 * kept open across several commands.
+	 * 
+	 * @param dbReader
+	 *            the reader to use
+	 */
+	public ExportPlaylistsCommand(final SongbirdDbReader dbReader) {
+		this.songbirdDb = null;
+		this.dbReader = dbReader;
+	}
+
 	/** System-dependent End Of Line string. */
 	public static final String EOL = System.getProperty("line.separator");
 
@@ -57,9 +96,243 @@ public final class ExportPlaylistsCommand {
 	private static Logger logger = LoggerFactory.getLogger(ExportPlaylistsCommand.class);
 
 	/**
-	 * Playlist exporter implementation used by the command to write the actual playlist files.
+	 * Caches the status of the member files during an export run, as the same file is often contained in several
+	 * playlists. Recreated for each run.
+	 */
+	private FileStatusCache fileStatusCache = new FileStatusCache();
+
+	/**
+	 * Writes the actual playlist files, using one exporter per requested format. The exporters share
+	 * {@link #fileStatusCache}. Created for each run, depending on the playlist formats.
+	 */
+	private PlaylistExporterMultiFormat playlistExporter;
+
+	/** The archive the playlists of the current run are written to, <code>null</code> if written to a folder. */
+	private PlaylistArchive archive = null;
+
+	/**
+	 * Reads the status of the member files into {@link #fileStatusCache} before they are passed to
+	 * {@link #playlistExporter}, so the exporter's existence checks are answered from the cache. Recreated for each
+	 * run.
+	 */
+	private FileStatusBatchReader fileStatusReader = new FileStatusBatchReader(fileStatusCache, 1);
+
+	/** Member URLs of the current run that could not be converted to paths. Recreated for each run. */
+	private InvalidUrlSummary invalidUrls = new InvalidUrlSummary();
+
+	/** Number of playlists that are queued per export thread before the submitting thread has to export itself. */
+	private static final int QUEUED_EXPORTS_PER_THREAD = 2;
+
+	/** Number of playlists that are exported concurrently. */
+	private int threads = 1;
+
+	/** Maximum number of member files per playlist whose status is read concurrently. */
+	private int checksInFlight = 1;
+
+	/** Skip playlists that did not change since the last export? */
+	private boolean incremental = false;
+
+	/** Delete playlist files of media lists that no longer exist in songbird? */
+	private boolean prune = false;
+
+	/** Optional reader that loads playlists lazily. If <code>null</code>, {@link #songbirdDb} is used. */
+	private SongbirdDbReader dbReader = null;
+
+	/** Load the library from {@link #dbReader} into a {@link CompactLibrary} at the beginning of each run? */
+	private boolean compact = false;
+
+	/** The library of the current run, if {@link #compact}. */
+	private CompactLibrary compactLibrary = null;
+
+	/** Optional library that was loaded before and is used for all runs instead of loading it again. */
+	private CompactLibrary sharedLibrary = null;
+
+	/** Evaluate the rules of smart playlists instead of exporting the members stored by songbird? */
+	private boolean evaluateSmartLists = false;
+
+	/** Optional rules applied to the content URLs of the members before their files are checked. */
+	private ContentUrlRewriter contentUrlRewriter = null;
+
+	/** Optional mapper applied to the member paths before exporting. */
+	private MemberPathMapper memberPathMapper = null;
+
+	/** Store the member files in the archive, if exporting to an archive? */
+	private boolean archiveMedia = false;
+
+	/** Optional statistics that are filled during the export. If <code>null</code>, nothing is measured. */
+	private ExportStatistics statistics = null;
+
+	/** Optional listener that is notified about the progress of each run. */
+	private ExportProgressListener progressListener = null;
+
+	/** Set by {@link #cancel()}, reset at the end of each run. */
+	private volatile boolean cancelled = false;
+
+	/** Set while a run is in progress, see {@link #exportPlaylists(String, List, List, boolean, boolean)}. */
+	private final AtomicBoolean running = new AtomicBoolean(false);
+
+	/**
+	 * Sets the number of playlists that are exported concurrently. Defaults to <code>1</code>, i.e. playlists are
+	 * exported one after another.
+	 * 
+	 * @param threads
+	 *            number of export threads. Values less than one are treated as one.
+	 */
+	public void setThreads(final int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the maximum number of member files per playlist whose status (exists, file, directory) is read
+	 * concurrently, using a dedicated I/O thread pool. Defaults to <code>1</code>, i.e. one file after another. Higher
+	 * values hide the latency of network drives. Does not change the order of the members or the files omitted.
+	 * 
+	 * @param checksInFlight
+	 *            number of concurrent checks. Values less than one are treated as one.
+	 */
+	public void setChecksInFlight(final int checksInFlight) {
+		this.checksInFlight = checksInFlight;
+	}
+
+	/**
+	 * Enables incremental exports. A {@link PlaylistManifest} is stored in the destination folder and playlists whose
+	 * members, format and relative path flag did not change since the last export are not written again.
+	 * 
+	 * @param incremental
+	 *            <code>true</code> to skip unchanged playlists
+	 */
+	public void setIncremental(final boolean incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * When exporting incrementally (see {@link #setIncremental(boolean)}), deletes the playlist files whose media list
+	 * no longer exists in songbird as well as the old file of a renamed playlist.
+	 * 
+	 * @param prune
+	 *            <code>true</code> to delete playlist files that are no longer needed
+	 */
+	public void setPrune(final boolean prune) {
+		this.prune = prune;
+	}
+
+	/**
+	 * Loads playlists lazily from a {@link SongbirdDbReader} instead of loading all playlists including their members
+	 * using {@link SongbirdDb}. Requested playlists are filtered within the database and the members of a playlist are
+	 * only read when it is exported, so memory consumption depends on the largest playlist, not the whole library.
+	 * 
+	 * @param dbReader
+	 *            the reader to use or <code>null</code> to load all playlists using {@link SongbirdDb}
+	 */
+	public void setDbReader(final SongbirdDbReader dbReader) {
+		this.dbReader = dbReader;
+	}
+
+	/**
+	 * Loads the whole library into a {@link CompactLibrary} at the beginning of each run, instead of loading
+	 * songbirdDbApi4j domain objects or querying each playlist lazily. Takes a fraction of the heap of the domain
+	 * objects and reads the database in only three queries. Requires a {@link #setDbReader(SongbirdDbReader)}.
+	 * 
+	 * @param compact
+	 *            <code>true</code> to use the compact model
+	 */
+	public void setCompact(final boolean compact) {
+		this.compact = compact;
+	}
+
+	/**
+	 * Uses a {@link CompactLibrary} that was loaded before for all following runs, instead of reading the database.
+	 * Allows for reusing the library across commands as long as the database does not change.
+	 * 
+	 * @param sharedLibrary
+	 *            the library to use or <code>null</code> to read the database on each run
+	 */
+	public void setCompactLibrary(final CompactLibrary sharedLibrary) {
+		this.sharedLibrary = sharedLibrary;
+	}
+
+	/**
+	 * Evaluates the rules of smart (dynamic) playlists like "recently added" or "highest rated" against the properties
+	 * of the tracks using a {@link SmartPlaylistEngine}, instead of exporting the members songbird stored the last time
+	 * it ran. Smart playlists whose rules cannot be evaluated are exported as stored. Requires a
+	 * {@link #setDbReader(SongbirdDbReader)}.
+	 * 
+	 * @param evaluateSmartLists
+	 *            <code>true</code> to evaluate smart playlists
+	 */
+	public void setEvaluateSmartLists(final boolean evaluateSmartLists) {
+		this.evaluateSmartLists = evaluateSmartLists;
+	}
+
+	/**
+	 * Rewrites the content URLs of the members before their files are checked, e.g. to export a library created on
+	 * Windows on a machine where the music is mounted elsewhere. The rewritten URLs are part of the fingerprint of an
+	 * incremental export, so changing the rules exports the affected playlists again.
+	 * 
+	 * @param contentUrlRewriter
+	 *            the rules to apply or <code>null</code> to use the URLs stored in songbird
+	 */
+	public void setContentUrlRewriter(final ContentUrlRewriter contentUrlRewriter) {
+		this.contentUrlRewriter = contentUrlRewriter;
+	}
+
+	/**
+	 * Maps the member paths of each playlist before the playlist file is written, e.g. to the location of copies of
+	 * the member files.
+	 * 
+	 * @param memberPathMapper
+	 *            the mapper to apply or <code>null</code> to write the paths of the member files
+	 */
+	public void setMemberPathMapper(final MemberPathMapper memberPathMapper) {
+		this.memberPathMapper = memberPathMapper;
+	}
+
+	/**
+	 * When exporting to an archive (see {@link #exportPlaylists(String, List, List, boolean, boolean)}), also stores
+	 * the member files in the archive and references them in the playlists instead of the original files.
+	 * 
+	 * @param archiveMedia
+	 *            <code>true</code> to store the member files in the archive
+	 */
+	public void setArchiveMedia(final boolean archiveMedia) {
+		this.archiveMedia = archiveMedia;
+	}
+
+	/**
+	 * Measures the following export runs: Time spent reading the database, resolving member paths, checking member
+	 * files and writing playlist files as well as the number of entries and bytes written. Measuring does not change
+	 * the playlists written.
+	 * 
+	 * @param statistics
+	 *            where to record the measurements or <code>null</code> to disable measuring
+	 */
+	public void setStatistics(final ExportStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * Sets a listener that is notified each time a playlist is finished.
+	 * 
+	 * @param progressListener
+	 *            the listener or <code>null</code> to disable notifications
+	 */
+	public void setProgressListener(final ExportProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Cancels the current export run. Playlists that are being written are finished, all others are skipped. As
+	 * playlist files are replaced atomically, there are no partially written playlists. Skipped playlists are not
+	 * recorded in the manifest, so an incremental export writes them next time. Can be called from any thread.
 	 */
-	private static PlaylistExporter playlistExporter = new PlaylistExporterImplLizzy();
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** @return <code>true</code> if the current run was cancelled */
+	public boolean isCancelled() {
+		return cancelled;
+	}
 
 	/**
 	 * Exports all songbird playlists in a specific format to a specified destination folder.
@@ -74,30 +347,157 @@ public final class ExportPlaylistsCommand {
 	 *            <code>true</code> tries to create relative paths from the playlist members to the playlist file
 	 * @param skipDynamicLists
 	 *            <code>true</code> skips dynamic playlists
+	 * @return the outcome of the run, never <code>null</code>
 	 */
-	public void exportPlaylists(final String destinationFolder, final String playlistFormat,
+	public ExportResult exportPlaylists(final String destinationFolder, final String playlistFormat,
 			final List<String> requestedPlaylistNames, final boolean useRelativePaths, final boolean skipDynamicLists) {
+		return exportPlaylists(destinationFolder, Collections.singletonList(playlistFormat), requestedPlaylistNames,
+				useRelativePaths, skipDynamicLists);
+	}
+
+	/**
+	 * Exports all songbird playlists in several formats to a specified destination folder in a single pass. The
+	 * members of each playlist are read and checked once and then written in all formats.
+	 * 
+	 * If the destination ends in <code>.zip</code>, <code>.tar.gz</code> or <code>.tgz</code>, the playlist files are
+	 * streamed into a {@link PlaylistArchive} instead, optionally together with the member files (see
+	 * {@link #setArchiveMedia(boolean)}). Relative paths are relative to the folder containing the archive. Archives
+	 * are always written completely, so incremental exports are not supported.
+	 * 
+	 * @param destinationFolder
+	 *            the folder or archive to write the playlist to
+	 * @param playlistFormats
+	 *            desired formats for the playlist (e.g. "m3u" and "pls"). Duplicates are ignored.
+	 * @param requestedPlaylistNames
+	 *            the names of the playlists to be exported. If <code>null</code> or empty, all playlists are exported.
+	 * @param useRelativePaths
+	 *            <code>true</code> tries to create relative paths from the playlist members to the playlist file
+	 * @param skipDynamicLists
+	 *            <code>true</code> skips dynamic playlists
+	 * @return the outcome of the run, never <code>null</code>. Errors are logged as well.
+	 * @throws IllegalStateException
+	 *             if another run of this command is in progress
+	 */
+	public ExportResult exportPlaylists(final String destinationFolder, final List<String> playlistFormats,
+			final List<String> requestedPlaylistNames, final boolean useRelativePaths, final boolean skipDynamicLists) {
+		if (!running.compareAndSet(false, true)) {
+			throw new IllegalStateException("Export is already running. Use one command per concurrent export.");
+		}
+		try {
+			return run(destinationFolder, playlistFormats, requestedPlaylistNames, useRelativePaths,
+					skipDynamicLists);
+		} finally {
+			running.set(false);
+		}
+	}
+
+	/**
+	 * Sets up the exporters and the archive of a run, exports the playlists and cleans up.
+	 * 
+	 * @param destinationFolder
+	 *            the folder or archive to write the playlist to
+	 * @param playlistFormats
+	 *            desired formats for the playlist (e.g. "m3u" and "pls"). Duplicates are ignored.
+	 * @param requestedPlaylistNames
+	 *            the names of the playlists to be exported. If <code>null</code> or empty, all playlists are exported.
+	 * @param useRelativePaths
+	 *            <code>true</code> tries to create relative paths from the playlist members to the playlist file
+	 * @param skipDynamicLists
+	 *            <code>true</code> skips dynamic playlists
+	 * @return the outcome of the run
+	 */
+	private ExportResult run(final String destinationFolder, final List<String> playlistFormats,
+			final List<String> requestedPlaylistNames, final boolean useRelativePaths, final boolean skipDynamicLists) {
+
+		long start = System.nanoTime();
+		String playlistFolder = destinationFolder;
+		if (PlaylistArchive.isArchive(destinationFolder)) {
+			try {
+				checkDirectory(new File(destinationFolder).getAbsoluteFile().getParent());
+				archive = new PlaylistArchive(new File(destinationFolder), archiveMedia);
+			} catch (IOException e) {
+				logger.warn("Error writing archive: " + e.getMessage(), e);
+				return new ExportResult(null, 0, 0, e, System.nanoTime() - start);
+			}
+			playlistFolder = archive.getFolder().getPath();
+			if (incremental) {
+				logger.warn("Incremental exports to archives are not supported. Exporting all playlists.");
+			}
+		}
+		fileStatusCache = new FileStatusCache();
+		invalidUrls = new InvalidUrlSummary();
+		Map<String, PlaylistExporter> exporters = new LinkedHashMap<String, PlaylistExporter>();
+		for (String playlistFormat : playlistFormats) {
+			PlaylistExporter exporter = createPlaylistExporter(playlistFormat, fileStatusCache, archive);
+			if (statistics != null) {
+				exporter = new PlaylistExporterMeasuring(exporter, fileStatusCache, statistics);
+			}
+			exporters.putIfAbsent(playlistFormat, exporter);
+		}
+		try (FileStatusBatchReader reader = new FileStatusBatchReader(fileStatusCache, checksInFlight);
+				PlaylistExporterMultiFormat exporter = new PlaylistExporterMultiFormat(exporters)) {
+			fileStatusReader = reader;
+			playlistExporter = exporter;
+			return exportPlaylists(playlistFolder, exporter.getFormats(), requestedPlaylistNames, useRelativePaths,
+					skipDynamicLists, start);
+		} finally {
+			closeArchive();
+			fileStatusReader = new FileStatusBatchReader(fileStatusCache, 1);
+			playlistExporter = null;
+			compactLibrary = null;
+			cancelled = false;
+		}
+	}
+
+	/**
+	 * Exports all songbird playlists using the exporter and file status reader of the current run.
+	 * 
+	 * @param destinationFolder
+	 *            the folder to write the playlist to
+	 * @param playlistFormats
+	 *            desired formats for the playlist, without duplicates
+	 * @param requestedPlaylistNames
+	 *            the names of the playlists to be exported. If <code>null</code> or empty, all playlists are exported.
+	 * @param useRelativePaths
+	 *            <code>true</code> tries to create relative paths from the playlist members to the playlist file
+	 * @param skipDynamicLists
+	 *            <code>true</code> skips dynamic playlists
+	 * @param start
+	 *            {@link System#nanoTime()} when the run started
+	 * @return the outcome of the run
+	 */
+	private ExportResult exportPlaylists(final String destinationFolder, final List<String> playlistFormats,
+			final List<String> requestedPlaylistNames, final boolean useRelativePaths, final boolean skipDynamicLists,
+			final long start) {
 
 		// Check if playlist can be written to destination folder.
 		try {
 			checkDirectory(destinationFolder);
 		} catch (Exception e) {
 			logger.warn("Error writing playlist: " + e.getMessage(), e);
-			return;
+			return new ExportResult(null, 0, 0, e, System.nanoTime() - start);
 		}
+		final PlaylistManifest manifest = incremental && archive == null ? loadManifest(destinationFolder) : null;
 
+		int playlistsUpToDate = 0;
 		try {
 			// Find playlists in songbird
-			List<SimpleMediaList> playlistsToMigrate =
-					songbirdDb
-							.getPlayLists(true, true)
-							.stream()
-							.sorted((p1, p2) -> p1.getList().getProperty(Property.PROP_MEDIA_LIST_NAME)
-									.compareTo(p2.getList().getProperty(Property.PROP_MEDIA_LIST_NAME)))
+			long findStart = System.nanoTime();
+			List<SongbirdPlaylist> playlistsToMigrate =
+					findPlaylists(requestedPlaylistNames).stream()
+							.sorted(Comparator.comparing(SongbirdPlaylist::getName,
+									Comparator.nullsLast(Comparator.naturalOrder())))
 							.collect(Collectors.toList());
+			if (statistics != null) {
+				statistics.addFindPlaylistsNanos(System.nanoTime() - findStart);
+			}
 			logger.info(playlistsToMigrate.size() + " playlist(s) were found in songbird: "
 					+ extractPlaylistNames(playlistsToMigrate));
 
+			if (manifest != null && prune) {
+				prune(manifest, findPlaylistIds(playlistsToMigrate));
+			}
+
 			// Filter playlist as requested by the user
 			if (requestedPlaylistNames != null && !requestedPlaylistNames.isEmpty()) {
 				// Remove duplicates and sort
@@ -110,19 +510,13 @@ public final class ExportPlaylistsCommand {
 						requestedPlaylistNamesOrdered.stream().map(playlistName -> playlistName.trim().toUpperCase())
 								.collect(Collectors.toSet());
 				Set<String> songbirdPlaylistNamesSetUpper =
-						playlistsToMigrate
-								.stream()
-								.map(playlist -> playlist.getList().getProperty(Property.PROP_MEDIA_LIST_NAME).trim()
-										.toUpperCase()).collect(Collectors.toSet());
+						playlistsToMigrate.stream().map(playlist -> playlist.getName().trim().toUpperCase())
+								.collect(Collectors.toSet());
 
 				// find playlists that are only in songbird but not requeted
 				List<String> ignoredPlaylists =
-						Sets.relativeComplement(
-								playlistsToMigrate,
-								requestedPlaylistNamesSetUpper,
-								playlist -> playlist.getList().getProperty(Property.PROP_MEDIA_LIST_NAME).trim()
-										.toUpperCase())
-								.map(playlist -> playlist.getList().getProperty(Property.PROP_MEDIA_LIST_NAME))
+						Sets.relativeComplement(playlistsToMigrate, requestedPlaylistNamesSetUpper,
+								playlist -> playlist.getName().trim().toUpperCase()).map(SongbirdPlaylist::getName)
 								.distinct().sorted().collect(Collectors.toList());
 				if (!ignoredPlaylists.isEmpty()) {
 					logger.info(ignoredPlaylists.size()
@@ -144,83 +538,582 @@ public final class ExportPlaylistsCommand {
 
 				// Limit to playlists that are both: in songbird and requested
 				playlistsToMigrate =
-						Sets.intersection(
-								playlistsToMigrate,
-								requestedPlaylistNamesSetUpper,
-								playlist -> playlist.getList().getProperty(Property.PROP_MEDIA_LIST_NAME).trim()
-										.toUpperCase()).distinct().collect(Collectors.toList());
+						Sets.intersection(playlistsToMigrate, requestedPlaylistNamesSetUpper,
+								playlist -> playlist.getName().trim().toUpperCase()).distinct()
+								.collect(Collectors.toList());
 
 				logger.info(playlistsToMigrate.size()
 						+ " playlist(s) from the list were found in songbird and will be migrated: "
 						+ extractPlaylistNames(playlistsToMigrate));
 			}
 
+			if (skipDynamicLists) {
+				List<SongbirdPlaylist> dynamicPlaylists =
+						playlistsToMigrate.stream().filter(SongbirdPlaylist::isDynamic).collect(Collectors.toList());
+				if (!dynamicPlaylists.isEmpty()) {
+					logger.info(dynamicPlaylists.size() + " dynamic playlist(s) are skipped: "
+							+ extractPlaylistNames(dynamicPlaylists));
+					playlistsToMigrate.removeAll(dynamicPlaylists);
+				}
+			} else if (evaluateSmartLists) {
+				playlistsToMigrate = evaluateSmartLists(playlistsToMigrate);
+			}
+
 			// Migrate filtered playlists
-			for (SimpleMediaList simpleMediaList : playlistsToMigrate) {
-
-				// String playlistName = simpleMediaList.getList().getProperty(
-				// Property.PROP_MEDIA_LIST_NAME);
-
-				// if (logger.isDebugEnabled()) {
-				// // Print playlist info
-				// logger.debug("Playlist: ID: "
-				// + simpleMediaList.getList().getId()
-				// + ": \""
-				// + simpleMediaList.getList().getProperty(
-				// Property.PROP_MEDIA_LIST_NAME)
-				// + "\"; Type: "
-				// + simpleMediaList.getList().getListType());
-				// }
-
-				// Export Playlist
-				// try {
-				String playlistName = simpleMediaList.getList().getProperty(Property.PROP_MEDIA_LIST_NAME);
+			List<Callable<PlaylistExportResult>> exports = new LinkedList<Callable<PlaylistExportResult>>();
+			for (SongbirdPlaylist songbirdPlaylist : playlistsToMigrate) {
+				String playlistName = songbirdPlaylist.getName();
 				if (playlistName == null) {
-					logger.warn("Found playlist with no name. Skipping list. " + simpleMediaList);
+					logger.warn("Found playlist with no name. Skipping list. " + songbirdPlaylist);
 					continue;
 				}
 				if (playlistName.startsWith("&smart.defaultlist.")) {
 					playlistName = playlistName.substring("&smart.defaultlist.".length());
 				}
 
-				try {
-					List<String> omittedFiles =
-							playlistExporter.export(playlistNameToFileName(playlistName),
-									getMemberPaths(simpleMediaList), destinationFolder, playlistFormat,
-									useRelativePaths, skipDynamicLists);
-					String output = "Finished writing playlist " + playlistName;
-					if (omittedFiles != null && omittedFiles.size() > 0) {
-						output += ". The following files were omitted because they did not exist: " + EOL;
-						output += StringUtils.join(omittedFiles, EOL);
-					}
-					logger.info(output);
-				} catch (PlaylistExporterException e) {
-					logger.warn("Error creating playlist: " + e.getMessage(), e);
-				}
-				// } catch (IOException e) {
-				// logger.error("Unable to write playlist file", e);
-				// } catch (Exception e) {
-				// logger.error("Error while trying to write playlist file", e);
-				// } finally {
-				// try {
-				// out.close();
-				// } catch (IOException e) {
-				// logger.error("Unable to close playlist file", e);
-				// }
-				// }
-				// } catch (FileNotFoundException e) {
-				// logger.error("Unable to open playlist file for writing",
-				// e);
-				// }
+				final String finalPlaylistName = playlistName;
+				final String fileName = playlistNameToFileName(playlistName);
+				exports.add(() -> exportPlaylist(finalPlaylistName, fileName, songbirdPlaylist, destinationFolder,
+						playlistFormats, useRelativePaths, skipDynamicLists, manifest));
+			}
+			RunProgress progress = runExports(exports);
+			playlistsUpToDate = progress.getPlaylistsUpToDate();
+			invalidUrls.log();
+			if (archive != null) {
+				archive.finish();
 			}
+			if (manifest != null) {
+				saveManifest(manifest);
+			}
+			logger.debug("File status cache after export: " + fileStatusCache);
+			if (statistics != null) {
+				statistics.setFileStatusCacheStatistics(fileStatusCache.getHits(), fileStatusCache.getMisses());
+				statistics.setTotalNanos(System.nanoTime() - start);
+			}
+			return new ExportResult(progress.getResults(), playlistsUpToDate, progress.getPlaylistsNotWritten(),
+					null, System.nanoTime() - start);
 		} catch (SQLException e) {
 			/*
 			 * if the error message is "out of memory", it probably means no database file is found
 			 */
 			logger.error("Error reading songbird database", e);
+			return new ExportResult(null, playlistsUpToDate, 0, e, System.nanoTime() - start);
+		} catch (IOException e) {
+			logger.error("Error writing archive", e);
+			return new ExportResult(null, playlistsUpToDate, 0, e, System.nanoTime() - start);
+		}
+	}
+
+	/** Discards the archive of the current run, unless it was finished. Failures are only logged. */
+	private void closeArchive() {
+		if (archive == null) {
+			return;
+		}
+		try {
+			archive.close();
+		} catch (IOException e) {
+			logger.warn("Unable to delete incomplete archive: " + e.getMessage(), e);
+		} finally {
+			archive = null;
+		}
+	}
+
+	/**
+	 * Loads the manifest of an incremental export. If it cannot be read, an empty manifest is returned, leading to a
+	 * full export.
+	 * 
+	 * @param destinationFolder
+	 *            the folder to read the manifest from
+	 * @return the manifest, never <code>null</code>
+	 */
+	private static PlaylistManifest loadManifest(final String destinationFolder) {
+		try {
+			return PlaylistManifest.load(new File(destinationFolder));
+		} catch (IOException e) {
+			logger.warn("Unable to read manifest from " + destinationFolder + ". Exporting all playlists: "
+					+ e.getMessage(), e);
+			return new PlaylistManifest(new File(destinationFolder));
 		}
 	}
 
+	/**
+	 * Writes the manifest of an incremental export. Failures are only logged, as the playlists have been written.
+	 * 
+	 * @param manifest
+	 *            the manifest to write
+	 */
+	private static void saveManifest(final PlaylistManifest manifest) {
+		try {
+			manifest.save();
+		} catch (IOException e) {
+			logger.warn("Unable to write manifest to " + manifest.getDestinationFolder()
+					+ ". The next export will write all playlists: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Removes the media lists that no longer exist in songbird from the manifest and deletes their playlist files.
+	 * 
+	 * @param manifest
+	 *            the manifest of the destination folder
+	 * @param existingListIds
+	 *            the ids of all media lists in songbird
+	 */
+	private static void prune(final PlaylistManifest manifest, final Set<String> existingListIds) {
+		for (List<String> fileNames : manifest.retain(existingListIds).values()) {
+			for (String fileName : fileNames) {
+				deletePlaylistFile(manifest, fileName, "its playlist no longer exists in songbird");
+			}
+		}
+	}
+
+	/**
+	 * Deletes a playlist file that was written by a previous export.
+	 * 
+	 * @param manifest
+	 *            the manifest of the destination folder
+	 * @param fileName
+	 *            the name of the file within the destination folder
+	 * @param reason
+	 *            why the file is deleted, for logging
+	 */
+	private static void deletePlaylistFile(final PlaylistManifest manifest, final String fileName,
+			final String reason) {
+		File file = new File(manifest.getDestinationFolder(), fileName);
+		if (file.delete()) {
+			logger.info("Deleted " + file.getAbsolutePath() + " because " + reason);
+		} else if (file.exists()) {
+			logger.warn("Unable to delete " + file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Records the outcome of an export in the manifest. Successful exports are stored, failed ones are removed, so
+	 * they are retried next time. Exports that omitted members because their files did not exist are stored without
+	 * fingerprint, so they are written again until the files exist (e.g. after a network drive was unavailable).
+	 * 
+	 * @param manifest
+	 *            the manifest to update
+	 * @param listId
+	 *            the id of the songbird media list
+	 * @param playlistFileNames
+	 *            the names of the playlist files within the destination folder, one per format
+	 * @param fingerprint
+	 *            the fingerprint of the playlist, <code>null</code> if it could not be calculated
+	 * @param result
+	 *            the result of the export
+	 */
+	private void updateManifest(final PlaylistManifest manifest, final String listId,
+			final List<String> playlistFileNames, final String fingerprint, final PlaylistExportResult result) {
+		if (result.isSuccessful()) {
+			List<String> obsoleteFileNames =
+					manifest.put(listId, playlistFileNames, result.getOmittedFiles().isEmpty() ? fingerprint : null);
+			if (prune) {
+				for (String obsoleteFileName : obsoleteFileNames) {
+					deletePlaylistFile(manifest, obsoleteFileName,
+							"the playlist was renamed or is no longer exported in this format");
+				}
+			}
+		} else {
+			manifest.remove(listId);
+		}
+	}
+
+	/**
+	 * Creates the exporter for a playlist format. Line-based formats are written by
+	 * {@link PlaylistExporterImplNative}, all others by {@link PlaylistExporterImplLizzy}.
+	 * 
+	 * @param playlistFormat
+	 *            desired format for the playlist (e.g. "m3u" or "pls")
+	 * @param cache
+	 *            the file status cache the exporter uses
+	 * @return a new exporter instance
+	 */
+	public static PlaylistExporter createPlaylistExporter(final String playlistFormat, final FileStatusCache cache) {
+		return createPlaylistExporter(playlistFormat, cache, null);
+	}
+
+	/**
+	 * Creates the exporter for a playlist format that writes to an archive.
+	 * 
+	 * @param playlistFormat
+	 *            desired format for the playlist (e.g. "m3u" or "pls")
+	 * @param cache
+	 *            the file status cache the exporter uses
+	 * @param archive
+	 *            the archive to write to or <code>null</code> to write playlist files
+	 * @return a new exporter instance
+	 */
+	private static PlaylistExporter createPlaylistExporter(final String playlistFormat, final FileStatusCache cache,
+			final PlaylistArchive archive) {
+		if (PlaylistExporterImplNative.isSupported(playlistFormat)) {
+			return new PlaylistExporterImplNative(cache, archive);
+		}
+		return new PlaylistExporterImplLizzy(cache, archive);
+	}
+
+	/**
+	 * Exports a single playlist. Does not log anything, so the outcome can be logged in a deterministic order, no
+	 * matter which thread executed the export.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist in songbird
+	 * @param fileName
+	 *            the name of the playlist file
+	 * @param songbirdPlaylist
+	 *            the playlist to export
+	 * @param destinationFolder
+	 *            the folder to write the playlist to
+	 * @param playlistFormats
+	 *            desired formats for the playlist. The members are resolved once and written in all formats.
+	 * @param useRelativePaths
+	 *            <code>true</code> tries to create relative paths from the playlist members to the playlist file
+	 * @param skipDynamicLists
+	 *            <code>true</code> skips dynamic playlists
+	 * @param manifest
+	 *            the manifest of an incremental export or <code>null</code>. If the playlist is up to date, it is not
+	 *            written. Otherwise the outcome is recorded in the manifest.
+	 * @return the outcome of the export. Failures are returned, not thrown.
+	 */
+	private PlaylistExportResult exportPlaylist(final String playlistName, final String fileName,
+			final SongbirdPlaylist songbirdPlaylist, final String destinationFolder,
+			final List<String> playlistFormats, final boolean useRelativePaths, final boolean skipDynamicLists,
+			final PlaylistManifest manifest) {
+		// Reading the members is accounted to the file of the first format, the other formats only write
+		String statisticsKey = fileName + "." + playlistFormats.get(0);
+		List<String> playlistFileNames =
+				playlistFormats.stream().map(format -> fileName + "." + format).collect(Collectors.toList());
+		String fingerprint = null;
+		PlaylistExportResult result;
+		try {
+			long start = System.nanoTime();
+			List<String> memberUrls = readMemberUrls(songbirdPlaylist);
+			long loaded = System.nanoTime();
+			if (manifest != null) {
+				fingerprint = PlaylistManifest.fingerprint(memberUrls, playlistFormats, useRelativePaths);
+				if (manifest.isUpToDate(songbirdPlaylist.getId(), playlistFileNames, fingerprint)) {
+					return PlaylistExportResult.upToDate(playlistName, System.nanoTime() - start);
+				}
+			}
+			List<Lookup> lookups = fileStatusReader.readByUrl(memberUrls);
+			List<String> memberPaths = toMemberPaths(songbirdPlaylist, lookups);
+			if (statistics != null) {
+				// The files might have been checked by other threads, so the time is taken from the lookups
+				long checkNanos = lookups.stream().mapToLong(Lookup::getNanos).sum();
+				PlaylistStatistics playlistStatistics = statistics.playlist(statisticsKey);
+				playlistStatistics.addMemberLoading(loaded - start,
+						Math.max(0, System.nanoTime() - loaded - checkNanos));
+				playlistStatistics.addExistenceCheck(checkNanos);
+			}
+			if (memberPathMapper != null) {
+				memberPaths = memberPathMapper.map(playlistName, memberPaths);
+			}
+			List<String> omittedFiles =
+					playlistExporter.export(fileName, memberPaths, destinationFolder, useRelativePaths,
+							skipDynamicLists);
+			List<File> files =
+					playlistFileNames.stream().map(name -> new File(destinationFolder + File.separator + name))
+							.collect(Collectors.toList());
+			result =
+					new PlaylistExportResult(playlistName, omittedFiles, memberPaths.size()
+							- (omittedFiles != null ? omittedFiles.size() : 0), files, System.nanoTime() - start);
+		} catch (PlaylistExporterException e) {
+			result = new PlaylistExportResult(playlistName, e);
+		} catch (SQLException e) {
+			if (statistics != null) {
+				statistics.playlist(statisticsKey).setFailed();
+			}
+			result =
+					new PlaylistExportResult(playlistName, new PlaylistExporterException(playlistName
+							+ ": Unable to read playlist members from songbird database: " + e.getMessage(), e));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			result =
+					new PlaylistExportResult(playlistName, new PlaylistExporterException(playlistName
+							+ ": Interrupted while processing member files", e));
+		}
+		if (manifest != null) {
+			updateManifest(manifest, songbirdPlaylist.getId(), playlistFileNames, fingerprint, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs the playlist exports, either one after another or, if {@link #threads} is greater than one, concurrently
+	 * using a bounded thread pool. The results are always logged in the order of <code>exports</code>, each as soon as
+	 * it and all exports before it are done. Exports that did not start before the run was cancelled are skipped.
+	 * 
+	 * @param exports
+	 *            the exports to run
+	 * @return the progress of the finished run, containing the results
+	 */
+	private RunProgress runExports(final List<Callable<PlaylistExportResult>> exports) {
+		RunProgress progress = new RunProgress(exports.size());
+		if (threads <= 1 || exports.size() <= 1) {
+			for (Callable<PlaylistExportResult> export : exports) {
+				if (cancelled) {
+					break;
+				}
+				progress.playlistFinished(callExport(export));
+			}
+			progress.runFinished();
+			return progress;
+		}
+
+		int nThreads = Math.min(threads, exports.size());
+		ExecutorService executor = ThreadUtils.newBoundedThreadPool(nThreads, nThreads * QUEUED_EXPORTS_PER_THREAD,
+				"export");
+		try {
+			Deque<Future<PlaylistExportResult>> results = new ArrayDeque<Future<PlaylistExportResult>>();
+			for (Callable<PlaylistExportResult> export : exports) {
+				results.add(executor.submit(() -> cancelled ? null : callExport(export)));
+				/*
+				 * The submitting thread exports itself while the queue is full, so it only finishes submitting at the
+				 * end of the run. Report the exports that are done in the meantime, to keep progress live.
+				 */
+				finishExports(results, progress, false);
+			}
+			finishExports(results, progress, true);
+		} catch (InterruptedException e) {
+			logger.warn("Export interrupted. Not all playlists might have been written.");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// callExport() does not throw, so this is unexpected
+			logger.error("Error exporting playlists", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		progress.runFinished();
+		return progress;
+	}
+
+	/**
+	 * Reports the exports at the head of <code>results</code> that are done, in the order they were submitted.
+	 * 
+	 * @param results
+	 *            the exports that were submitted but not reported yet, in the order they were submitted. Reported
+	 *            exports are removed.
+	 * @param progress
+	 *            the progress to report to
+	 * @param wait
+	 *            <code>true</code> to wait for all exports, <code>false</code> to stop at the first export that is
+	 *            not done
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws ExecutionException
+	 *             if an export threw, which is unexpected
+	 */
+	private static void finishExports(final Deque<Future<PlaylistExportResult>> results,
+			final RunProgress progress, final boolean wait) throws InterruptedException, ExecutionException {
+		while (!results.isEmpty() && (wait || results.peek().isDone())) {
+			PlaylistExportResult playlistResult = results.poll().get();
+			if (playlistResult != null) {
+				progress.playlistFinished(playlistResult);
+			}
+		}
+	}
+
+	/**
+	 * Calls an export. Does not throw, as the callables created in
+	 * {@link #exportPlaylists(String, List, List, boolean, boolean)} return failures as result.
+	 * 
+	 * @param export
+	 *            the export to call
+	 * @return the result of the export
+	 */
+	private static PlaylistExportResult callExport(final Callable<PlaylistExportResult> export) {
+		try {
+			return export.call();
+		} catch (Exception e) {
+			// Wrap anything unexpected, so a single playlist can't stop the others
+			return new PlaylistExportResult(null, new PlaylistExporterException(e.getMessage(), e));
+		}
+	}
+
+	/**
+	 * Tracks the progress of the exports of a run, logs and collects the results and notifies
+	 * {@link #progressListener}. Only used by the thread running the exports.
+	 */
+	private final class RunProgress {
+		/** Number of playlists to export. */
+		private final int playlistsTotal;
+		/** Results of the playlists written so far (successfully or not), in the order they were logged. */
+		private final List<PlaylistExportResult> results = new ArrayList<PlaylistExportResult>();
+		/** When the exports started. */
+		private final long start = System.nanoTime();
+		/** Number of playlists finished so far. */
+		private int playlistsDone = 0;
+		/** Number of playlists that failed so far. */
+		private int playlistsFailed = 0;
+		/** Number of playlists that were not written so far, because they were up to date. */
+		private int playlistsUpToDate = 0;
+		/** Number of entries written so far. */
+		private long entries = 0;
+
+		/**
+		 * Starts tracking and notifies the listener.
+		 * 
+		 * @param playlistsTotal
+		 *            number of playlists to export
+		 */
+		RunProgress(final int playlistsTotal) {
+			this.playlistsTotal = playlistsTotal;
+			if (progressListener != null) {
+				progressListener.exportStarted(toExportProgress());
+			}
+		}
+
+		/**
+		 * Logs the outcome of a playlist export and notifies the listener.
+		 * 
+		 * @param result
+		 *            the outcome
+		 */
+		void playlistFinished(final PlaylistExportResult result) {
+			playlistsDone++;
+			if (result.isUpToDate()) {
+				logger.info("Playlist " + result.getPlaylistName() + " did not change since last export. Skipping.");
+				playlistsUpToDate++;
+				if (statistics != null) {
+					statistics.addSkippedPlaylist();
+				}
+				if (progressListener != null) {
+					progressListener.playlistFinished(result, toExportProgress());
+				}
+				return;
+			}
+			logResult(result);
+			/*
+			 * Called as soon as this and all previous playlists are done (see finishExports()), so the archive is
+			 * written while the remaining playlists are still being exported.
+			 */
+			if (archive != null && result.isSuccessful()) {
+				archive.publish(result.getFiles());
+			}
+			results.add(result);
+			if (!result.isSuccessful()) {
+				playlistsFailed++;
+			}
+			entries += result.getEntries();
+			if (progressListener != null) {
+				progressListener.playlistFinished(result, toExportProgress());
+			}
+		}
+
+		/** Logs whether the run was cancelled and notifies the listener. */
+		void runFinished() {
+			boolean runCancelled = playlistsDone < playlistsTotal && cancelled;
+			if (runCancelled) {
+				logger.warn("Export cancelled. " + (playlistsTotal - playlistsDone) + " of " + playlistsTotal
+						+ " playlist(s) were not written.");
+			}
+			if (progressListener != null) {
+				progressListener.exportFinished(toExportProgress(), runCancelled);
+			}
+		}
+
+		/** @return the results of the playlists finished so far */
+		List<PlaylistExportResult> getResults() {
+			return results;
+		}
+
+		/** @return the number of playlists that were not written because they were up to date */
+		int getPlaylistsUpToDate() {
+			return playlistsUpToDate;
+		}
+
+		/** @return the number of playlists that were not finished */
+		int getPlaylistsNotWritten() {
+			return playlistsTotal - playlistsDone;
+		}
+
+		/** @return a snapshot of the current progress */
+		private ExportProgress toExportProgress() {
+			return new ExportProgress(playlistsTotal, playlistsDone, playlistsFailed, entries, System.nanoTime()
+					- start);
+		}
+	}
+
+	/**
+	 * Collects the member URLs that could not be converted to paths during a run, so they are logged as one summary
+	 * grouped by reason instead of one stack trace per entry. The entries themselves are logged on debug level. Thread
+	 * safe.
+	 */
+	private static final class InvalidUrlSummary {
+		/** Number of URLs listed per reason. */
+		private static final int MAX_URLS_PER_REASON = 5;
+
+		/** Distinct URLs by reason. Guarded by <code>this</code>. */
+		private final Map<String, Set<String>> urlsByReason = new TreeMap<String, Set<String>>();
+		/** Playlists containing invalid URLs. Guarded by <code>this</code>. */
+		private final Set<String> playlists = new HashSet<String>();
+		/** Number of entries omitted. Guarded by <code>this</code>. */
+		private int entries = 0;
+
+		/**
+		 * Adds an entry that could not be converted.
+		 * 
+		 * @param playlistName
+		 *            the playlist containing the entry
+		 * @param contentUrl
+		 *            the URL of the entry
+		 * @param exception
+		 *            why it could not be converted
+		 */
+		void add(final String playlistName, final String contentUrl, final Exception exception) {
+			logger.debug(playlistName + ": Unable to add path to playlist: " + contentUrl + ". Omitting file...",
+					exception);
+			String reason =
+					exception instanceof URISyntaxException ? ((URISyntaxException) exception).getReason()
+							: exception.getMessage();
+			synchronized (this) {
+				urlsByReason.computeIfAbsent(String.valueOf(reason), key -> new LinkedHashSet<String>()).add(
+						contentUrl);
+				playlists.add(playlistName);
+				entries++;
+			}
+		}
+
+		/** Logs a warning listing the invalid URLs by reason, if any. */
+		synchronized void log() {
+			if (entries == 0) {
+				return;
+			}
+			StringBuilder output = new StringBuilder().append(entries).append(" playlist entries in ");
+			output.append(playlists.size()).append(
+					" playlist(s) were omitted because their URL could not be converted to a path:");
+			for (Map.Entry<String, Set<String>> reason : urlsByReason.entrySet()) {
+				Set<String> urls = reason.getValue();
+				output.append(EOL).append("  ").append(reason.getKey()).append(" (").append(urls.size())
+						.append(" URL(s)): ");
+				output.append(StringUtils.join(urls.stream().limit(MAX_URLS_PER_REASON).iterator(), ", "));
+				if (urls.size() > MAX_URLS_PER_REASON) {
+					output.append(", ...");
+				}
+			}
+			logger.warn(output.toString());
+		}
+	}
+
+	/**
+	 * Logs the outcome of a playlist export.
+	 * 
+	 * @param result
+	 *            the result to log
+	 */
+	private static void logResult(final PlaylistExportResult result) {
+		if (!result.isSuccessful()) {
+			logger.warn("Error creating playlist: " + result.getException().getMessage(), result.getException());
+			return;
+		}
+		String output = "Finished writing playlist " + result.getPlaylistName();
+		if (!result.getOmittedFiles().isEmpty()) {
+			output += ". The following files were omitted because they did not exist: " + EOL;
+			output += StringUtils.join(result.getOmittedFiles(), EOL);
+		}
+		logger.info(output);
+	}
+
 	/**
 	 * Checks a path, if it exists, is a directory and if the application can write to it.
 	 * 
@@ -262,47 +1155,149 @@ public final class ExportPlaylistsCommand {
 	}
 
 	/**
-	 * Aggregates a list of member absolute paths from a {@link SimpleMediaList}.
+	 * Aggregates a list of member absolute paths from a {@link SongbirdPlaylist}.
 	 * 
-	 * @param simpleMediaList
-	 *            the media list to read the member objects from
+	 * @param songbirdPlaylist
+	 *            the playlist to read the members from
 	 * @return all member files as absolute string Urls
+	 * @throws SQLException
+	 *             if the members cannot be read from the database
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the status of the member files
 	 */
-	private static List<String> getMemberPaths(final SimpleMediaList simpleMediaList) {
-		List<String> memberFiles = new LinkedList<String>();
+	List<String> getMemberPaths(final SongbirdPlaylist songbirdPlaylist) throws SQLException,
+			InterruptedException {
+		return toMemberPaths(songbirdPlaylist, fileStatusReader.readByUrl(readMemberUrls(songbirdPlaylist)));
+	}
 
-		for (MemberMediaItem member : simpleMediaList.getMembers()) {
-			MediaItem m = member.getMember();
+	/**
+	 * Reads the URLs of the members of a {@link SongbirdPlaylist} and applies the {@link #contentUrlRewriter}, if
+	 * any.
+	 * 
+	 * @param songbirdPlaylist
+	 *            the playlist to read the members from
+	 * @return the content URLs of the members in playlist order
+	 * @throws SQLException
+	 *             if the members cannot be read from the database
+	 */
+	private List<String> readMemberUrls(final SongbirdPlaylist songbirdPlaylist) throws SQLException {
+		List<String> memberUrls = new ArrayList<String>();
+		if (contentUrlRewriter == null) {
+			songbirdPlaylist.readMemberUrls(memberUrls::add);
+		} else {
+			songbirdPlaylist.readMemberUrls(url -> memberUrls.add(contentUrlRewriter.rewrite(url)));
+		}
+		return memberUrls;
+	}
 
-			try {
-				File file = new File(new URI(m.getContentUrl()));
-				/*
-				 * Make sure Songbird's slash-separated URI work (even on Windows). If this step is omitted,
-				 * relativize() is not going to work
-				 */
-				file = file.getCanonicalFile();
-				memberFiles.add(file.getAbsolutePath());
-			} catch (Exception e) {
-				logger.warn(simpleMediaList.getList().getProperty(Property.PROP_MEDIA_LIST_NAME)
-						+ ": Unable to add path to playlist: " + m.getContentUrl() + ": \"" + e.getMessage()
-						+ "\". Omitting file...", e);
-				// So we use the absolute path instead...
+	/**
+	 * Converts the status lookups of playlist members to absolute paths. URLs that could not be converted are omitted
+	 * and collected in {@link #invalidUrls}. The lookups are done using {@link #fileStatusReader} before, so the
+	 * existence checks of {@link #playlistExporter} are answered from {@link #fileStatusCache}.
+	 * 
+	 * @param songbirdPlaylist
+	 *            the playlist the members belong to, for logging
+	 * @param lookups
+	 *            the status lookups of the content URLs of the members
+	 * @return all member files as absolute string Urls, in the order of <code>lookups</code>
+	 */
+	private List<String> toMemberPaths(final SongbirdPlaylist songbirdPlaylist, final List<Lookup> lookups) {
+		List<String> memberFiles = new ArrayList<String>(lookups.size());
+		for (Lookup lookup : lookups) {
+			if (lookup.getException() != null) {
+				invalidUrls.add(songbirdPlaylist.getName(), lookup.getContentUrl(), lookup.getException());
+				continue;
 			}
+			/*
+			 * Make sure Songbird's slash-separated URI work (even on Windows). If the file is not canonicalized,
+			 * relativize() is not going to work
+			 */
+			memberFiles.add(lookup.getStatus().getCanonicalFile().getAbsolutePath());
 		}
 		return memberFiles;
 	}
 
 	/**
-	 * Returns only the names of a list of {@link SimpleMediaList}s.
+	 * Finds the playlists to export. If a {@link #sharedLibrary} is set, it is used. If a {@link #dbReader} is set and
+	 * {@link #compact}, the whole library is loaded into a {@link CompactLibrary}. If only a {@link #dbReader} is set,
+	 * the playlists are filtered by name within the database and their members are only read when the playlist is
+	 * exported. Otherwise all playlists including their members are loaded from {@link #songbirdDb}.
+	 * 
+	 * @param requestedPlaylistNames
+	 *            the names of the playlists to be exported. If <code>null</code> or empty, all playlists are returned.
+	 * @return the playlists, not necessarily filtered by <code>requestedPlaylistNames</code>
+	 * @throws SQLException
+	 *             if reading the database fails
+	 */
+	private List<SongbirdPlaylist> findPlaylists(final List<String> requestedPlaylistNames) throws SQLException {
+		if (sharedLibrary != null) {
+			compactLibrary = sharedLibrary;
+			return compactLibrary.findPlaylists(requestedPlaylistNames);
+		}
+		if (dbReader != null && compact) {
+			compactLibrary = CompactLibrary.load(dbReader);
+			logger.debug("Loaded " + compactLibrary);
+			return compactLibrary.findPlaylists(requestedPlaylistNames);
+		}
+		if (dbReader != null) {
+			return dbReader.findPlaylists(requestedPlaylistNames);
+		}
+		return songbirdDb.getPlayLists(true, true).stream().map(SimpleMediaListPlaylist::new)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Replaces the smart playlists by their evaluated members, if requested and possible.
+	 * 
+	 * @param playlists
+	 *            the playlists to export
+	 * @return the playlists to export, smart playlists evaluated
+	 * @throws SQLException
+	 *             if reading the database fails
+	 */
+	private List<SongbirdPlaylist> evaluateSmartLists(final List<SongbirdPlaylist> playlists) throws SQLException {
+		if (dbReader == null) {
+			logger.warn("Smart playlists can only be evaluated when reading the database directly. Exporting the "
+					+ "members stored by songbird.");
+			return playlists;
+		}
+		long evaluateStart = System.nanoTime();
+		List<SongbirdPlaylist> evaluated = new SmartPlaylistEngine(dbReader).evaluate(playlists);
+		if (statistics != null) {
+			statistics.addFindPlaylistsNanos(System.nanoTime() - evaluateStart);
+		}
+		return evaluated;
+	}
+
+	/**
+	 * Returns the ids of all playlists in songbird.
+	 * 
+	 * @param foundPlaylists
+	 *            the playlists returned by {@link #findPlaylists(List)}. Contains all ids, unless a {@link #dbReader}
+	 *            is set.
+	 * @return the ids of all playlists
+	 * @throws SQLException
+	 *             if reading the database fails
+	 */
+	private Set<String> findPlaylistIds(final List<SongbirdPlaylist> foundPlaylists) throws SQLException {
+		if (compactLibrary != null) {
+			return compactLibrary.findPlaylistIds();
+		}
+		if (dbReader != null) {
+			return dbReader.findPlaylistIds();
+		}
+		return foundPlaylists.stream().map(SongbirdPlaylist::getId).collect(Collectors.toSet());
+	}
+
+	/**
+	 * Returns only the names of a list of {@link SongbirdPlaylist}s.
 	 * 
 	 * @param playLists
 	 *            the list of playlist objects
 	 * @return the names of the playlist objects
 	 */
-	private String extractPlaylistNames(List<SimpleMediaList> playLists) {
-		return toStringQuoted(playLists.stream()
-				.map(playlist -> playlist.getList().getProperty(Property.PROP_MEDIA_LIST_NAME))
-				.collect(Collectors.toList()));
+	private String extractPlaylistNames(List<SongbirdPlaylist> playLists) {
+		return toStringQuoted(playLists.stream().map(SongbirdPlaylist::getName).collect(Collectors.toList()));
 	}
 
 	/**
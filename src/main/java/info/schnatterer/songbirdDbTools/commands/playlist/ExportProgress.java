@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Immutable snapshot of the progress of an export run, passed to {@link ExportProgressListener}s.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class ExportProgress {
+	/** Number of playlists that are exported in this run, including the ones that turn out to be up to date. */
+	private final int playlistsTotal;
+	/** Number of playlists finished so far, successfully or not. */
+	private final int playlistsDone;
+	/** Number of playlists that failed so far. */
+	private final int playlistsFailed;
+	/** Number of entries written so far. */
+	private final long entries;
+	/** Time since the exports started, in nanoseconds. */
+	private final long elapsedNanos;
+
+	/**
+	 * @param playlistsTotal
+	 *            number of playlists that are exported in this run
+	 * @param playlistsDone
+	 *            number of playlists finished so far, successfully or not
+	 * @param playlistsFailed
+	 *            number of playlists that failed so far
+	 * @param entries
+	 *            number of entries written so far
+	 * @param elapsedNanos
+	 *            time since the exports started, in nanoseconds
+	 */
+	public ExportProgress(final int playlistsTotal, final int playlistsDone, final int playlistsFailed,
+			final long entries, final long elapsedNanos) {
+		this.playlistsTotal = playlistsTotal;
+		this.playlistsDone = playlistsDone;
+		this.playlistsFailed = playlistsFailed;
+		this.entries = entries;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return the number of playlists that are exported in this run, including the ones that turn out to be up to
+	 *         date
+	 */
+	public int getPlaylistsTotal() {
+		return playlistsTotal;
+	}
+
+	/** @return the number of playlists finished so far, successfully or not */
+	public int getPlaylistsDone() {
+		return playlistsDone;
+	}
+
+	/** @return the number of playlists that failed so far */
+	public int getPlaylistsFailed() {
+		return playlistsFailed;
+	}
+
+	/** @return the number of entries written so far */
+	public long getEntries() {
+		return entries;
+	}
+
+	/** @return the time since the exports started, in milliseconds */
+	public long getElapsedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+	}
+
+	/** @return the number of entries written per second so far, 0 if nothing was written */
+	public double getEntriesPerSecond() {
+		return elapsedNanos > 0 ? entries * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+	}
+
+	/**
+	 * Estimates the time until all playlists are exported, assuming the remaining playlists take as long as the
+	 * finished ones on average.
+	 * 
+	 * @return the estimated remaining time in milliseconds, -1 if no playlist is finished yet
+	 */
+	public long getEtaMillis() {
+		if (playlistsDone == 0) {
+			return -1;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(elapsedNanos / playlistsDone * (playlistsTotal - playlistsDone));
+	}
+
+	@Override
+	public String toString() {
+		return "ExportProgress [playlistsDone=" + playlistsDone + "/" + playlistsTotal + ", playlistsFailed="
+				+ playlistsFailed + ", entries=" + entries + ", elapsedMillis=" + getElapsedMillis() + "]";
+	}
+}
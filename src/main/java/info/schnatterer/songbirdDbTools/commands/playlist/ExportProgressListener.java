@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+/**
+ * Is notified about the progress of an export run, see
+ * {@link ExportPlaylistsCommand#setProgressListener(ExportProgressListener)}. All methods are called by the thread
+ * that started the export, in order, so implementations don't need to be thread safe. They should return quickly.
+ * 
+ * @author schnatterer
+ * 
+ */
+public interface ExportProgressListener {
+
+	/**
+	 * Called once the playlists to export are known.
+	 * 
+	 * @param progress
+	 *            the progress, nothing done yet
+	 */
+	void exportStarted(ExportProgress progress);
+
+	/**
+	 * Called each time a playlist is finished, successfully or not.
+	 * 
+	 * @param result
+	 *            the outcome of the playlist's export
+	 * @param progress
+	 *            the progress including this playlist
+	 */
+	void playlistFinished(PlaylistExportResult result, ExportProgress progress);
+
+	/**
+	 * Called when the run is over.
+	 * 
+	 * @param progress
+	 *            the final progress
+	 * @param cancelled
+	 *            <code>true</code> if the run was cancelled before all playlists were exported
+	 */
+	void exportFinished(ExportProgress progress, boolean cancelled);
+}
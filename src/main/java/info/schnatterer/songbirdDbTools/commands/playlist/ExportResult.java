@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable outcome of an export run, returned by
+ * {@link ExportPlaylistsCommand#exportPlaylists(String, List, List, boolean, boolean)}. Contains the results of all
+ * playlists written, in the order they were exported, as well as the playlists that were skipped.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class ExportResult {
+	/** Results of the playlists that were exported, successfully or not. */
+	private final List<PlaylistExportResult> playlists;
+	/** Number of playlists that were not written because they were up to date. */
+	private final int playlistsUpToDate;
+	/** Number of playlists that were not written because the run was cancelled. */
+	private final int playlistsCancelled;
+	/** The exception that stopped the run before all playlists were exported or <code>null</code>. */
+	private final Exception exception;
+	/** Duration of the whole run in nanoseconds. */
+	private final long totalNanos;
+
+	/**
+	 * @param playlists
+	 *            results of the playlists that were exported, may be <code>null</code>
+	 * @param playlistsUpToDate
+	 *            number of playlists that were not written because they were up to date
+	 * @param playlistsCancelled
+	 *            number of playlists that were not written because the run was cancelled
+	 * @param exception
+	 *            the exception that stopped the run or <code>null</code>
+	 * @param totalNanos
+	 *            duration of the whole run in nanoseconds
+	 */
+	ExportResult(final List<PlaylistExportResult> playlists, final int playlistsUpToDate,
+			final int playlistsCancelled, final Exception exception, final long totalNanos) {
+		this.playlists =
+				playlists != null ? Collections.unmodifiableList(playlists) : Collections
+						.<PlaylistExportResult> emptyList();
+		this.playlistsUpToDate = playlistsUpToDate;
+		this.playlistsCancelled = playlistsCancelled;
+		this.exception = exception;
+		this.totalNanos = totalNanos;
+	}
+
+	/** @return the results of the playlists that were exported, successfully or not. Never <code>null</code>. */
+	public List<PlaylistExportResult> getPlaylists() {
+		return playlists;
+	}
+
+	/** @return the results of the playlists that could not be written. Never <code>null</code>. */
+	public List<PlaylistExportResult> getFailedPlaylists() {
+		return playlists.stream().filter(playlist -> !playlist.isSuccessful()).collect(Collectors.toList());
+	}
+
+	/** @return all playlist files written in this run. Never <code>null</code>. */
+	public List<File> getWrittenFiles() {
+		return playlists.stream().flatMap(playlist -> playlist.getFiles().stream()).collect(Collectors.toList());
+	}
+
+	/** @return the number of playlists that were not written because they were up to date */
+	public int getPlaylistsUpToDate() {
+		return playlistsUpToDate;
+	}
+
+	/** @return the number of playlists that were not written because the run was cancelled */
+	public int getPlaylistsCancelled() {
+		return playlistsCancelled;
+	}
+
+	/** @return <code>true</code> if the run was cancelled before all playlists were written */
+	public boolean isCancelled() {
+		return playlistsCancelled > 0;
+	}
+
+	/**
+	 * @return the exception that stopped the run before the playlists were exported (e.g. the destination folder is
+	 *         not writable or the database could not be read) or <code>null</code>. Failures of single playlists are
+	 *         contained in {@link #getFailedPlaylists()}.
+	 */
+	public Exception getException() {
+		return exception;
+	}
+
+	/** @return <code>true</code> if the run was not stopped and all playlists exported were written */
+	public boolean isSuccessful() {
+		return exception == null && !isCancelled() && getFailedPlaylists().isEmpty();
+	}
+
+	/** @return the duration of the whole run in milliseconds */
+	public long getTotalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "ExportResult [playlists=" + playlists.size() + ", failed=" + getFailedPlaylists().size()
+				+ ", upToDate=" + playlistsUpToDate + ", cancelled=" + playlistsCancelled + ", exception="
+				+ exception + ", totalMillis=" + getTotalMillis() + "]";
+	}
+}
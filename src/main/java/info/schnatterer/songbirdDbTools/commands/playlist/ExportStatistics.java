@@ -0,0 +1,506 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import info.schnatterer.songbirdDbTools.Utils.FormatUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Collects timings and counters of an export run, in total and per playlist file. Can be printed as table or written
+ * as JSON or Prometheus text format. Thread-safe, so it can be filled by concurrent exports.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class ExportStatistics {
+	/** Prefix of all metric names written in Prometheus text format. */
+	private static final String PROMETHEUS_PREFIX = "songbirddbtools_export_";
+
+	/** Time spent reading the playlists from the database before exporting them. */
+	private final AtomicLong findPlaylistsNanos = new AtomicLong();
+	/** Wall clock time of the whole export run. */
+	private final AtomicLong totalNanos = new AtomicLong();
+	/** Number of playlists that were skipped, because they did not change. */
+	private final AtomicInteger skippedPlaylists = new AtomicInteger();
+	/** Number of file status lookups that were answered from the cache. */
+	private final AtomicLong fileStatusCacheHits = new AtomicLong();
+	/** Number of file status lookups that had to access the file system. */
+	private final AtomicLong fileStatusCacheMisses = new AtomicLong();
+	/** Statistics per playlist file, sorted by file name. */
+	private final Map<String, PlaylistStatistics> playlists = new ConcurrentSkipListMap<String, PlaylistStatistics>();
+
+	/**
+	 * Returns the statistics of a playlist file, creating them if necessary.
+	 * 
+	 * @param fileName
+	 *            the name of the playlist file (including the extension of the format)
+	 * @return the statistics of the playlist, never <code>null</code>
+	 */
+	public PlaylistStatistics playlist(final String fileName) {
+		return playlists.computeIfAbsent(fileName, PlaylistStatistics::new);
+	}
+
+	/** @return the statistics of all playlists that were exported, sorted by file name */
+	public List<PlaylistStatistics> getPlaylists() {
+		return new ArrayList<PlaylistStatistics>(playlists.values());
+	}
+
+	/**
+	 * @param nanos
+	 *            time spent finding the playlists in the database
+	 */
+	public void addFindPlaylistsNanos(final long nanos) {
+		findPlaylistsNanos.addAndGet(nanos);
+	}
+
+	/** @return time spent finding the playlists in the database, in nanoseconds */
+	public long getFindPlaylistsNanos() {
+		return findPlaylistsNanos.get();
+	}
+
+	/**
+	 * @param nanos
+	 *            wall clock time of the whole export run
+	 */
+	public void setTotalNanos(final long nanos) {
+		totalNanos.set(nanos);
+	}
+
+	/** @return wall clock time of the whole export run, in nanoseconds */
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/** Counts a playlist that was not exported because it did not change since the last export. */
+	public void addSkippedPlaylist() {
+		skippedPlaylists.incrementAndGet();
+	}
+
+	/** @return the number of playlists that were not exported because they did not change */
+	public int getSkippedPlaylists() {
+		return skippedPlaylists.get();
+	}
+
+	/**
+	 * @param hits
+	 *            number of file status lookups that were answered from the cache
+	 * @param misses
+	 *            number of file status lookups that had to access the file system
+	 */
+	public void setFileStatusCacheStatistics(final long hits, final long misses) {
+		fileStatusCacheHits.set(hits);
+		fileStatusCacheMisses.set(misses);
+	}
+
+	/**
+	 * Sums up the statistics of all playlists.
+	 * 
+	 * @return a new instance containing the sums, named <code>total</code>
+	 */
+	public PlaylistStatistics getPlaylistTotals() {
+		PlaylistStatistics total = new PlaylistStatistics("total");
+		for (PlaylistStatistics playlist : playlists.values()) {
+			total.add(playlist);
+		}
+		return total;
+	}
+
+	/**
+	 * Formats the statistics as a table with one row per playlist and a row containing the totals.
+	 * 
+	 * @return a multi-line string
+	 */
+	public String toTable() {
+		String rowFormat = "%-30s %10s %10s %10s %10s %10s %8s %8s %12s%n";
+		StringBuilder table = new StringBuilder();
+		table.append(String.format(Locale.ROOT, rowFormat, "Playlist", "Status", "DB [ms]", "Paths [ms]",
+				"Check [ms]", "Write [ms]", "Entries", "Omitted", "Bytes"));
+		for (PlaylistStatistics playlist : playlists.values()) {
+			appendRow(table, rowFormat, playlist);
+		}
+		appendRow(table, rowFormat, getPlaylistTotals());
+		table.append(String.format(Locale.ROOT, "Finding playlists: %d ms, total: %d ms, skipped playlists: %d, "
+				+ "file status cache hits/misses: %d/%d", millis(getFindPlaylistsNanos()), millis(getTotalNanos()),
+				getSkippedPlaylists(), fileStatusCacheHits.get(), fileStatusCacheMisses.get()));
+		return table.toString();
+	}
+
+	/**
+	 * Writes the statistics to a file. The format depends on the extension: files ending with <code>.json</code> are
+	 * written as JSON, all others in Prometheus text format.
+	 * 
+	 * @param file
+	 *            the file to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void write(final File file) throws IOException {
+		try (Writer writer =
+				new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+						StandardCharsets.UTF_8))) {
+			if (file.getName().toLowerCase(Locale.ROOT).endsWith(".json")) {
+				writeJson(writer);
+			} else {
+				writePrometheus(writer);
+			}
+		}
+	}
+
+	/**
+	 * Writes the statistics as JSON object. Times are written in milliseconds.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writeJson(final Writer writer) throws IOException {
+		writer.write("{\n");
+		writer.write("  \"findPlaylistsMillis\": " + millis(getFindPlaylistsNanos()) + ",\n");
+		writer.write("  \"totalMillis\": " + millis(getTotalNanos()) + ",\n");
+		writer.write("  \"skippedPlaylists\": " + getSkippedPlaylists() + ",\n");
+		writer.write("  \"fileStatusCacheHits\": " + fileStatusCacheHits.get() + ",\n");
+		writer.write("  \"fileStatusCacheMisses\": " + fileStatusCacheMisses.get() + ",\n");
+		writer.write("  \"total\": ");
+		writeJson(writer, getPlaylistTotals());
+		writer.write(",\n  \"playlists\": [");
+		String separator = "\n    ";
+		for (PlaylistStatistics playlist : playlists.values()) {
+			writer.write(separator);
+			writeJson(writer, playlist);
+			separator = ",\n    ";
+		}
+		writer.write("\n  ]\n}\n");
+	}
+
+	/**
+	 * Writes the statistics in Prometheus text exposition format. Times are written in seconds, playlist values are
+	 * labeled with the playlist file name.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writePrometheus(final Writer writer) throws IOException {
+		writeGauge(writer, "find_playlists_seconds", "Time spent finding the playlists in the database",
+				seconds(getFindPlaylistsNanos()));
+		writeGauge(writer, "duration_seconds", "Wall clock time of the export", seconds(getTotalNanos()));
+		writeGauge(writer, "skipped_playlists", "Playlists that did not change since the last export",
+				String.valueOf(getSkippedPlaylists()));
+		writeGauge(writer, "file_status_cache_hits", "File status lookups answered from the cache",
+				String.valueOf(fileStatusCacheHits.get()));
+		writeGauge(writer, "file_status_cache_misses", "File status lookups that accessed the file system",
+				String.valueOf(fileStatusCacheMisses.get()));
+
+		List<PlaylistStatistics> rows = getPlaylists();
+		writePlaylistMetric(writer, rows, "db_load_seconds", "Time spent reading playlist members",
+				playlist -> seconds(playlist.getDbLoadNanos()));
+		writePlaylistMetric(writer, rows, "path_resolution_seconds", "Time spent resolving member paths",
+				playlist -> seconds(playlist.getPathResolutionNanos()));
+		writePlaylistMetric(writer, rows, "existence_check_seconds", "Time spent checking member files",
+				playlist -> seconds(playlist.getExistenceCheckNanos()));
+		writePlaylistMetric(writer, rows, "write_seconds", "Time spent writing the playlist file",
+				playlist -> seconds(playlist.getWriteNanos()));
+		writePlaylistMetric(writer, rows, "entries_written", "Entries written to the playlist file",
+				playlist -> String.valueOf(playlist.getEntriesWritten()));
+		writePlaylistMetric(writer, rows, "entries_omitted", "Members omitted because they did not exist",
+				playlist -> String.valueOf(playlist.getEntriesOmitted()));
+		writePlaylistMetric(writer, rows, "bytes_written", "Size of the playlist file",
+				playlist -> String.valueOf(playlist.getBytesWritten()));
+		writePlaylistMetric(writer, rows, "failed", "1 if the export of the playlist failed",
+				playlist -> playlist.isFailed() ? "1" : "0");
+	}
+
+	/**
+	 * Writes a single metric without labels in Prometheus text format.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @param name
+	 *            the name of the metric without {@link #PROMETHEUS_PREFIX}
+	 * @param help
+	 *            the description of the metric
+	 * @param value
+	 *            the formatted value
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private static void writeGauge(final Writer writer, final String name, final String help, final String value)
+			throws IOException {
+		writer.write("# HELP " + PROMETHEUS_PREFIX + name + " " + help + "\n");
+		writer.write("# TYPE " + PROMETHEUS_PREFIX + name + " gauge\n");
+		writer.write(PROMETHEUS_PREFIX + name + " " + value + "\n");
+	}
+
+	/**
+	 * Writes a metric with one sample per playlist in Prometheus text format.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @param rows
+	 *            the playlists
+	 * @param name
+	 *            the name of the metric without {@link #PROMETHEUS_PREFIX}
+	 * @param help
+	 *            the description of the metric
+	 * @param value
+	 *            returns the formatted value of a playlist
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private static void writePlaylistMetric(final Writer writer, final List<PlaylistStatistics> rows,
+			final String name, final String help, final Function<PlaylistStatistics, String> value)
+			throws IOException {
+		writer.write("# HELP " + PROMETHEUS_PREFIX + "playlist_" + name + " " + help + "\n");
+		writer.write("# TYPE " + PROMETHEUS_PREFIX + "playlist_" + name + " gauge\n");
+		for (PlaylistStatistics playlist : rows) {
+			writer.write(PROMETHEUS_PREFIX + "playlist_" + name + "{playlist=\""
+					+ escapeLabel(playlist.getFileName()) + "\"} " + value.apply(playlist) + "\n");
+		}
+	}
+
+	/**
+	 * Writes the statistics of a playlist as JSON object.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @param playlist
+	 *            the statistics to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private static void writeJson(final Writer writer, final PlaylistStatistics playlist) throws IOException {
+		writer.write("{\"playlist\": " + FormatUtils.json(playlist.getFileName()) + ", \"failed\": "
+				+ playlist.isFailed() + ", \"dbLoadMillis\": " + millis(playlist.getDbLoadNanos())
+				+ ", \"pathResolutionMillis\": " + millis(playlist.getPathResolutionNanos())
+				+ ", \"existenceCheckMillis\": " + millis(playlist.getExistenceCheckNanos()) + ", \"writeMillis\": "
+				+ millis(playlist.getWriteNanos()) + ", \"entriesWritten\": " + playlist.getEntriesWritten()
+				+ ", \"entriesOmitted\": " + playlist.getEntriesOmitted() + ", \"bytesWritten\": "
+				+ playlist.getBytesWritten() + "}");
+	}
+
+	/**
+	 * Appends a row to the table created by {@link #toTable()}.
+	 * 
+	 * @param table
+	 *            the table to append to
+	 * @param rowFormat
+	 *            the format of a row
+	 * @param playlist
+	 *            the statistics to append
+	 */
+	private static void appendRow(final StringBuilder table, final String rowFormat,
+			final PlaylistStatistics playlist) {
+		table.append(String.format(Locale.ROOT, rowFormat, playlist.getFileName(), playlist.isFailed() ? "failed"
+				: "ok", millis(playlist.getDbLoadNanos()), millis(playlist.getPathResolutionNanos()),
+				millis(playlist.getExistenceCheckNanos()), millis(playlist.getWriteNanos()),
+				playlist.getEntriesWritten(), playlist.getEntriesOmitted(), playlist.getBytesWritten()));
+	}
+
+	/**
+	 * Escapes a string for use as Prometheus label value.
+	 * 
+	 * @param value
+	 *            the string to escape
+	 * @return the escaped string
+	 */
+	private static String escapeLabel(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * @param nanos
+	 *            a duration in nanoseconds
+	 * @return the duration in milliseconds
+	 */
+	private static long millis(final long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * @param nanos
+	 *            a duration in nanoseconds
+	 * @return the duration in seconds, formatted for Prometheus
+	 */
+	private static String seconds(final long nanos) {
+		return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+	}
+
+	/**
+	 * Timings and counters of a single playlist file. Each playlist is exported by a single thread, the methods are
+	 * synchronized anyway, so the values can safely be read by other threads.
+	 */
+	public static final class PlaylistStatistics {
+		/** Name of the playlist file (including the extension). */
+		private final String fileName;
+		/** Time spent reading the members from the database. */
+		private long dbLoadNanos;
+		/** Time spent converting the member URLs to canonical paths. */
+		private long pathResolutionNanos;
+		/** Time spent checking the existence of the member files, summed up over all threads that checked them. */
+		private long existenceCheckNanos;
+		/** Time spent exporting, apart from {@link #existenceCheckNanos}. */
+		private long writeNanos;
+		/** Number of members written to the playlist file. */
+		private long entriesWritten;
+		/** Number of members omitted because they did not exist. */
+		private long entriesOmitted;
+		/** Size of the playlist file. */
+		private long bytesWritten;
+		/** <code>true</code> if the export failed. */
+		private boolean failed;
+
+		/**
+		 * @param fileName
+		 *            name of the playlist file (including the extension)
+		 */
+		PlaylistStatistics(final String fileName) {
+			this.fileName = fileName;
+		}
+
+		/**
+		 * Records the time spent reading the members and resolving their paths.
+		 * 
+		 * @param dbLoad
+		 *            time spent reading the members from the database, in nanoseconds
+		 * @param pathResolution
+		 *            time spent converting the member URLs to canonical paths, in nanoseconds
+		 */
+		synchronized void addMemberLoading(final long dbLoad, final long pathResolution) {
+			dbLoadNanos += dbLoad;
+			pathResolutionNanos += pathResolution;
+		}
+
+		/**
+		 * Records time spent checking the existence of the member files before writing, e.g. by the I/O threads of a
+		 * {@link info.schnatterer.songbirdDbTools.Utils.FileStatusBatchReader}.
+		 * 
+		 * @param existenceCheck
+		 *            time spent checking the existence of the member files, in nanoseconds. Summed up over all
+		 *            threads, so it might exceed the wall clock time.
+		 */
+		synchronized void addExistenceCheck(final long existenceCheck) {
+			existenceCheckNanos += existenceCheck;
+		}
+
+		/**
+		 * Records the outcome of writing the playlist file.
+		 * 
+		 * @param existenceCheck
+		 *            time spent checking the existence of the member files, in nanoseconds
+		 * @param write
+		 *            remaining time spent exporting, in nanoseconds
+		 * @param written
+		 *            number of members written to the playlist file
+		 * @param omitted
+		 *            number of members omitted because they did not exist
+		 * @param bytes
+		 *            size of the playlist file
+		 */
+		synchronized void addExport(final long existenceCheck, final long write, final long written,
+				final long omitted, final long bytes) {
+			existenceCheckNanos += existenceCheck;
+			writeNanos += write;
+			entriesWritten += written;
+			entriesOmitted += omitted;
+			bytesWritten += bytes;
+		}
+
+		/** Marks the export of this playlist as failed. */
+		synchronized void setFailed() {
+			failed = true;
+		}
+
+		/**
+		 * Adds the values of another instance to this one.
+		 * 
+		 * @param other
+		 *            the instance to add
+		 */
+		private void add(final PlaylistStatistics other) {
+			synchronized (other) {
+				addMemberLoading(other.dbLoadNanos, other.pathResolutionNanos);
+				addExport(other.existenceCheckNanos, other.writeNanos, other.entriesWritten, other.entriesOmitted,
+						other.bytesWritten);
+				if (other.failed) {
+					setFailed();
+				}
+			}
+		}
+
+		/** @return the name of the playlist file (including the extension) */
+		public String getFileName() {
+			return fileName;
+		}
+
+		/** @return time spent reading the members from the database, in nanoseconds */
+		public synchronized long getDbLoadNanos() {
+			return dbLoadNanos;
+		}
+
+		/** @return time spent converting the member URLs to canonical paths, in nanoseconds */
+		public synchronized long getPathResolutionNanos() {
+			return pathResolutionNanos;
+		}
+
+		/** @return time spent checking the existence of the member files, summed up over all threads, in nanoseconds */
+		public synchronized long getExistenceCheckNanos() {
+			return existenceCheckNanos;
+		}
+
+		/** @return time spent exporting apart from checking the member files, in nanoseconds */
+		public synchronized long getWriteNanos() {
+			return writeNanos;
+		}
+
+		/** @return number of members written to the playlist file */
+		public synchronized long getEntriesWritten() {
+			return entriesWritten;
+		}
+
+		/** @return number of members omitted because they did not exist */
+		public synchronized long getEntriesOmitted() {
+			return entriesOmitted;
+		}
+
+		/** @return size of the playlist file in bytes */
+		public synchronized long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		/** @return <code>true</code> if the export of the playlist failed */
+		public synchronized boolean isFailed() {
+			return failed;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import java.util.List;
+
+/**
+ * Maps the member paths of a playlist before they are written to the playlist file, e.g. to the location of copies
+ * of the member files. See {@link ExportPlaylistsCommand#setMemberPathMapper(MemberPathMapper)}.
+ * 
+ * @author schnatterer
+ * 
+ */
+public interface MemberPathMapper {
+
+	/**
+	 * Maps the member paths of a playlist. Called concurrently, if several playlists are exported concurrently.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param absoluteMemberPaths
+	 *            the canonical absolute paths of the members, in playlist order
+	 * @return the absolute paths to write to the playlist instead, in the same order. Paths that do not exist are
+	 *         omitted from the playlist, as usual.
+	 * @throws InterruptedException
+	 *             if interrupted while mapping
+	 */
+	List<String> map(String playlistName, List<String> absoluteMemberPaths) throws InterruptedException;
+}
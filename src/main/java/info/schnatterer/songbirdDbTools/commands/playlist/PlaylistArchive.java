@@ -0,0 +1,565 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import info.schnatterer.songbirdDbTools.Utils.AtomicFileOutputStream;
+import info.schnatterer.songbirdDbTools.Utils.CommittableOutputStream;
+import info.schnatterer.songbirdDbTools.Utils.ResourceUtils;
+import info.schnatterer.songbirdDbTools.Utils.TarOutputStream;
+import info.schnatterer.songbirdDbTools.Utils.ThreadUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archive (zip or tar.gz) the playlist files of an export are written to instead of a folder, optionally together
+ * with the member files. See {@link ExportPlaylistsCommand#exportPlaylists(String, List, List, boolean, boolean)}.
+ * 
+ * The exporters write each playlist file to memory using {@link #open(String)}. Once a playlist is finished, it is
+ * {@link #publish(List) published} in the order of the export, no matter which thread exported it, as soon as all
+ * playlists before it are finished as well. A single writer thread then compresses the playlist files and streams the
+ * member files they reference from disk into the archive. So compression does not hold up resolving the members of the
+ * next playlists, no temporary files are needed and the order of the entries is deterministic: Each playlist file is
+ * followed by the member files that were not contained in a previous playlist, in playlist order. Member files are
+ * stored without compression, as audio files hardly compress.
+ * 
+ * Like playlist files, the archive itself is written next to its final location and only replaces an existing
+ * archive when {@link #finish()} succeeds.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class PlaylistArchive implements AutoCloseable {
+	/** Folder within the archive containing the member files. */
+	public static final String MEDIA_FOLDER = "media";
+
+	/** Size of the buffer between the archive and the file. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Separates the elements of entry names. */
+	private static final String SEPARATOR = "/";
+
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(PlaylistArchive.class);
+
+	/** The archive file. */
+	private final File archiveFile;
+	/** The folder the playlist files are located in, as far as the exporters are concerned. */
+	private final File folder;
+	/** Store the member files in the archive? */
+	private final boolean includeMedia;
+	/** Modification time of the playlist entries. */
+	private final long created = System.currentTimeMillis();
+	/** The archive file, replaced on {@link #finish()}. */
+	private final AtomicFileOutputStream fileOut;
+	/** Writes the entries, only used by {@link #writer}. */
+	private final EntryWriter entryWriter;
+	/** Writes the entries to {@link #entryWriter} one after another, in the order they were published. */
+	private final ExecutorService writer;
+	/** Playlist files that were exported but not published yet, by entry name. */
+	private final ConcurrentMap<String, PendingPlaylist> pending = new ConcurrentHashMap<String, PendingPlaylist>();
+	/** Names of the member files written. Only used by {@link #writer}. */
+	private final Set<String> mediaWritten = new HashSet<String>();
+
+	/** The first failure of {@link #writer}. Once set, nothing is written anymore. */
+	private volatile IOException failure = null;
+	/** Number of playlist files written. Only used by {@link #writer}. */
+	private int playlistFiles = 0;
+	/** Number of member files written. Only used by {@link #writer}. */
+	private int mediaFiles = 0;
+	/** Number of bytes of member files written. Only used by {@link #writer}. */
+	private long mediaBytes = 0;
+	/** Was {@link #finish()} called successfully? */
+	private boolean finished = false;
+
+	/**
+	 * Creates the archive. The format is determined by the extension of the file.
+	 * 
+	 * @param archiveFile
+	 *            the archive to write, see {@link #isArchive(String)}
+	 * @param includeMedia
+	 *            <code>true</code> to store the member files in {@link #MEDIA_FOLDER} within the archive and reference
+	 *            them in the playlists. <code>false</code> to write the paths of the member files as usual.
+	 * @throws IOException
+	 *             if the archive cannot be created
+	 */
+	public PlaylistArchive(final File archiveFile, final boolean includeMedia) throws IOException {
+		Format format = Format.fromFileName(archiveFile.getName());
+		if (format == null) {
+			throw new IOException("Unsupported archive format: " + archiveFile);
+		}
+		this.archiveFile = archiveFile.getAbsoluteFile();
+		this.includeMedia = includeMedia;
+		folder = this.archiveFile.getParentFile().getCanonicalFile();
+		fileOut = new AtomicFileOutputStream(this.archiveFile);
+		OutputStream out = new BufferedOutputStream(fileOut, BUFFER_SIZE);
+		entryWriter = format == Format.ZIP ? new ZipEntryWriter(out) : new TarGzEntryWriter(out);
+		writer = ThreadUtils.newFixedThreadPool(1, "archive");
+	}
+
+	/**
+	 * @param destination
+	 *            the destination of an export
+	 * @return <code>true</code> if the destination is an archive (ending in <code>.zip</code>, <code>.tar.gz</code>
+	 *         or <code>.tgz</code>), <code>false</code> if it is a folder
+	 */
+	public static boolean isArchive(final String destination) {
+		return Format.fromFileName(destination) != null;
+	}
+
+	/** @return the folder the exporters write the playlist files to. Playlist files are stored in the top level. */
+	public File getFolder() {
+		return folder;
+	}
+
+	/** @return <code>true</code> if the member files are stored in the archive */
+	public boolean isIncludeMedia() {
+		return includeMedia;
+	}
+
+	/**
+	 * Opens a playlist file for writing. It is kept in memory until it is published.
+	 * 
+	 * @param playlistFileName
+	 *            the name of the playlist file, as passed to {@link #publish(List)}
+	 * @return the stream to write the playlist to. The playlist is only kept if committed.
+	 */
+	public CommittableOutputStream open(final String playlistFileName) {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		return new CommittableOutputStream(content) {
+			@Override
+			public void commit() throws IOException {
+				flush();
+				pending.computeIfAbsent(playlistFileName, PendingPlaylist::new).content = content.toByteArray();
+			}
+		};
+	}
+
+	/**
+	 * Adds a member file to a playlist file. Only if {@link #isIncludeMedia()}. The member file is stored in the
+	 * archive when the playlist is published, unless it has been stored before.
+	 * 
+	 * @param playlistFileName
+	 *            the name of the playlist file, as passed to {@link #publish(List)}
+	 * @param member
+	 *            the member file
+	 * @return the path to write to the playlist, relative to the playlist file
+	 */
+	public String addMedia(final String playlistFileName, final File member) {
+		String entryName =
+				MEDIA_FOLDER + SEPARATOR
+						+ String.join(SEPARATOR, ResourceUtils.getMirroredPathElements(member.getAbsolutePath(), null));
+		pending.computeIfAbsent(playlistFileName, PendingPlaylist::new).addMedia(entryName, member);
+		return entryName;
+	}
+
+	/**
+	 * Hands the playlist files of a playlist that was exported successfully to the writer thread. Playlists must be
+	 * published in the same order in each run, to get the same archive.
+	 * 
+	 * @param playlistFiles
+	 *            the playlist files, one per format. Stored in the top level of the archive by their name.
+	 */
+	public void publish(final List<File> playlistFiles) {
+		for (File playlistFile : playlistFiles) {
+			PendingPlaylist playlist = pending.remove(playlistFile.getName());
+			if (playlist != null && playlist.content != null) {
+				writer.execute(() -> write(playlist));
+			}
+		}
+	}
+
+	/**
+	 * Waits for the published playlists to be written, completes the archive and replaces the archive file.
+	 * Playlists that were not published are not stored.
+	 * 
+	 * @throws IOException
+	 *             if writing the archive failed
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		writer.shutdown();
+		try {
+			while (!writer.awaitTermination(1, TimeUnit.SECONDS)) {
+				logger.debug("Waiting for archive to be written");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing " + archiveFile);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		entryWriter.finish();
+		fileOut.commit();
+		finished = true;
+		logger.info("Wrote " + playlistFiles + " playlist file(s) and " + mediaFiles + " member file(s) ("
+				+ mediaBytes + " bytes) to " + archiveFile);
+	}
+
+	/**
+	 * Stops the writer thread. If the archive was not finished, it is discarded.
+	 * 
+	 * @throws IOException
+	 *             if the incomplete archive cannot be deleted
+	 */
+	@Override
+	public void close() throws IOException {
+		pending.clear();
+		writer.shutdownNow();
+		if (!finished) {
+			fileOut.close();
+		}
+	}
+
+	/**
+	 * Writes a playlist and the member files it references that have not been written before. Called by
+	 * {@link #writer} only.
+	 * 
+	 * @param playlist
+	 *            the playlist to write
+	 */
+	private void write(final PendingPlaylist playlist) {
+		if (failure != null) {
+			return;
+		}
+		try {
+			entryWriter.putNextEntry(playlist.entryName, playlist.content.length, created, true);
+			entryWriter.write(playlist.content, 0, playlist.content.length);
+			entryWriter.closeEntry();
+			playlistFiles++;
+			for (Media media : playlist.getMedia()) {
+				if (mediaWritten.add(media.entryName)) {
+					writeMedia(media);
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Streams a member file into the archive. Files that no longer exist are skipped.
+	 * 
+	 * @param media
+	 *            the member file
+	 * @throws IOException
+	 *             if the archive cannot be written or the file changes while it is being written
+	 */
+	private void writeMedia(final Media media) throws IOException {
+		try (FileChannel channel = FileChannel.open(media.file.toPath(), StandardOpenOption.READ);
+				InputStream in = Channels.newInputStream(channel)) {
+			long size = channel.size();
+			entryWriter.putNextEntry(media.entryName, size, media.file.lastModified(), false);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long remaining = size;
+			while (remaining > 0) {
+				int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (read < 0) {
+					throw new IOException("File shrank while writing it to the archive: " + media.file);
+				}
+				entryWriter.write(buffer, 0, read);
+				remaining -= read;
+			}
+			entryWriter.closeEntry();
+			mediaFiles++;
+			mediaBytes += size;
+		} catch (NoSuchFileException e) {
+			logger.warn("Unable to add " + media.file + " to archive, it no longer exists");
+		}
+	}
+
+	/**
+	 * A playlist file that was exported but not published yet.
+	 */
+	private static final class PendingPlaylist {
+		/** The name of the playlist file within the archive. */
+		private final String entryName;
+		/** The member files referenced, in playlist order. Guarded by <code>this</code>. */
+		private final List<Media> media = new ArrayList<Media>();
+		/** The content of the playlist file, <code>null</code> until committed. */
+		private volatile byte[] content = null;
+
+		/**
+		 * @param entryName
+		 *            the name of the playlist file within the archive
+		 */
+		PendingPlaylist(final String entryName) {
+			this.entryName = entryName;
+		}
+
+		/**
+		 * @param mediaEntryName
+		 *            the name of the member file within the archive
+		 * @param file
+		 *            the member file
+		 */
+		synchronized void addMedia(final String mediaEntryName, final File file) {
+			media.add(new Media(mediaEntryName, file));
+		}
+
+		/** @return the member files referenced, in playlist order */
+		synchronized List<Media> getMedia() {
+			return new ArrayList<Media>(media);
+		}
+	}
+
+	/**
+	 * A member file to store in the archive.
+	 */
+	private static final class Media {
+		/** The name of the member file within the archive. */
+		private final String entryName;
+		/** The member file. */
+		private final File file;
+
+		/**
+		 * @param entryName
+		 *            the name of the member file within the archive
+		 * @param file
+		 *            the member file
+		 */
+		Media(final String entryName, final File file) {
+			this.entryName = entryName;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * The supported archive formats.
+	 */
+	private enum Format {
+		/** Zip archive, each entry compressed separately. */
+		ZIP(".zip"),
+		/** Tar archive, compressed as a whole using gzip. */
+		TAR_GZ(".tar.gz", ".tgz");
+
+		/** The file extensions, lower case. */
+		private final String[] extensions;
+
+		/**
+		 * @param extensions
+		 *            the file extensions, lower case
+		 */
+		Format(final String... extensions) {
+			this.extensions = extensions;
+		}
+
+		/**
+		 * @param fileName
+		 *            the name or path of a file
+		 * @return the format of the file or <code>null</code> if it is no supported archive
+		 */
+		static Format fromFileName(final String fileName) {
+			String lowerCase = fileName.toLowerCase(Locale.ENGLISH);
+			for (Format format : values()) {
+				for (String extension : format.extensions) {
+					if (lowerCase.endsWith(extension)) {
+						return format;
+					}
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the entries of an archive in a specific format.
+	 */
+	private interface EntryWriter {
+		/**
+		 * Starts a new entry.
+		 * 
+		 * @param name
+		 *            the name within the archive
+		 * @param size
+		 *            the number of bytes that will be written
+		 * @param lastModified
+		 *            the modification time in milliseconds
+		 * @param compress
+		 *            <code>false</code> to store the entry without compression
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		void putNextEntry(String name, long size, long lastModified, boolean compress) throws IOException;
+
+		/**
+		 * Writes to the current entry.
+		 * 
+		 * @param b
+		 *            the data
+		 * @param off
+		 *            the start offset in the data
+		 * @param len
+		 *            the number of bytes to write
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		void write(byte[] b, int off, int len) throws IOException;
+
+		/**
+		 * Finishes the current entry.
+		 * 
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		void closeEntry() throws IOException;
+
+		/**
+		 * Writes the end of the archive and flushes it, without closing the file.
+		 * 
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		void finish() throws IOException;
+	}
+
+	/**
+	 * Writes a zip archive.
+	 */
+	private static final class ZipEntryWriter implements EntryWriter {
+		/** The archive. */
+		private final ZipOutputStream zip;
+
+		/**
+		 * @param out
+		 *            the stream to write the archive to
+		 */
+		ZipEntryWriter(final OutputStream out) {
+			zip = new ZipOutputStream(out);
+		}
+
+		@Override
+		public void putNextEntry(final String name, final long size, final long lastModified,
+				final boolean compress) throws IOException {
+			zip.setLevel(compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+			ZipEntry entry = new ZipEntry(name);
+			entry.setTime(lastModified);
+			zip.putNextEntry(entry);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			zip.write(b, off, len);
+		}
+
+		@Override
+		public void closeEntry() throws IOException {
+			zip.closeEntry();
+		}
+
+		@Override
+		public void finish() throws IOException {
+			zip.finish();
+			zip.flush();
+		}
+	}
+
+	/**
+	 * Writes a gzip compressed tar archive.
+	 */
+	private static final class TarGzEntryWriter implements EntryWriter {
+		/** Compresses the archive. */
+		private final LevelGzipOutputStream gzip;
+		/** The archive. */
+		private final TarOutputStream tar;
+
+		/**
+		 * @param out
+		 *            the stream to write the archive to
+		 * @throws IOException
+		 *             if the gzip header cannot be written
+		 */
+		TarGzEntryWriter(final OutputStream out) throws IOException {
+			gzip = new LevelGzipOutputStream(out);
+			tar = new TarOutputStream(gzip);
+		}
+
+		@Override
+		public void putNextEntry(final String name, final long size, final long lastModified,
+				final boolean compress) throws IOException {
+			gzip.setLevel(compress ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+			tar.putNextEntry(name, size, lastModified);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			tar.write(b, off, len);
+		}
+
+		@Override
+		public void closeEntry() throws IOException {
+			tar.closeEntry();
+		}
+
+		@Override
+		public void finish() throws IOException {
+			tar.finish();
+			gzip.finish();
+			gzip.flush();
+		}
+	}
+
+	/**
+	 * {@link GZIPOutputStream} whose compression level can be changed while writing.
+	 */
+	private static final class LevelGzipOutputStream extends GZIPOutputStream {
+		/**
+		 * @param out
+		 *            the stream to write to
+		 * @throws IOException
+		 *             if the header cannot be written
+		 */
+		LevelGzipOutputStream(final OutputStream out) throws IOException {
+			super(out, BUFFER_SIZE);
+		}
+
+		/**
+		 * @param level
+		 *            the compression level for the data written from now on
+		 */
+		void setLevel(final int level) {
+			def.setLevel(level);
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of exporting a single playlist. Either contains the files that were written and omitted or the exception
+ * that made the export fail. For incremental exports, it might also state that the playlist was not written because
+ * it is up to date.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class PlaylistExportResult {
+	/** Name of the playlist as stored in songbird. */
+	private final String playlistName;
+	/** Files that were not written to the playlist because they did not exist. */
+	private final List<String> omittedFiles;
+	/** The exception that made the export fail or <code>null</code> if it succeeded. */
+	private final PlaylistExporterException exception;
+	/** Number of members written to the playlist. 0 if unknown. */
+	private final int entries;
+	/** The playlist files written, one per format. */
+	private final List<File> files;
+	/** Time it took to export the playlist in nanoseconds. 0 if unknown. */
+	private final long nanos;
+	/** <code>true</code> if the playlist was not written because it did not change since the last export. */
+	private final boolean upToDate;
+
+	/**
+	 * Creates a result of a successful export.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param omittedFiles
+	 *            files that were omitted, may be <code>null</code>
+	 */
+	public PlaylistExportResult(final String playlistName, final List<String> omittedFiles) {
+		this(playlistName, omittedFiles, 0);
+	}
+
+	/**
+	 * Creates a result of a successful export.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param omittedFiles
+	 *            files that were omitted, may be <code>null</code>
+	 * @param entries
+	 *            number of members written to the playlist
+	 */
+	public PlaylistExportResult(final String playlistName, final List<String> omittedFiles, final int entries) {
+		this(playlistName, omittedFiles, entries, null, 0);
+	}
+
+	/**
+	 * Creates a result of a successful export.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param omittedFiles
+	 *            files that were omitted, may be <code>null</code>
+	 * @param entries
+	 *            number of members written to the playlist
+	 * @param files
+	 *            the playlist files written, may be <code>null</code>
+	 * @param nanos
+	 *            time it took to export the playlist in nanoseconds
+	 */
+	public PlaylistExportResult(final String playlistName, final List<String> omittedFiles, final int entries,
+			final List<File> files, final long nanos) {
+		this.playlistName = playlistName;
+		this.omittedFiles = omittedFiles != null ? omittedFiles : Collections.<String> emptyList();
+		this.exception = null;
+		this.entries = Math.max(0, entries);
+		this.files = files != null ? files : Collections.<File> emptyList();
+		this.nanos = Math.max(0, nanos);
+		this.upToDate = false;
+	}
+
+	/**
+	 * Creates a result of a playlist that was not written because it is up to date.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param nanos
+	 *            time it took to find out the playlist is up to date in nanoseconds
+	 */
+	private PlaylistExportResult(final String playlistName, final long nanos) {
+		this.playlistName = playlistName;
+		this.omittedFiles = Collections.<String> emptyList();
+		this.exception = null;
+		this.entries = 0;
+		this.files = Collections.<File> emptyList();
+		this.nanos = Math.max(0, nanos);
+		this.upToDate = true;
+	}
+
+	/**
+	 * Creates a result of a playlist that was not written because it did not change since the last export.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param nanos
+	 *            time it took to find out the playlist is up to date in nanoseconds
+	 * @return a successful result without files
+	 */
+	static PlaylistExportResult upToDate(final String playlistName, final long nanos) {
+		return new PlaylistExportResult(playlistName, nanos);
+	}
+
+	/**
+	 * Creates a result of a failed export.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param exception
+	 *            the exception that made the export fail
+	 */
+	public PlaylistExportResult(final String playlistName, final PlaylistExporterException exception) {
+		this.playlistName = playlistName;
+		this.omittedFiles = Collections.<String> emptyList();
+		this.exception = exception;
+		this.entries = 0;
+		this.files = Collections.<File> emptyList();
+		this.nanos = 0;
+		this.upToDate = false;
+	}
+
+	/** @return the name of the playlist */
+	public String getPlaylistName() {
+		return playlistName;
+	}
+
+	/** @return the files that were omitted because they did not exist. Never <code>null</code>. */
+	public List<String> getOmittedFiles() {
+		return omittedFiles;
+	}
+
+	/** @return the exception that made the export fail or <code>null</code> if it succeeded. */
+	public PlaylistExporterException getException() {
+		return exception;
+	}
+
+	/** @return the number of members written to the playlist. 0 if unknown or failed. */
+	public int getEntries() {
+		return entries;
+	}
+
+	/** @return the playlist files written, one per format. Never <code>null</code>, empty if failed. */
+	public List<File> getFiles() {
+		return files;
+	}
+
+	/** @return the time it took to export the playlist in nanoseconds. 0 if unknown or failed. */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/** @return <code>true</code> if the playlist was written or is up to date */
+	public boolean isSuccessful() {
+		return exception == null;
+	}
+
+	/** @return <code>true</code> if the playlist was not written because it did not change since the last export */
+	public boolean isUpToDate() {
+		return upToDate;
+	}
+}
@@ -15,12 +15,13 @@
  */
 package info.schnatterer.songbirdDbTools.commands.playlist;
 
-import info.schnatterer.songbirdDbTools.Utils.ResourceUtils;
+import info.schnatterer.songbirdDbTools.Utils.CommittableOutputStream;
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache;
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache.FileStatus;
+import info.schnatterer.songbirdDbTools.Utils.ResourceUtils.Relativizer;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -34,6 +35,8 @@ import christophedelory.playlist.SpecificPlaylistProvider;
 
 /**
  * Implementation of {@link PlaylistExporter}, that uses the <a href="http://lizzy.sourceforge.net/">Lizzy library.</a>.
+ * The playlist is written to a temporary file that replaces the playlist file only when it is complete, or to a
+ * {@link PlaylistArchive}.
  * 
  * @author schnatterer
  * 
@@ -42,6 +45,39 @@ public class PlaylistExporterImplLizzy implements PlaylistExporter {
 	// /** SLF4J-Logger. */
 	// private static Logger logger = LoggerFactory.getLogger(PlaylistExporterImplLizzy.class);
 
+	/** Provides the status of the member files, so they don't have to be read from the file system each time. */
+	private final FileStatusCache fileStatusCache;
+	/** Optional archive the playlist is written to instead of a file. */
+	private final PlaylistArchive archive;
+
+	/** Creates an exporter with its own {@link FileStatusCache}. */
+	public PlaylistExporterImplLizzy() {
+		this(new FileStatusCache());
+	}
+
+	/**
+	 * Creates an exporter that uses a specific cache. Use this to share the cache among several exporters.
+	 * 
+	 * @param fileStatusCache
+	 *            provides the status of the member files
+	 */
+	public PlaylistExporterImplLizzy(final FileStatusCache fileStatusCache) {
+		this(fileStatusCache, null);
+	}
+
+	/**
+	 * Creates an exporter that uses a specific cache and writes to an archive instead of playlist files.
+	 * 
+	 * @param fileStatusCache
+	 *            provides the status of the member files
+	 * @param archive
+	 *            the archive to write to or <code>null</code> to write playlist files
+	 */
+	public PlaylistExporterImplLizzy(final FileStatusCache fileStatusCache, final PlaylistArchive archive) {
+		this.fileStatusCache = fileStatusCache;
+		this.archive = archive;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -57,25 +93,27 @@ public class PlaylistExporterImplLizzy implements PlaylistExporter {
 		try {
 			// Create destination directory if it does not exist
 			new File(destinationFolder).mkdirs();
-			final File outputFile =
-					new File(destinationFolder + File.separator + playlistName + "." + playlistFormat)
-							.getCanonicalFile();
+			final String playlistFileName = playlistName + "." + playlistFormat;
+			final File outputFile = new File(destinationFolder + File.separator + playlistFileName).getCanonicalFile();
 
 			Playlist playlist = new Playlist();
+			Relativizer relativizer = useRelativePaths ? new Relativizer(outputFile) : null;
 
 			for (String memberUrl : absoluteMemberPaths) {
 				File member = new File(memberUrl);
 				try {
+					FileStatus memberStatus = fileStatusCache.getByPath(memberUrl);
 					/*
 					 * Caution: the input string can also be an URL. Check it now.
 					 */
-					if (member.exists()) {
+					if (memberStatus.exists()) {
 						/*
 						 * The file exists: begin the file/directory scan process.
 						 * 
 						 * May throw SecurityException, IOException.
 						 */
-						addToPlaylist(playlist.getRootSequence(), member, true, outputFile, useRelativePaths);
+						addToPlaylist(playlist.getRootSequence(), member, memberStatus, true, outputFile,
+								playlistFileName, relativizer);
 					} else {
 						// logger.info(playlistName + ": File doesn't exist: " + member.getAbsolutePath()
 						// + ". Omitting file...");
@@ -88,18 +126,14 @@ public class PlaylistExporterImplLizzy implements PlaylistExporter {
 			}
 
 			/* Write playlist file */
-			OutputStream out = null;
-			try {
-				out = new FileOutputStream(outputFile);
+			try (CommittableOutputStream out =
+					PlaylistExporterImplNative.openPlaylistFile(outputFile, playlistFileName, archive)) {
 				SpecificPlaylistProvider provider =
 						SpecificPlaylistFactory.getInstance().findProviderById(playlistFormat);
 
 				SpecificPlaylist newSpecificPlaylist = provider.toSpecificPlaylist(playlist);
 				newSpecificPlaylist.writeTo(out, null);
-			} finally {
-				if (out != null) {
-					out.close();
-				}
+				out.commit();
 			}
 		} catch (Exception e) {
 			throw new PlaylistExporterException("Unable to create playlist file in destination folder \""
@@ -116,12 +150,16 @@ public class PlaylistExporterImplLizzy implements PlaylistExporter {
 	 *            the playlist sequence to add to. Shall not be <code>null</code>.
 	 * @param member
 	 *            a file or directory. Shall not be <code>null</code>.
+	 * @param memberStatus
+	 *            the status of <code>member</code>. Shall not be <code>null</code>.
 	 * @param recurse
 	 *            specifies if the sub-directories of this directory shall be recursively scanned or not.
 	 * @param playlistFile
 	 *            an optional file to exclude from the sequence. May be <code>null</code>.
-	 * @param useRelativePaths
-	 *            if <code>true</code>, the file paths of the members are relativized to the playlist (if possible).
+	 * @param playlistFileName
+	 *            the name of the playlist file, used to reference member files stored in the {@link #archive}
+	 * @param relativizer
+	 *            if not <code>null</code>, the file paths of the members are relativized to the playlist using it.
 	 * 
 	 * @throws NullPointerException
 	 *             if <code>sequence</code> is <code>null</code>.
@@ -133,14 +171,14 @@ public class PlaylistExporterImplLizzy implements PlaylistExporter {
 	 * @throws IOException
 	 *             if an I/O error occurs.
 	 */
-	private void addToPlaylist(final Sequence sequence, final File member, final boolean recurse,
-			final File playlistFile, final boolean useRelativePaths) throws IOException, NullPointerException,
-			SecurityException {
+	private void addToPlaylist(final Sequence sequence, final File member, final FileStatus memberStatus,
+			final boolean recurse, final File playlistFile, final String playlistFileName,
+			final Relativizer relativizer) throws IOException, NullPointerException, SecurityException {
 		boolean recursive = false;
 		/*
 		 * Throws NullPointerException if file is null. May throw SecurityException.
 		 */
-		if (member.isDirectory()) {
+		if (memberStatus.isDirectory()) {
 			if (recurse) {
 				/* May throw SecurityException. */
 				final File[] files = member.listFiles();
@@ -150,18 +188,19 @@ public class PlaylistExporterImplLizzy implements PlaylistExporter {
 						/*
 						 * Throws NullPointerException if sequence is null. May throw SecurityException, IOException.
 						 */
-						addToPlaylist(sequence, child, recursive, playlistFile, useRelativePaths);
+						addToPlaylist(sequence, child, fileStatusCache.getByPath(child.getPath()), recursive,
+								playlistFile, playlistFileName, relativizer);
 					}
 				}
 			}
 			/* May throw SecurityException. */
-		} else if (member.isFile()) {
+		} else if (memberStatus.isFile()) {
 			boolean include = true;
 			String filePath = member.getPath();
 
 			if (playlistFile != null) {
 				// /* May throw IOException, SecurityException. */
-				final File canonicalMember = member.getCanonicalFile();
+				final File canonicalMember = memberStatus.getCanonicalFile();
 
 				if (canonicalMember.equals(playlistFile)) {
 					include = false;
@@ -170,8 +209,10 @@ public class PlaylistExporterImplLizzy implements PlaylistExporter {
 					 * Try to make the playlist entry file name RELATIVE to the playlist file.
 					 */
 
-					if (useRelativePaths) {
-						filePath = ResourceUtils.getRelativePath(playlistFile, member);
+					if (archive != null && archive.isIncludeMedia()) {
+						filePath = archive.addMedia(playlistFileName, member);
+					} else if (relativizer != null) {
+						filePath = relativizer.relativize(member.getAbsolutePath());
 					}
 				}
 			}
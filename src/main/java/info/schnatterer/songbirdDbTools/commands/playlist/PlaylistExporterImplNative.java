@@ -0,0 +1,389 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import info.schnatterer.songbirdDbTools.Utils.AtomicFileOutputStream;
+import info.schnatterer.songbirdDbTools.Utils.CommittableOutputStream;
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache;
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache.FileStatus;
+import info.schnatterer.songbirdDbTools.Utils.ResourceUtils.Relativizer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Implementation of {@link PlaylistExporter} for line-based playlist formats (m3u, m3u8, pls). In contrast to
+ * {@link PlaylistExporterImplLizzy} it does not build a playlist object graph but writes each member to a buffered
+ * writer as soon as it is resolved. So memory consumption does not depend on the size of the playlist. All formats
+ * are written in UTF-8, just like {@link PlaylistExporterImplLizzy} does, no matter the platform encoding.
+ * 
+ * The playlist is written to a temporary file that replaces the playlist file only when it is complete, or to a
+ * {@link PlaylistArchive}.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class PlaylistExporterImplNative implements PlaylistExporter {
+	/** Size of the buffer of the playlist writer in chars. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** The charset all playlists are written in. */
+	private static final Charset CHARSET = StandardCharsets.UTF_8;
+	/** Bytes of the playlist files committed by the current thread, see {@link #openPlaylistFile}. */
+	private static final ThreadLocal<long[]> THREAD_COMMITTED_BYTES = ThreadLocal.withInitial(() -> new long[1]);
+
+	/** Provides the status of the member files, so they don't have to be read from the file system each time. */
+	private final FileStatusCache fileStatusCache;
+	/** Optional archive the playlist is written to instead of a file. */
+	private final PlaylistArchive archive;
+
+	/** Creates an exporter with its own {@link FileStatusCache}. */
+	public PlaylistExporterImplNative() {
+		this(new FileStatusCache());
+	}
+
+	/**
+	 * Creates an exporter that uses a specific cache. Use this to share the cache among several exporters.
+	 * 
+	 * @param fileStatusCache
+	 *            provides the status of the member files
+	 */
+	public PlaylistExporterImplNative(final FileStatusCache fileStatusCache) {
+		this(fileStatusCache, null);
+	}
+
+	/**
+	 * Creates an exporter that uses a specific cache and writes to an archive instead of playlist files.
+	 * 
+	 * @param fileStatusCache
+	 *            provides the status of the member files
+	 * @param archive
+	 *            the archive to write to or <code>null</code> to write playlist files
+	 */
+	public PlaylistExporterImplNative(final FileStatusCache fileStatusCache, final PlaylistArchive archive) {
+		this.fileStatusCache = fileStatusCache;
+		this.archive = archive;
+	}
+
+	/**
+	 * Checks whether this exporter can write a specific playlist format.
+	 * 
+	 * @param playlistFormat
+	 *            the format, e.g. "m3u"
+	 * @return <code>true</code> if the format is supported, otherwise <code>false</code>
+	 */
+	public static boolean isSupported(final String playlistFormat) {
+		return Format.fromId(playlistFormat) != null;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see info.schnatterer.songbirdDbTools.commands.playlist.PlaylistExporter#export(java.lang.String,
+	 * java.util.List, java.lang.String, java.lang.String, boolean, boolean)
+	 */
+	@Override
+	public List<String> export(final String playlistName, final List<String> absoluteMemberPaths,
+			final String destinationFolder, final String playlistFormat, final boolean useRelativePaths,
+			final boolean exportDynamicLists) throws PlaylistExporterException {
+		Format format = Format.fromId(playlistFormat);
+		if (format == null) {
+			throw new PlaylistExporterException("Playlist format \"" + playlistFormat
+					+ "\" is not supported by native exporter");
+		}
+		List<String> omittedFiles = new LinkedList<String>();
+
+		try {
+			// Create destination directory if it does not exist
+			new File(destinationFolder).mkdirs();
+			final String playlistFileName = playlistName + "." + playlistFormat;
+			final File outputFile = new File(destinationFolder + File.separator + playlistFileName).getCanonicalFile();
+
+			try (CommittableOutputStream atomicOut = openPlaylistFile(outputFile, playlistFileName, archive);
+					Writer out = new BufferedWriter(new OutputStreamWriter(atomicOut, CHARSET), BUFFER_SIZE)) {
+				EntryWriter entryWriter = new EntryWriter(out, format);
+				Relativizer relativizer = useRelativePaths ? new Relativizer(outputFile) : null;
+				entryWriter.writeHeader();
+				for (String memberUrl : absoluteMemberPaths) {
+					File member = new File(memberUrl);
+					try {
+						FileStatus memberStatus = fileStatusCache.getByPath(memberUrl);
+						if (memberStatus.exists()) {
+							addToPlaylist(entryWriter, member, memberStatus, true, outputFile, playlistFileName,
+									relativizer);
+						} else {
+							omittedFiles.add(member.getAbsolutePath());
+						}
+					} catch (IOException e) {
+						// Might also be thrown by the writer, but we can't tell
+						throw new PlaylistExporterException(playlistName + ": Unable to add path to playlist: "
+								+ member.getAbsolutePath() + ": \"" + e.getMessage() + "\". Omitting file...", e);
+					}
+				}
+				entryWriter.writeFooter();
+				out.flush();
+				atomicOut.commit();
+			}
+		} catch (PlaylistExporterException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new PlaylistExporterException("Unable to create playlist file in destination folder \""
+					+ destinationFolder + "\", playlist name \"" + playlistName + "\" and format \"" + playlistFormat
+					+ "\": " + e.getMessage(), e);
+		}
+		return omittedFiles;
+	}
+
+	/**
+	 * Opens the stream a playlist file is written to. The bytes written are counted and added to
+	 * {@link #getCurrentThreadCommittedBytes()} on commit.
+	 * 
+	 * @param playlistFile
+	 *            the playlist file
+	 * @param playlistFileName
+	 *            the name of the playlist file within an archive
+	 * @param archive
+	 *            the archive to write to or <code>null</code> to write the file
+	 * @return a stream that replaces the file or adds it to the archive on commit
+	 * @throws IOException
+	 *             if the stream cannot be opened
+	 */
+	static CommittableOutputStream openPlaylistFile(final File playlistFile, final String playlistFileName,
+			final PlaylistArchive archive) throws IOException {
+		if (archive != null) {
+			return new CountingOutputStream(archive.open(playlistFileName));
+		}
+		return new CountingOutputStream(new AtomicFileOutputStream(playlistFile));
+	}
+
+	/**
+	 * Returns the size of all playlist files the calling thread committed so far. Use the difference of two calls to
+	 * find out the size of a playlist file. Works for files as well as archive entries, whose size cannot be read
+	 * from the file system.
+	 * 
+	 * @return the number of bytes
+	 */
+	static long getCurrentThreadCommittedBytes() {
+		return THREAD_COMMITTED_BYTES.get()[0];
+	}
+
+	/**
+	 * Writes the specified file or the files contained in a directory to the playlist. Behaves just like
+	 * {@link PlaylistExporterImplLizzy}: Only the files directly contained in a directory are added and the
+	 * playlist file itself is never added.
+	 * 
+	 * @param entryWriter
+	 *            writes the entries
+	 * @param member
+	 *            a file or directory
+	 * @param memberStatus
+	 *            the status of <code>member</code>
+	 * @param recurse
+	 *            specifies if the content of this directory shall be added
+	 * @param playlistFile
+	 *            the playlist file
+	 * @param playlistFileName
+	 *            the name of the playlist file, used to reference member files stored in the {@link #archive}
+	 * @param relativizer
+	 *            if not <code>null</code>, the file paths of the members are relativized to the playlist using it.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	private void addToPlaylist(final EntryWriter entryWriter, final File member, final FileStatus memberStatus,
+			final boolean recurse, final File playlistFile, final String playlistFileName,
+			final Relativizer relativizer) throws IOException {
+		if (memberStatus.isDirectory()) {
+			if (recurse) {
+				final File[] files = member.listFiles();
+				if (files != null) {
+					for (File child : files) {
+						addToPlaylist(entryWriter, child, fileStatusCache.getByPath(child.getPath()), false,
+								playlistFile, playlistFileName, relativizer);
+					}
+				}
+			}
+		} else if (memberStatus.isFile() && !memberStatus.getCanonicalFile().equals(playlistFile)) {
+			String filePath = member.getPath();
+			if (archive != null && archive.isIncludeMedia()) {
+				filePath = archive.addMedia(playlistFileName, member);
+			} else if (relativizer != null) {
+				filePath = relativizer.relativize(member.getAbsolutePath());
+			}
+			entryWriter.writeEntry(filePath);
+		}
+	}
+
+	/**
+	 * The formats supported by this exporter.
+	 */
+	private enum Format {
+		/** Plain m3u. */
+		M3U("m3u"),
+		/** m3u, explicitly in UTF-8. */
+		M3U8("m3u8"),
+		/** pls. */
+		PLS("pls");
+
+		/** The format ID, used as file extension. */
+		private final String id;
+
+		/**
+		 * @param id
+		 *            the format ID, used as file extension.
+		 */
+		Format(final String id) {
+			this.id = id;
+		}
+
+		/**
+		 * @param id
+		 *            the format ID, case insensitive
+		 * @return the format or <code>null</code> if not found
+		 */
+		static Format fromId(final String id) {
+			if (id == null) {
+				return null;
+			}
+			String idLower = id.toLowerCase(Locale.ENGLISH);
+			for (Format format : values()) {
+				if (format.id.equals(idLower)) {
+					return format;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Counts the bytes written to a playlist file, see {@link PlaylistExporterImplNative#openPlaylistFile}.
+	 */
+	private static final class CountingOutputStream extends CommittableOutputStream {
+		/** Number of bytes written so far. */
+		private long bytesWritten = 0;
+
+		/**
+		 * @param out
+		 *            the stream of the playlist file
+		 */
+		CountingOutputStream(final CommittableOutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			bytesWritten++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			bytesWritten += len;
+		}
+
+		@Override
+		public void commit() throws IOException {
+			flush();
+			((CommittableOutputStream) out).commit();
+			THREAD_COMMITTED_BYTES.get()[0] += bytesWritten;
+		}
+	}
+
+	/**
+	 * Writes the lines of a playlist in a specific format.
+	 */
+	private static class EntryWriter {
+		/** The writer to write to. */
+		private final Writer out;
+		/** The format to write. */
+		private final Format format;
+		/** Number of entries written so far. */
+		private int entries = 0;
+
+		/**
+		 * @param out
+		 *            the writer to write to
+		 * @param format
+		 *            the format to write
+		 */
+		EntryWriter(final Writer out, final Format format) {
+			this.out = out;
+			this.format = format;
+		}
+
+		/**
+		 * Writes whatever the format needs before the first entry.
+		 * 
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		void writeHeader() throws IOException {
+			if (format == Format.PLS) {
+				writeLine("[Playlist]");
+			}
+		}
+
+		/**
+		 * Writes a single entry.
+		 * 
+		 * @param path
+		 *            the path of the member
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		void writeEntry(final String path) throws IOException {
+			entries++;
+			if (format == Format.PLS) {
+				out.write("File");
+				out.write(Integer.toString(entries));
+				out.write('=');
+			}
+			writeLine(path);
+		}
+
+		/**
+		 * Writes whatever the format needs after the last entry. For pls, the number of entries is written here, as
+		 * it is not known before.
+		 * 
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		void writeFooter() throws IOException {
+			if (format == Format.PLS) {
+				writeLine("NumberOfEntries=" + entries);
+				writeLine("Version=2");
+			}
+		}
+
+		/**
+		 * @param line
+		 *            the line to write, followed by a line break
+		 * @throws IOException
+		 *             if writing fails
+		 */
+		private void writeLine(final String line) throws IOException {
+			out.write(line);
+			out.write(ExportPlaylistsCommand.EOL);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportStatistics.PlaylistStatistics;
+
+import java.util.List;
+
+/**
+ * Decorates a {@link PlaylistExporter}, recording the time spent, the number of entries and the size of the playlist
+ * file in {@link ExportStatistics}, keyed by the name of the playlist file. The time spent checking member files is
+ * determined from the {@link FileStatusCache} shared with the decorated exporter, the rest of the time is accounted as
+ * writing. The size is counted by the stream the playlist file is written to
+ * ({@link PlaylistExporterImplNative#getCurrentThreadCommittedBytes()}), so it is also known for archive entries.
+ * Checks done before exporting, e.g. by a {@link info.schnatterer.songbirdDbTools.Utils.FileStatusBatchReader}, are
+ * recorded by the caller.
+ * 
+ * @author schnatterer
+ * 
+ */
+class PlaylistExporterMeasuring implements PlaylistExporter {
+	/** The exporter that actually writes the playlists. */
+	private final PlaylistExporter delegate;
+	/** The cache used by {@link #delegate} for checking member files. */
+	private final FileStatusCache fileStatusCache;
+	/** Where to record the measurements. */
+	private final ExportStatistics statistics;
+
+	/**
+	 * @param delegate
+	 *            the exporter that actually writes the playlists
+	 * @param fileStatusCache
+	 *            the cache used by <code>delegate</code> for checking member files
+	 * @param statistics
+	 *            where to record the measurements
+	 */
+	PlaylistExporterMeasuring(final PlaylistExporter delegate, final FileStatusCache fileStatusCache,
+			final ExportStatistics statistics) {
+		this.delegate = delegate;
+		this.fileStatusCache = fileStatusCache;
+		this.statistics = statistics;
+	}
+
+	@Override
+	public List<String> export(final String playlistName, final List<String> absoluteMemberPaths,
+			final String destinationFolder, final String playlistFormat, final boolean useRelativePaths,
+			final boolean exportDynamicLists) throws PlaylistExporterException {
+		PlaylistStatistics playlistStatistics = statistics.playlist(playlistName + "." + playlistFormat);
+		long lookupNanosBefore = fileStatusCache.getCurrentThreadLookupNanos();
+		long committedBytesBefore = PlaylistExporterImplNative.getCurrentThreadCommittedBytes();
+		long start = System.nanoTime();
+		boolean successful = false;
+		List<String> omittedFiles = null;
+		try {
+			omittedFiles =
+					delegate.export(playlistName, absoluteMemberPaths, destinationFolder, playlistFormat,
+							useRelativePaths, exportDynamicLists);
+			successful = true;
+			return omittedFiles;
+		} finally {
+			long totalNanos = System.nanoTime() - start;
+			long existenceCheckNanos = fileStatusCache.getCurrentThreadLookupNanos() - lookupNanosBefore;
+			if (successful) {
+				int omitted = omittedFiles != null ? omittedFiles.size() : 0;
+				playlistStatistics.addExport(existenceCheckNanos, totalNanos - existenceCheckNanos,
+						Math.max(0, absoluteMemberPaths.size() - omitted), omitted,
+						PlaylistExporterImplNative.getCurrentThreadCommittedBytes() - committedBytesBefore);
+			} else {
+				playlistStatistics.addExport(existenceCheckNanos, totalNanos - existenceCheckNanos, 0, 0, 0);
+				playlistStatistics.setFailed();
+			}
+		}
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import info.schnatterer.songbirdDbTools.Utils.ThreadUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a playlist in several formats from a single resolved member list, using one {@link PlaylistExporter} per
+ * format. This way the members of a playlist are read from the database and checked only once, no matter how many
+ * formats are requested.
+ * 
+ * If there is more than one format, the formats are written in parallel: The calling thread writes the first format,
+ * the others are written by a small thread pool. Writing a format never waits for another format, so sharing the pool
+ * among several export threads cannot dead lock.
+ * 
+ * @author schnatterer
+ * 
+ */
+class PlaylistExporterMultiFormat implements AutoCloseable {
+	/** Format to the exporter writing it, in the order the formats were requested. */
+	private final Map<String, PlaylistExporter> exporters;
+	/** Writes all but the first format. <code>null</code> if there is only one format. */
+	private final ExecutorService executor;
+
+	/**
+	 * @param exporters
+	 *            format to the exporter writing it. Must not be empty. The first format is written by the calling
+	 *            thread and determines the files returned as omitted.
+	 */
+	PlaylistExporterMultiFormat(final Map<String, PlaylistExporter> exporters) {
+		if (exporters.isEmpty()) {
+			throw new IllegalArgumentException("No playlist format specified");
+		}
+		this.exporters = new LinkedHashMap<String, PlaylistExporter>(exporters);
+		if (exporters.size() > 1) {
+			executor = ThreadUtils.newFixedThreadPool(exporters.size() - 1, "format");
+		} else {
+			executor = null;
+		}
+	}
+
+	/** @return the formats written, in the order they were requested */
+	List<String> getFormats() {
+		return new ArrayList<String>(exporters.keySet());
+	}
+
+	/**
+	 * Writes a playlist in all formats. If writing one format fails, the others are still written.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist (use this as file name)
+	 * @param absoluteMemberPaths
+	 *            the absolute paths to the member files to be written to the playlist
+	 * @param destinationFolder
+	 *            the folder to write the playlist to
+	 * @param useRelativePaths
+	 *            if <code>true</code> tries to create relative paths from the playlist members to the playlist file
+	 * @param exportDynamicLists
+	 *            <code>true</code> also exports dynamic playlists
+	 * @return a list of files that could not be written to the playlist of the first format because they did not
+	 *         exist. As all formats are written from the same members, the other formats omit the same files.
+	 * @throws PlaylistExporterException
+	 *             the failure of the first format that could not be written
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting for the other formats
+	 */
+	List<String> export(final String playlistName, final List<String> absoluteMemberPaths,
+			final String destinationFolder, final boolean useRelativePaths, final boolean exportDynamicLists)
+			throws PlaylistExporterException, InterruptedException {
+		List<Future<List<String>>> otherFormats = new ArrayList<Future<List<String>>>(exporters.size() - 1);
+		String firstFormat = null;
+		for (Map.Entry<String, PlaylistExporter> entry : exporters.entrySet()) {
+			if (firstFormat == null) {
+				firstFormat = entry.getKey();
+			} else {
+				otherFormats.add(executor.submit(createExport(entry.getValue(), playlistName, absoluteMemberPaths,
+						destinationFolder, entry.getKey(), useRelativePaths, exportDynamicLists)));
+			}
+		}
+
+		PlaylistExporterException failure = null;
+		List<String> omittedFiles = null;
+		try {
+			omittedFiles =
+					exporters.get(firstFormat).export(playlistName, absoluteMemberPaths, destinationFolder,
+							firstFormat, useRelativePaths, exportDynamicLists);
+		} catch (PlaylistExporterException e) {
+			failure = e;
+		}
+		try {
+			for (Future<List<String>> otherFormat : otherFormats) {
+				try {
+					otherFormat.get();
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = toPlaylistExporterException(playlistName, e.getCause());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			for (Future<List<String>> otherFormat : otherFormats) {
+				otherFormat.cancel(true);
+			}
+			throw e;
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return omittedFiles;
+	}
+
+	/**
+	 * Creates the task writing a playlist in one format.
+	 * 
+	 * @param exporter
+	 *            the exporter writing the format
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param absoluteMemberPaths
+	 *            the absolute paths to the member files
+	 * @param destinationFolder
+	 *            the folder to write the playlist to
+	 * @param playlistFormat
+	 *            the format to write
+	 * @param useRelativePaths
+	 *            if <code>true</code> tries to create relative paths
+	 * @param exportDynamicLists
+	 *            <code>true</code> also exports dynamic playlists
+	 * @return the task, returning the omitted files
+	 */
+	private static Callable<List<String>> createExport(final PlaylistExporter exporter, final String playlistName,
+			final List<String> absoluteMemberPaths, final String destinationFolder, final String playlistFormat,
+			final boolean useRelativePaths, final boolean exportDynamicLists) {
+		return () -> exporter.export(playlistName, absoluteMemberPaths, destinationFolder, playlistFormat,
+				useRelativePaths, exportDynamicLists);
+	}
+
+	/**
+	 * Converts the cause of a failed format to the exception thrown by {@link #export(String, List, String, boolean,
+	 * boolean)}.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param cause
+	 *            the exception thrown while writing the format
+	 * @return <code>cause</code> if it is a {@link PlaylistExporterException}, otherwise a new one wrapping it
+	 */
+	private static PlaylistExporterException toPlaylistExporterException(final String playlistName,
+			final Throwable cause) {
+		if (cause instanceof PlaylistExporterException) {
+			return (PlaylistExporterException) cause;
+		}
+		return new PlaylistExporterException(playlistName + ": " + cause.getMessage(), cause);
+	}
+
+	/** Stops the threads writing the other formats. */
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Persistent record of the playlists that were written to a destination folder, used for incremental exports. For
+ * each songbird media list it stores the files that were written (one per format) and a fingerprint of what was
+ * written (ordered member list, formats and relative path flag). If the fingerprint of a playlist did not change since
+ * the last export and the files still exist, the playlist does not need to be written again.
+ * 
+ * The fingerprint does not cover the existence of the member files. Playlists whose members were omitted because
+ * they did not exist are therefore recorded without fingerprint (see {@link #put(String, List, String)}), so they are
+ * written again until all members exist.
+ * 
+ * All methods are thread safe.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class PlaylistManifest {
+	/** Name of the manifest file within the destination folder. */
+	public static final String FILE_NAME = ".songbirdDbTools.manifest";
+
+	/** Key suffix for the playlist file names. */
+	private static final String KEY_FILE = ".file";
+	/**
+	 * Separates the file names of a media list written in several formats. Can't be part of a file name within the
+	 * destination folder.
+	 */
+	private static final String FILE_SEPARATOR = "/";
+	/** Key suffix for the fingerprint. */
+	private static final String KEY_FINGERPRINT = ".fingerprint";
+	/** Comment written to the top of the manifest file. */
+	private static final String COMMENT = "Written by songbirdDbTools. Delete to force a full export.";
+	/** Algorithm used to calculate the fingerprints. */
+	private static final String DIGEST_ALGORITHM = "SHA-1";
+	/** Stored instead of a fingerprint for playlists that have to be written again, never matches a fingerprint. */
+	private static final String NO_FINGERPRINT = "";
+
+	/** The folder the playlists are written to. */
+	private final File destinationFolder;
+	/** Media list id to playlist file names (within {@link #destinationFolder}). Guarded by this. */
+	private final Map<String, List<String>> files = new HashMap<String, List<String>>();
+	/** Media list id to fingerprint. Guarded by this. */
+	private final Map<String, String> fingerprints = new HashMap<String, String>();
+
+	/**
+	 * Creates an empty manifest.
+	 * 
+	 * @param destinationFolder
+	 *            the folder the playlists are written to
+	 */
+	public PlaylistManifest(final File destinationFolder) {
+		this.destinationFolder = destinationFolder;
+	}
+
+	/**
+	 * Loads the manifest from a destination folder. If there is none, an empty manifest is returned.
+	 * 
+	 * @param destinationFolder
+	 *            the folder the playlists are written to
+	 * @return the manifest stored in <code>destinationFolder</code>
+	 * @throws IOException
+	 *             if the manifest exists but cannot be read
+	 */
+	public static PlaylistManifest load(final File destinationFolder) throws IOException {
+		PlaylistManifest manifest = new PlaylistManifest(destinationFolder);
+		File manifestFile = new File(destinationFolder, FILE_NAME);
+		if (manifestFile.exists()) {
+			Properties properties = new Properties();
+			try (InputStream in = new FileInputStream(manifestFile)) {
+				properties.load(in);
+			}
+			for (String key : properties.stringPropertyNames()) {
+				if (key.endsWith(KEY_FILE)) {
+					String listId = key.substring(0, key.length() - KEY_FILE.length());
+					String fingerprint = properties.getProperty(listId + KEY_FINGERPRINT);
+					if (fingerprint != null) {
+						manifest.files.put(listId,
+								Arrays.asList(properties.getProperty(key).split(FILE_SEPARATOR)));
+						manifest.fingerprints.put(listId, fingerprint);
+					}
+				}
+			}
+		}
+		return manifest;
+	}
+
+	/**
+	 * Writes the manifest to the destination folder. The file is written to a temporary file first, so an
+	 * interrupted write does not leave a corrupt manifest.
+	 * 
+	 * @throws IOException
+	 *             if the manifest cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		Properties properties = new Properties();
+		for (Map.Entry<String, List<String>> entry : files.entrySet()) {
+			StringBuilder fileNames = new StringBuilder();
+			for (String fileName : entry.getValue()) {
+				if (fileNames.length() > 0) {
+					fileNames.append(FILE_SEPARATOR);
+				}
+				fileNames.append(fileName);
+			}
+			properties.setProperty(entry.getKey() + KEY_FILE, fileNames.toString());
+			properties.setProperty(entry.getKey() + KEY_FINGERPRINT, fingerprints.get(entry.getKey()));
+		}
+		File manifestFile = new File(destinationFolder, FILE_NAME);
+		File tempFile = new File(destinationFolder, FILE_NAME + ".tmp");
+		try (OutputStream out = new FileOutputStream(tempFile)) {
+			properties.store(out, COMMENT);
+		}
+		Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Checks if a playlist needs to be written.
+	 * 
+	 * @param listId
+	 *            the id of the songbird media list
+	 * @param fileNames
+	 *            the names of the playlist files within the destination folder, one per format
+	 * @param fingerprint
+	 *            the current fingerprint of the playlist, see {@link #fingerprint(Collection, Collection, boolean)}
+	 * @return <code>true</code> if the playlist was written to the same files with the same fingerprint before and
+	 *         all files still exist
+	 */
+	public synchronized boolean isUpToDate(final String listId, final List<String> fileNames,
+			final String fingerprint) {
+		if (!fingerprint.equals(fingerprints.get(listId)) || !fileNames.equals(files.get(listId))) {
+			return false;
+		}
+		for (String fileName : fileNames) {
+			if (!new File(destinationFolder, fileName).exists()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records that a playlist was written.
+	 * 
+	 * @param listId
+	 *            the id of the songbird media list
+	 * @param fileNames
+	 *            the names of the playlist files within the destination folder, one per format
+	 * @param fingerprint
+	 *            the fingerprint of the playlist that was written or <code>null</code> if it was written incompletely
+	 *            (e.g. members were omitted because they did not exist). The files are recorded (e.g. for
+	 *            {@link #retain(Set)}), but the playlist is not up to date on the next run.
+	 * @return the names of the files the playlist was written to before that are not part of <code>fileNames</code>,
+	 *         e.g. because the playlist was renamed. Empty if there are none.
+	 */
+	public synchronized List<String> put(final String listId, final List<String> fileNames,
+			final String fingerprint) {
+		List<String> previousFiles = files.put(listId, new ArrayList<String>(fileNames));
+		fingerprints.put(listId, fingerprint != null ? fingerprint : NO_FINGERPRINT);
+		if (previousFiles == null) {
+			return Collections.emptyList();
+		}
+		List<String> obsoleteFiles = new ArrayList<String>(previousFiles);
+		obsoleteFiles.removeAll(fileNames);
+		return obsoleteFiles;
+	}
+
+	/**
+	 * Removes a playlist from the manifest, e.g. because writing it failed. It will be written on the next run.
+	 * 
+	 * @param listId
+	 *            the id of the songbird media list
+	 */
+	public synchronized void remove(final String listId) {
+		files.remove(listId);
+		fingerprints.remove(listId);
+	}
+
+	/**
+	 * Removes all playlists whose media list no longer exists in songbird from the manifest.
+	 * 
+	 * @param existingListIds
+	 *            the ids of all media lists currently in songbird
+	 * @return the files of the removed playlists, by media list id
+	 */
+	public synchronized Map<String, List<String>> retain(final Set<String> existingListIds) {
+		Map<String, List<String>> removed = new HashMap<String, List<String>>();
+		for (String listId : new HashSet<String>(files.keySet())) {
+			if (!existingListIds.contains(listId)) {
+				removed.put(listId, files.remove(listId));
+				fingerprints.remove(listId);
+			}
+		}
+		return removed;
+	}
+
+	/** @return the destination folder the manifest belongs to */
+	public File getDestinationFolder() {
+		return destinationFolder;
+	}
+
+	/**
+	 * Calculates the fingerprint of a playlist.
+	 * 
+	 * @param memberContentUrls
+	 *            the content URLs of the members, in playlist order
+	 * @param playlistFormats
+	 *            the formats the playlist is written in
+	 * @param useRelativePaths
+	 *            whether relative paths are written
+	 * @return a hex string that changes whenever one of the parameters changes
+	 */
+	public static String fingerprint(final Collection<String> memberContentUrls,
+			final Collection<String> playlistFormats, final boolean useRelativePaths) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE must support SHA-1
+			throw new IllegalStateException(e);
+		}
+		// Formats are joined, so the fingerprint of a single format is the same as before several were supported
+		StringBuilder header = new StringBuilder();
+		for (String playlistFormat : playlistFormats) {
+			if (header.length() > 0) {
+				header.append(',');
+			}
+			header.append(playlistFormat);
+		}
+		header.append('\n').append(useRelativePaths).append('\n');
+		digest.update(header.toString().getBytes(StandardCharsets.UTF_8));
+		for (String contentUrl : memberContentUrls) {
+			digest.update(String.valueOf(contentUrl).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command that keeps running and re-exports playlists whenever the songbird database changes. Watches the database
+ * file and its journal using a {@link WatchService}. As songbird writes in several steps, an export is only started
+ * after the database has not changed for a while (see {@link #setDebounceMillis(long)}).
+ * 
+ * The export itself is passed in as {@link Runnable}. Use an incremental {@link ExportPlaylistsCommand} with a
+ * {@link info.schnatterer.songbirdDbTools.backend.SongbirdDbReader} that stays open, so only the playlists whose
+ * members changed are written again and neither the JVM nor the database have to be started cold.
+ * 
+ * Note that each change still re-reads the members of all playlists: Whether a playlist is up to date is decided by
+ * comparing the fingerprint of its member URLs with the manifest. Songbird does not record changes in a way that
+ * could be checked more cheaply, e.g. a track that is moved changes the URLs of all lists containing it, but not the
+ * lists themselves, and the members of smart playlists depend on the whole library. A compact export (see
+ * {@link ExportPlaylistsCommand#setCompact(boolean)}) loads the whole library again on each change. The cost of a
+ * change is therefore proportional to the size of the library rather than to the size of the change, but avoids
+ * checking member files and writing playlists that did not change.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class WatchPlaylistsCommand {
+	/** Default time the database has to be unchanged before exporting. */
+	public static final long DEFAULT_DEBOUNCE_MILLIS = 2000;
+
+	/** Suffixes of the files SQLite writes next to the database during transactions. */
+	private static final String[] JOURNAL_SUFFIXES = { "-journal", "-wal" };
+
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(WatchPlaylistsCommand.class);
+
+	/** The songbird database file. */
+	private final File databaseFile;
+	/** Exports the playlists. */
+	private final Runnable export;
+	/** Time the database has to be unchanged before exporting. */
+	private long debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+	/** The watch service of the running {@link #watch()} or <code>null</code>. */
+	private volatile WatchService watchService = null;
+
+	/**
+	 * @param databaseFile
+	 *            the songbird database file to watch
+	 * @param export
+	 *            exports the playlists. Called once when watching starts and after each change.
+	 */
+	public WatchPlaylistsCommand(final File databaseFile, final Runnable export) {
+		this.databaseFile = databaseFile.getAbsoluteFile();
+		this.export = export;
+	}
+
+	/**
+	 * Sets the time the database has to be unchanged before the playlists are exported. Defaults to
+	 * {@link #DEFAULT_DEBOUNCE_MILLIS}.
+	 * 
+	 * @param debounceMillis
+	 *            time in milliseconds
+	 */
+	public void setDebounceMillis(final long debounceMillis) {
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Exports the playlists and then watches the database, exporting again after each change. Blocks until
+	 * {@link #stop()} is called or the thread is interrupted.
+	 * 
+	 * @throws IOException
+	 *             if the database folder cannot be watched
+	 */
+	public void watch() throws IOException {
+		Path folder = databaseFile.getParentFile().toPath();
+		try (WatchService service = FileSystems.getDefault().newWatchService()) {
+			watchService = service;
+			folder.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE);
+			export.run();
+			logger.info("Watching " + databaseFile + " for changes. Press Ctrl+C to stop.");
+			while (true) {
+				if (!isDatabaseChanged(service.take())) {
+					continue;
+				}
+				awaitQuiet(service);
+				logger.info("Songbird database changed. Exporting playlists...");
+				export.run();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// stop() was called
+		} finally {
+			watchService = null;
+		}
+		logger.info("Stopped watching " + databaseFile);
+	}
+
+	/** Stops a running {@link #watch()}. Can be called from any thread. */
+	public void stop() {
+		WatchService service = watchService;
+		if (service == null) {
+			return;
+		}
+		try {
+			service.close();
+		} catch (IOException e) {
+			logger.warn("Unable to stop watching " + databaseFile + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Waits until the database did not change for {@link #debounceMillis}.
+	 * 
+	 * @param service
+	 *            the watch service to read the changes from
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	private void awaitQuiet(final WatchService service) throws InterruptedException {
+		long quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+		long remaining;
+		while ((remaining = quietUntil - System.nanoTime()) > 0) {
+			WatchKey key = service.poll(remaining, TimeUnit.NANOSECONDS);
+			if (key != null && isDatabaseChanged(key)) {
+				quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+			}
+		}
+	}
+
+	/**
+	 * Checks if the events of a watch key affect the database or its journal and resets the key.
+	 * 
+	 * @param key
+	 *            the signalled key
+	 * @return <code>true</code> if the database changed
+	 */
+	private boolean isDatabaseChanged(final WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || isDatabaseFile(event.context().toString())) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * @param fileName
+	 *            the name of a file within the database folder
+	 * @return <code>true</code> if <code>fileName</code> is the database or one of its journals
+	 */
+	private boolean isDatabaseFile(final String fileName) {
+		String databaseName = databaseFile.getName();
+		if (fileName.equals(databaseName)) {
+			return true;
+		}
+		for (String suffix : JOURNAL_SUFFIXES) {
+			if (fileName.equals(databaseName + suffix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
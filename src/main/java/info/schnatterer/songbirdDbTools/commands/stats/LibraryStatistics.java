@@ -0,0 +1,360 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.stats;
+
+import info.schnatterer.songbirdDbTools.Utils.FormatUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Totals of the songbird library, of each playlist and broken down by format and directory, as computed by
+ * {@link StatsCommand}. Can be printed as table or written as JSON.
+ * 
+ * @author schnatterer
+ * 
+ */
+public class LibraryStatistics {
+	/** Format of a row of the table created by {@link #toTable(int)}. */
+	private static final String ROW_FORMAT = "%-40s %8s %12s %14s %8s %10s %12s%n";
+
+	/** The totals of all tracks of the library. */
+	private final Totals library;
+	/** The totals of each playlist, ordered by name. */
+	private final List<Totals> playlists;
+	/** The totals of each format, largest first. */
+	private final List<Totals> formats;
+	/** The totals of each directory, largest first. */
+	private final List<Totals> directories;
+	/** <code>true</code> if the files were checked, so that the missing files are known. */
+	private final boolean filesChecked;
+
+	/**
+	 * @param library
+	 *            the totals of all tracks of the library
+	 * @param playlists
+	 *            the totals of each playlist
+	 * @param formats
+	 *            the totals of each format
+	 * @param directories
+	 *            the totals of each directory
+	 * @param filesChecked
+	 *            <code>true</code> if the files were checked, so that the missing files are known
+	 */
+	LibraryStatistics(final Totals library, final List<Totals> playlists, final List<Totals> formats,
+			final List<Totals> directories, final boolean filesChecked) {
+		this.library = library;
+		this.playlists = playlists;
+		this.formats = formats;
+		this.directories = directories;
+		this.filesChecked = filesChecked;
+	}
+
+	/** @return the totals of all tracks of the library */
+	public Totals getLibrary() {
+		return library;
+	}
+
+	/** @return the totals of each playlist, ordered by name */
+	public List<Totals> getPlaylists() {
+		return playlists;
+	}
+
+	/** @return the totals of each format (i.e. file extension), largest first */
+	public List<Totals> getFormats() {
+		return formats;
+	}
+
+	/** @return the totals of each directory, largest first */
+	public List<Totals> getDirectories() {
+		return directories;
+	}
+
+	/** @return <code>true</code> if the files were checked, so that {@link Totals#getMissing()} is known */
+	public boolean isFilesChecked() {
+		return filesChecked;
+	}
+
+	/**
+	 * Formats the statistics as tables of the playlists, formats and directories, followed by the library totals.
+	 * 
+	 * @param limit
+	 *            only list this many of the largest formats and directories. 0 lists all of them.
+	 * @return a multi-line string
+	 */
+	public String toTable(final int limit) {
+		StringBuilder table = new StringBuilder();
+		appendSection(table, "Playlist", playlists, 0);
+		appendSection(table, "Format", formats, limit);
+		appendSection(table, "Directory", directories, limit);
+		table.append(String.format(Locale.ROOT, ROW_FORMAT, "", "Tracks", "Duration", "Bytes", "Missing",
+				"No length", "No duration"));
+		appendRow(table, library);
+		if (!filesChecked) {
+			table.append("Files were not checked, missing files are unknown.");
+		}
+		return table.toString();
+	}
+
+	/**
+	 * Writes the statistics to a file. Files ending with <code>.json</code> are written as JSON, all others as table.
+	 * 
+	 * @param file
+	 *            the file to write
+	 * @param limit
+	 *            only list this many of the largest formats and directories in a table. 0 lists all of them. JSON
+	 *            always contains all of them.
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void write(final File file, final int limit) throws IOException {
+		try (Writer writer =
+				new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+						StandardCharsets.UTF_8))) {
+			if (file.getName().toLowerCase(Locale.ROOT).endsWith(".json")) {
+				writeJson(writer);
+			} else {
+				writer.write(toTable(limit));
+				writer.write(System.lineSeparator());
+			}
+		}
+	}
+
+	/**
+	 * Writes the statistics as JSON object. Durations are written in seconds. If the files were not checked, the
+	 * number of missing files is <code>null</code>.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	public void writeJson(final Writer writer) throws IOException {
+		writer.write("{\n");
+		writer.write("  \"filesChecked\": " + filesChecked + ",\n");
+		writer.write("  \"library\": ");
+		writeJson(writer, library);
+		writeJson(writer, "playlists", playlists);
+		writeJson(writer, "formats", formats);
+		writeJson(writer, "directories", directories);
+		writer.write("\n}\n");
+	}
+
+	/**
+	 * Writes a list of totals as JSON array, preceded by a comma.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @param name
+	 *            the name of the array
+	 * @param rows
+	 *            the totals to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private void writeJson(final Writer writer, final String name, final List<Totals> rows) throws IOException {
+		writer.write(",\n  \"" + name + "\": [");
+		String separator = "\n    ";
+		for (Totals totals : rows) {
+			writer.write(separator);
+			writeJson(writer, totals);
+			separator = ",\n    ";
+		}
+		writer.write(rows.isEmpty() ? "]" : "\n  ]");
+	}
+
+	/**
+	 * Writes totals as JSON object.
+	 * 
+	 * @param writer
+	 *            where to write to
+	 * @param totals
+	 *            the totals to write
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private void writeJson(final Writer writer, final Totals totals) throws IOException {
+		writer.write("{\"name\": " + FormatUtils.json(totals.getName()) + ", \"tracks\": " + totals.getTracks()
+				+ ", \"durationSeconds\": " + TimeUnit.MICROSECONDS.toSeconds(totals.getDurationMicros())
+				+ ", \"bytes\": " + totals.getBytes() + ", \"missing\": "
+				+ (filesChecked ? String.valueOf(totals.getMissing()) : "null") + ", \"unknownLength\": "
+				+ totals.getUnknownLength() + ", \"unknownDuration\": " + totals.getUnknownDuration() + "}");
+	}
+
+	/**
+	 * Appends a table with a header and one row per totals.
+	 * 
+	 * @param table
+	 *            the table to append to
+	 * @param title
+	 *            the header of the first column
+	 * @param rows
+	 *            the totals to append
+	 * @param limit
+	 *            only append this many rows, 0 appends all
+	 */
+	private void appendSection(final StringBuilder table, final String title, final List<Totals> rows,
+			final int limit) {
+		table.append(String.format(Locale.ROOT, ROW_FORMAT, title, "Tracks", "Duration", "Bytes", "Missing",
+				"No length", "No duration"));
+		int count = limit > 0 ? Math.min(limit, rows.size()) : rows.size();
+		for (Totals totals : rows.subList(0, count)) {
+			appendRow(table, totals);
+		}
+		if (count < rows.size()) {
+			table.append(String.format(Locale.ROOT, "... %d more%n", rows.size() - count));
+		}
+		table.append(String.format(Locale.ROOT, "%n"));
+	}
+
+	/**
+	 * Appends a row to the table created by {@link #toTable(int)}.
+	 * 
+	 * @param table
+	 *            the table to append to
+	 * @param totals
+	 *            the totals to append
+	 */
+	private void appendRow(final StringBuilder table, final Totals totals) {
+		long seconds = TimeUnit.MICROSECONDS.toSeconds(totals.getDurationMicros());
+		table.append(String.format(Locale.ROOT, ROW_FORMAT, totals.getName(), totals.getTracks(),
+				String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60),
+				totals.getBytes(), filesChecked ? String.valueOf(totals.getMissing()) : "-",
+				totals.getUnknownLength(), totals.getUnknownDuration()));
+	}
+
+	/**
+	 * Number of tracks, duration and size of a group of tracks. Mutable while being aggregated, so each instance must
+	 * only be filled by a single thread. Partial totals of several threads are merged using {@link #add(Totals)}.
+	 */
+	public static final class Totals {
+		/** Name of the group, e.g. the name of the playlist. */
+		private final String name;
+		/** Number of tracks. */
+		private long tracks;
+		/** Sum of the known durations, in microseconds. */
+		private long durationMicros;
+		/** Sum of the known file sizes, in bytes. */
+		private long bytes;
+		/** Number of tracks whose file does not exist. Only counted if the files are checked. */
+		private long missing;
+		/** Number of tracks whose file size is unknown. */
+		private long unknownLength;
+		/** Number of tracks whose duration is unknown. */
+		private long unknownDuration;
+
+		/**
+		 * @param name
+		 *            name of the group, e.g. the name of the playlist
+		 */
+		Totals(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Adds a track.
+		 * 
+		 * @param trackDurationMicros
+		 *            the duration of the track in microseconds, negative if unknown
+		 * @param trackBytes
+		 *            the size of the file in bytes, negative if unknown
+		 * @param trackMissing
+		 *            <code>true</code> if the file does not exist
+		 */
+		void add(final long trackDurationMicros, final long trackBytes, final boolean trackMissing) {
+			tracks++;
+			if (trackDurationMicros >= 0) {
+				durationMicros += trackDurationMicros;
+			} else {
+				unknownDuration++;
+			}
+			if (trackBytes >= 0) {
+				bytes += trackBytes;
+			} else {
+				unknownLength++;
+			}
+			if (trackMissing) {
+				missing++;
+			}
+		}
+
+		/**
+		 * Adds the values of other totals.
+		 * 
+		 * @param other
+		 *            the totals to add
+		 * @return this instance
+		 */
+		Totals add(final Totals other) {
+			tracks += other.tracks;
+			durationMicros += other.durationMicros;
+			bytes += other.bytes;
+			missing += other.missing;
+			unknownLength += other.unknownLength;
+			unknownDuration += other.unknownDuration;
+			return this;
+		}
+
+		/** @return the name of the group, e.g. the name of the playlist */
+		public String getName() {
+			return name;
+		}
+
+		/** @return the number of tracks */
+		public long getTracks() {
+			return tracks;
+		}
+
+		/** @return the sum of the known durations, in microseconds */
+		public long getDurationMicros() {
+			return durationMicros;
+		}
+
+		/** @return the sum of the known file sizes, in bytes */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/** @return the number of tracks whose file does not exist, 0 if the files were not checked */
+		public long getMissing() {
+			return missing;
+		}
+
+		/** @return the number of tracks whose file size is unknown */
+		public long getUnknownLength() {
+			return unknownLength;
+		}
+
+		/** @return the number of tracks whose duration is unknown */
+		public long getUnknownDuration() {
+			return unknownDuration;
+		}
+
+		@Override
+		public String toString() {
+			return "Totals [name=" + name + ", tracks=" + tracks + ", durationMicros=" + durationMicros + ", bytes="
+					+ bytes + ", missing=" + missing + "]";
+		}
+	}
+}
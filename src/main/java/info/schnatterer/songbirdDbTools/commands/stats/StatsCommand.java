@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.stats;
+
+import info.schnatterer.songbirdDbTools.Utils.ContentUrlDecoder;
+import info.schnatterer.songbirdDbTools.backend.CompactLibrary;
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.commands.stats.LibraryStatistics.Totals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command that computes the number of tracks, their total duration and size and the number of missing files for the
+ * whole library, each playlist, each format and each directory.
+ * 
+ * The durations and sizes songbird stores for each media item are used, so the files are only accessed if
+ * requested (see {@link #setCheckFiles(boolean)}). The tracks and memberships are read into a {@link CompactLibrary}
+ * once and then aggregated by parallel streams on a fork-join pool of configurable size.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class StatsCommand {
+	/** Default number of threads aggregating and checking files. */
+	public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** Songbird property that contains the duration of a track in microseconds. */
+	private static final String PROP_DURATION = "http://songbirdnest.com/data/1.0#duration";
+	/** Songbird property that contains the size of a file in bytes. */
+	private static final String PROP_CONTENT_LENGTH = "http://songbirdnest.com/data/1.0#contentLength";
+	/** Scheme of the content URLs that point to local files. */
+	private static final String FILE_SCHEME = "file:";
+	/** Format and directory of tracks that are no local files. */
+	private static final String NOT_LOCAL = "(not local)";
+	/** Format of files without extension. */
+	private static final String NO_EXTENSION = "(none)";
+
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(StatsCommand.class);
+
+	/** The songbird database. */
+	private final SongbirdDbReader dbReader;
+	/** Number of threads aggregating and checking files. */
+	private int threads = DEFAULT_THREADS;
+	/** Check if the files exist and determine the size of files whose size songbird does not know? */
+	private boolean checkFiles = false;
+
+	/**
+	 * @param dbReader
+	 *            the songbird database
+	 */
+	public StatsCommand(final SongbirdDbReader dbReader) {
+		this.dbReader = dbReader;
+	}
+
+	/**
+	 * @param threads
+	 *            number of threads aggregating and checking files
+	 */
+	public void setThreads(final int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * @param checkFiles
+	 *            <code>true</code> checks if the files exist and determines the size of files whose size songbird
+	 *            does not know. Requires a file system access per track, which is slow on network drives.
+	 */
+	public void setCheckFiles(final boolean checkFiles) {
+		this.checkFiles = checkFiles;
+	}
+
+	/**
+	 * Reads the library and computes its statistics.
+	 * 
+	 * @return the statistics
+	 * @throws SQLException
+	 *             if the songbird database cannot be read
+	 * @throws InterruptedException
+	 *             if interrupted while computing
+	 */
+	public LibraryStatistics compute() throws SQLException, InterruptedException {
+		long start = System.nanoTime();
+		Tracks tracks = Tracks.load(dbReader);
+		// Ordered by name. Lists without a name are not exported either.
+		int[] playlists =
+				IntStream.range(0, tracks.library.getPlaylistCount())
+						.filter(playlist -> tracks.library.getPlaylistName(playlist) != null).toArray();
+		long read = System.nanoTime();
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			LibraryStatistics statistics = pool.submit(() -> aggregate(tracks, playlists)).get();
+			logger.info("Computed statistics of " + tracks.count + " tracks and " + playlists.length
+					+ " playlists in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms (reading: "
+					+ TimeUnit.NANOSECONDS.toMillis(read - start) + "ms)");
+			return statistics;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Resolves the format and directory of each track, checks the files if requested and sums everything up. Must be
+	 * run within the fork-join pool, so the parallel streams use its threads.
+	 * 
+	 * @param tracks
+	 *            the tracks of the library
+	 * @param playlists
+	 *            the indexes of the playlists within the library
+	 * @return the statistics
+	 */
+	private LibraryStatistics aggregate(final Tracks tracks, final int[] playlists) {
+		String[] formats = new String[tracks.count];
+		String[] directories = new String[tracks.count];
+		boolean[] missing = new boolean[tracks.count];
+		IntStream.range(0, tracks.count).parallel().forEach(i -> resolve(tracks, i, formats, directories, missing));
+
+		Totals library = sum(IntStream.range(0, tracks.count), tracks, missing, "library");
+		List<Totals> playlistTotals =
+				Arrays.stream(playlists).parallel()
+						.mapToObj(p -> sum(tracks.library.getPlaylistMembers(p), tracks, missing,
+								tracks.library.getPlaylistName(p))).collect(Collectors.toList());
+		return new LibraryStatistics(library, playlistTotals, group(formats, tracks, missing), group(directories,
+				tracks, missing), checkFiles);
+	}
+
+	/**
+	 * Determines the format (i.e. the lower case file extension) and directory of a track. If requested, checks if
+	 * its file exists and determines the size of the file if songbird does not know it.
+	 * 
+	 * @param tracks
+	 *            the tracks of the library
+	 * @param track
+	 *            the index of the track
+	 * @param formats
+	 *            where to store the format
+	 * @param directories
+	 *            where to store the directory
+	 * @param missing
+	 *            where to store if the file does not exist
+	 */
+	private void resolve(final Tracks tracks, final int track, final String[] formats, final String[] directories,
+			final boolean[] missing) {
+		String contentUrl = tracks.library.getTrackUrl(track);
+		File file = null;
+		if (contentUrl != null && contentUrl.startsWith(FILE_SCHEME)) {
+			try {
+				file = ContentUrlDecoder.toFileLeniently(contentUrl);
+			} catch (Exception e) {
+				logger.debug("Unable to decode " + contentUrl + ": " + e.getMessage());
+			}
+		}
+		if (file == null) {
+			formats[track] = NOT_LOCAL;
+			directories[track] = NOT_LOCAL;
+			return;
+		}
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		formats[track] = dot > 0 && dot < name.length() - 1 ? name.substring(dot + 1).toLowerCase(Locale.ROOT)
+				: NO_EXTENSION;
+		directories[track] = file.getParent();
+		if (!checkFiles) {
+			return;
+		}
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			if (!attributes.isRegularFile()) {
+				missing[track] = true;
+			} else if (tracks.lengths[track] < 0) {
+				tracks.lengths[track] = attributes.size();
+			}
+		} catch (NoSuchFileException e) {
+			missing[track] = true;
+		} catch (IOException e) {
+			logger.debug("Unable to read attributes of " + file + ": " + e.getMessage());
+			missing[track] = true;
+		}
+	}
+
+	/**
+	 * Sums up tracks in parallel.
+	 * 
+	 * @param indexes
+	 *            the indexes of the tracks to sum up
+	 * @param tracks
+	 *            the tracks of the library
+	 * @param missing
+	 *            which files do not exist
+	 * @param name
+	 *            the name of the totals
+	 * @return the totals
+	 */
+	private static Totals sum(final IntStream indexes, final Tracks tracks, final boolean[] missing,
+			final String name) {
+		return indexes.parallel().collect(() -> new Totals(name),
+				(totals, i) -> totals.add(tracks.durations[i], tracks.lengths[i], missing[i]), Totals::add);
+	}
+
+	/**
+	 * Sums up the tracks per key in parallel.
+	 * 
+	 * @param keys
+	 *            the key of each track, e.g. its format
+	 * @param tracks
+	 *            the tracks of the library
+	 * @param missing
+	 *            which files do not exist
+	 * @return the totals per key, largest (in bytes) first
+	 */
+	private static List<Totals> group(final String[] keys, final Tracks tracks, final boolean[] missing) {
+		Map<String, Totals> totals =
+				IntStream.range(0, tracks.count).parallel().collect(HashMap::new, (map, i) -> map.computeIfAbsent(
+						keys[i], Totals::new).add(tracks.durations[i], tracks.lengths[i], missing[i]), (map1, map2) -> {
+					for (Totals other : map2.values()) {
+						map1.computeIfAbsent(other.getName(), Totals::new).add(other);
+					}
+				});
+		List<Totals> sorted = new ArrayList<Totals>(totals.values());
+		sorted.sort(Comparator.comparingLong(Totals::getBytes).reversed().thenComparing(Totals::getName));
+		return sorted;
+	}
+
+	/**
+	 * The tracks of the library with the durations and sizes stored by songbird, as arrays with the same index as the
+	 * tracks of the {@link CompactLibrary}.
+	 */
+	private static final class Tracks {
+		/** The tracks and playlists. */
+		private final CompactLibrary library;
+		/** Number of tracks. */
+		private final int count;
+		/** Durations in microseconds, -1 if unknown. */
+		private final long[] durations;
+		/** File sizes in bytes, -1 if unknown. */
+		private final long[] lengths;
+
+		/**
+		 * @param library
+		 *            the tracks and playlists
+		 */
+		private Tracks(final CompactLibrary library) {
+			this.library = library;
+			count = library.getTrackCount();
+			durations = unknown(count);
+			lengths = unknown(count);
+		}
+
+		/**
+		 * @param count
+		 *            number of tracks
+		 * @return an array containing -1 for each track
+		 */
+		private static long[] unknown(final int count) {
+			long[] values = new long[count];
+			Arrays.fill(values, -1);
+			return values;
+		}
+
+		/**
+		 * Reads the tracks and playlists with the durations and sizes of the tracks.
+		 * 
+		 * @param dbReader
+		 *            the database
+		 * @return the tracks
+		 * @throws SQLException
+		 *             if reading fails
+		 */
+		static Tracks load(final SongbirdDbReader dbReader) throws SQLException {
+			Tracks tracks = new Tracks(CompactLibrary.load(dbReader));
+			dbReader.readTrackProperties(Arrays.asList(PROP_DURATION, PROP_CONTENT_LENGTH), (mediaItemId,
+					propertyName, value) -> {
+				int track = tracks.library.indexOfTrack(mediaItemId);
+				if (track < 0) {
+					return;
+				}
+				long number;
+				try {
+					number = Long.parseLong(value.trim());
+				} catch (NumberFormatException e) {
+					return;
+				}
+				if (number < 0) {
+					return;
+				} else if (PROP_DURATION.equals(propertyName)) {
+					tracks.durations[track] = number;
+				} else {
+					tracks.lengths[track] = number;
+				}
+			});
+			return tracks;
+		}
+	}
+}
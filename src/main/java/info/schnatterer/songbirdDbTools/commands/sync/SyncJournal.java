@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.sync;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of the copies in progress, stored in the target folder of a {@link SyncMediaCommand}. A line is
+ * appended when a copy starts and when it finishes. If the process is interrupted, the next run knows which partial
+ * files belong to which version of the source file and continues copying them where they stopped.
+ * 
+ * Thread safe.
+ * 
+ * @author schnatterer
+ * 
+ */
+class SyncJournal implements AutoCloseable {
+	/** Name of the journal file within the target folder. */
+	static final String FILE_NAME = ".songbirdDbTools.sync";
+
+	/** Marks a started copy. Followed by size, modification time and target. */
+	private static final String START = "start";
+	/** Marks a finished copy. Followed by the target. */
+	private static final String DONE = "done";
+	/** Separates the fields of a line. */
+	private static final char SEPARATOR = '\t';
+
+	/** The journal file. */
+	private final File file;
+	/** Copies in progress: target to size and modification time of the source. Guarded by this. */
+	private final Map<String, long[]> started = new HashMap<String, long[]>();
+	/** Appends to {@link #file}. Guarded by this. */
+	private Writer writer;
+
+	/**
+	 * Opens the journal of a target folder, reading the copies that were in progress when the last run stopped.
+	 * 
+	 * @param targetFolder
+	 *            the target folder
+	 * @throws IOException
+	 *             if reading or opening the journal fails
+	 */
+	SyncJournal(final File targetFolder) throws IOException {
+		file = new File(targetFolder, FILE_NAME);
+		if (file.exists()) {
+			try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					readLine(line);
+				}
+			}
+		}
+		writer =
+				Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+						StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Parses a line of the journal. Invalid lines, e.g. written partially when the process was killed, are ignored.
+	 * 
+	 * @param line
+	 *            the line to parse
+	 */
+	private void readLine(final String line) {
+		String[] fields = line.split(String.valueOf(SEPARATOR), 4);
+		try {
+			if (fields.length == 4 && START.equals(fields[0])) {
+				started.put(fields[3], new long[] { Long.parseLong(fields[1]), Long.parseLong(fields[2]) });
+			} else if (fields.length == 2 && DONE.equals(fields[0])) {
+				started.remove(fields[1]);
+			}
+		} catch (NumberFormatException e) {
+			// Ignore invalid line
+		}
+	}
+
+	/**
+	 * Checks if a copy of exactly this version of the source was started before.
+	 * 
+	 * @param target
+	 *            the target, relative to the target folder
+	 * @param size
+	 *            the size of the source
+	 * @param lastModified
+	 *            the modification time of the source in milliseconds
+	 * @return <code>true</code> if the partial file can be continued
+	 */
+	synchronized boolean isStarted(final String target, final long size, final long lastModified) {
+		long[] source = started.get(target);
+		return source != null && source[0] == size && source[1] == lastModified;
+	}
+
+	/**
+	 * Records that a copy starts.
+	 * 
+	 * @param target
+	 *            the target, relative to the target folder
+	 * @param size
+	 *            the size of the source
+	 * @param lastModified
+	 *            the modification time of the source in milliseconds
+	 * @throws IOException
+	 *             if writing the journal fails
+	 */
+	synchronized void start(final String target, final long size, final long lastModified) throws IOException {
+		started.put(target, new long[] { size, lastModified });
+		append(START + SEPARATOR + size + SEPARATOR + lastModified + SEPARATOR + target);
+	}
+
+	/**
+	 * Records that a copy finished.
+	 * 
+	 * @param target
+	 *            the target, relative to the target folder
+	 * @throws IOException
+	 *             if writing the journal fails
+	 */
+	synchronized void finish(final String target) throws IOException {
+		if (started.remove(target) != null) {
+			append(DONE + SEPARATOR + target);
+		}
+	}
+
+	/**
+	 * Appends a line and flushes it, so it survives the process being killed.
+	 * 
+	 * @param line
+	 *            the line to append
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	private void append(final String line) throws IOException {
+		writer.write(line);
+		writer.write('\n');
+		writer.flush();
+	}
+
+	/**
+	 * Closes the journal. If no copy is in progress, the journal file is deleted. Otherwise it is rewritten, only
+	 * containing the copies in progress.
+	 * 
+	 * @throws IOException
+	 *             if writing the journal fails
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+		if (started.isEmpty()) {
+			Files.deleteIfExists(file.toPath());
+			return;
+		}
+		File tmpFile = new File(file.getParentFile(), FILE_NAME + ".tmp");
+		try (BufferedWriter compacted = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+			for (Map.Entry<String, long[]> entry : started.entrySet()) {
+				compacted.write(START + SEPARATOR + entry.getValue()[0] + SEPARATOR + entry.getValue()[1] + SEPARATOR
+						+ entry.getKey() + '\n');
+			}
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
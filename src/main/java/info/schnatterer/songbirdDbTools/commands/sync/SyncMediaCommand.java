@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.sync;
+
+import info.schnatterer.songbirdDbTools.Utils.ResourceUtils;
+import info.schnatterer.songbirdDbTools.Utils.ThreadUtils;
+import info.schnatterer.songbirdDbTools.commands.playlist.MemberPathMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Command that copies the member files of playlists into a target folder, e.g. a USB stick. Used as
+ * {@link MemberPathMapper} of an export to the same target folder, so the playlists written reference the copies.
+ * 
+ * The copies are stored in {@link #MEDIA_FOLDER} below the target folder, mirroring the path of the source file
+ * relative to an optional source root. Files whose copy has the same size and modification time as the source are
+ * skipped, modification times differing less than two seconds count as the same. Files are copied by a pool of workers
+ * using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} to a partial file, which is
+ * renamed when complete. Copies in progress are recorded in a {@link SyncJournal}, so an interrupted copy is continued
+ * by the next run.
+ * 
+ * @author schnatterer
+ * 
+ */
+public final class SyncMediaCommand implements MemberPathMapper, AutoCloseable {
+	/** Name of the folder below the target folder that contains the copies. */
+	public static final String MEDIA_FOLDER = "media";
+
+	/** Suffix of files that are being copied. */
+	static final String PARTIAL_SUFFIX = ".part";
+
+	/**
+	 * Maximum difference of the modification times of source and copy, in milliseconds, for the copy to be up to
+	 * date. FAT file systems, as common on USB sticks, store modification times with a resolution of two seconds.
+	 */
+	private static final long MODIFICATION_TIME_TOLERANCE = 2000;
+
+	/** Maximum number of bytes transferred by one call, so interrupts are noticed in time. */
+	private static final long MAX_TRANSFER_SIZE = 8 * 1024 * 1024;
+
+	/** SLF4J-Logger. */
+	private static Logger logger = LoggerFactory.getLogger(SyncMediaCommand.class);
+
+	/** The target folder. */
+	private final File targetFolder;
+	/** The folder containing the copies. */
+	private final File mediaFolder;
+	/** Records the copies in progress. */
+	private final SyncJournal journal;
+	/** Copies the files. */
+	private final ExecutorService executor;
+	/** Copy of each target file of this run, so files contained in several playlists are copied once. */
+	private final ConcurrentMap<String, Future<?>> copies = new ConcurrentHashMap<String, Future<?>>();
+
+	/** Source files are mirrored relative to this folder. If <code>null</code>, the absolute path is mirrored. */
+	private String sourceRoot = null;
+
+	/** Number of files copied. */
+	private final AtomicInteger copiedFiles = new AtomicInteger();
+	/** Number of bytes copied. */
+	private final AtomicLong copiedBytes = new AtomicLong();
+	/** Number of files that were up to date. */
+	private final AtomicInteger upToDateFiles = new AtomicInteger();
+	/** Number of files that could not be copied. */
+	private final AtomicInteger failedFiles = new AtomicInteger();
+
+	/**
+	 * Creates the command and opens the journal of the target folder.
+	 * 
+	 * @param targetFolder
+	 *            the folder to copy to. Must exist.
+	 * @param copyThreads
+	 *            number of files copied concurrently. Values less than one are treated as one.
+	 * @throws IOException
+	 *             if the journal cannot be opened
+	 */
+	public SyncMediaCommand(final File targetFolder, final int copyThreads) throws IOException {
+		this.targetFolder = targetFolder.getAbsoluteFile();
+		mediaFolder = new File(this.targetFolder, MEDIA_FOLDER);
+		journal = new SyncJournal(this.targetFolder);
+		executor = ThreadUtils.newFixedThreadPool(Math.max(1, copyThreads), "copy");
+	}
+
+	/**
+	 * Sets the folder the source files are mirrored relative to. For example, with source root
+	 * <code>/home/user/Music</code>, the file <code>/home/user/Music/a/b.mp3</code> is copied to
+	 * <code>media/a/b.mp3</code>. Files outside of the source root are mirrored with their absolute path.
+	 * 
+	 * @param sourceRoot
+	 *            the source root or <code>null</code> to mirror all files with their absolute path
+	 */
+	public void setSourceRoot(final String sourceRoot) {
+		this.sourceRoot = sourceRoot != null ? new File(sourceRoot).getAbsolutePath() : null;
+	}
+
+	/**
+	 * Copies the member files of a playlist, unless they are up to date, and returns the paths of the copies. Waits
+	 * until all files are copied.
+	 * 
+	 * @param playlistName
+	 *            the name of the playlist
+	 * @param absoluteMemberPaths
+	 *            the absolute paths of the member files
+	 * @return the absolute paths of the copies. For source files that do not exist, the path of the source file.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the copies
+	 */
+	@Override
+	public List<String> map(final String playlistName, final List<String> absoluteMemberPaths)
+			throws InterruptedException {
+		List<Future<?>> pending = new ArrayList<Future<?>>(absoluteMemberPaths.size());
+		List<String> targetPaths = new ArrayList<String>(absoluteMemberPaths.size());
+		for (String sourcePath : absoluteMemberPaths) {
+			File source = new File(sourcePath);
+			if (!source.exists()) {
+				// Keep the source, so the playlist export reports it as omitted
+				targetPaths.add(sourcePath);
+				continue;
+			}
+			File target = getTargetFile(sourcePath);
+			pending.add(copies.computeIfAbsent(target.getPath(), key -> executor.submit(() -> copy(source, target))));
+			targetPaths.add(target.getAbsolutePath());
+		}
+		for (Future<?> copy : pending) {
+			try {
+				copy.get();
+			} catch (ExecutionException e) {
+				// copy() does not throw, so this is unexpected
+				logger.error(playlistName + ": Error copying files", e.getCause());
+			}
+		}
+		return targetPaths;
+	}
+
+	/**
+	 * Returns the location of the copy of a source file below {@link #mediaFolder}, see
+	 * {@link ResourceUtils#getMirroredPathElements(String, String)}.
+	 * 
+	 * @param sourcePath
+	 *            the absolute path of the source file
+	 * @return the target file
+	 */
+	File getTargetFile(final String sourcePath) {
+		File target = mediaFolder;
+		for (String element : ResourceUtils.getMirroredPathElements(sourcePath, sourceRoot)) {
+			target = new File(target, element);
+		}
+		return target;
+	}
+
+	/**
+	 * Copies a file, unless the target is up to date. Does not throw, failures are logged.
+	 * 
+	 * @param source
+	 *            the source file
+	 * @param target
+	 *            the target file
+	 */
+	private void copy(final File source, final File target) {
+		String journalKey =
+				target.getPath().substring(targetFolder.getPath().length() + 1).replace(File.separatorChar, '/');
+		try {
+			BasicFileAttributes sourceAttributes = Files.readAttributes(source.toPath(), BasicFileAttributes.class);
+			long size = sourceAttributes.size();
+			FileTime lastModified = sourceAttributes.lastModifiedTime();
+			if (isUpToDate(target, size, lastModified)) {
+				upToDateFiles.incrementAndGet();
+				return;
+			}
+
+			Files.createDirectories(target.getParentFile().toPath());
+			Path partialFile = new File(target.getPath() + PARTIAL_SUFFIX).toPath();
+			long position = 0;
+			if (Files.exists(partialFile) && journal.isStarted(journalKey, size, lastModified.toMillis())) {
+				position = Math.min(Files.size(partialFile), size);
+				logger.debug("Continuing copy of " + source + " at byte " + position);
+			} else {
+				journal.start(journalKey, size, lastModified.toMillis());
+			}
+			long copied = transfer(source.toPath(), partialFile, position, size);
+			Files.setLastModifiedTime(partialFile, lastModified);
+			Files.move(partialFile, target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			journal.finish(journalKey);
+			copiedFiles.incrementAndGet();
+			copiedBytes.addAndGet(copied);
+		} catch (ClosedByInterruptException e) {
+			logger.info("Copying " + source + " was interrupted. It will be continued by the next run.");
+		} catch (IOException e) {
+			failedFiles.incrementAndGet();
+			logger.warn("Unable to copy " + source + " to " + target + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Copies the remaining bytes of a file to a partial file.
+	 * 
+	 * @param source
+	 *            the source file
+	 * @param partialFile
+	 *            the partial file
+	 * @param position
+	 *            number of bytes already copied to the partial file
+	 * @param size
+	 *            size of the source file
+	 * @return number of bytes copied
+	 * @throws IOException
+	 *             if copying fails or the thread is interrupted
+	 */
+	private static long transfer(final Path source, final Path partialFile, final long position, final long size)
+			throws IOException {
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out =
+						FileChannel.open(partialFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			out.truncate(position);
+			out.position(position);
+			long transferred = position;
+			while (transferred < size) {
+				long count = in.transferTo(transferred, Math.min(MAX_TRANSFER_SIZE, size - transferred), out);
+				if (count <= 0) {
+					throw new IOException("Source file shrank while copying: " + source);
+				}
+				transferred += count;
+			}
+			return transferred - position;
+		}
+	}
+
+	/**
+	 * @param target
+	 *            the target file
+	 * @param size
+	 *            the size of the source file
+	 * @param lastModified
+	 *            the modification time of the source file
+	 * @return <code>true</code> if the target has the same size and modification time as the source, within
+	 *         {@link #MODIFICATION_TIME_TOLERANCE}
+	 * @throws IOException
+	 *             if the target cannot be read
+	 */
+	private static boolean isUpToDate(final File target, final long size, final FileTime lastModified)
+			throws IOException {
+		try {
+			BasicFileAttributes targetAttributes = Files.readAttributes(target.toPath(), BasicFileAttributes.class);
+			return targetAttributes.size() == size
+					&& Math.abs(targetAttributes.lastModifiedTime().toMillis()
+							- lastModified.toMillis()) < MODIFICATION_TIME_TOLERANCE;
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stops the copy workers, closes the journal and logs a summary.
+	 * 
+	 * @throws IOException
+	 *             if the journal cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		journal.close();
+		logger.info("Copied " + copiedFiles.get() + " file(s) (" + copiedBytes.get() + " bytes), "
+				+ upToDateFiles.get() + " file(s) were up to date, " + failedFiles.get() + " file(s) failed.");
+	}
+}
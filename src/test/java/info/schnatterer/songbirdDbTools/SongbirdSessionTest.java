@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdTestDatabase;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportPlaylistsCommand;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportProgress;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportProgressListener;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportResult;
+import info.schnatterer.songbirdDbTools.commands.playlist.PlaylistExportResult;
+
+public class SongbirdSessionTest {
+	private static final List<String> M3U = Arrays.asList("m3u");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SongbirdSession session;
+
+	@Before
+	public void setUp() throws Exception {
+		File databaseFile = folder.newFile("songbird.db");
+		try (SongbirdTestDatabase database = new SongbirdTestDatabase(databaseFile)) {
+			File music = folder.newFolder("music");
+			long[] tracks = new long[20];
+			for (int i = 0; i < tracks.length; i++) {
+				File track = new File(music, "track" + i + ".mp3");
+				Files.write(track.toPath(), new byte[] { (byte) i });
+				tracks[i] = database.addTrack(track.toURI().toString());
+			}
+			database.addPlaylist("All", tracks);
+			database.addPlaylist("First", Arrays.copyOf(tracks, 5));
+			database.addPlaylist("Last", Arrays.copyOfRange(tracks, 15, 20));
+		}
+		session = new SongbirdSession(databaseFile.getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		session.close();
+	}
+
+	@Test
+	public void testConcurrentExports() throws Exception {
+		// Both runs wait for each other once started, so they are in progress at the same time
+		CyclicBarrier bothStarted = new CyclicBarrier(2);
+		File first = folder.newFolder("first");
+		File second = folder.newFolder("second");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<ExportResult> firstResult = executor.submit(() -> export(first, bothStarted));
+			Future<ExportResult> secondResult = executor.submit(() -> export(second, bothStarted));
+
+			assertExported(firstResult.get(1, TimeUnit.MINUTES));
+			assertExported(secondResult.get(1, TimeUnit.MINUTES));
+		} finally {
+			executor.shutdownNow();
+		}
+		String[] files = first.list();
+		Arrays.sort(files);
+		assertEquals(Arrays.asList("All.m3u", "First.m3u", "Last.m3u"), Arrays.asList(files));
+		for (String file : files) {
+			assertArrayEquals(file, Files.readAllBytes(new File(first, file).toPath()),
+					Files.readAllBytes(new File(second, file).toPath()));
+		}
+	}
+
+	@Test
+	public void testExportCommandRejectsConcurrentRun() throws Exception {
+		File destination = folder.newFolder("out");
+		ExportPlaylistsCommand command = session.createExportCommand();
+		List<Exception> exceptions = new ArrayList<Exception>();
+		command.setProgressListener(new ProgressAdapter() {
+			@Override
+			public void exportStarted(final ExportProgress progress) {
+				try {
+					command.exportPlaylists(destination.getAbsolutePath(), M3U, null, false, false);
+					fail("Concurrent run was started");
+				} catch (IllegalStateException e) {
+					exceptions.add(e);
+				}
+			}
+		});
+
+		assertExported(command.exportPlaylists(destination.getAbsolutePath(), M3U, null, false, false));
+		assertEquals(1, exceptions.size());
+
+		// Can be run again once the run is over
+		command.setProgressListener(null);
+		assertExported(command.exportPlaylists(destination.getAbsolutePath(), M3U, null, false, false));
+	}
+
+	private ExportResult export(final File destination, final CyclicBarrier bothStarted) throws Exception {
+		ExportPlaylistsCommand command = session.createExportCommand();
+		command.setThreads(2);
+		command.setProgressListener(new ProgressAdapter() {
+			@Override
+			public void exportStarted(final ExportProgress progress) {
+				try {
+					bothStarted.await(1, TimeUnit.MINUTES);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+		return command.exportPlaylists(destination.getAbsolutePath(), M3U, null, false, false);
+	}
+
+	private static void assertExported(final ExportResult result) {
+		assertTrue(String.valueOf(result.getException()), result.isSuccessful());
+		assertEquals(3, result.getPlaylists().size());
+		assertTrue(result.getFailedPlaylists().isEmpty());
+	}
+
+	/** Ignores all notifications, to be overridden. */
+	private static class ProgressAdapter implements ExportProgressListener {
+		@Override
+		public void exportStarted(final ExportProgress progress) {
+		}
+
+		@Override
+		public void playlistFinished(final PlaylistExportResult result, final ExportProgress progress) {
+		}
+
+		@Override
+		public void exportFinished(final ExportProgress progress, final boolean cancelled) {
+		}
+	}
+}
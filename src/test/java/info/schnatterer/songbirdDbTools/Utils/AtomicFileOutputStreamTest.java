@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AtomicFileOutputStreamTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCommitReplacesFile() throws Exception {
+		File file = folder.newFile("playlist.m3u");
+		Files.write(file.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+
+		try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+			out.write("new".getBytes(StandardCharsets.UTF_8));
+			out.commit();
+		}
+		assertArrayEquals("new".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file.toPath()));
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testCloseWithoutCommitKeepsFile() throws Exception {
+		File file = folder.newFile("playlist.m3u");
+		Files.write(file.toPath(), "old".getBytes(StandardCharsets.UTF_8));
+
+		try (AtomicFileOutputStream out = new AtomicFileOutputStream(file)) {
+			out.write("partial".getBytes(StandardCharsets.UTF_8));
+			throw new IOException("Writing failed");
+		} catch (IOException e) {
+			assertEquals("Writing failed", e.getMessage());
+		}
+		assertArrayEquals("old".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file.toPath()));
+		assertFalse(new File(file.getPath() + AtomicFileOutputStream.TEMP_SUFFIX).exists());
+	}
+}
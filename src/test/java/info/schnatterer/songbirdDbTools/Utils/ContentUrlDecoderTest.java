@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentUrlDecoderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testToFileEqualsUri() throws Exception {
+		String[] urls =
+				{ "file:///music/a.mp3", "file:/music/a.mp3", "FILE:///music/a.mp3", "file:///music/a%20b.mp3",
+						"file:///music/%C3%A4rger%2Fx.mp3", "file:///music//dir/", "file:///", "file:///m%FFx.mp3",
+						"file:///music/(a)+b;c=d,e!~*'$&@:.mp3", "file:///music/ärger.mp3" };
+		for (String url : urls) {
+			assertEquals(url, new File(new URI(url)), ContentUrlDecoder.toFile(url));
+		}
+	}
+
+	@Test
+	public void testToFileFailsLikeUri() throws Exception {
+		String[] urls =
+				{ "file:///music/a b.mp3", "file:///music/a%2.mp3", "file:///music/a%zz.mp3",
+						"file://host/music/a.mp3", "file:///music/a.mp3?x", "file:///music/a.mp3#x",
+						"http://host/a.mp3", "file:music/a.mp3", "music/a.mp3" };
+		for (String url : urls) {
+			String expected = null;
+			try {
+				new File(new URI(url));
+				fail("URI accepted " + url);
+			} catch (Exception e) {
+				expected = e.toString();
+			}
+			try {
+				ContentUrlDecoder.toFile(url);
+				fail("Decoder accepted " + url);
+			} catch (Exception e) {
+				assertEquals(url, expected, e.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testToFileLeniently() throws Exception {
+		assertEquals(new File("/music/a b/ä.mp3"),
+				ContentUrlDecoder.toFileLeniently("file:///music/a b/%C3%A4.mp3"));
+	}
+
+	@Test
+	public void testToResolvedFileResolvesDirectoryLinks() throws Exception {
+		File music = folder.newFolder("music");
+		File link = new File(folder.getRoot(), "link");
+		Files.createSymbolicLink(link.toPath(), music.toPath());
+		ContentUrlDecoder decoder = new ContentUrlDecoder();
+		String linkUrl = link.toURI().toString().replaceAll("/$", "");
+
+		assertEquals(new File(music.getCanonicalFile(), "a b.mp3"), decoder.toResolvedFile(linkUrl + "/a%20b.mp3"));
+		assertEquals(new File(music.getCanonicalFile(), "c.mp3"), decoder.toResolvedFile(linkUrl + "/c.mp3"));
+		assertEquals(new File(music.getCanonicalFile(), "d.mp3"), decoder.resolve(new File(link, "d.mp3")));
+		assertEquals(new File(folder.getRoot().getCanonicalFile(), "e.mp3"),
+				decoder.toResolvedFile(linkUrl + "/../e.mp3"));
+		// link/, link/../ and the path of link
+		assertEquals(3, decoder.getDirectoryCount());
+	}
+
+	@Test
+	public void testFileStatusCacheResolvesFileLinks() throws Exception {
+		File track = folder.newFile("track.mp3");
+		File link = new File(folder.getRoot(), "link.mp3");
+		Files.createSymbolicLink(link.toPath(), track.toPath());
+
+		assertEquals(track.getCanonicalFile(), new FileStatusCache().getByUrl(link.toURI().toString())
+				.getCanonicalFile());
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentUrlRewriterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRewriteWindowsToLinux() {
+		ContentUrlRewriter rewriter = new ContentUrlRewriter();
+		rewriter.addRule("C:\\Users\\me\\My Music=/mnt/music");
+		assertEquals("file:///mnt/music/a/b%20c.mp3",
+				rewriter.rewrite("file:///C:/Users/me/My%20Music/a/b%20c.mp3"));
+		assertEquals("file:///mnt/music/a.mp3", rewriter.rewrite("file:///c:/Users/me/My%20Music/a.mp3"));
+		assertEquals("file:///mnt/music", rewriter.rewrite("file:///C:/Users/me/My%20Music"));
+	}
+
+	@Test
+	public void testRewriteLongestMatchWins() {
+		ContentUrlRewriter rewriter = new ContentUrlRewriter();
+		rewriter.addRule("file:///C:/Music", "file:///mnt/music");
+		rewriter.addRule("file:///C:/Music/Podcasts/", "file:///mnt/podcasts/");
+		assertEquals(2, rewriter.getRuleCount());
+		assertEquals(Arrays.asList("file:///mnt/podcasts/p.mp3", "file:///mnt/music/Podcast/x.mp3",
+				"file:///mnt/music/Podcasts2/x.mp3"), rewriter.rewrite(Arrays.asList(
+				"file:///C:/Music/Podcasts/p.mp3", "file:///C:/Music/Podcast/x.mp3",
+				"file:///C:/Music/Podcasts2/x.mp3")));
+	}
+
+	@Test
+	public void testRewriteUnmatched() {
+		ContentUrlRewriter rewriter = new ContentUrlRewriter();
+		rewriter.addRule("/media/music=/mnt/music");
+		String[] urls =
+				{ "file:///media/musicx/a.mp3", "file:///media/a.mp3", "http://host/media/music/a.mp3",
+						"songbird-medialist://x", "file:///D:/media/music/a.mp3" };
+		for (String url : urls) {
+			assertEquals(url, url, rewriter.rewrite(url));
+		}
+	}
+
+	@Test
+	public void testRewriteUncPath() {
+		ContentUrlRewriter rewriter = new ContentUrlRewriter();
+		rewriter.addRule("\\\\server\\share=/mnt/share");
+		assertEquals("file:///mnt/share/a.mp3?x", rewriter.rewrite("file://server/share/a.mp3?x"));
+		assertEquals("file:///mnt/share/%C3%A4.mp3", rewriter.rewrite("file:////server/share/%C3%A4.mp3"));
+	}
+
+	@Test
+	public void testAddRulesFromFile() throws Exception {
+		File rules = folder.newFile("rules.txt");
+		Files.write(rules.toPath(), Arrays.asList("# Windows library", "", "C:\\Musik=/mnt/musik",
+				" D:/Ärger = /mnt/ärger "), StandardCharsets.UTF_8);
+		ContentUrlRewriter rewriter = new ContentUrlRewriter();
+		rewriter.addRules(rules);
+		assertEquals(2, rewriter.getRuleCount());
+		assertEquals("file:///mnt/%C3%A4rger/a.mp3", rewriter.rewrite("file:///D:/%C3%84rger/a.mp3"));
+		assertEquals("file:///mnt/musik/a.mp3", rewriter.rewrite("file:///C:/Musik/a.mp3"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddRuleWithoutSeparator() {
+		new ContentUrlRewriter().addRule("/media/music");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testAddRuleWithoutSource() {
+		new ContentUrlRewriter().addRule("/=/mnt/music");
+	}
+}
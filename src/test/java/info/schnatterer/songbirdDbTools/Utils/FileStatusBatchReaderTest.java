@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.Utils.FileStatusBatchReader.Lookup;
+
+public class FileStatusBatchReaderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReadByUrlKeepsOrder() throws Exception {
+		List<String> urls = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			File file = new File(folder.getRoot(), "track" + i + ".mp3");
+			if (i % 3 != 0) {
+				assertTrue(file.createNewFile());
+			}
+			urls.add(file.toURI().toString());
+		}
+		urls.add("http://example.com/track.mp3");
+
+		try (FileStatusBatchReader reader = new FileStatusBatchReader(new FileStatusCache(), 4)) {
+			List<Lookup> lookups = reader.readByUrl(urls);
+			assertEquals(urls.size(), lookups.size());
+			for (int i = 0; i < 50; i++) {
+				Lookup lookup = lookups.get(i);
+				assertEquals(urls.get(i), lookup.getContentUrl());
+				assertNull(lookup.getException());
+				assertEquals(new File(folder.getRoot(), "track" + i + ".mp3").getCanonicalFile(), lookup.getStatus()
+						.getCanonicalFile());
+				assertEquals(i % 3 != 0, lookup.getStatus().exists());
+			}
+			Lookup invalid = lookups.get(50);
+			assertNull(invalid.getStatus());
+			assertNotNull(invalid.getException());
+		}
+	}
+
+	@Test
+	public void testReadByUrlSequential() throws Exception {
+		File track = folder.newFile("track.mp3");
+		FileStatusCache cache = new FileStatusCache();
+		try (FileStatusBatchReader reader = new FileStatusBatchReader(cache, 1)) {
+			List<Lookup> lookups = reader.readByUrl(Arrays.asList(track.toURI().toString(), new File(
+					folder.getRoot(), "missing.mp3").toURI().toString()));
+			assertTrue(lookups.get(0).getStatus().exists());
+			assertFalse(lookups.get(1).getStatus().exists());
+			assertEquals(2, cache.getMisses());
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Assume;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache.FileStatus;
+
+public class FileStatusCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testGetByUrlCachesCanonicalPath() throws Exception {
+		File track = folder.newFile("track.mp3");
+		FileStatusCache cache = new FileStatusCache();
+
+		FileStatus byUrl = cache.getByUrl(track.toURI().toString());
+		assertTrue(byUrl.exists());
+		assertTrue(byUrl.isFile());
+		assertFalse(byUrl.isDirectory());
+		assertEquals(track.getCanonicalFile(), byUrl.getCanonicalFile());
+
+		assertSame(byUrl, cache.getByUrl(track.toURI().toString()));
+		assertSame(byUrl, cache.getByPath(track.getCanonicalPath()));
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testGetByPathNonExisting() throws Exception {
+		FileStatus status = new FileStatusCache().getByPath(new File(folder.getRoot(), "missing.mp3").getPath());
+		assertFalse(status.exists());
+		assertFalse(status.isFile());
+		assertFalse(status.isDirectory());
+	}
+
+	@Test
+	public void testGetByPathNotADirectory() throws Exception {
+		// Reading the status fails with "Not a directory" instead of "No such file"
+		File notADirectory = folder.newFile("track.mp3");
+		FileStatus status = new FileStatusCache().getByPath(new File(notADirectory, "missing.mp3").getPath());
+		assertFalse(status.exists());
+		assertFalse(status.isFile());
+	}
+
+	@Test
+	public void testGetByUrlUnreadable() throws Exception {
+		File directory = folder.newFolder("unreadable");
+		File track = new File(directory, "track.mp3");
+		assertTrue(track.createNewFile());
+		Path path = directory.toPath();
+		Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("---------"));
+		try {
+			try {
+				Files.readAttributes(track.toPath(), "size");
+				// E.g. when running as root
+				Assume.assumeTrue(false);
+			} catch (AccessDeniedException e) {
+				// Expected
+			}
+			FileStatus status = new FileStatusCache().getByUrl(track.toURI().toString());
+			assertFalse(status.exists());
+			assertFalse(track.exists());
+		} finally {
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rwx------"));
+		}
+	}
+
+	@Test
+	public void testBounded() throws Exception {
+		FileStatusCache cache = new FileStatusCache(2);
+		cache.getByPath(folder.newFile("a").getCanonicalPath());
+		cache.getByPath(folder.newFile("b").getCanonicalPath());
+		cache.getByPath(folder.newFile("c").getCanonicalPath());
+		assertEquals(2, cache.size());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void testBoundCountsFilesNotKeys() throws Exception {
+		File[] tracks = createTracks(10);
+		FileStatusCache cache = new FileStatusCache(tracks.length);
+		// Like the batch reader filling the cache before the exporter looks up the canonical paths
+		for (File track : tracks) {
+			cache.getByUrl(track.toURI().toString());
+		}
+		for (File track : tracks) {
+			assertTrue(cache.getByPath(track.getCanonicalPath()).exists());
+		}
+		assertEquals(tracks.length, cache.size());
+		assertEquals(tracks.length, cache.getMisses());
+		assertEquals(tracks.length, cache.getHits());
+	}
+
+	@Test
+	public void testMoreFilesThanBound() throws Exception {
+		File[] tracks = createTracks(15);
+		FileStatusCache cache = new FileStatusCache(10);
+		for (File track : tracks) {
+			cache.getByUrl(track.toURI().toString());
+		}
+		assertEquals(10, cache.size());
+		assertEquals(15, cache.getMisses());
+
+		// The 10 most recently used files are still cached by URL and canonical path
+		for (int i = 5; i < tracks.length; i++) {
+			cache.getByPath(tracks[i].getCanonicalPath());
+			cache.getByUrl(tracks[i].toURI().toString());
+		}
+		assertEquals(20, cache.getHits());
+		assertEquals(15, cache.getMisses());
+
+		// The least recently used ones were evicted with all of their keys
+		for (int i = 0; i < 5; i++) {
+			cache.getByUrl(tracks[i].toURI().toString());
+		}
+		assertEquals(20, cache.getMisses());
+		assertEquals(10, cache.size());
+	}
+
+	private File[] createTracks(final int count) throws Exception {
+		File[] tracks = new File[count];
+		for (int i = 0; i < count; i++) {
+			tracks[i] = folder.newFile("track" + i + ".mp3");
+		}
+		return tracks;
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FormatUtilsTest {
+	@Test
+	public void testJson() {
+		assertEquals("null", FormatUtils.json(null));
+		assertEquals("\"\"", FormatUtils.json(""));
+		assertEquals("\"Rock \\\"n\\\" Roll\"", FormatUtils.json("Rock \"n\" Roll"));
+		assertEquals("\"C:\\\\Music\"", FormatUtils.json("C:\\Music"));
+		assertEquals("\"a\\u000ab\\u0009c\\u0000\"", FormatUtils.json("a\nb\tc\0"));
+		assertEquals("\"\u00c4rger \u266b\"", FormatUtils.json("\u00c4rger \u266b"));
+	}
+}
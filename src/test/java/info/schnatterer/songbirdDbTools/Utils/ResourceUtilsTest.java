@@ -21,6 +21,7 @@ import static org.junit.Assert.fail;
 import org.junit.Test;
 
 import info.schnatterer.songbirdDbTools.Utils.ResourceUtils.PathResolutionException;
+import info.schnatterer.songbirdDbTools.Utils.ResourceUtils.Relativizer;
 
 public class ResourceUtilsTest {
 	@Test
@@ -83,4 +84,24 @@ public class ResourceUtilsTest {
 			// expected exception
 		}
 	}
+
+	@Test
+	public void testRelativizerReused() {
+		Relativizer relativizer = new Relativizer("/m/n/o/a/x/y/", "/");
+		assertEquals("../../b/c", relativizer.relativize("/m/n/o/a/b/c"));
+		assertEquals("z.mp3", relativizer.relativize("/m/n/o/a/x/y/z.mp3"));
+		assertEquals("../../../../b/c", relativizer.relativize("/m/n/b/c"));
+	}
+
+	@Test
+	public void testRelativizerNormalizesTarget() {
+		Relativizer relativizer = new Relativizer("C:\\Windows\\Speech\\Common\\sapisvr.exe", "\\");
+		assertEquals("..\\..\\Boot\\Fonts\\chs_boot.ttf",
+				relativizer.relativize("C:/Windows/Boot/./Fonts/../Fonts//chs_boot.ttf"));
+	}
+
+	@Test(expected = PathResolutionException.class)
+	public void testRelativizerDifferentDriveLetters() {
+		new Relativizer("C:\\Java\\workspace\\", "\\").relativize("D:\\sources\\recovery\\RecEnv.exe");
+	}
 }
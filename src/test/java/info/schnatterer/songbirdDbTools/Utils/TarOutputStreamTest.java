@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TarOutputStreamTest {
+	private static final int BLOCK = TarOutputStream.BLOCK_SIZE;
+
+	@Test
+	public void testWriteEntries() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] content = "#EXTM3U\n".getBytes(StandardCharsets.US_ASCII);
+		try (TarOutputStream tar = new TarOutputStream(out)) {
+			tar.putNextEntry("a/b.m3u", content.length, 1500000000000L);
+			tar.write(content);
+			tar.closeEntry();
+			tar.putNextEntry("empty", 0, 0);
+			tar.closeEntry();
+		}
+		byte[] tar = out.toByteArray();
+		// Header + content block, header of empty entry, end of archive
+		assertEquals(5 * BLOCK, tar.length);
+		assertEquals("a/b.m3u", field(tar, 0, 100));
+		assertEquals("00000000010", field(tar, 124, 12));
+		assertEquals(Long.toOctalString(1500000000L), field(tar, 136, 12).replaceFirst("^0+", ""));
+		assertEquals('0', tar[156]);
+		assertEquals("ustar", field(tar, 257, 6));
+		assertEquals(checksum(tar, 0), Integer.parseInt(field(tar, 148, 8).trim(), 8));
+		assertArrayEquals(content, Arrays.copyOfRange(tar, BLOCK, BLOCK + content.length));
+		assertEquals("empty", field(tar, 2 * BLOCK, 100));
+		assertArrayEquals(new byte[2 * BLOCK], Arrays.copyOfRange(tar, 3 * BLOCK, 5 * BLOCK));
+	}
+
+	@Test
+	public void testWriteLongName() throws Exception {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			name.append("ärger-").append(i).append('/');
+		}
+		name.append("track.mp3");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (TarOutputStream tar = new TarOutputStream(out)) {
+			tar.putNextEntry(name.toString(), 1, 0);
+			tar.write('x');
+			tar.closeEntry();
+		}
+		byte[] tar = out.toByteArray();
+		byte[] nameBytes = name.toString().getBytes(StandardCharsets.UTF_8);
+		assertEquals("././@LongLink", field(tar, 0, 100));
+		assertEquals('L', tar[156]);
+		assertEquals(nameBytes.length + 1, Integer.parseInt(field(tar, 124, 12), 8));
+		assertArrayEquals(nameBytes, Arrays.copyOfRange(tar, BLOCK, BLOCK + nameBytes.length));
+		int header = 2 * BLOCK;
+		assertEquals('0', tar[header + 156]);
+		assertEquals(checksum(tar, header), Integer.parseInt(field(tar, header + 148, 8).trim(), 8));
+		assertEquals('x', tar[header + BLOCK]);
+	}
+
+	@Test(expected = IOException.class)
+	public void testCloseIncompleteEntry() throws Exception {
+		try (TarOutputStream tar = new TarOutputStream(new ByteArrayOutputStream())) {
+			tar.putNextEntry("a", 2, 0);
+			tar.write('x');
+			tar.closeEntry();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriteBeyondEntry() throws Exception {
+		try (TarOutputStream tar = new TarOutputStream(new ByteArrayOutputStream())) {
+			tar.putNextEntry("a", 1, 0);
+			tar.write(new byte[2]);
+		}
+	}
+
+	private static String field(final byte[] tar, final int offset, final int length) {
+		int end = offset;
+		while (end < offset + length && tar[end] != 0) {
+			end++;
+		}
+		return new String(tar, offset, end - offset, StandardCharsets.UTF_8);
+	}
+
+	private static int checksum(final byte[] tar, final int header) {
+		int checksum = 0;
+		for (int i = header; i < header + BLOCK; i++) {
+			checksum += i >= header + 148 && i < header + 156 ? ' ' : tar[i] & 0xFF;
+		}
+		return checksum;
+	}
+}
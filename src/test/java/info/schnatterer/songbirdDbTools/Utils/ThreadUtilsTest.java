@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.junit.Test;
+
+public class ThreadUtilsTest {
+
+	@Test
+	public void testDaemonThreadFactory() {
+		ThreadFactory factory = ThreadUtils.daemonThreadFactory("test");
+		Thread first = factory.newThread(() -> {
+		});
+		Thread second = factory.newThread(() -> {
+		});
+
+		assertEquals("test-1", first.getName());
+		assertEquals("test-2", second.getName());
+		assertTrue(first.isDaemon());
+	}
+
+	@Test
+	public void testNewBoundedThreadPoolRunsInCallerWhenFull() throws Exception {
+		ExecutorService executor = ThreadUtils.newBoundedThreadPool(1, 1, "bounded");
+		try {
+			CountDownLatch blocked = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			List<Future<String>> threads = new ArrayList<Future<String>>();
+			// Occupies the only thread
+			threads.add(executor.submit(() -> {
+				blocked.countDown();
+				release.await();
+				return Thread.currentThread().getName();
+			}));
+			blocked.await();
+			// Fills the queue
+			threads.add(executor.submit(() -> Thread.currentThread().getName()));
+			// Runs in the caller
+			threads.add(executor.submit(() -> Thread.currentThread().getName()));
+			release.countDown();
+
+			assertEquals("bounded-1", threads.get(0).get());
+			assertEquals("bounded-1", threads.get(1).get());
+			assertEquals(Thread.currentThread().getName(), threads.get(2).get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
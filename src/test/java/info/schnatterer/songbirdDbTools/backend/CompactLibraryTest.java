@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompactLibraryTest {
+	private static final String URL_PREFIX = "file:///music/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SongbirdTestDatabase database;
+	private SongbirdDbReader reader;
+	private long[] tracks = new long[6];
+
+	@Before
+	public void setUp() throws Exception {
+		database = new SongbirdTestDatabase(folder.newFile("songbird.db"));
+		for (int i = 0; i < tracks.length; i++) {
+			tracks[i] = database.addTrack(URL_PREFIX + i);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (reader != null) {
+			reader.close();
+		}
+		database.close();
+	}
+
+	@Test
+	public void testMatchesReader() throws Exception {
+		long ordered = database.addPlaylist("Ordered");
+		database.addMember(ordered, tracks[0], "10");
+		database.addMember(ordered, tracks[1], "2");
+		database.addMember(ordered, tracks[2], "1.10");
+		database.addMember(ordered, tracks[3], "1");
+		database.addMember(ordered, tracks[4], "1.2");
+		// The same track twice
+		database.addMember(ordered, tracks[3], "1.1");
+		database.addPlaylist("Rock", tracks[5], tracks[0]);
+		database.addPlaylist(" rock ", tracks[1]);
+		database.addPlaylist("Empty");
+		database.addPlaylist(null, tracks[2]);
+		// Members are stored in a hidden list, which is no playlist itself
+		database.addSmartPlaylist("Smart", "", tracks[4], tracks[2]);
+		reader = database.openReader();
+
+		CompactLibrary library = CompactLibrary.load(reader);
+
+		assertEquals(tracks.length, library.getTrackCount());
+		assertEquals(6, library.getPlaylistCount());
+		assertEquals(reader.findPlaylistIds(), library.findPlaylistIds());
+		assertSamePlaylists(reader.findPlaylists(null), library.findPlaylists(null));
+		assertSamePlaylists(reader.findPlaylists(Arrays.asList("ROCK", " smart ", "Missing")),
+				library.findPlaylists(Arrays.asList("ROCK", " smart ", "Missing")));
+		assertEquals(Arrays.asList(URL_PREFIX + 3, URL_PREFIX + 3, URL_PREFIX + 4, URL_PREFIX + 2, URL_PREFIX + 1,
+				URL_PREFIX + 0), memberUrls(library.findPlaylists(Arrays.asList("Ordered")).get(0)));
+	}
+
+	@Test
+	public void testIndexes() throws Exception {
+		database.addPlaylist("B", tracks[5], tracks[1]);
+		database.addPlaylist("A", tracks[2]);
+		reader = database.openReader();
+
+		CompactLibrary library = CompactLibrary.load(reader);
+
+		assertEquals(2, library.indexOfTrack(tracks[2]));
+		assertEquals(URL_PREFIX + 2, library.getTrackUrl(library.indexOfTrack(tracks[2])));
+		assertTrue(library.indexOfTrack(tracks[5] + 100) < 0);
+		assertTrue(library.indexOfTrack(Long.MAX_VALUE) < 0);
+		// Ordered by name
+		assertEquals("A", library.getPlaylistName(0));
+		assertEquals(Arrays.asList(2), boxed(library, 0));
+		assertEquals("B", library.getPlaylistName(1));
+		assertEquals(Arrays.asList(5, 1), boxed(library, 1));
+	}
+
+	@Test
+	public void testTrackIdOutOfRange() throws Exception {
+		database.execute("UPDATE media_items SET media_item_id = 3000000000 WHERE media_item_id = " + tracks[0]);
+		reader = database.openReader();
+
+		try {
+			CompactLibrary.load(reader);
+			fail("Expected SQLException");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("3000000000"));
+		}
+	}
+
+	private static void assertSamePlaylists(final List<SongbirdPlaylist> expected,
+			final List<SongbirdPlaylist> actual) throws SQLException {
+		assertEquals(describe(expected), describe(actual));
+	}
+
+	/**
+	 * @return id, name, type and member URLs of each playlist
+	 */
+	private static List<String> describe(final Collection<SongbirdPlaylist> playlists) throws SQLException {
+		List<String> descriptions = new ArrayList<String>();
+		for (SongbirdPlaylist playlist : playlists) {
+			descriptions.add(playlist.getId() + " " + playlist.getName() + " " + playlist.isDynamic() + " "
+					+ memberUrls(playlist));
+		}
+		return descriptions;
+	}
+
+	private static List<String> memberUrls(final SongbirdPlaylist playlist) throws SQLException {
+		List<String> urls = new ArrayList<String>();
+		playlist.readMemberUrls(urls::add);
+		return urls;
+	}
+
+	private static List<Integer> boxed(final CompactLibrary library, final int playlist) {
+		return library.getPlaylistMembers(playlist).boxed().collect(Collectors.toList());
+	}
+}
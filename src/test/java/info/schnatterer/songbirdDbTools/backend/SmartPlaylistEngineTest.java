@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SmartPlaylistEngineTest {
+	private static final long NOW = 1400000000000L;
+	private static final String URL_PREFIX = "file:///music/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SongbirdTestDatabase database;
+	private long help;
+	private long surfin;
+	private long waterloo;
+	private long bohemian;
+	private long hidden;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new SongbirdTestDatabase(folder.newFile("songbird.db"));
+		help = database.addTrack(URL_PREFIX + "Help", "trackName", "Help", "artistName", "Beatles", "rating", "5",
+				"playCount", "10", "created", daysAgo(1), "duration", "180000000", "contentLength", "3000000");
+		surfin = database.addTrack(URL_PREFIX + "Surfin", "trackName", "Surfin", "artistName", "Beach Boys",
+				"rating", "4", "playCount", "0", "created", daysAgo(10), "duration", "120000000", "contentLength",
+				"2000000", "isPartOfCompilation", "0");
+		waterloo = database.addTrack(URL_PREFIX + "Waterloo", "trackName", "Waterloo", "artistName", "ABBA",
+				"rating", "2", "playCount", "3", "created", daysAgo(40), "duration", "240000000", "contentLength",
+				"4000000", "isPartOfCompilation", "1");
+		bohemian = database.addTrack(URL_PREFIX + "Bohemian", "trackName", "Bohemian Rhapsody", "artistName",
+				"Queen", "playCount", "7", "created", daysAgo(100), "duration", "360000000", "contentLength",
+				"6000000");
+		// Would match most conditions, but is hidden
+		hidden = database.addTrack(URL_PREFIX + "Hidden", "trackName", "Hidden", "artistName", "Beatles", "rating",
+				"5", "playCount", "99", "created", daysAgo(0), "duration", "1", "contentLength", "1",
+				"isPartOfCompilation", "1", "hidden", "1");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		database.close();
+	}
+
+	@Test
+	public void testOperators() throws Exception {
+		Map<String, List<String>> expected = new HashMap<String, List<String>>();
+		expected.put(condition("rating", "=", "5"), Arrays.asList("Help"));
+		expected.put(condition("rating", "!=", "5"), Arrays.asList("Surfin", "Waterloo", "Bohemian"));
+		expected.put(condition("rating", ">", "2"), Arrays.asList("Help", "Surfin"));
+		expected.put(condition("rating", ">=", "2"), Arrays.asList("Help", "Surfin", "Waterloo"));
+		// Tracks without a value are less than any value
+		expected.put(condition("rating", "<", "4"), Arrays.asList("Waterloo", "Bohemian"));
+		expected.put(condition("rating", "<=", "4"), Arrays.asList("Surfin", "Waterloo", "Bohemian"));
+		expected.put(condition("artistName", "=", "abba"), Arrays.asList("Waterloo"));
+		expected.put(condition("artistName", "?", "BEA"), Arrays.asList("Help", "Surfin"));
+		expected.put(condition("artistName", "!?", "BEA"), Arrays.asList("Waterloo", "Bohemian"));
+		expected.put(condition("artistName", "=?", "b"), Arrays.asList("Help", "Surfin"));
+		expected.put(condition("artistName", "!=?", "b"), Arrays.asList("Waterloo", "Bohemian"));
+		expected.put(condition("artistName", "?=", "A"), Arrays.asList("Waterloo"));
+		expected.put(condition("artistName", "!?=", "A"), Arrays.asList("Help", "Surfin", "Bohemian"));
+		expected.put(condition("rating", "!!", ""), Arrays.asList("Help", "Surfin", "Waterloo"));
+		expected.put(condition("rating", "!", ""), Arrays.asList("Bohemian"));
+		expected.put(condition("isPartOfCompilation", "!0", ""), Arrays.asList("Waterloo"));
+		expected.put(condition("isPartOfCompilation", "0", ""), Arrays.asList("Help", "Surfin", "Bohemian"));
+		List<String> conditions = new ArrayList<String>(expected.keySet());
+		for (String condition : conditions) {
+			database.addSmartPlaylist(condition, state(1, 0, 0, null, false, condition));
+		}
+
+		Map<String, List<String>> members = evaluate();
+
+		for (String condition : conditions) {
+			assertEquals(condition, expected.get(condition), members.get(condition));
+		}
+	}
+
+	@Test
+	public void testMatchTypes() throws Exception {
+		String rated = condition("rating", ">=", "4");
+		String beachBoys = condition("artistName", "?", "beach");
+		database.addSmartPlaylist("any", state(0, 0, 0, null, false, rated, beachBoys));
+		database.addSmartPlaylist("all", state(1, 0, 0, null, false, rated, beachBoys));
+		database.addSmartPlaylist("none", state(2, 0, 0, null, false, rated, beachBoys));
+
+		Map<String, List<String>> members = evaluate();
+
+		assertEquals(Arrays.asList("Help", "Surfin"), members.get("any"));
+		assertEquals(Arrays.asList("Surfin"), members.get("all"));
+		assertEquals(Arrays.asList("Waterloo", "Bohemian"), members.get("none"));
+	}
+
+	@Test
+	public void testBetween() throws Exception {
+		database.addSmartPlaylist("numbers", state(1, 0, 0, null, false, condition("rating", "-", "2", "4")));
+		database.addSmartPlaylist("text", state(1, 0, 0, null, false, condition("artistName", "-", "b", "bz")));
+
+		Map<String, List<String>> members = evaluate();
+
+		assertEquals(Arrays.asList("Surfin", "Waterloo"), members.get("numbers"));
+		assertEquals(Arrays.asList("Help", "Surfin"), members.get("text"));
+	}
+
+	@Test
+	public void testInTheLast() throws Exception {
+		String thirtyDays = Long.toString(TimeUnit.DAYS.toMillis(30));
+		database.addSmartPlaylist("in", state(1, 0, 0, null, false, condition("created", "-<", thirtyDays)));
+		database.addSmartPlaylist("notIn", state(1, 0, 0, null, false, condition("created", "!-<", thirtyDays)));
+
+		Map<String, List<String>> members = evaluate();
+
+		assertEquals(Arrays.asList("Help", "Surfin"), members.get("in"));
+		assertEquals(Arrays.asList("Waterloo", "Bohemian"), members.get("notIn"));
+	}
+
+	@Test
+	public void testSelectAndLimitItems() throws Exception {
+		database.addSmartPlaylist("best", state(1, 1, 2, "rating", false));
+		// Tracks without a value come first
+		database.addSmartPlaylist("worst", state(1, 1, 2, "rating", true));
+		database.addSmartPlaylist("byTitle", state(1, 0, 0, "trackName", true));
+		database.addSmartPlaylist("more", state(1, 1, 10, null, false));
+
+		Map<String, List<String>> members = evaluate();
+
+		assertEquals(Arrays.asList("Help", "Surfin"), members.get("best"));
+		assertEquals(Arrays.asList("Bohemian", "Waterloo"), members.get("worst"));
+		assertEquals(Arrays.asList("Bohemian", "Help", "Surfin", "Waterloo"), members.get("byTitle"));
+		assertEquals(Arrays.asList("Help", "Surfin", "Waterloo", "Bohemian"), members.get("more"));
+	}
+
+	@Test
+	public void testLimitDuration() throws Exception {
+		// 400 seconds: Help (180s) and Surfin (120s) fit, Waterloo (240s) does not
+		database.addSmartPlaylist("usecs", state(1, 2, 400000000L, null, false));
+
+		assertEquals(Arrays.asList("Help", "Surfin"), evaluate().get("usecs"));
+	}
+
+	@Test
+	public void testLimitBytes() throws Exception {
+		// Most played first: Help (3MB) and Bohemian (6MB) fit exactly, Waterloo (4MB) does not
+		database.addSmartPlaylist("bytes", state(1, 3, 9000000L, "playCount", false));
+
+		assertEquals(Arrays.asList("Help", "Bohemian"), evaluate().get("bytes"));
+	}
+
+	@Test
+	public void testHiddenTracksNeverMatch() throws Exception {
+		database.addSmartPlaylist("all", state(1, 0, 0, null, false));
+		database.addSmartPlaylist("beatles", state(1, 0, 0, null, false, condition("artistName", "=", "Beatles")));
+
+		Map<String, List<String>> members = evaluate();
+
+		assertEquals(Arrays.asList("Help", "Surfin", "Waterloo", "Bohemian"), members.get("all"));
+		assertEquals(Arrays.asList("Help"), members.get("beatles"));
+	}
+
+	@Test
+	public void testRecentlyAdded() throws Exception {
+		database.addSmartPlaylist("&smart.defaultlist.recentlyadded", SmartPlaylistRulesTest.RECENTLY_ADDED, hidden);
+
+		// Waterloo was added within the last 60 days as well, but exceeds the limit
+		assertEquals(Arrays.asList("Help", "Surfin"), evaluate().get("&smart.defaultlist.recentlyadded"));
+	}
+
+	@Test
+	public void testHighestRated() throws Exception {
+		database.addSmartPlaylist("&smart.defaultlist.highestrated", SmartPlaylistRulesTest.HIGHEST_RATED, bohemian);
+
+		// Waterloo is rated 2 stars as well, but exceeds the limit
+		assertEquals(Arrays.asList("Help", "Surfin"), evaluate().get("&smart.defaultlist.highestrated"));
+	}
+
+	@Test
+	public void testKeepsStoredMembersIfNotEvaluable() throws Exception {
+		database.addSmartPlaylist("random", "randomSelection=1&limitType=1&limit=2", bohemian, surfin);
+		database.addSmartPlaylist("unknown", "condition0=property%3Drating%26operator%3D~", waterloo);
+		database.addPlaylist("simple", help, waterloo);
+
+		Map<String, List<String>> members = evaluate();
+
+		assertEquals(Arrays.asList("Bohemian", "Surfin"), members.get("random"));
+		assertEquals(Arrays.asList("Waterloo"), members.get("unknown"));
+		assertEquals(Arrays.asList("Help", "Waterloo"), members.get("simple"));
+	}
+
+	@Test
+	public void testWithoutSmartPlaylists() throws Exception {
+		database.addPlaylist("simple", help);
+
+		try (SongbirdDbReader dbReader = database.openReader()) {
+			List<SongbirdPlaylist> playlists = dbReader.findPlaylists(null);
+			assertSame(playlists, new SmartPlaylistEngine(dbReader).evaluate(playlists, NOW));
+		}
+	}
+
+	/**
+	 * Evaluates all playlists of {@link #database}.
+	 * 
+	 * @return the names of the URLs of the members by playlist name
+	 */
+	private Map<String, List<String>> evaluate() throws Exception {
+		Map<String, List<String>> members = new HashMap<String, List<String>>();
+		try (SongbirdDbReader dbReader = database.openReader()) {
+			for (SongbirdPlaylist playlist : new SmartPlaylistEngine(dbReader).evaluate(dbReader.findPlaylists(null),
+					NOW)) {
+				List<String> names = new ArrayList<String>();
+				playlist.readMemberUrls(url -> names.add(url.substring(URL_PREFIX.length())));
+				members.put(playlist.getName(), names);
+			}
+		}
+		return members;
+	}
+
+	private static String daysAgo(final int days) {
+		return Long.toString(NOW - TimeUnit.DAYS.toMillis(days));
+	}
+
+	private static String condition(final String property, final String operator, final String leftValue) {
+		return condition(property, operator, leftValue, "");
+	}
+
+	private static String condition(final String property, final String operator, final String leftValue,
+			final String rightValue) {
+		return "property=" + encode(SongbirdTestDatabase.NAMESPACE + property) + "&operator=" + encode(operator)
+				+ "&leftValue=" + encode(leftValue) + "&rightValue=" + encode(rightValue) + "&displayUnit=";
+	}
+
+	private static String state(final int matchType, final int limitType, final long limit,
+			final String selectProperty, final boolean selectAscending, final String... conditions) {
+		StringBuilder state = new StringBuilder("matchType=" + matchType + "&limitType=" + limitType + "&limit="
+				+ limit + "&selectPropertyID="
+				+ (selectProperty != null ? encode(SongbirdTestDatabase.NAMESPACE + selectProperty) : "")
+				+ "&selectDirection=" + (selectAscending ? 1 : 0) + "&randomSelection=0&autoUpdate=1");
+		for (int i = 0; i < conditions.length; i++) {
+			state.append("&condition").append(i).append('=').append(encode(conditions[i]));
+		}
+		return state.toString();
+	}
+
+	private static String encode(final String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
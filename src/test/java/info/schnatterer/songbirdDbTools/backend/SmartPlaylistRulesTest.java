@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import info.schnatterer.songbirdDbTools.backend.SmartPlaylistRules.Condition;
+import info.schnatterer.songbirdDbTools.backend.SmartPlaylistRules.LimitType;
+import info.schnatterer.songbirdDbTools.backend.SmartPlaylistRules.MatchType;
+import info.schnatterer.songbirdDbTools.backend.SmartPlaylistRules.Operator;
+
+public class SmartPlaylistRulesTest {
+	private static final String NAMESPACE = SongbirdTestDatabase.NAMESPACE;
+
+	/** "Recently added" in the format songbird stores it: added within the last 60 days, the 2 newest tracks. */
+	static final String RECENTLY_ADDED = "matchType=1&limitType=1&limit=2&selectPropertyID=http%3A%2F%2F"
+			+ "songbirdnest.com%2Fdata%2F1.0%23created&selectDirection=0&randomSelection=0&autoUpdate=1&condition0="
+			+ "property%3Dhttp%253A%252F%252Fsongbirdnest.com%252Fdata%252F1.0%2523created%26operator%3D-%253C%26"
+			+ "leftValue%3D5184000000%26rightValue%3D%26displayUnit%3Dd";
+
+	/** "Highest rated" in the format songbird stores it: rated 2 stars or more, the 2 best rated tracks. */
+	static final String HIGHEST_RATED = "matchType=1&limitType=1&limit=2&selectPropertyID=http%3A%2F%2F"
+			+ "songbirdnest.com%2Fdata%2F1.0%23rating&selectDirection=0&randomSelection=0&autoUpdate=1&condition0="
+			+ "property%3Dhttp%253A%252F%252Fsongbirdnest.com%252Fdata%252F1.0%2523rating%26operator%3D%253E%253D%26"
+			+ "leftValue%3D2%26rightValue%3D%26displayUnit%3D";
+
+	@Test
+	public void testParseRecentlyAdded() {
+		SmartPlaylistRules rules = SmartPlaylistRules.parse(RECENTLY_ADDED);
+
+		assertEquals(MatchType.ALL, rules.getMatchType());
+		assertEquals(LimitType.ITEMS, rules.getLimitType());
+		assertEquals(2, rules.getLimit());
+		assertEquals(NAMESPACE + "created", rules.getSelectProperty());
+		assertFalse(rules.isSelectAscending());
+		assertFalse(rules.isRandomSelection());
+		assertEquals(1, rules.getConditions().size());
+		Condition condition = rules.getConditions().get(0);
+		assertEquals(NAMESPACE + "created", condition.getProperty());
+		assertEquals(Operator.IN_THE_LAST, condition.getOperator());
+		assertEquals("5184000000", condition.getLeftValue());
+		assertEquals("", condition.getRightValue());
+	}
+
+	@Test
+	public void testParseHighestRated() {
+		SmartPlaylistRules rules = SmartPlaylistRules.parse(HIGHEST_RATED);
+
+		assertEquals(NAMESPACE + "rating", rules.getSelectProperty());
+		Condition condition = rules.getConditions().get(0);
+		assertEquals(NAMESPACE + "rating", condition.getProperty());
+		assertEquals(Operator.GREATER_EQUAL, condition.getOperator());
+		assertEquals("2", condition.getLeftValue());
+		assertEquals(Arrays.asList(NAMESPACE + "rating"), Arrays.asList(rules.getProperties().toArray()));
+	}
+
+	@Test
+	public void testParseMatchTypesAndLimitTypes() {
+		assertEquals(MatchType.ANY, SmartPlaylistRules.parse("matchType=0").getMatchType());
+		assertEquals(MatchType.ALL, SmartPlaylistRules.parse("matchType=1").getMatchType());
+		assertEquals(MatchType.NONE, SmartPlaylistRules.parse("matchType=2").getMatchType());
+		assertEquals(MatchType.ALL, SmartPlaylistRules.parse("").getMatchType());
+
+		assertEquals(LimitType.NONE, SmartPlaylistRules.parse("limitType=0").getLimitType());
+		assertEquals(LimitType.ITEMS, SmartPlaylistRules.parse("limitType=1").getLimitType());
+		assertEquals(LimitType.USECS, SmartPlaylistRules.parse("limitType=2").getLimitType());
+		assertEquals(LimitType.BYTES, SmartPlaylistRules.parse("limitType=3").getLimitType());
+	}
+
+	@Test
+	public void testParseOperators() {
+		String[] songbirdOperators = { "=", "!=", ">", ">=", "<", "<=", "?", "!?", "=?", "!=?", "?=", "!?=", "-", "!!",
+				"!", "!0", "0", "-<", "!-<" };
+		Operator[] expected = { Operator.EQUALS, Operator.NOT_EQUALS, Operator.GREATER, Operator.GREATER_EQUAL,
+				Operator.LESS, Operator.LESS_EQUAL, Operator.CONTAINS, Operator.NOT_CONTAINS, Operator.BEGINS_WITH,
+				Operator.NOT_BEGINS_WITH, Operator.ENDS_WITH, Operator.NOT_ENDS_WITH, Operator.BETWEEN,
+				Operator.IS_SET, Operator.IS_NOT_SET, Operator.IS_TRUE, Operator.IS_FALSE, Operator.IN_THE_LAST,
+				Operator.NOT_IN_THE_LAST };
+		assertEquals(Operator.values().length, songbirdOperators.length);
+		for (int i = 0; i < songbirdOperators.length; i++) {
+			assertEquals(expected[i], Operator.fromSongbird(songbirdOperators[i]));
+			assertEquals(songbirdOperators[i], expected[i].getSongbirdOperator());
+		}
+	}
+
+	@Test
+	public void testParseKeepsConditionOrder() {
+		SmartPlaylistRules rules = SmartPlaylistRules.parse("condition10=property%3Dc%26operator%3D%253D"
+				+ "&condition2=property%3Db%26operator%3D%253D&condition0=property%3Da%26operator%3D%253D"
+				+ "&conditionCount=3");
+
+		List<Condition> conditions = rules.getConditions();
+		assertEquals(3, conditions.size());
+		assertEquals("a", conditions.get(0).getProperty());
+		assertEquals("b", conditions.get(1).getProperty());
+		assertEquals("c", conditions.get(2).getProperty());
+	}
+
+	@Test
+	public void testParseDecodesValues() {
+		SmartPlaylistRules rules = SmartPlaylistRules.parse("condition0=property%3Dhttp%253A%252F%252F"
+				+ "songbirdnest.com%252Fdata%252F1.0%2523artistName%26operator%3D-%26leftValue%3DSigur%2BR%25C3%25B3s"
+				+ "%26rightValue%3D%25C3%2584rzte&selectPropertyID=");
+
+		Condition condition = rules.getConditions().get(0);
+		assertEquals(NAMESPACE + "artistName", condition.getProperty());
+		assertEquals(Operator.BETWEEN, condition.getOperator());
+		assertEquals("Sigur Rós", condition.getLeftValue());
+		assertEquals("Ärzte", condition.getRightValue());
+		assertNull(rules.getSelectProperty());
+		assertTrue(rules.getProperties().contains(NAMESPACE + "artistName"));
+	}
+
+	@Test
+	public void testParseRejectsMalformedStates() {
+		String[] states = { "matchType=3", "limitType=x", "limit=many", "condition0=operator%3D%253D",
+				"condition0=property%3Da%26operator%3D%253D%253D", "condition0=property%3Da%26operator%3D-%253C"
+						+ "%26leftValue%3Dweek" };
+		for (String state : states) {
+			try {
+				SmartPlaylistRules.parse(state);
+				fail("Expected IllegalArgumentException for " + state);
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SongbirdDbReaderTest {
+	private static final String URL_PREFIX = "file:///music/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SongbirdTestDatabase database;
+	private SongbirdDbReader reader;
+	private long[] tracks = new long[6];
+
+	@Before
+	public void setUp() throws Exception {
+		database = new SongbirdTestDatabase(folder.newFile("songbird.db"));
+		for (int i = 0; i < tracks.length; i++) {
+			tracks[i] = database.addTrack(URL_PREFIX + i);
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (reader != null) {
+			reader.close();
+		}
+		database.close();
+	}
+
+	@Test
+	public void testFindPlaylists() throws Exception {
+		long rock = database.addPlaylist("Rock", tracks[0]);
+		long rockLower = database.addPlaylist(" rock ", tracks[1]);
+		long pop = database.addPlaylist("Pop");
+		long unnamed = database.addPlaylist(null, tracks[2]);
+		long smart = database.addSmartPlaylist("Smart", "", tracks[3]);
+
+		List<SongbirdPlaylist> playlists = openReader().findPlaylists(null);
+
+		// Lists without name are returned, so the export can report them. Hidden storage lists are not.
+		assertEquals(Arrays.asList(null, " rock ", "Pop", "Rock", "Smart"), names(playlists));
+		assertEquals(Arrays.asList(id(unnamed), id(rockLower), id(pop), id(rock), id(smart)), ids(playlists));
+		assertEquals(Arrays.asList(false, false, false, false, true), dynamic(playlists));
+		assertEquals(new HashSet<String>(ids(playlists)), reader.findPlaylistIds());
+	}
+
+	@Test
+	public void testFindPlaylistsByName() throws Exception {
+		long rock = database.addPlaylist("Rock");
+		long rockLower = database.addPlaylist(" rock ");
+		database.addPlaylist("Pop");
+		database.addPlaylist(null);
+		long smart = database.addSmartPlaylist("Smart", "");
+
+		List<SongbirdPlaylist> playlists = openReader().findPlaylists(Arrays.asList("ROCK  ", " smart", "Missing"));
+
+		// Compared trimmed and case insensitive
+		assertEquals(Arrays.asList(id(rockLower), id(rock), id(smart)), ids(playlists));
+		assertEquals(5, reader.findPlaylists(new ArrayList<String>()).size());
+	}
+
+	@Test
+	public void testReadMemberUrlsOrdering() throws Exception {
+		long list = database.addPlaylist("List");
+		database.addMember(list, tracks[0], "10");
+		database.addMember(list, tracks[1], "2");
+		database.addMember(list, tracks[2], "1.10");
+		database.addMember(list, tracks[3], "1");
+		database.addMember(list, tracks[4], "1.2");
+		database.addMember(list, tracks[5], "1.1");
+		database.addPlaylist("Other", tracks[0]);
+
+		List<String> urls = new ArrayList<String>();
+		openReader().readMemberUrls(list, urls::add);
+
+		assertEquals(Arrays.asList(URL_PREFIX + 3, URL_PREFIX + 5, URL_PREFIX + 4, URL_PREFIX + 2, URL_PREFIX + 1,
+				URL_PREFIX + 0), urls);
+	}
+
+	@Test
+	public void testReadMemberUrlsOfSmartPlaylist() throws Exception {
+		database.addSmartPlaylist("Smart", "", tracks[2], tracks[1]);
+
+		List<String> urls = new ArrayList<String>();
+		openReader().findPlaylists(null).get(0).readMemberUrls(urls::add);
+
+		// Read from the storage list
+		assertEquals(Arrays.asList(URL_PREFIX + 2, URL_PREFIX + 1), urls);
+	}
+
+	@Test
+	public void testCompareOrdinals() {
+		assertEquals(0, SongbirdDbReader.compareOrdinals("1.2", "1.2"));
+		assertTrue(SongbirdDbReader.compareOrdinals("2", "10") < 0);
+		assertTrue(SongbirdDbReader.compareOrdinals("10", "2") > 0);
+		assertTrue(SongbirdDbReader.compareOrdinals("1", "1.1") < 0);
+		assertTrue(SongbirdDbReader.compareOrdinals("1.1", "2") < 0);
+		assertTrue(SongbirdDbReader.compareOrdinals("1.9", "1.10") < 0);
+		assertTrue(SongbirdDbReader.compareOrdinals("1.10", "1.9") > 0);
+		// Not numerical: compared as strings
+		assertTrue(SongbirdDbReader.compareOrdinals("a", "b") < 0);
+		assertTrue(SongbirdDbReader.compareOrdinals("1.b", "1.a") > 0);
+		assertFalse(SongbirdDbReader.compareOrdinals("9", "a") == 0);
+	}
+
+	private SongbirdDbReader openReader() throws Exception {
+		reader = database.openReader();
+		return reader;
+	}
+
+	private static String id(final long mediaItemId) {
+		return String.valueOf(mediaItemId);
+	}
+
+	private static List<String> ids(final List<SongbirdPlaylist> playlists) {
+		List<String> ids = new ArrayList<String>();
+		for (SongbirdPlaylist playlist : playlists) {
+			ids.add(playlist.getId());
+		}
+		return ids;
+	}
+
+	private static List<String> names(final List<SongbirdPlaylist> playlists) {
+		List<String> names = new ArrayList<String>();
+		for (SongbirdPlaylist playlist : playlists) {
+			names.add(playlist.getName());
+		}
+		return names;
+	}
+
+	private static List<Boolean> dynamic(final List<SongbirdPlaylist> playlists) {
+		List<Boolean> dynamic = new ArrayList<Boolean>();
+		for (SongbirdPlaylist playlist : playlists) {
+			dynamic.add(playlist.isDynamic());
+		}
+		return dynamic;
+	}
+}
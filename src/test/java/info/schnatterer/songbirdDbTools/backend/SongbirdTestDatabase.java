@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.backend;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates a songbird database containing only the tables and columns read by {@link SongbirdDbReader}, for tests.
+ * Properties are passed without the songbird namespace, e.g. <code>"rating", "5"</code>.
+ */
+public final class SongbirdTestDatabase implements AutoCloseable {
+	/** Namespace of the songbird properties. */
+	public static final String NAMESPACE = "http://songbirdnest.com/data/1.0#";
+
+	/** Properties stored as columns of <code>media_items</code>, mapped to their column. */
+	private static final Map<String, String> COLUMNS = new HashMap<String, String>();
+	static {
+		COLUMNS.put("created", "created");
+		COLUMNS.put("updated", "updated");
+		COLUMNS.put("contentLength", "content_length");
+		COLUMNS.put("contentMimeType", "content_mime_type");
+		COLUMNS.put("hidden", "hidden");
+	}
+
+	private static final List<String> SCHEMA = Arrays.asList(
+			"CREATE TABLE properties (property_id INTEGER PRIMARY KEY AUTOINCREMENT, property_name TEXT NOT NULL "
+					+ "UNIQUE)",
+			"CREATE TABLE media_list_types (media_list_type_id INTEGER PRIMARY KEY AUTOINCREMENT, type TEXT UNIQUE "
+					+ "NOT NULL, factory_contractid TEXT NOT NULL)",
+			"CREATE TABLE media_items (media_item_id INTEGER PRIMARY KEY AUTOINCREMENT, guid TEXT UNIQUE NOT NULL, "
+					+ "created INTEGER NOT NULL, updated INTEGER NOT NULL, content_url TEXT NOT NULL, "
+					+ "content_mime_type TEXT, content_length INTEGER, content_hash TEXT, hidden INTEGER NOT NULL, "
+					+ "media_list_type_id INTEGER, metadata_hash_identity TEXT, is_list INTEGER NOT NULL DEFAULT 0)",
+			"CREATE TABLE resource_properties (media_item_id INTEGER NOT NULL, property_id INTEGER NOT NULL, "
+					+ "obj TEXT NOT NULL, obj_searchable TEXT, obj_sortable TEXT, "
+					+ "PRIMARY KEY (media_item_id, property_id))",
+			"CREATE TABLE simple_media_lists (media_item_id INTEGER NOT NULL, member_media_item_id INTEGER NOT NULL, "
+					+ "ordinal TEXT NOT NULL)",
+			"INSERT INTO media_list_types (type, factory_contractid) VALUES ('simple', "
+					+ "'@songbirdnest.com/Songbird/Library/LocalDatabase/SimpleMediaListFactory;1')",
+			"INSERT INTO media_list_types (type, factory_contractid) VALUES ('smart', "
+					+ "'@songbirdnest.com/Songbird/Library/LocalDatabase/SmartMediaListFactory;1')");
+
+	private final File file;
+	private final Connection connection;
+	private int guids = 0;
+
+	/**
+	 * Creates the database.
+	 * 
+	 * @param file
+	 *            the database file, must not exist
+	 */
+	public SongbirdTestDatabase(final File file) throws ClassNotFoundException, SQLException {
+		this.file = file;
+		Class.forName("org.sqlite.JDBC");
+		connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+		try (Statement statement = connection.createStatement()) {
+			for (String sql : SCHEMA) {
+				statement.executeUpdate(sql);
+			}
+		}
+	}
+
+	/**
+	 * Adds a track.
+	 * 
+	 * @param contentUrl
+	 *            the location of the track
+	 * @param properties
+	 *            pairs of property name and value
+	 * @return the media item id of the track
+	 */
+	public long addTrack(final String contentUrl, final String... properties) throws SQLException {
+		return addItem(contentUrl, null, properties);
+	}
+
+	/**
+	 * Adds a simple playlist.
+	 * 
+	 * @param name
+	 *            the name of the playlist, <code>null</code> for a list without name
+	 * @param members
+	 *            the media item ids of the members, in playlist order
+	 * @return the media item id of the playlist
+	 */
+	public long addPlaylist(final String name, final long... members) throws SQLException {
+		long listId = name != null ? addItem("songbird-medialist://" + name, "simple", "mediaListName", name)
+				: addItem("songbird-medialist://", "simple");
+		addMembers(listId, members);
+		return listId;
+	}
+
+	/**
+	 * Adds a member to a list with a specific ordinal.
+	 * 
+	 * @param listId
+	 *            the media item id of the list
+	 * @param member
+	 *            the media item id of the member
+	 * @param ordinal
+	 *            the songbird ordinal, e.g. <code>"1.2"</code>
+	 */
+	public void addMember(final long listId, final long member, final String ordinal) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("INSERT INTO simple_media_lists "
+				+ "(media_item_id, member_media_item_id, ordinal) VALUES (?, ?, ?)")) {
+			statement.setLong(1, listId);
+			statement.setLong(2, member);
+			statement.setString(3, ordinal);
+			statement.executeUpdate();
+		}
+	}
+
+	/**
+	 * Adds a smart playlist, storing its members in a hidden simple list like songbird does.
+	 * 
+	 * @param name
+	 *            the name of the playlist
+	 * @param state
+	 *            the rules, see {@link SmartPlaylistRules#parse(String)}
+	 * @param storedMembers
+	 *            the media item ids of the members songbird materialized
+	 * @return the media item id of the playlist
+	 */
+	public long addSmartPlaylist(final String name, final String state, final long... storedMembers)
+			throws SQLException {
+		long storageId = addItem("songbird-medialist://storage", "simple", "hidden", "1");
+		addMembers(storageId, storedMembers);
+		return addItem("songbird-medialist://" + name, "smart", "mediaListName", name, "smartMediaListState", state,
+				"storageGUID", guid(storageId));
+	}
+
+	/**
+	 * Executes an SQL statement, e.g. to create data the other methods cannot.
+	 * 
+	 * @param sql
+	 *            the statement
+	 */
+	public void execute(final String sql) throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.executeUpdate(sql);
+		}
+	}
+
+	/** @return a reader on the database */
+	public SongbirdDbReader openReader() throws SQLException {
+		return new SongbirdDbReader(file.getPath());
+	}
+
+	@Override
+	public void close() throws SQLException {
+		connection.close();
+	}
+
+	private long addItem(final String contentUrl, final String listType, final String... properties)
+			throws SQLException {
+		long id;
+		try (PreparedStatement statement = connection.prepareStatement("INSERT INTO media_items (guid, created, "
+				+ "updated, content_url, hidden, media_list_type_id) VALUES (?, 0, 0, ?, 0, (SELECT "
+				+ "media_list_type_id FROM media_list_types WHERE type = ?))")) {
+			statement.setString(1, "guid-" + guids++);
+			statement.setString(2, contentUrl);
+			statement.setString(3, listType);
+			statement.executeUpdate();
+		}
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery("SELECT last_insert_rowid()")) {
+			rs.next();
+			id = rs.getLong(1);
+		}
+		for (int i = 0; i < properties.length; i += 2) {
+			setProperty(id, properties[i], properties[i + 1]);
+		}
+		return id;
+	}
+
+	private void setProperty(final long mediaItemId, final String property, final String value)
+			throws SQLException {
+		String column = COLUMNS.get(property);
+		if (column != null) {
+			try (PreparedStatement statement = connection.prepareStatement("UPDATE media_items SET " + column
+					+ " = ? WHERE media_item_id = ?")) {
+				statement.setString(1, value);
+				statement.setLong(2, mediaItemId);
+				statement.executeUpdate();
+			}
+			return;
+		}
+		try (PreparedStatement statement = connection
+				.prepareStatement("INSERT OR IGNORE INTO properties (property_name) VALUES (?)")) {
+			statement.setString(1, NAMESPACE + property);
+			statement.executeUpdate();
+		}
+		try (PreparedStatement statement = connection.prepareStatement("INSERT INTO resource_properties "
+				+ "(media_item_id, property_id, obj) VALUES (?, (SELECT property_id FROM properties WHERE "
+				+ "property_name = ?), ?)")) {
+			statement.setLong(1, mediaItemId);
+			statement.setString(2, NAMESPACE + property);
+			statement.setString(3, value);
+			statement.executeUpdate();
+		}
+	}
+
+	private void addMembers(final long listId, final long... members) throws SQLException {
+		for (int i = 0; i < members.length; i++) {
+			addMember(listId, members[i], Integer.toString(i));
+		}
+	}
+
+	private String guid(final long mediaItemId) throws SQLException {
+		try (PreparedStatement statement = connection
+				.prepareStatement("SELECT guid FROM media_items WHERE media_item_id = ?")) {
+			statement.setLong(1, mediaItemId);
+			try (ResultSet rs = statement.executeQuery()) {
+				rs.next();
+				return rs.getString(1);
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.analyze;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import info.schnatterer.songbirdDbTools.commands.analyze.AnalysisReport.Type;
+
+public class AnalysisReportTest {
+	@Test
+	public void testWriteCsv() throws Exception {
+		AnalysisReport report = new AnalysisReport();
+		report.add(Type.MISSING, 3, "guid-3", "file:///music/a,b.mp3", "/music/a,b.mp3", "Say \"what\"");
+		report.add(Type.INVALID_URL, 2, "guid-2", "file://server/x.mp3", null, "line 1\nline 2");
+
+		StringWriter csv = new StringWriter();
+		report.writeCsv(csv);
+
+		assertEquals("type,group,media_item_id,guid,content_url,path,detail\r\n"
+				+ "MISSING,,3,guid-3,\"file:///music/a,b.mp3\",\"/music/a,b.mp3\",\"Say \"\"what\"\"\"\r\n"
+				+ "INVALID_URL,,2,guid-2,file://server/x.mp3,,\"line 1\nline 2\"\r\n", csv.toString());
+	}
+
+	@Test
+	public void testWriteJson() throws Exception {
+		AnalysisReport report = new AnalysisReport();
+		int group = report.newGroup();
+		report.add(Type.DUPLICATE_URL, group, 1, "guid-1", "file:///music/a.mp3", "/music/a.mp3", "2 media items");
+		report.add(Type.DUPLICATE_URL, group, 2, "guid-2", "file:///music/a.mp3", "/music/a.mp3", "2 media items");
+		report.add(Type.INVALID_URL, 3, "guid-3", "file://server/\"x\".mp3", null, null);
+
+		StringWriter json = new StringWriter();
+		report.writeJson(json);
+
+		assertEquals("{\n  \"counts\": {\"MISSING\": 0, \"INVALID_URL\": 1, \"DUPLICATE_URL\": 2, \"SAME_FILE\": 0, "
+				+ "\"CASE_VARIANT\": 0, \"CONTENT_DUPLICATE\": 0},\n  \"findings\": [\n"
+				+ "    {\"type\": \"INVALID_URL\", \"group\": null, \"mediaItemId\": 3, \"guid\": \"guid-3\", "
+				+ "\"contentUrl\": \"file://server/\\\"x\\\".mp3\", \"path\": null, \"detail\": null},\n"
+				+ "    {\"type\": \"DUPLICATE_URL\", \"group\": 1, \"mediaItemId\": 1, \"guid\": \"guid-1\", "
+				+ "\"contentUrl\": \"file:///music/a.mp3\", \"path\": \"/music/a.mp3\", "
+				+ "\"detail\": \"2 media items\"},\n"
+				+ "    {\"type\": \"DUPLICATE_URL\", \"group\": 1, \"mediaItemId\": 2, \"guid\": \"guid-2\", "
+				+ "\"contentUrl\": \"file:///music/a.mp3\", \"path\": \"/music/a.mp3\", "
+				+ "\"detail\": \"2 media items\"}"
+				+ "\n  ]\n}\n", json.toString());
+	}
+
+	@Test
+	public void testWriteJsonEmpty() throws Exception {
+		StringWriter json = new StringWriter();
+		new AnalysisReport().writeJson(json);
+
+		assertEquals("{\n  \"counts\": {\"MISSING\": 0, \"INVALID_URL\": 0, \"DUPLICATE_URL\": 0, \"SAME_FILE\": 0, "
+				+ "\"CASE_VARIANT\": 0, \"CONTENT_DUPLICATE\": 0},\n  \"findings\": []\n}\n", json.toString());
+	}
+
+	@Test
+	public void testFindingsOrderedByTypeGroupAndId() throws Exception {
+		AnalysisReport report = new AnalysisReport();
+		// Added by several threads in arbitrary order
+		report.add(Type.MISSING, 7, "guid-7", "file:///7", "/7", null);
+		int group1 = report.newGroup();
+		int group2 = report.newGroup();
+		report.add(Type.SAME_FILE, group2, 4, "guid-4", "file:///4", "/4", null);
+		report.add(Type.SAME_FILE, group1, 6, "guid-6", "file:///6", "/6", null);
+		report.add(Type.INVALID_URL, 5, "guid-5", "file://5", null, null);
+		report.add(Type.MISSING, 2, "guid-2", "file:///2", "/2", null);
+		report.add(Type.SAME_FILE, group1, 1, "guid-1", "file:///1", "/1", null);
+
+		StringWriter csv = new StringWriter();
+		report.writeCsv(csv);
+
+		assertEquals("type,group,media_item_id,guid,content_url,path,detail\r\n"
+				+ "MISSING,,2,guid-2,file:///2,/2,\r\n" + "MISSING,,7,guid-7,file:///7,/7,\r\n"
+				+ "INVALID_URL,,5,guid-5,file://5,,\r\n" + "SAME_FILE,1,1,guid-1,file:///1,/1,\r\n"
+				+ "SAME_FILE,1,6,guid-6,file:///6,/6,\r\n" + "SAME_FILE,2,4,guid-4,file:///4,/4,\r\n",
+				csv.toString());
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.analyze;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.backend.SongbirdTestDatabase;
+
+public class AnalyzeCommandTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SongbirdTestDatabase database;
+	private SongbirdDbReader reader;
+	private File music;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new SongbirdTestDatabase(folder.newFile("songbird.db"));
+		music = folder.newFolder("music");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (reader != null) {
+			reader.close();
+		}
+		database.close();
+	}
+
+	@Test
+	public void testAnalyze() throws Exception {
+		String a = url(write("a.mp3", 100, 'a'));
+		File b = write("b.mp3", 200, 'b');
+		File c = write("c.mp3", 300, 'c');
+		File upperC = write("C.mp3", 400, 'C');
+		database.addTrack("http://radio.example.com/stream");
+		long missing = database.addTrack(url(new File(music, "missing.mp3")));
+		long a1 = database.addTrack(a);
+		long invalid = database.addTrack("file://server/share/x.mp3");
+		long b1 = database.addTrack(url(b));
+		long a2 = database.addTrack(a);
+		// Encoded differently, same file
+		long b2 = database.addTrack(url(b).replace("b.mp3", "%62.mp3"));
+		long c1 = database.addTrack(url(c));
+		long c2 = database.addTrack(url(upperC));
+
+		List<String> findings = analyze(false, 0);
+
+		assertEquals(Arrays.asList("MISSING,," + missing, "INVALID_URL,," + invalid, "DUPLICATE_URL,1," + a1,
+				"DUPLICATE_URL,1," + a2, "SAME_FILE,2," + b1, "SAME_FILE,2," + b2, "CASE_VARIANT,3," + c1,
+				"CASE_VARIANT,3," + c2), findings);
+	}
+
+	@Test
+	public void testAnalyzeWritesJson() throws Exception {
+		database.addTrack(url(new File(music, "missing.mp3")));
+
+		File reportFile = new File(folder.getRoot(), "report.JSON");
+		analyzer(0).analyze(reportFile);
+
+		String json = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+		assertTrue(json, json.startsWith("{\n  \"counts\": {\"MISSING\": 1, "));
+		assertTrue(json, json.contains("\"type\": \"MISSING\""));
+	}
+
+	@Test
+	public void testContentDuplicates() throws Exception {
+		long d1 = addTrack(write("d1.mp3", 3000, 'd'));
+		long d2 = addTrack(write("d2.mp3", 3000, 'd'));
+		// Same size, same first and last kilobyte
+		File e1 = write("e1.mp3", 3000, 'e');
+		File e2 = write("e2.mp3", 3000, 'e');
+		byte[] middle = Files.readAllBytes(e2.toPath());
+		middle[1500] = 'x';
+		Files.write(e2.toPath(), middle);
+		long e1Id = addTrack(e1);
+		long e2Id = addTrack(e2);
+		// Same content, different size
+		addTrack(write("f.mp3", 2999, 'd'));
+		// Hashed once, although two media items point to it
+		long d1Encoded = database.addTrack(url(new File(music, "d1.mp3")).replace("d1.mp3", "%641.mp3"));
+
+		List<String> findings = analyze(true, 0);
+		assertEquals(Arrays.asList("SAME_FILE,1," + d1, "SAME_FILE,1," + d1Encoded, "CONTENT_DUPLICATE,2," + d1,
+				"CONTENT_DUPLICATE,2," + d2), findings);
+
+		// Only the first and last kilobyte are hashed
+		findings = analyze(true, 1);
+		assertEquals(Arrays.asList("SAME_FILE,1," + d1, "SAME_FILE,1," + d1Encoded, "CONTENT_DUPLICATE,2," + d1,
+				"CONTENT_DUPLICATE,2," + d2, "CONTENT_DUPLICATE,3," + e1Id, "CONTENT_DUPLICATE,3," + e2Id), findings);
+	}
+
+	/**
+	 * Analyzes the database and returns type, group and media item id of each finding.
+	 */
+	private List<String> analyze(final boolean hashing, final int hashSampleKb) throws Exception {
+		File reportFile = new File(folder.getRoot(), "report.csv");
+		AnalyzeCommand command = analyzer(hashSampleKb);
+		command.setHashing(hashing);
+		command.analyze(reportFile);
+
+		List<String> lines = Files.readAllLines(reportFile.toPath(), StandardCharsets.UTF_8);
+		assertEquals("type,group,media_item_id,guid,content_url,path,detail", lines.get(0));
+		List<String> findings = new ArrayList<String>();
+		for (String line : lines.subList(1, lines.size())) {
+			String[] columns = line.split(",");
+			findings.add(columns[0] + "," + columns[1] + "," + columns[2]);
+		}
+		return findings;
+	}
+
+	private AnalyzeCommand analyzer(final int hashSampleKb) throws Exception {
+		if (reader == null) {
+			reader = database.openReader();
+		}
+		AnalyzeCommand command = new AnalyzeCommand(reader);
+		command.setThreads(2);
+		command.setHashSampleKb(hashSampleKb);
+		return command;
+	}
+
+	private long addTrack(final File file) throws Exception {
+		return database.addTrack(url(file));
+	}
+
+	private File write(final String name, final int size, final char content) throws Exception {
+		File file = new File(music, name);
+		byte[] bytes = new byte[size];
+		Arrays.fill(bytes, (byte) content);
+		Files.write(file.toPath(), bytes);
+		return file;
+	}
+
+	private static String url(final File file) {
+		return file.toURI().toString();
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.backend.SongbirdTestDatabase;
+import info.schnatterer.songbirdDbTools.commands.index.SearchIndex.Hit;
+
+public class SearchIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File databaseFile;
+
+	@Before
+	public void setUp() throws Exception {
+		databaseFile = folder.newFile("songbird.db");
+		try (SongbirdTestDatabase database = new SongbirdTestDatabase(databaseFile)) {
+			database.addTrack("file:///music/Beatles/01%20Come%20Together.mp3", "trackName", "Come Together",
+					"artistName", "The Beatles", "albumName", "Abbey Road");
+			database.addTrack("file:///music/Beatles/02%20Help.mp3", "trackName", "Help!", "artistName",
+					"The Beatles", "albumName", "Help!");
+			database.addTrack("file:///music/Beat/Beat%20It.mp3", "trackName", "Beat It", "artistName",
+					"Michael Jackson", "albumName", "Thriller");
+			database.addTrack("file:///music/ABBA/Waterloo.mp3", "trackName", "Waterloo", "artistName", "ABBA");
+			database.addTrack("file:///music/Unknown/track01.mp3");
+			database.addTrack("file:///music/Sigur%20R%C3%B3s/Hopp%C3%ADpolla.mp3", "trackName", "Hoppípolla",
+					"artistName", "Sigur Rós", "albumName", "Takk...");
+			database.addTrack("file:///music/%E6%9D%B1%E4%BA%AC.mp3", "trackName", "東京", "artistName",
+					"Die Ärzte");
+		}
+	}
+
+	@Test
+	public void testTokenize() {
+		assertEquals(Arrays.asList("the", "beatles", "abbey", "road", "remastered", "2009"),
+				SearchIndex.tokenize("The Beatles - Abbey Road (Remastered 2009)"));
+		assertEquals(Arrays.asList("ac", "dc"), SearchIndex.tokenize("AC/DC"));
+		assertEquals(Arrays.asList("sigur", "rós", "ágætis", "byrjun"),
+				SearchIndex.tokenize("Sigur Rós – ÁGÆTIS BYRJUN"));
+		assertEquals(Arrays.asList("東京"), SearchIndex.tokenize(" 東京 "));
+		assertEquals(Collections.emptyList(), SearchIndex.tokenize(" -- ... "));
+		assertEquals(Collections.emptyList(), SearchIndex.tokenize(""));
+		assertEquals(Collections.emptyList(), SearchIndex.tokenize(null));
+	}
+
+	@Test
+	public void testSearchPrefixUnion() throws Exception {
+		SearchIndex index = build();
+
+		// "beatles" and "beat", each track only once
+		assertEquals(Arrays.asList("Come Together", "Help!", "Beat It"), titles(index.search("beat", 0)));
+		assertEquals(Arrays.asList("Come Together", "Help!"), titles(index.search("BEATL", 0)));
+		assertEquals(Arrays.asList("Beat It"), titles(index.search("it", 0)));
+	}
+
+	@Test
+	public void testSearchIntersection() throws Exception {
+		SearchIndex index = build();
+
+		assertEquals(Arrays.asList("Come Together"), titles(index.search("beat abb", 0)));
+		assertEquals(Arrays.asList("Come Together"), titles(index.search("abb beat", 0)));
+		assertEquals(Arrays.asList("Beat It"), titles(index.search("beat thrill", 0)));
+		assertEquals(Collections.emptyList(), titles(index.search("beat waterloo", 0)));
+	}
+
+	@Test
+	public void testSearchPathAndNonAscii() throws Exception {
+		SearchIndex index = build();
+
+		// Decoded path
+		assertEquals(Arrays.asList("Come Together"), titles(index.search("01 together", 0)));
+		assertEquals(1, index.search("track01", 0).size());
+		assertEquals(Arrays.asList("Hoppípolla"), titles(index.search("RÓS hoppí", 0)));
+		assertEquals(Arrays.asList("東京"), titles(index.search("ärzte 東", 0)));
+	}
+
+	@Test
+	public void testSearchLimit() throws Exception {
+		SearchIndex index = build();
+
+		assertEquals(Arrays.asList("Come Together"), titles(index.search("beat", 1)));
+		assertEquals(Arrays.asList("Come Together", "Help!"), titles(index.search("beat", 2)));
+		assertEquals(3, index.search("beat", 10).size());
+		assertEquals(3, index.search("beat", -1).size());
+	}
+
+	@Test
+	public void testSearchWithoutWords() throws Exception {
+		SearchIndex index = build();
+
+		assertEquals(Collections.emptyList(), index.search(" - ", 0));
+		assertEquals(Collections.emptyList(), index.search("nothing", 0));
+	}
+
+	@Test
+	public void testWriteRead() throws Exception {
+		SearchIndex index = build();
+		File file = new File(folder.getRoot(), "songbird.sbsearch");
+
+		index.write(file);
+		SearchIndex read = SearchIndex.read(file);
+
+		assertEquals(index.getTrackCount(), read.getTrackCount());
+		assertEquals(index.getTermCount(), read.getTermCount());
+		assertEquals(index.toString(), read.toString());
+		for (String query : new String[] { "beat", "beat abb", "music", "rós", "東京", "ärzte", "track01" }) {
+			assertEquals(query, hits(index.search(query, 0)), hits(read.search(query, 0)));
+		}
+		Hit waterloo = read.search("waterloo", 0).get(0);
+		assertEquals("file:///music/ABBA/Waterloo.mp3", waterloo.getContentUrl());
+		assertEquals("ABBA", waterloo.getArtist());
+		assertNull(waterloo.getAlbum());
+		Hit unknown = read.search("unknown", 0).get(0);
+		assertNull(unknown.getTitle());
+		assertNull(unknown.getArtist());
+		assertNull(unknown.getAlbum());
+		assertEquals("Takk...", read.search("hoppípolla", 0).get(0).getAlbum());
+	}
+
+	@Test
+	public void testIsUpToDate() throws Exception {
+		File file = new File(folder.getRoot(), "songbird.sbsearch");
+		build().write(file);
+		SearchIndex read = SearchIndex.read(file);
+
+		assertTrue(read.isUpToDate(databaseFile));
+		assertTrue(databaseFile.setLastModified(databaseFile.lastModified() - 60000));
+		assertFalse(read.isUpToDate(databaseFile));
+	}
+
+	@Test
+	public void testReadRejectsInvalidFiles() throws Exception {
+		File file = new File(folder.getRoot(), "songbird.sbsearch");
+		build().write(file);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+
+		File otherFile = folder.newFile("other");
+		Files.write(otherFile.toPath(), "#EXTM3U".getBytes("UTF-8"));
+		assertReadFails(otherFile);
+
+		File truncated = folder.newFile("truncated");
+		Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+		assertReadFails(truncated);
+
+		File newerVersion = folder.newFile("newerVersion");
+		byte[] newerVersionBytes = bytes.clone();
+		newerVersionBytes[7] = (byte) (SearchIndex.VERSION + 1);
+		Files.write(newerVersion.toPath(), newerVersionBytes);
+		assertReadFails(newerVersion);
+	}
+
+	private SearchIndex build() throws Exception {
+		try (SongbirdDbReader dbReader = new SongbirdDbReader(databaseFile.getPath())) {
+			return SearchIndex.build(dbReader, databaseFile);
+		}
+	}
+
+	private static void assertReadFails(final File file) {
+		try {
+			SearchIndex.read(file);
+			fail("Expected IOException reading " + file.getName());
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static List<String> titles(final List<Hit> hits) {
+		List<String> titles = new ArrayList<String>();
+		for (Hit hit : hits) {
+			titles.add(hit.getTitle());
+		}
+		return titles;
+	}
+
+	private static List<String> hits(final List<Hit> hits) {
+		List<String> strings = new ArrayList<String>();
+		for (Hit hit : hits) {
+			strings.add(hit.getMediaItemId() + " " + hit);
+		}
+		return strings;
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.backend.SongbirdTestDatabase;
+import info.schnatterer.songbirdDbTools.commands.index.TrackIndex.Playlist;
+import info.schnatterer.songbirdDbTools.commands.index.TrackIndex.Track;
+
+public class TrackIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testFind() throws Exception {
+		File databaseFile = folder.newFile("songbird.db");
+		List<String> urls = new ArrayList<String>();
+		long a;
+		long umlaut;
+		long stream;
+		try (SongbirdTestDatabase database = new SongbirdTestDatabase(databaseFile)) {
+			for (int i = 0; i < 100; i++) {
+				urls.add("file:///music/track%20" + i + ".mp3");
+				database.addTrack(urls.get(i));
+			}
+			// U+FF01 sorts after U+1F3B5 in UTF-16, but before it in UTF-8
+			long fullwidth = database.addTrack("file:///music/%EF%BC%81.mp3");
+			long note = database.addTrack("file:///music/%F0%9F%8E%B5.mp3");
+			umlaut = database.addTrack("file:///music/%C3%84rzte.mp3");
+			a = database.addTrack("file:///music/a.mp3");
+			stream = database.addTrack("http://example.com/stream.mp3");
+			database.addPlaylist("Rock", umlaut, a, fullwidth);
+			database.addPlaylist("Chill", a, note);
+			database.addSmartPlaylist("Ärger", "", umlaut);
+		}
+
+		File indexFile = new File(folder.getRoot(), "songbird.sbindex");
+		assertEquals(105, write(databaseFile, indexFile));
+
+		try (TrackIndex index = TrackIndex.open(indexFile)) {
+			assertEquals(105, index.getTrackCount());
+			assertEquals(3, index.getPlaylistCount());
+			for (String url : urls) {
+				assertEquals(url, new File(url.substring("file://".length()).replace("%20", " ")).getAbsolutePath(),
+						index.find(url).getPath());
+			}
+			assertEquals(Arrays.asList("Rock"), names(index.find("file:///music/%EF%BC%81.mp3")));
+			assertEquals(Arrays.asList("Chill"), names(index.find("/music/🎵.mp3")));
+
+			Track track = index.find("/music/Ärzte.mp3");
+			assertEquals(umlaut, track.getMediaItemId());
+			assertEquals(new File("/music/Ärzte.mp3").getAbsolutePath(), track.getPath());
+			assertEquals(Arrays.asList("Rock", "Ärger"), names(track));
+			assertEquals(umlaut, index.find("file:///music/%C3%84rzte.mp3").getMediaItemId());
+
+			track = index.find("file:///music/a.mp3");
+			assertEquals(a, track.getMediaItemId());
+			assertEquals(Arrays.asList("Chill", "Rock"), names(track));
+
+			track = index.find("http://example.com/stream.mp3");
+			assertEquals(stream, track.getMediaItemId());
+			assertEquals(Collections.emptyList(), track.getPlaylists());
+
+			assertNull(index.find("/music/A.mp3"));
+			assertNull(index.find("/music/a.mp"));
+			assertNull(index.find("/music/a.mp3.mp3"));
+			assertNull(index.find("/"));
+		}
+	}
+
+	@Test
+	public void testFindDuplicatePaths() throws Exception {
+		File databaseFile = folder.newFile("songbird.db");
+		long[] duplicates = new long[3];
+		try (SongbirdTestDatabase database = new SongbirdTestDatabase(databaseFile)) {
+			database.addTrack("file:///music/a.mp3");
+			for (int i = 0; i < duplicates.length; i++) {
+				duplicates[i] = database.addTrack("file:///music/b.mp3");
+			}
+			database.addTrack("file:///music/c.mp3");
+			database.addPlaylist("Rock", duplicates[0]);
+			database.addPlaylist("Pop", duplicates[1], duplicates[2]);
+		}
+		File indexFile = new File(folder.getRoot(), "songbird.sbindex");
+		write(databaseFile, indexFile);
+
+		try (TrackIndex index = TrackIndex.open(indexFile)) {
+			assertEquals(5, index.getTrackCount());
+			Track track = index.find("/music/b.mp3");
+			assertEquals(duplicates[0], track.getMediaItemId());
+			assertEquals("guid-1", track.getGuid());
+			assertEquals(Arrays.asList("Rock"), names(track));
+		}
+	}
+
+	@Test
+	public void testEmptyLibrary() throws Exception {
+		File databaseFile = folder.newFile("songbird.db");
+		new SongbirdTestDatabase(databaseFile).close();
+		File indexFile = new File(folder.getRoot(), "songbird.sbindex");
+
+		assertEquals(0, write(databaseFile, indexFile));
+		try (TrackIndex index = TrackIndex.open(indexFile)) {
+			assertEquals(0, index.getTrackCount());
+			assertEquals(0, index.getPlaylistCount());
+			assertNull(index.find("/music/a.mp3"));
+		}
+	}
+
+	@Test
+	public void testOpenRejectsTruncatedOrCorruptFiles() throws Exception {
+		File databaseFile = folder.newFile("songbird.db");
+		try (SongbirdTestDatabase database = new SongbirdTestDatabase(databaseFile)) {
+			database.addPlaylist("Rock", database.addTrack("file:///music/a.mp3"),
+					database.addTrack("file:///music/b.mp3"));
+		}
+		File indexFile = new File(folder.getRoot(), "songbird.sbindex");
+		write(databaseFile, indexFile);
+		byte[] bytes = Files.readAllBytes(indexFile.toPath());
+
+		assertOpenFails(new byte[0]);
+		assertOpenFails(Arrays.copyOf(bytes, TrackIndex.HEADER_SIZE - 1));
+		assertOpenFails(Arrays.copyOf(bytes, bytes.length - 1));
+		assertOpenFails(Arrays.copyOf(bytes, bytes.length + 1));
+		assertOpenFails(withInt(bytes, 0, 0x504b0304));
+		assertOpenFails(withInt(bytes, Integer.BYTES, TrackIndex.VERSION + 1));
+		// Number of tracks, playlists, memberships and size of the strings
+		for (int field = 2; field < 6; field++) {
+			int value = ByteBuffer.wrap(bytes).getInt(field * Integer.BYTES);
+			assertOpenFails(withInt(bytes, field * Integer.BYTES, value + 1));
+			assertOpenFails(withInt(bytes, field * Integer.BYTES, -1));
+		}
+		// Would overflow to the actual size if computed as int
+		assertOpenFails(withInt(bytes, 2 * Integer.BYTES, 2 + (int) ((1L << 32) / TrackIndex.TRACK_SIZE)));
+	}
+
+	private static int write(final File databaseFile, final File indexFile) throws Exception {
+		try (SongbirdDbReader dbReader = new SongbirdDbReader(databaseFile.getPath())) {
+			return TrackIndexWriter.write(dbReader, indexFile);
+		}
+	}
+
+	private void assertOpenFails(final byte[] bytes) throws IOException {
+		File file = folder.newFile();
+		Files.write(file.toPath(), bytes);
+		try {
+			TrackIndex.open(file);
+			fail("Expected IOException opening " + bytes.length + " bytes");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static byte[] withInt(final byte[] bytes, final int offset, final int value) {
+		byte[] changed = bytes.clone();
+		ByteBuffer.wrap(changed).putInt(offset, value);
+		return changed;
+	}
+
+	private static List<String> names(final Track track) {
+		List<String> names = new ArrayList<String>();
+		for (Playlist playlist : track.getPlaylists()) {
+			names.add(playlist.getName());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.backend.SongbirdTestDatabase;
+
+public class ExportPlaylistsCommandTest {
+	private static final int PLAYLISTS = 24;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SongbirdTestDatabase database;
+	private SongbirdDbReader reader;
+	private final ResultAppender appender = new ResultAppender();
+
+	@Before
+	public void setUp() throws Exception {
+		database = new SongbirdTestDatabase(folder.newFile("songbird.db"));
+		File music = folder.newFolder("music");
+		List<Long> tracks = new ArrayList<Long>();
+		for (int i = 0; i < 50; i++) {
+			File track = new File(music, "track" + i + ".mp3");
+			// Every third track is missing, so some playlists log omitted files
+			if (i % 3 != 0) {
+				Files.write(track.toPath(), new byte[] { (byte) i });
+			}
+			tracks.add(database.addTrack(track.toURI().toString()));
+		}
+		for (int i = 0; i < PLAYLISTS; i++) {
+			// Lists of different sizes, so they don't finish in the order they were started
+			long[] members = new long[(i * 7) % 50];
+			for (int j = 0; j < members.length; j++) {
+				members[j] = tracks.get((i + j) % tracks.size());
+			}
+			database.addPlaylist(String.format("List %02d", i), members);
+		}
+		reader = database.openReader();
+		Logger.getLogger(ExportPlaylistsCommand.class).addAppender(appender);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Logger.getLogger(ExportPlaylistsCommand.class).removeAppender(appender);
+		reader.close();
+		database.close();
+	}
+
+	@Test
+	public void testThreadedExportMatchesSequential() throws Exception {
+		File sequentialFolder = folder.newFolder("sequential");
+		ExportResult sequential = export(sequentialFolder, 1);
+		List<String> sequentialLog = appender.takeMessages();
+		File threadedFolder = folder.newFolder("threaded");
+		ExportResult threaded = export(threadedFolder, 4);
+		List<String> threadedLog = appender.takeMessages();
+
+		assertTrue(sequential.isSuccessful());
+		assertTrue(threaded.isSuccessful());
+		assertEquals(PLAYLISTS, sequential.getPlaylists().size());
+		assertEquals(names(sequential), names(threaded));
+		assertEquals(PLAYLISTS, sequentialLog.size());
+		assertEquals(sequentialLog, threadedLog);
+
+		String[] files = sequentialFolder.list();
+		Arrays.sort(files);
+		String[] threadedFiles = threadedFolder.list();
+		Arrays.sort(threadedFiles);
+		assertArrayEquals(files, threadedFiles);
+		for (String file : files) {
+			assertArrayEquals(file, Files.readAllBytes(new File(sequentialFolder, file).toPath()),
+					Files.readAllBytes(new File(threadedFolder, file).toPath()));
+		}
+	}
+
+	private ExportResult export(final File destination, final int threads) {
+		ExportPlaylistsCommand command = new ExportPlaylistsCommand(reader);
+		command.setThreads(threads);
+		return command.exportPlaylists(destination.getAbsolutePath(), "m3u", null, false, false);
+	}
+
+	private static List<String> names(final ExportResult result) {
+		List<String> names = new ArrayList<String>();
+		for (PlaylistExportResult playlist : result.getPlaylists()) {
+			names.add(playlist.getPlaylistName());
+		}
+		return names;
+	}
+
+	/** Records the messages logging the outcome of each playlist. */
+	private static final class ResultAppender extends AppenderSkeleton {
+		private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+
+		@Override
+		protected void append(final LoggingEvent event) {
+			String message = event.getRenderedMessage();
+			if (message.startsWith("Finished writing playlist") || message.startsWith("Error creating playlist")) {
+				messages.add(message);
+			}
+		}
+
+		List<String> takeMessages() {
+			synchronized (messages) {
+				List<String> taken = new ArrayList<String>(messages);
+				messages.clear();
+				return taken;
+			}
+		}
+
+		@Override
+		public boolean requiresLayout() {
+			return false;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
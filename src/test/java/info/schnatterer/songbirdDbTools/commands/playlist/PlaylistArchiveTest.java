@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.Utils.CommittableOutputStream;
+
+public class PlaylistArchiveTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File a;
+	private File b;
+	private File c;
+
+	@Before
+	public void setUp() throws Exception {
+		File music = folder.newFolder("music");
+		a = write(new File(music, "a.mp3"), "aaa");
+		b = write(new File(music, "b.mp3"), "bbbb");
+		c = write(new File(music, "c.mp3"), "ccccc");
+	}
+
+	@Test
+	public void testEntryOrder() throws Exception {
+		File archiveFile = new File(folder.getRoot(), "playlists.zip");
+		List<String> mediaEntries = new ArrayList<String>();
+		try (PlaylistArchive archive = new PlaylistArchive(archiveFile, true)) {
+			// Exported in a different order than published, like with several threads
+			mediaEntries.addAll(export(archive, "Pop.m3u", b, c));
+			mediaEntries.addAll(export(archive, "Rock.m3u", a, b));
+			export(archive, "Failed.m3u", c);
+
+			archive.publish(playlistFiles(archive, "Rock.m3u"));
+			archive.publish(playlistFiles(archive, "Pop.m3u"));
+			archive.finish();
+		}
+
+		List<String> names = new ArrayList<String>();
+		List<String> contents = new ArrayList<String>();
+		try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(archiveFile.toPath()))) {
+			for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+				names.add(entry.getName());
+				contents.add(new String(readAll(zip), StandardCharsets.UTF_8));
+			}
+		}
+		// Each member file only once, after the first playlist referencing it
+		String mediaA = mediaEntries.get(2);
+		String mediaB = mediaEntries.get(0);
+		String mediaC = mediaEntries.get(1);
+		assertTrue(mediaA.startsWith(PlaylistArchive.MEDIA_FOLDER + "/"));
+		assertEquals(mediaB, mediaEntries.get(3));
+		assertEquals(Arrays.asList("Rock.m3u", mediaA, mediaB, "Pop.m3u", mediaC), names);
+		assertEquals(Arrays.asList(mediaA + "\n" + mediaB + "\n", "aaa", "bbbb", mediaB + "\n" + mediaC + "\n",
+				"ccccc"), contents);
+		assertEquals(Arrays.asList("music", "playlists.zip"), list(folder.getRoot()));
+	}
+
+	@Test
+	public void testTarGz() throws Exception {
+		File archiveFile = new File(folder.getRoot(), "playlists.tgz");
+		try (PlaylistArchive archive = new PlaylistArchive(archiveFile, false)) {
+			export(archive, "Rock.m3u");
+			archive.publish(playlistFiles(archive, "Rock.m3u"));
+			archive.finish();
+		}
+
+		byte[] tar;
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(archiveFile.toPath()))) {
+			tar = readAll(in);
+		}
+		assertEquals("Rock.m3u", new String(tar, 0, "Rock.m3u".length(), StandardCharsets.UTF_8));
+		assertEquals(0, tar["Rock.m3u".length()]);
+	}
+
+	@Test
+	public void testSkipsMediaThatNoLongerExists() throws Exception {
+		File archiveFile = new File(folder.getRoot(), "playlists.zip");
+		try (PlaylistArchive archive = new PlaylistArchive(archiveFile, true)) {
+			export(archive, "Rock.m3u", a, b);
+			assertTrue(a.delete());
+			archive.publish(playlistFiles(archive, "Rock.m3u"));
+			archive.finish();
+		}
+
+		try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(archiveFile.toPath()))) {
+			assertEquals("Rock.m3u", zip.getNextEntry().getName());
+			assertTrue(zip.getNextEntry().getName().endsWith("b.mp3"));
+			assertEquals(null, zip.getNextEntry());
+		}
+	}
+
+	@Test
+	public void testCloseWithoutFinishKeepsExistingArchive() throws Exception {
+		File archiveFile = write(new File(folder.getRoot(), "playlists.zip"), "previous run");
+		try (PlaylistArchive archive = new PlaylistArchive(archiveFile, true)) {
+			export(archive, "Rock.m3u", a);
+			archive.publish(playlistFiles(archive, "Rock.m3u"));
+		}
+
+		assertArrayEquals("previous run".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(archiveFile.toPath()));
+		assertEquals(Arrays.asList("music", "playlists.zip"), list(folder.getRoot()));
+	}
+
+	@Test
+	public void testFailureKeepsExistingArchive() throws Exception {
+		File archiveFile = write(new File(folder.getRoot(), "playlists.zip"), "previous run");
+		try (PlaylistArchive archive = new PlaylistArchive(archiveFile, true)) {
+			// Fails when read
+			export(archive, "Rock.m3u", a, folder.newFolder("notAFile.mp3"));
+			export(archive, "Pop.m3u", b);
+			archive.publish(playlistFiles(archive, "Rock.m3u"));
+			archive.publish(playlistFiles(archive, "Pop.m3u"));
+			try {
+				archive.finish();
+				fail("Expected IOException");
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+
+		assertArrayEquals("previous run".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(archiveFile.toPath()));
+		assertEquals(Arrays.asList("music", "notAFile.mp3", "playlists.zip"), list(folder.getRoot()));
+	}
+
+	@Test
+	public void testIsArchive() {
+		assertTrue(PlaylistArchive.isArchive("/out/playlists.zip"));
+		assertTrue(PlaylistArchive.isArchive("/out/playlists.TAR.GZ"));
+		assertTrue(PlaylistArchive.isArchive("playlists.tgz"));
+		assertFalse(PlaylistArchive.isArchive("/out/playlists"));
+		assertFalse(PlaylistArchive.isArchive("/out/playlists.tar"));
+	}
+
+	/**
+	 * Writes a playlist to the archive like the exporters do.
+	 * 
+	 * @return the paths written to the playlist
+	 */
+	private static List<String> export(final PlaylistArchive archive, final String playlistFileName,
+			final File... members) throws IOException {
+		List<String> paths = new ArrayList<String>();
+		StringBuilder content = new StringBuilder();
+		for (File member : members) {
+			String path = archive.isIncludeMedia() ? archive.addMedia(playlistFileName, member) : member.getPath();
+			paths.add(path);
+			content.append(path).append('\n');
+		}
+		try (CommittableOutputStream out = archive.open(playlistFileName)) {
+			out.write(content.toString().getBytes(StandardCharsets.UTF_8));
+			out.commit();
+		}
+		return paths;
+	}
+
+	private static List<File> playlistFiles(final PlaylistArchive archive, final String playlistFileName) {
+		return Collections.singletonList(new File(archive.getFolder(), playlistFileName));
+	}
+
+	private static File write(final File file, final String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static List<String> list(final File directory) {
+		List<String> names = new ArrayList<String>(Arrays.asList(directory.list()));
+		Collections.sort(names);
+		return names;
+	}
+}
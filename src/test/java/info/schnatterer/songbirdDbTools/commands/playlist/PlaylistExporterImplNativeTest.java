@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNoException;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PlaylistExporterImplNativeTest {
+	private static final String EOL = ExportPlaylistsCommand.EOL;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File ärger;
+	private File café;
+	private File missing;
+
+	@Before
+	public void setUp() throws Exception {
+		File music = folder.newFolder("music");
+		ärger = new File(music, "ärger.mp3");
+		café = new File(music, "café ♫.mp3");
+		missing = new File(music, "missing.mp3");
+		try {
+			Files.write(ärger.toPath(), new byte[] { 1 });
+			Files.write(café.toPath(), new byte[] { 2 });
+		} catch (InvalidPathException e) {
+			// The file names can't be encoded, e.g. in POSIX locale
+			assumeNoException(e);
+		}
+	}
+
+	@Test
+	public void testM3uRelative() throws Exception {
+		List<String> omitted = export("m3u", true);
+		assertEquals(Collections.singletonList(missing.getAbsolutePath()), omitted);
+		assertUtf8("music/ärger.mp3" + EOL + "music/café ♫.mp3" + EOL, "list.m3u");
+	}
+
+	@Test
+	public void testM3u8Relative() throws Exception {
+		export("m3u8", true);
+		assertUtf8("music/ärger.mp3" + EOL + "music/café ♫.mp3" + EOL, "list.m3u8");
+	}
+
+	@Test
+	public void testPlsRelative() throws Exception {
+		export("pls", true);
+		assertUtf8("[Playlist]" + EOL + "File1=music/ärger.mp3" + EOL + "File2=music/café ♫.mp3" + EOL
+				+ "NumberOfEntries=2" + EOL + "Version=2" + EOL, "list.pls");
+	}
+
+	@Test
+	public void testM3uAbsolute() throws Exception {
+		export("m3u", false);
+		assertUtf8(ärger.getPath() + EOL + café.getPath() + EOL, "list.m3u");
+	}
+
+	private List<String> export(final String format, final boolean relative) throws Exception {
+		return new PlaylistExporterImplNative().export("list",
+				Arrays.asList(ärger.getAbsolutePath(), missing.getAbsolutePath(), café.getAbsolutePath()),
+				folder.getRoot().getAbsolutePath(), format, relative, true);
+	}
+
+	private void assertUtf8(final String expected, final String fileName) throws Exception {
+		byte[] actual = Files.readAllBytes(new File(folder.getRoot(), fileName).toPath());
+		assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), actual);
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.Utils.FileStatusCache;
+import info.schnatterer.songbirdDbTools.commands.playlist.ExportStatistics.PlaylistStatistics;
+
+public class PlaylistExporterMeasuringTest {
+	private static final String EOL = ExportPlaylistsCommand.EOL;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File track;
+	private File missing;
+	private File out;
+
+	@Before
+	public void setUp() throws Exception {
+		File music = folder.newFolder("music");
+		track = new File(music, "track.mp3");
+		Files.write(track.toPath(), new byte[] { 1 });
+		missing = new File(music, "missing.mp3");
+		out = folder.newFolder("out");
+	}
+
+	@Test
+	public void testRecordsPlaylistFile() throws Exception {
+		// Bigger than the new file, must not be reported
+		Files.write(new File(out, "list.m3u").toPath(), new byte[1000]);
+		FileStatusCache cache = new FileStatusCache();
+		ExportStatistics statistics = new ExportStatistics();
+
+		new PlaylistExporterMeasuring(new PlaylistExporterImplNative(cache), cache, statistics).export("list",
+				Arrays.asList(track.getAbsolutePath(), missing.getAbsolutePath()), out.getAbsolutePath(), "m3u",
+				false, true);
+
+		PlaylistStatistics playlist = statistics.playlist("list.m3u");
+		assertFalse(playlist.isFailed());
+		assertEquals(1, playlist.getEntriesWritten());
+		assertEquals(1, playlist.getEntriesOmitted());
+		assertEquals(new File(out, "list.m3u").length(), playlist.getBytesWritten());
+		assertEquals((track.getAbsolutePath() + EOL).length(), playlist.getBytesWritten());
+	}
+
+	@Test
+	public void testRecordsArchiveEntry() throws Exception {
+		FileStatusCache cache = new FileStatusCache();
+		ExportStatistics statistics = new ExportStatistics();
+		try (PlaylistArchive archive = new PlaylistArchive(new File(out, "lists.zip"), false)) {
+			PlaylistExporter exporter =
+					new PlaylistExporterMeasuring(new PlaylistExporterImplNative(cache, archive), cache, statistics);
+			exporter.export("list", Arrays.asList(track.getAbsolutePath()), archive.getFolder().getPath(), "m3u",
+					false, true);
+			exporter.export("other", Arrays.asList(track.getAbsolutePath(), track.getAbsolutePath()),
+					archive.getFolder().getPath(), "m3u", false, true);
+		}
+
+		// Only in memory, not written to the folder
+		assertFalse(new File(out, "list.m3u").exists());
+		assertEquals((track.getAbsolutePath() + EOL).length(), statistics.playlist("list.m3u").getBytesWritten());
+		assertEquals(2 * (track.getAbsolutePath() + EOL).length(), statistics.playlist("other.m3u")
+				.getBytesWritten());
+	}
+
+	@Test
+	public void testRecordsFailure() throws Exception {
+		FileStatusCache cache = new FileStatusCache();
+		ExportStatistics statistics = new ExportStatistics();
+		File notAFolder = folder.newFile("notAFolder");
+
+		try {
+			new PlaylistExporterMeasuring(new PlaylistExporterImplNative(cache), cache, statistics).export("list",
+					Arrays.asList(track.getAbsolutePath()), notAFolder.getAbsolutePath(), "m3u", false, true);
+			fail("Expected PlaylistExporterException");
+		} catch (PlaylistExporterException e) {
+			// Expected
+		}
+
+		assertTrue(statistics.playlist("list.m3u").isFailed());
+		assertEquals(0, statistics.playlist("list.m3u").getBytesWritten());
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.playlist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PlaylistManifestTest {
+	private static final List<String> MEMBERS = Arrays.asList("file:///music/a.mp3", "file:///music/b.mp3");
+	private static final List<String> M3U = Collections.singletonList("m3u");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testFingerprint() {
+		String fingerprint = PlaylistManifest.fingerprint(MEMBERS, M3U, false);
+		assertEquals(fingerprint, PlaylistManifest.fingerprint(MEMBERS, M3U, false));
+		assertFalse(fingerprint.equals(PlaylistManifest.fingerprint(MEMBERS, M3U, true)));
+		assertFalse(fingerprint.equals(PlaylistManifest.fingerprint(MEMBERS, Arrays.asList("m3u", "pls"), false)));
+		assertFalse(fingerprint.equals(PlaylistManifest.fingerprint(Arrays.asList(MEMBERS.get(1), MEMBERS.get(0)),
+				M3U, false)));
+		assertFalse(fingerprint.equals(PlaylistManifest.fingerprint(MEMBERS.subList(0, 1), M3U, false)));
+	}
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		folder.newFile("Rock.m3u");
+		folder.newFile("Rock.pls");
+		folder.newFile("Pop.m3u");
+		List<String> rockFiles = Arrays.asList("Rock.m3u", "Rock.pls");
+		String rockFingerprint = PlaylistManifest.fingerprint(MEMBERS, Arrays.asList("m3u", "pls"), true);
+		String popFingerprint = PlaylistManifest.fingerprint(MEMBERS, M3U, true);
+		PlaylistManifest manifest = new PlaylistManifest(folder.getRoot());
+		manifest.put("1", rockFiles, rockFingerprint);
+		manifest.put("2", Collections.singletonList("Pop.m3u"), popFingerprint);
+		manifest.save();
+		assertTrue(new File(folder.getRoot(), PlaylistManifest.FILE_NAME).exists());
+		assertFalse(new File(folder.getRoot(), PlaylistManifest.FILE_NAME + ".tmp").exists());
+
+		PlaylistManifest loaded = PlaylistManifest.load(folder.getRoot());
+		assertTrue(loaded.isUpToDate("1", rockFiles, rockFingerprint));
+		assertTrue(loaded.isUpToDate("2", Collections.singletonList("Pop.m3u"), popFingerprint));
+		assertFalse(loaded.isUpToDate("1", rockFiles, popFingerprint));
+		assertFalse(loaded.isUpToDate("1", Collections.singletonList("Rock.m3u"), rockFingerprint));
+		assertFalse(loaded.isUpToDate("3", Collections.singletonList("Pop.m3u"), popFingerprint));
+	}
+
+	@Test
+	public void testLoadMissing() throws Exception {
+		PlaylistManifest manifest = PlaylistManifest.load(folder.getRoot());
+		assertFalse(manifest.isUpToDate("1", Collections.singletonList("Rock.m3u"),
+				PlaylistManifest.fingerprint(MEMBERS, M3U, false)));
+	}
+
+	@Test
+	public void testNotUpToDateIfFileDeleted() throws Exception {
+		File rock = folder.newFile("Rock.m3u");
+		String fingerprint = PlaylistManifest.fingerprint(MEMBERS, M3U, false);
+		PlaylistManifest manifest = new PlaylistManifest(folder.getRoot());
+		manifest.put("1", Collections.singletonList("Rock.m3u"), fingerprint);
+		assertTrue(manifest.isUpToDate("1", Collections.singletonList("Rock.m3u"), fingerprint));
+
+		assertTrue(rock.delete());
+		assertFalse(manifest.isUpToDate("1", Collections.singletonList("Rock.m3u"), fingerprint));
+	}
+
+	@Test
+	public void testIncompleteIsNeverUpToDate() throws Exception {
+		folder.newFile("Rock.m3u");
+		String fingerprint = PlaylistManifest.fingerprint(MEMBERS, M3U, false);
+		PlaylistManifest manifest = new PlaylistManifest(folder.getRoot());
+		manifest.put("1", Collections.singletonList("Rock.m3u"), null);
+		assertFalse(manifest.isUpToDate("1", Collections.singletonList("Rock.m3u"), fingerprint));
+
+		manifest.save();
+		PlaylistManifest loaded = PlaylistManifest.load(folder.getRoot());
+		assertFalse(loaded.isUpToDate("1", Collections.singletonList("Rock.m3u"), fingerprint));
+		// Files are still known, so they can be pruned
+		assertEquals(Collections.singletonMap("1", Collections.singletonList("Rock.m3u")),
+				loaded.retain(Collections.<String> emptySet()));
+
+		manifest.put("1", Collections.singletonList("Rock.m3u"), fingerprint);
+		assertTrue(manifest.isUpToDate("1", Collections.singletonList("Rock.m3u"), fingerprint));
+	}
+
+	@Test
+	public void testPutReturnsObsoleteFilesOnRename() {
+		PlaylistManifest manifest = new PlaylistManifest(folder.getRoot());
+		String fingerprint = PlaylistManifest.fingerprint(MEMBERS, Arrays.asList("m3u", "pls"), false);
+		assertTrue(manifest.put("1", Arrays.asList("Rock.m3u", "Rock.pls"), fingerprint).isEmpty());
+		assertEquals(Arrays.asList("Rock.m3u", "Rock.pls"),
+				manifest.put("1", Arrays.asList("Metal.m3u", "Metal.pls"), fingerprint));
+		assertEquals(Collections.singletonList("Metal.pls"),
+				manifest.put("1", Collections.singletonList("Metal.m3u"), fingerprint));
+	}
+
+	@Test
+	public void testRetain() {
+		PlaylistManifest manifest = new PlaylistManifest(folder.getRoot());
+		String fingerprint = PlaylistManifest.fingerprint(MEMBERS, M3U, false);
+		manifest.put("1", Collections.singletonList("Rock.m3u"), fingerprint);
+		manifest.put("2", Collections.singletonList("Pop.m3u"), fingerprint);
+		manifest.put("3", Collections.singletonList("Jazz.m3u"), fingerprint);
+
+		Map<String, List<String>> removed = manifest.retain(new HashSet<String>(Arrays.asList("1", "3", "4")));
+		assertEquals(Collections.singletonMap("2", Collections.singletonList("Pop.m3u")), removed);
+		assertTrue(manifest.retain(new HashSet<String>(Arrays.asList("1", "3"))).isEmpty());
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		folder.newFile("Rock.m3u");
+		String fingerprint = PlaylistManifest.fingerprint(MEMBERS, M3U, false);
+		PlaylistManifest manifest = new PlaylistManifest(folder.getRoot());
+		manifest.put("1", Collections.singletonList("Rock.m3u"), fingerprint);
+		manifest.remove("1");
+		assertFalse(manifest.isUpToDate("1", Collections.singletonList("Rock.m3u"), fingerprint));
+		assertTrue(manifest.retain(Collections.<String> emptySet()).isEmpty());
+	}
+}
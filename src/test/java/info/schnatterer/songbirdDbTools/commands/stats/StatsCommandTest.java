@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.stats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import info.schnatterer.songbirdDbTools.backend.SongbirdDbReader;
+import info.schnatterer.songbirdDbTools.backend.SongbirdTestDatabase;
+import info.schnatterer.songbirdDbTools.commands.stats.LibraryStatistics.Totals;
+
+public class StatsCommandTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SongbirdTestDatabase database;
+	private SongbirdDbReader reader;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new SongbirdTestDatabase(folder.newFile("songbird.db"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (reader != null) {
+			reader.close();
+		}
+		database.close();
+	}
+
+	@Test
+	public void testCompute() throws Exception {
+		long a = database.addTrack("file:///music/rock/a.mp3", "duration", "180000000", "contentLength", "3000000");
+		long b = database.addTrack("file:///music/rock/b.MP3", "duration", "120000000", "contentLength", "2000000");
+		long c = database.addTrack("file:///music/pop/c.ogg", "contentLength", "1000000");
+		long stream = database.addTrack("http://radio.example.com/stream", "duration", "60000000");
+		long readme = database.addTrack("file:///music/pop/README", "duration", "invalid");
+		database.addPlaylist("Rock", a, b);
+		database.addPlaylist("Mixed", c, stream, a);
+		database.addPlaylist(null, readme);
+		database.addSmartPlaylist("Smart", "", b);
+
+		LibraryStatistics statistics = compute(false);
+
+		assertTotals(statistics.getLibrary(), "library", 5, 360000000, 6000000, 2, 2);
+		assertFalse(statistics.isFilesChecked());
+
+		// Ordered by name, without the unnamed list
+		List<Totals> playlists = statistics.getPlaylists();
+		assertEquals(Arrays.asList("Mixed", "Rock", "Smart"), names(playlists));
+		assertTotals(playlists.get(0), "Mixed", 3, 240000000, 4000000, 1, 1);
+		assertTotals(playlists.get(1), "Rock", 2, 300000000, 5000000, 0, 0);
+		// Members stored by songbird
+		assertTotals(playlists.get(2), "Smart", 1, 120000000, 2000000, 0, 0);
+
+		// Largest first, then by name
+		List<Totals> formats = statistics.getFormats();
+		assertEquals(Arrays.asList("mp3", "ogg", "(none)", "(not local)"), names(formats));
+		assertTotals(formats.get(0), "mp3", 2, 300000000, 5000000, 0, 0);
+		assertTotals(formats.get(1), "ogg", 1, 0, 1000000, 0, 1);
+		assertTotals(formats.get(2), "(none)", 1, 0, 0, 1, 1);
+		assertTotals(formats.get(3), "(not local)", 1, 60000000, 0, 1, 0);
+
+		List<Totals> directories = statistics.getDirectories();
+		String rock = new File("/music/rock").getPath();
+		String pop = new File("/music/pop").getPath();
+		assertEquals(Arrays.asList(rock, pop, "(not local)"), names(directories));
+		assertTotals(directories.get(0), rock, 2, 300000000, 5000000, 0, 0);
+		assertTotals(directories.get(1), pop, 2, 0, 1000000, 1, 2);
+	}
+
+	@Test
+	public void testComputeCheckFiles() throws Exception {
+		File existing = folder.newFile("existing.mp3");
+		Files.write(existing.toPath(), new byte[1234]);
+		File missing = new File(folder.getRoot(), "missing.mp3");
+		long known = database.addTrack(existing.toURI().toString(), "contentLength", "1000");
+		long unknown = database.addTrack(existing.toURI().toString());
+		long gone = database.addTrack(missing.toURI().toString(), "contentLength", "500");
+		database.addPlaylist("List", known, unknown, gone);
+
+		LibraryStatistics statistics = compute(true);
+
+		assertTrue(statistics.isFilesChecked());
+		// The size songbird knows is kept, unknown sizes are read from the file
+		assertTotals(statistics.getLibrary(), "library", 3, 0, 2734, 0, 3);
+		assertEquals(1, statistics.getLibrary().getMissing());
+		assertEquals(1, statistics.getPlaylists().get(0).getMissing());
+	}
+
+	@Test
+	public void testComputeEmpty() throws Exception {
+		LibraryStatistics statistics = compute(true);
+
+		assertTotals(statistics.getLibrary(), "library", 0, 0, 0, 0, 0);
+		assertTrue(statistics.getPlaylists().isEmpty());
+		assertTrue(statistics.getFormats().isEmpty());
+	}
+
+	private LibraryStatistics compute(final boolean checkFiles) throws Exception {
+		reader = database.openReader();
+		StatsCommand command = new StatsCommand(reader);
+		command.setThreads(2);
+		command.setCheckFiles(checkFiles);
+		return command.compute();
+	}
+
+	private static void assertTotals(final Totals totals, final String name, final long tracks,
+			final long durationMicros, final long bytes, final long unknownLength, final long unknownDuration) {
+		assertEquals(name, totals.getName());
+		assertEquals(name + " tracks", tracks, totals.getTracks());
+		assertEquals(name + " duration", durationMicros, totals.getDurationMicros());
+		assertEquals(name + " bytes", bytes, totals.getBytes());
+		assertEquals(name + " unknown length", unknownLength, totals.getUnknownLength());
+		assertEquals(name + " unknown duration", unknownDuration, totals.getUnknownDuration());
+	}
+
+	private static List<String> names(final List<Totals> totals) {
+		List<String> names = new ArrayList<String>();
+		for (Totals total : totals) {
+			names.add(total.getName());
+		}
+		return names;
+	}
+}
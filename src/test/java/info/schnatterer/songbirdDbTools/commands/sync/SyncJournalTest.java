@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SyncJournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStartedCopiesSurviveClose() throws Exception {
+		try (SyncJournal journal = new SyncJournal(folder.getRoot())) {
+			journal.start("media/a.mp3", 10, 1000);
+			journal.start("media/b.mp3", 20, 2000);
+			journal.finish("media/b.mp3");
+			assertTrue(journal.isStarted("media/a.mp3", 10, 1000));
+			assertFalse(journal.isStarted("media/b.mp3", 20, 2000));
+		}
+
+		// Compacted to the copies in progress
+		assertEquals(Arrays.asList("start\t10\t1000\tmedia/a.mp3"), readJournal());
+		try (SyncJournal journal = new SyncJournal(folder.getRoot())) {
+			assertTrue(journal.isStarted("media/a.mp3", 10, 1000));
+			assertFalse(journal.isStarted("media/a.mp3", 11, 1000));
+			assertFalse(journal.isStarted("media/a.mp3", 10, 1001));
+			assertFalse(journal.isStarted("media/b.mp3", 20, 2000));
+		}
+	}
+
+	@Test
+	public void testDeletedWhenNoCopyInProgress() throws Exception {
+		try (SyncJournal journal = new SyncJournal(folder.getRoot())) {
+			journal.start("media/a.mp3", 10, 1000);
+			// Written immediately, so it survives the process being killed
+			assertEquals(Arrays.asList("start\t10\t1000\tmedia/a.mp3"), readJournal());
+			journal.finish("media/a.mp3");
+		}
+
+		assertFalse(journalFile().exists());
+	}
+
+	@Test
+	public void testIgnoresInvalidLines() throws Exception {
+		Files.write(journalFile().toPath(), Arrays.asList("start\t10\t1000\tmedia/a.mp3", "start\tx\t1000\tmedia/b.mp3",
+				"unknown\tmedia/c.mp3", "done\tmedia/a.mp3", "start\t30\t3000\tmedia/d.mp3", "start\t40\t40"),
+				StandardCharsets.UTF_8);
+
+		try (SyncJournal journal = new SyncJournal(folder.getRoot())) {
+			assertFalse(journal.isStarted("media/a.mp3", 10, 1000));
+			assertFalse(journal.isStarted("media/b.mp3", 20, 1000));
+			assertTrue(journal.isStarted("media/d.mp3", 30, 3000));
+		}
+		assertEquals(Arrays.asList("start\t30\t3000\tmedia/d.mp3"), readJournal());
+	}
+
+	private File journalFile() {
+		return new File(folder.getRoot(), SyncJournal.FILE_NAME);
+	}
+
+	private List<String> readJournal() throws Exception {
+		return Files.readAllLines(journalFile().toPath(), StandardCharsets.UTF_8);
+	}
+}
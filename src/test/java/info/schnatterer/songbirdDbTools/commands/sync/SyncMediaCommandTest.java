@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2015 Johannes Schnatterer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.schnatterer.songbirdDbTools.commands.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SyncMediaCommandTest {
+	/** A modification time in whole seconds, as stored by any file system. */
+	private static final long LAST_MODIFIED = 1400000000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File sourceRoot;
+	private File targetFolder;
+	private File source;
+	private File target;
+
+	@Before
+	public void setUp() throws Exception {
+		sourceRoot = folder.newFolder("music");
+		targetFolder = folder.newFolder("stick");
+		source = new File(sourceRoot, "artist" + File.separator + "track.mp3");
+		target = new File(targetFolder, "media" + File.separator + "artist" + File.separator + "track.mp3");
+		assertEquals(true, source.getParentFile().mkdir());
+		write(source, "0123456789", LAST_MODIFIED);
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		File missing = new File(sourceRoot, "missing.mp3");
+
+		List<String> paths = sync(source, missing);
+
+		// Missing files are kept, so the export reports them as omitted
+		assertEquals(Arrays.asList(target.getAbsolutePath(), missing.getPath()), paths);
+		assertEquals("0123456789", read(target));
+		assertEquals(LAST_MODIFIED, target.lastModified());
+		assertEquals(Arrays.asList("media"), Arrays.asList(targetFolder.list()));
+	}
+
+	@Test
+	public void testSkipsUpToDateCopy() throws Exception {
+		sync(source);
+		// Same size and time, so the content is not compared
+		write(target, "abcdefghij", LAST_MODIFIED);
+
+		sync(source);
+
+		assertEquals("abcdefghij", read(target));
+	}
+
+	@Test
+	public void testSkipsCopyWithCoarseModificationTime() throws Exception {
+		assertEquals(true, target.getParentFile().mkdirs());
+		// Like on a FAT file system
+		write(target, "abcdefghij", LAST_MODIFIED + 1999);
+		sync(source);
+		assertEquals("abcdefghij", read(target));
+
+		write(target, "abcdefghij", LAST_MODIFIED - 1999);
+		sync(source);
+		assertEquals("abcdefghij", read(target));
+
+		write(target, "abcdefghij", LAST_MODIFIED - 2000);
+		sync(source);
+		assertEquals("0123456789", read(target));
+	}
+
+	@Test
+	public void testCopiesChangedSource() throws Exception {
+		sync(source);
+		write(source, "0123456789A", LAST_MODIFIED);
+		sync(source);
+		assertEquals("0123456789A", read(target));
+
+		write(source, "9876543210A", LAST_MODIFIED + 10000);
+		sync(source);
+		assertEquals("9876543210A", read(target));
+		assertEquals(LAST_MODIFIED + 10000, target.lastModified());
+	}
+
+	@Test
+	public void testContinuesPartialCopy() throws Exception {
+		try (SyncJournal journal = new SyncJournal(targetFolder)) {
+			journal.start("media/artist/track.mp3", 10, LAST_MODIFIED);
+		}
+		assertEquals(true, target.getParentFile().mkdirs());
+		// Only the remaining bytes are copied
+		write(partialFile(), "abcd", LAST_MODIFIED);
+
+		sync(source);
+
+		assertEquals("abcd456789", read(target));
+		assertFalse(partialFile().exists());
+		assertFalse(new File(targetFolder, SyncJournal.FILE_NAME).exists());
+	}
+
+	@Test
+	public void testRestartsPartialCopyOfChangedSource() throws Exception {
+		try (SyncJournal journal = new SyncJournal(targetFolder)) {
+			journal.start("media/artist/track.mp3", 10, LAST_MODIFIED - 10000);
+		}
+		assertEquals(true, target.getParentFile().mkdirs());
+		write(partialFile(), "abcd", LAST_MODIFIED);
+
+		sync(source);
+
+		assertEquals("0123456789", read(target));
+		assertFalse(partialFile().exists());
+	}
+
+	@Test
+	public void testRestartsPartialCopyNotInJournal() throws Exception {
+		assertEquals(true, target.getParentFile().mkdirs());
+		write(partialFile(), "abcd", LAST_MODIFIED);
+
+		sync(source);
+
+		assertEquals("0123456789", read(target));
+	}
+
+	private List<String> sync(final File... sources) throws IOException, InterruptedException {
+		try (SyncMediaCommand command = new SyncMediaCommand(targetFolder, 2)) {
+			command.setSourceRoot(sourceRoot.getPath());
+			String[] paths = new String[sources.length];
+			for (int i = 0; i < sources.length; i++) {
+				paths[i] = sources[i].getPath();
+			}
+			return command.map("playlist", Arrays.asList(paths));
+		}
+	}
+
+	private File partialFile() {
+		return new File(target.getPath() + SyncMediaCommand.PARTIAL_SUFFIX);
+	}
+
+	private static void write(final File file, final String content, final long lastModified) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(lastModified));
+	}
+
+	private static String read(final File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}